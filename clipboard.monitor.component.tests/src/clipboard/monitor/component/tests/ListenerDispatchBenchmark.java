@@ -0,0 +1,221 @@
+package clipboard.monitor.component.tests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardMonitor;
+import clipboard.monitor.component.ClipboardMonitorComponent;
+
+/**
+ * Compares the bound listener snapshot of {@link ClipboardMonitorComponent}
+ * with the former registry lookup on every change.
+ * 
+ * <p>
+ * The lookup path runs against an in-memory registry that, like the
+ * framework, guards its services and use counts with a lock.
+ */
+public class ListenerDispatchBenchmark {
+	private static final int WARMUP = 20000;
+	private static final int ITERATIONS = 200000;
+
+	static class CountingListener implements ClipboardListener {
+		int count;
+
+		public void onEvent(ClipboardEvent event) {
+			++count;
+		}
+	}
+
+	static class NamedListener implements ClipboardListener {
+		final String name;
+		final List<String> calls;
+
+		NamedListener(String name, List<String> calls) {
+			this.name = name;
+			this.calls = calls;
+		}
+
+		public void onEvent(ClipboardEvent event) {
+			calls.add(name);
+		}
+	}
+
+	class ComponentTester extends ClipboardMonitorComponent {
+		@Override
+		protected ClipboardMonitor getMonitor() {
+			return null;
+		}
+
+		void add(ClipboardListener listener, int ranking, long id) {
+			Map<String, Object> props = new HashMap<String, Object>();
+			props.put(Constants.SERVICE_RANKING, Integer.valueOf(ranking));
+			props.put(Constants.SERVICE_ID, Long.valueOf(id));
+			bind(listener, props);
+		}
+
+		void remove(ClipboardListener listener) {
+			unbind(listener, null);
+		}
+
+		void fire(ClipboardEvent event) {
+			onChange(event);
+		}
+	}
+
+	/**
+	 * Minimal service registry behind a {@link BundleContext} proxy.
+	 */
+	static class Registry implements InvocationHandler {
+		final List<ServiceReference> references = new ArrayList<ServiceReference>();
+		final Map<ServiceReference, ClipboardListener> services = new HashMap<ServiceReference, ClipboardListener>();
+		final Map<ServiceReference, Integer> useCounts = new HashMap<ServiceReference, Integer>();
+
+		synchronized void register(ClipboardListener listener) {
+			ServiceReference ref = (ServiceReference) Proxy.newProxyInstance(
+					getClass().getClassLoader(),
+					new Class<?>[] { ServiceReference.class },
+					new InvocationHandler() {
+						public Object invoke(Object proxy, Method method,
+								Object[] args) {
+							if ("hashCode".equals(method.getName())) { //$NON-NLS-1$
+								return Integer.valueOf(System
+										.identityHashCode(proxy));
+							} else if ("equals".equals(method.getName())) { //$NON-NLS-1$
+								return Boolean.valueOf(proxy == args[0]);
+							}
+							return null;
+						}
+					});
+			references.add(ref);
+			services.put(ref, listener);
+			useCounts.put(ref, Integer.valueOf(0));
+		}
+
+		public synchronized Object invoke(Object proxy, Method method,
+				Object[] args) {
+			String name = method.getName();
+			if ("getServiceReferences".equals(name)) { //$NON-NLS-1$
+				return references.isEmpty() ? null : references
+						.toArray(new ServiceReference[references.size()]);
+			} else if ("getService".equals(name)) { //$NON-NLS-1$
+				useCounts.put((ServiceReference) args[0], Integer
+						.valueOf(useCounts.get(args[0]).intValue() + 1));
+				return services.get(args[0]);
+			} else if ("ungetService".equals(name)) { //$NON-NLS-1$
+				useCounts.put((ServiceReference) args[0], Integer
+						.valueOf(useCounts.get(args[0]).intValue() - 1));
+				return Boolean.TRUE;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	/**
+	 * The dispatch path as it was before listeners were bound.
+	 */
+	static void lookupDispatch(BundleContext bundleContext,
+			ClipboardEvent event) {
+		ServiceReference[] references = null;
+		try {
+			references = bundleContext.getServiceReferences(
+					ClipboardListener.class.getName(), null);
+		} catch (InvalidSyntaxException e) {
+		}
+		if (references != null) {
+			for (ServiceReference ref : references) {
+				ClipboardListener listener = (ClipboardListener) bundleContext
+						.getService(ref);
+				try {
+					if (listener != null) {
+						listener.onEvent(event);
+					}
+				} catch (Throwable t) {
+				} finally {
+					bundleContext.ungetService(ref);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void compareDispatchPaths() {
+		for (int listenerCount : new int[] { 1, 10, 100 }) {
+			run(listenerCount);
+		}
+	}
+
+	private void run(int listenerCount) {
+		final ClipboardEvent event = new ClipboardEvent(this);
+		final Registry registry = new Registry();
+		final BundleContext context = (BundleContext) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] { BundleContext.class }, registry);
+		final ComponentTester component = new ComponentTester();
+		final CountingListener[] listeners = new CountingListener[listenerCount];
+		for (int i = 0; i < listenerCount; ++i) {
+			listeners[i] = new CountingListener();
+			registry.register(listeners[i]);
+			component.add(listeners[i], 0, i);
+		}
+
+		for (int i = 0; i < WARMUP; ++i) {
+			lookupDispatch(context, event);
+			component.fire(event);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i) {
+			lookupDispatch(context, event);
+		}
+		final long lookupNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i) {
+			component.fire(event);
+		}
+		final long snapshotNanos = System.nanoTime() - start;
+
+		for (CountingListener listener : listeners) {
+			Assert.assertEquals(2 * (WARMUP + ITERATIONS), listener.count);
+		}
+		System.out.println(String.format(
+				"%3d listeners: lookup %8.1f ns/event, snapshot %8.1f ns/event", //$NON-NLS-1$
+				listenerCount, (double) lookupNanos / ITERATIONS,
+				(double) snapshotNanos / ITERATIONS));
+	}
+
+	@Test
+	public void snapshotFollowsServiceRanking() {
+		final List<String> calls = new ArrayList<String>();
+		ComponentTester component = new ComponentTester();
+		NamedListener low = new NamedListener("low", calls); //$NON-NLS-1$
+		component.add(low, -5, 1);
+		component.add(new NamedListener("default-late", calls), 0, 7); //$NON-NLS-1$
+		component.add(new NamedListener("high", calls), 10, 9); //$NON-NLS-1$
+		component.add(new NamedListener("default-early", calls), 0, 3); //$NON-NLS-1$
+
+		component.fire(new ClipboardEvent(this));
+		Assert.assertEquals("[high, default-early, default-late, low]", //$NON-NLS-1$
+				calls.toString());
+
+		calls.clear();
+		component.remove(low);
+		component.fire(new ClipboardEvent(this));
+		Assert.assertEquals("[high, default-early, default-late]", //$NON-NLS-1$
+				calls.toString());
+	}
+}
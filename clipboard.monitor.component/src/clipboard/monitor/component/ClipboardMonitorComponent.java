@@ -10,25 +10,89 @@
  ******************************************************************************/
 package clipboard.monitor.component;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.ComponentConstants;
 
 import clipboard.monitor.ClipboardEvent;
 import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardListenerList;
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardMetrics;
 import clipboard.monitor.ClipboardMonitor;
+import clipboard.monitor.ListenerMailboxes;
+import clipboard.monitor.MailboxPolicy;
+import clipboard.monitor.MonitorFuture;
 
 /**
  * Abstract base class for clipboard monitor OSGi components.
  * 
+ * <p>
+ * The {@link ClipboardListener} services are bound dynamically by the
+ * component runtime (see {@link #bind(ClipboardListener, Map)}) and kept in
+ * a {@link ClipboardListenerList}, ordered by their service ranking. The list
+ * only changes when a listener service comes or goes. Sending an event to the
+ * listeners does not touch the service registry.
+ * 
+ * <p>
+ * If the component property {@value #WORKERS} is set, every listener gets a
+ * mailbox of its own and is called on a pool of that many workers (see
+ * {@link ListenerMailboxes}). Listener services choose the policy of their
+ * mailbox with the service properties {@value #POLICY}, {@value #CAPACITY}
+ * and {@value #TIMEOUT}.
+ * 
+ * <p>
+ * The {@link ClipboardMetrics} of the component are registered as a JMX MBean
+ * named after the component while it is active. Monitors derived from
+ * {@link AbstractClipboardMonitor} count into the same metrics.
  * 
  * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
  * 
  */
 public abstract class ClipboardMonitorComponent implements ClipboardMonitor {
 
+	/**
+	 * Component property with the number of workers for isolated dispatch.
+	 * Listeners are called one after another if it is missing or
+	 * <code>0</code>.
+	 */
+	public static final String WORKERS = "listener.workers"; //$NON-NLS-1$
+	/**
+	 * Component property with the milliseconds a listener may take per event
+	 * before it is reported as slow. Defaults to {@value #DEFAULT_DEADLINE}.
+	 */
+	public static final String DEADLINE = "listener.deadline"; //$NON-NLS-1$
+	/**
+	 * Listener service property with the mailbox policy: <code>drop</code>,
+	 * <code>coalesce</code> (the default) or <code>block</code>.
+	 */
+	public static final String POLICY = "clipboard.listener.policy"; //$NON-NLS-1$
+	/**
+	 * Listener service property with the capacity of the mailbox for the
+	 * <code>drop</code> and <code>block</code> policies.
+	 */
+	public static final String CAPACITY = "clipboard.listener.capacity"; //$NON-NLS-1$
+	/**
+	 * Listener service property with the milliseconds the <code>block</code>
+	 * policy waits for room in the mailbox.
+	 */
+	public static final String TIMEOUT = "clipboard.listener.timeout"; //$NON-NLS-1$
+
+	private static final int DEFAULT_DEADLINE = 100;
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int DEFAULT_TIMEOUT = 100;
+	private static final int SLOW_STRIKES = 3;
+
 	private ClipboardMonitor monitor;
-	private BundleContext bundleContext;
+	private final ClipboardListenerList listeners = new ClipboardListenerList();
+	private final Map<ClipboardListener, MailboxPolicy> policies = new ConcurrentHashMap<ClipboardListener, MailboxPolicy>();
+	private volatile ListenerMailboxes mailboxes;
+	private final ClipboardMetrics metrics = new ClipboardMetrics();
 
 	/**
 	 * Subclasses must return the monitor to use with this component here. This
@@ -43,27 +107,118 @@ public abstract class ClipboardMonitorComponent implements ClipboardMonitor {
 			if (null == monitor) {
 				throw new IllegalArgumentException("monitor must not be null"); //$NON-NLS-1$
 			}
+			if (monitor instanceof AbstractClipboardMonitor) {
+				((AbstractClipboardMonitor) monitor).setMetrics(metrics);
+			}
 		}
 		return monitor;
 	}
 
-	protected void activate(BundleContext context) {
-		this.bundleContext = context;
+	protected void activate(BundleContext context,
+			Map<String, Object> properties) {
+		final int workers = getInt(properties, WORKERS, 0);
+		if (workers > 0) {
+			final ListenerMailboxes mailboxes = new ListenerMailboxes(workers,
+					getInt(properties, DEADLINE, DEFAULT_DEADLINE),
+					SLOW_STRIKES, TimeUnit.MILLISECONDS);
+			for (Map.Entry<ClipboardListener, MailboxPolicy> entry : policies
+					.entrySet()) {
+				mailboxes.setPolicy(entry.getKey(), entry.getValue());
+			}
+			mailboxes.setMetrics(metrics);
+			mailboxes.start();
+			this.mailboxes = mailboxes;
+		}
+		final Object name = properties != null ? properties
+				.get(ComponentConstants.COMPONENT_NAME) : null;
+		try {
+			metrics.register(null == name ? getClass().getName() : name
+					.toString());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 		start();
 	}
 
 	protected void deactivate() {
 		stop();
+		metrics.unregister();
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			this.mailboxes = null;
+			mailboxes.stop();
+		}
 	}
 
-	public void start() {
-		_getMonitor().start();
+	public Future<?> start() {
+		return _getMonitor().start();
 	}
 
-	public void stop() {
-		if (monitor != null) {
-			monitor.stop();
-			monitor = null;
+	/**
+	 * Stops the monitor. It is kept to be started again by {@link #start()}.
+	 * If the monitor was never created, there is nothing to stop and a
+	 * completed future is returned.
+	 */
+	public Future<?> stop() {
+		final ClipboardMonitor monitor = this.monitor;
+		if (null == monitor) {
+			return MonitorFuture.completed();
+		}
+		return monitor.stop();
+	}
+
+	public ClipboardMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Called by the component runtime when a {@link ClipboardListener} service
+	 * becomes available.
+	 * 
+	 * <p>
+	 * The listener is sorted into the dispatch order according to its
+	 * <code>service.ranking</code> property. Listeners with the same ranking
+	 * are called in the order of their <code>service.id</code>, so the oldest
+	 * service first. Later changes of the ranking are not reflected.
+	 * 
+	 * @param listener
+	 *            to add to the snapshot
+	 * @param properties
+	 *            of the listener service
+	 */
+	protected void bind(ClipboardListener listener,
+			Map<String, Object> properties) {
+		final MailboxPolicy policy = getPolicy(properties);
+		policies.put(listener, policy);
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			mailboxes.setPolicy(listener, policy);
+		}
+		final Object ranking = properties != null ? properties
+				.get(Constants.SERVICE_RANKING) : null;
+		final Object id = properties != null ? properties
+				.get(Constants.SERVICE_ID) : null;
+		listeners.add(listener, ranking instanceof Integer ? ((Integer) ranking)
+				.intValue() : 0, id instanceof Long ? ((Long) id).longValue()
+				: Long.MAX_VALUE);
+	}
+
+	/**
+	 * Called by the component runtime when a {@link ClipboardListener} service
+	 * goes away.
+	 * 
+	 * @param listener
+	 *            to remove from the snapshot
+	 * @param properties
+	 *            of the listener service
+	 */
+	protected void unbind(ClipboardListener listener,
+			Map<String, Object> properties) {
+		listeners.remove(listener);
+		policies.remove(listener);
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			mailboxes.setPolicy(listener, null);
 		}
 	}
 
@@ -74,25 +229,54 @@ public abstract class ClipboardMonitorComponent implements ClipboardMonitor {
 	 * @param event
 	 */
 	protected void onChange(ClipboardEvent event) {
-		ServiceReference[] references = null;
-		try {
-			references = bundleContext.getServiceReferences(
-					ClipboardListener.class.getName(), null);
-		} catch (InvalidSyntaxException e) {
+		final ClipboardListener[] snapshot = listeners.getListeners();
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			mailboxes.dispatch(snapshot, event);
+			return;
+		}
+		// The end of one call is the start of the next
+		long start = System.nanoTime();
+		for (int i = 0; i < snapshot.length; ++i) {
+			boolean failed = false;
+			try {
+				snapshot[i].onEvent(event);
+			} catch (Throwable t) {
+				failed = true;
+			}
+			final long end = System.nanoTime();
+			metrics.recordListener(snapshot[i], end - start, failed);
+			start = end;
+		}
+	}
+
+	private static MailboxPolicy getPolicy(Map<String, Object> properties) {
+		final Object policy = properties != null ? properties.get(POLICY)
+				: null;
+		if ("drop".equals(policy)) { //$NON-NLS-1$
+			return MailboxPolicy.drop(getInt(properties, CAPACITY,
+					DEFAULT_CAPACITY));
+		}
+		if ("block".equals(policy)) { //$NON-NLS-1$
+			return MailboxPolicy.block(getInt(properties, CAPACITY,
+					DEFAULT_CAPACITY), getInt(properties, TIMEOUT,
+					DEFAULT_TIMEOUT), TimeUnit.MILLISECONDS);
+		}
+		return MailboxPolicy.DEFAULT;
+	}
+
+	private static int getInt(Map<String, Object> properties, String key,
+			int defaultValue) {
+		final Object value = properties != null ? properties.get(key) : null;
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
 		}
-		if (references != null) {
-			for (ServiceReference ref : references) {
-				ClipboardListener listener = (ClipboardListener) bundleContext
-						.getService(ref);
-				try {
-					if (listener != null) {
-						listener.onEvent(event);
-					}
-				} catch (Throwable t) {
-				} finally {
-					bundleContext.ungetService(ref);
-				}
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt((String) value);
+			} catch (NumberFormatException e) {
 			}
 		}
+		return defaultValue;
 	}
-}
\ No newline at end of file
+}
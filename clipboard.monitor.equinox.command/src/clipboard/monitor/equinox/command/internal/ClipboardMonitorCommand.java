@@ -1,13 +1,19 @@
 package clipboard.monitor.equinox.command.internal;
 
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.osgi.framework.console.CommandInterpreter;
 import org.eclipse.osgi.framework.console.CommandProvider;
 import org.osgi.service.component.ComponentContext;
 
+import clipboard.monitor.ClipboardMetrics;
 import clipboard.monitor.ClipboardMonitor;
 
 public class ClipboardMonitorCommand implements CommandProvider {
 
+	/** Seconds to wait for a monitor to start or stop. */
+	private static final int TIMEOUT = 5;
+
 	private ComponentContext context;
 
 	public void _cbm(CommandInterpreter ci) {
@@ -16,6 +22,8 @@ public class ClipboardMonitorCommand implements CommandProvider {
 			start(ci);
 		} else if ("stop".equals(arg)) { //$NON-NLS-1$
 			stop(ci);
+		} else if ("stats".equals(arg)) { //$NON-NLS-1$
+			stats(ci);
 		} else {
 			ci.print(getHelp());
 			return;
@@ -23,7 +31,7 @@ public class ClipboardMonitorCommand implements CommandProvider {
 	}
 
 	public String getHelp() {
-		return "---Clipboard Monitor---\n\tcbm [start|stop] - Starts or stops all clipboard monitors\n"; //$NON-NLS-1$
+		return "---Clipboard Monitor---\n\tcbm [start|stop] - Starts or stops all clipboard monitors\n\tcbm stats - Prints the metrics of all clipboard monitors\n"; //$NON-NLS-1$
 	}
 
 	protected void activate(ComponentContext context) {
@@ -31,21 +39,43 @@ public class ClipboardMonitorCommand implements CommandProvider {
 	}
 
 	private interface Visitor {
-		void visit(ClipboardMonitor monitor);
+		void visit(ClipboardMonitor monitor) throws Exception;
 	}
 
 	private void stop(CommandInterpreter ci) {
+		visitMonitors(ci, new Visitor() {
+			public void visit(ClipboardMonitor monitor) throws Exception {
+				monitor.stop().get(TIMEOUT, TimeUnit.SECONDS);
+			}
+		});
+	}
+
+	private void stats(final CommandInterpreter ci) {
 		visitMonitors(ci, new Visitor() {
 			public void visit(ClipboardMonitor monitor) {
-				monitor.stop();
+				final ClipboardMetrics metrics = monitor.getMetrics();
+				ci.println(monitor);
+				ci.println("\treceived=" + metrics.getEventsReceived() //$NON-NLS-1$
+						+ " dispatched=" + metrics.getEventsDispatched() //$NON-NLS-1$
+						+ " coalesced=" + metrics.getEventsCoalesced() //$NON-NLS-1$
+						+ " dropped=" + metrics.getEventsDropped() //$NON-NLS-1$
+						+ " suppressed=" + metrics.getEventsSuppressed() //$NON-NLS-1$
+						+ " failures=" + metrics.getListenerFailures() //$NON-NLS-1$
+						+ " queue=" + metrics.getQueueDepth()); //$NON-NLS-1$
+				ci.println("\tlatency p50=" + metrics.getDispatchLatency50th() //$NON-NLS-1$
+						+ "us p99=" + metrics.getDispatchLatency99th() //$NON-NLS-1$
+						+ "us max=" + metrics.getDispatchLatencyMax() + "us"); //$NON-NLS-1$ //$NON-NLS-2$
+				for (String line : metrics.getListenerTimes()) {
+					ci.println("\t" + line); //$NON-NLS-1$
+				}
 			}
 		});
 	}
 
 	private void start(CommandInterpreter ci) {
 		visitMonitors(ci, new Visitor() {
-			public void visit(ClipboardMonitor monitor) {
-				monitor.start();
+			public void visit(ClipboardMonitor monitor) throws Exception {
+				monitor.start().get(TIMEOUT, TimeUnit.SECONDS);
 			}
 		});
 	}
@@ -0,0 +1,448 @@
+package clipboard.monitor.flow.tests;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.OverflowPolicy;
+import clipboard.monitor.flow.ClipboardEventPublisher;
+
+/**
+ * Checks the publisher against the rules of the Reactive Streams
+ * specification, in the spirit of its TCK, with a synthetic source that
+ * reports changes as fast as it can.
+ */
+public class ClipboardEventPublisherTests {
+	private static final int HIGH_RATE_EVENTS = 1000000;
+
+	private ExecutorService executor;
+	private SyntheticMonitor monitor;
+
+	static class SyntheticMonitor extends AbstractClipboardMonitor {
+		public void run() {
+		}
+
+		void change() {
+			fireChange();
+		}
+
+		void change(ByteBuffer payload) {
+			fireChange(payload);
+		}
+
+		void changes(int count) {
+			for (int i = 0; i < count; ++i) {
+				fireChange();
+			}
+		}
+	}
+
+	/**
+	 * Subscriber that checks the rules on the subscriber side of every signal
+	 * it receives.
+	 */
+	static class RuleCheckingSubscriber implements
+			Flow.Subscriber<ClipboardEvent> {
+		final AtomicLong requested = new AtomicLong();
+		final AtomicLong received = new AtomicLong();
+		final AtomicLong notifications = new AtomicLong();
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger subscribeCalls = new AtomicInteger();
+		final AtomicReference<String> violation = new AtomicReference<String>();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final CountDownLatch terminated = new CountDownLatch(1);
+		final List<Long> sequences = new ArrayList<Long>();
+		final List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+		volatile Flow.Subscription subscription;
+		volatile boolean done;
+
+		void violated(String rule) {
+			violation.compareAndSet(null, rule);
+		}
+
+		void request(long n) {
+			requested.addAndGet(n);
+			subscription.request(n);
+		}
+
+		private void enter() {
+			if (inFlight.incrementAndGet() != 1) {
+				violated("1.3 signals must not be concurrent"); //$NON-NLS-1$
+			}
+		}
+
+		private void exit() {
+			inFlight.decrementAndGet();
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			enter();
+			if (subscribeCalls.incrementAndGet() != 1) {
+				violated("2.12 onSubscribe called more than once"); //$NON-NLS-1$
+			}
+			this.subscription = subscription;
+			exit();
+		}
+
+		public void onNext(ClipboardEvent item) {
+			enter();
+			if (null == subscription) {
+				violated("1.9 onNext before onSubscribe"); //$NON-NLS-1$
+			}
+			if (done) {
+				violated("1.7 onNext after terminal signal"); //$NON-NLS-1$
+			}
+			if (received.incrementAndGet() > requested.get()) {
+				violated("1.1 more onNext than requested"); //$NON-NLS-1$
+			}
+			notifications.addAndGet(item.getNotificationCount());
+			synchronized (sequences) {
+				sequences.add(item.getSequence());
+				payloads.add(item.getPayload());
+			}
+			exit();
+		}
+
+		public void onError(Throwable throwable) {
+			enter();
+			if (done) {
+				violated("1.7 more than one terminal signal"); //$NON-NLS-1$
+			}
+			done = true;
+			error.set(throwable);
+			exit();
+			terminated.countDown();
+		}
+
+		public void onComplete() {
+			enter();
+			if (done) {
+				violated("1.7 more than one terminal signal"); //$NON-NLS-1$
+			}
+			done = true;
+			exit();
+			terminated.countDown();
+		}
+
+		void awaitSubscription() throws InterruptedException {
+			final long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(5);
+			while (null == subscription && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			Assert.assertNotNull(subscription);
+		}
+
+		void awaitReceived(long count) throws InterruptedException {
+			final long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(10);
+			while (received.get() < count && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+		}
+
+		void assertNoViolation() {
+			Assert.assertNull(violation.get(), violation.get());
+		}
+	}
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+		monitor = new SyntheticMonitor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private ClipboardEventPublisher publisher(int capacity,
+			OverflowPolicy policy) {
+		return new ClipboardEventPublisher(monitor, capacity, policy, executor);
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void rule1_9_subscribeNullThrows() {
+		publisher(16, OverflowPolicy.COALESCE).subscribe(null);
+	}
+
+	@Test
+	public void rule1_1_neverMoreThanRequestedAtHighRate()
+			throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(1024,
+				OverflowPolicy.DROP_OLDEST);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread requester = new Thread() {
+			@Override
+			public void run() {
+				Random random = new Random(7);
+				while (running.get()) {
+					if (subscriber.requested.get() - subscriber.received.get() < 64) {
+						subscriber.request(1 + random.nextInt(64));
+					}
+					Thread.yield();
+				}
+			}
+		};
+		requester.start();
+		monitor.changes(HIGH_RATE_EVENTS);
+		running.set(false);
+		requester.join();
+		subscriber.assertNoViolation();
+		Assert.assertTrue(subscriber.received.get() > 0);
+
+		// Drain what is still buffered
+		publisher.close();
+		subscriber.requested.set(Long.MAX_VALUE);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+		subscriber.assertNoViolation();
+		Assert.assertEquals(HIGH_RATE_EVENTS, subscriber.received.get()
+				+ monitor.getMetrics().getEventsDropped());
+	}
+
+	@Test
+	public void coalesceKeepsEveryNotificationAtHighRate()
+			throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.COALESCE);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		subscriber.request(Long.MAX_VALUE);
+		monitor.changes(HIGH_RATE_EVENTS);
+		publisher.close();
+		Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+
+		subscriber.assertNoViolation();
+		Assert.assertNull(subscriber.error.get());
+		Assert.assertEquals(HIGH_RATE_EVENTS, subscriber.notifications.get());
+		Assert.assertEquals(0, monitor.getMetrics().getEventsDropped());
+		// Sequences stay in order even when events are merged
+		long previous = 0;
+		for (long sequence : subscriber.sequences) {
+			Assert.assertTrue(sequence > previous);
+			previous = sequence;
+		}
+		System.out.println(String.format(
+				"coalesce: %d notifications in %d onNext calls", //$NON-NLS-1$
+				subscriber.notifications.get(), subscriber.received.get()));
+	}
+
+	@Test
+	public void blockDeliversEverythingInOrder() throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(8,
+				OverflowPolicy.BLOCK);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		final int events = 100000;
+		Thread requester = new Thread() {
+			@Override
+			public void run() {
+				while (subscriber.requested.get() < events) {
+					if (subscriber.requested.get() - subscriber.received.get() < 8) {
+						subscriber.request(8);
+					}
+					Thread.yield();
+				}
+			}
+		};
+		requester.start();
+		monitor.changes(events);
+		requester.join();
+		publisher.close();
+		Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+
+		subscriber.assertNoViolation();
+		Assert.assertEquals(events, subscriber.received.get());
+		for (int i = 0; i < events; ++i) {
+			Assert.assertEquals(i + 1, subscriber.sequences.get(i).longValue());
+		}
+	}
+
+	@Test
+	public void dropOldestKeepsNewestEvents() throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(4,
+				OverflowPolicy.DROP_OLDEST);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		monitor.changes(100);
+		subscriber.request(10);
+		subscriber.awaitReceived(4);
+		Thread.sleep(20);
+
+		subscriber.assertNoViolation();
+		Assert.assertEquals(4, subscriber.received.get());
+		Assert.assertEquals(96, monitor.getMetrics().getEventsDropped());
+		Assert.assertEquals(97, subscriber.sequences.get(0).longValue());
+	}
+
+	@Test
+	public void rule3_9_nonPositiveRequestSignalsError()
+			throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.COALESCE);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		subscriber.subscription.request(0);
+		Assert.assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(subscriber.error.get() instanceof IllegalArgumentException);
+		Assert.assertEquals(0, publisher.getSubscriberCount());
+		subscriber.assertNoViolation();
+	}
+
+	@Test
+	public void rule3_17_unboundedDemandDoesNotOverflow()
+			throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.COALESCE);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		subscriber.subscription.request(Long.MAX_VALUE);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		subscriber.requested.set(Long.MAX_VALUE);
+		monitor.changes(10);
+		subscriber.awaitReceived(1);
+		Thread.sleep(20);
+		Assert.assertNull(subscriber.error.get());
+		Assert.assertTrue(subscriber.received.get() > 0);
+		subscriber.assertNoViolation();
+	}
+
+	@Test
+	public void rule3_6_noEventsAfterCancel() throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.COALESCE);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		subscriber.request(Long.MAX_VALUE);
+		monitor.change();
+		subscriber.awaitReceived(1);
+		subscriber.subscription.cancel();
+		subscriber.subscription.cancel();
+		Thread.sleep(20);
+		final long received = subscriber.received.get();
+		monitor.changes(100);
+		Thread.sleep(20);
+		Assert.assertEquals(received, subscriber.received.get());
+		Assert.assertEquals(0, publisher.getSubscriberCount());
+	}
+
+	@Test
+	public void rule2_12_secondSubscribeIsRejected()
+			throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.COALESCE);
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch rejected = new CountDownLatch(1);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				if (null == this.subscription) {
+					super.onSubscribe(subscription);
+				}
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				errors.incrementAndGet();
+				rejected.countDown();
+			}
+		};
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		publisher.subscribe(subscriber);
+		Assert.assertTrue(rejected.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, errors.get());
+		Assert.assertEquals(1, publisher.getSubscriberCount());
+	}
+
+	@Test
+	public void closeCompletesAfterBufferedEvents() throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.DROP_OLDEST);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		monitor.changes(5);
+		publisher.close();
+		Thread.sleep(20);
+		Assert.assertFalse(subscriber.done);
+		subscriber.request(5);
+		Assert.assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(5, subscriber.received.get());
+		Assert.assertNull(subscriber.error.get());
+		subscriber.assertNoViolation();
+
+		// Late subscribers are completed right away
+		final RuleCheckingSubscriber late = new RuleCheckingSubscriber();
+		publisher.subscribe(late);
+		Assert.assertTrue(late.terminated.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void pooledEventsAreCopied() throws InterruptedException {
+		monitor.setEventPooling(true);
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.DROP_OLDEST);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		monitor.changes(3);
+		subscriber.request(3);
+		subscriber.awaitReceived(3);
+		Assert.assertEquals(3, subscriber.sequences.size());
+		Assert.assertEquals(1, subscriber.sequences.get(0).longValue());
+		Assert.assertEquals(3, subscriber.sequences.get(2).longValue());
+	}
+
+	@Test
+	public void payloadsOfReusedBufferAreCopied() throws InterruptedException {
+		final ClipboardEventPublisher publisher = publisher(16,
+				OverflowPolicy.BLOCK);
+		final RuleCheckingSubscriber subscriber = new RuleCheckingSubscriber();
+		publisher.subscribe(subscriber);
+		subscriber.awaitSubscription();
+		// Like the stream monitor, which parses every frame into one buffer
+		final ByteBuffer buffer = ByteBuffer.allocate(4);
+		for (int i = 0; i < 3; ++i) {
+			buffer.clear();
+			buffer.putInt(i).flip();
+			monitor.change(buffer);
+		}
+		subscriber.request(3);
+		subscriber.awaitReceived(3);
+		for (int i = 0; i < 3; ++i) {
+			final ByteBuffer payload = subscriber.payloads.get(i);
+			Assert.assertEquals(4, payload.remaining());
+			Assert.assertEquals(i, payload.getInt(payload.position()));
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.flow;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.OverflowPolicy;
+
+/**
+ * Publishes the events of a clipboard monitor to {@link Flow.Subscriber}s.
+ * 
+ * <p>
+ * Every subscriber gets a bounded buffer of its own. Events are only delivered
+ * as far as the subscriber requested them; the others wait in the buffer.
+ * When the buffer is full the {@link OverflowPolicy} decides what happens:
+ * <ul>
+ * <li>{@link OverflowPolicy#DROP_OLDEST} drops the oldest buffered event</li>
+ * <li>{@link OverflowPolicy#COALESCE} merges the new event into the newest
+ * buffered one, so no notification is lost</li>
+ * <li>{@link OverflowPolicy#BLOCK} holds up the thread that sends the events
+ * until the subscriber requests more or cancels</li>
+ * </ul>
+ * 
+ * <p>
+ * The subscribers are called on the given {@link Executor}. One drain task
+ * delivers as many buffered events as the subscriber requested, so under load
+ * the events reach the subscriber in batches.
+ * 
+ * <p>
+ * The publisher registers itself as a listener of the monitor when it is
+ * created. {@link #close()} removes it and completes all subscribers.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class ClipboardEventPublisher implements
+		Flow.Publisher<ClipboardEvent>, ClipboardListener, AutoCloseable {
+	/** Buffer capacity of each subscriber if none is given. */
+	public static final int DEFAULT_CAPACITY = Flow.defaultBufferSize();
+
+	private final AbstractClipboardMonitor monitor;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Executor executor;
+	private final CopyOnWriteArrayList<ClipboardSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a publisher that buffers {@link #DEFAULT_CAPACITY} events per
+	 * subscriber, coalesces on overflow and calls the subscribers on the
+	 * common {@link ForkJoinPool}.
+	 * 
+	 * @param monitor
+	 *            to publish the events of
+	 */
+	public ClipboardEventPublisher(AbstractClipboardMonitor monitor) {
+		this(monitor, DEFAULT_CAPACITY, OverflowPolicy.COALESCE, ForkJoinPool
+				.commonPool());
+	}
+
+	/**
+	 * @param monitor
+	 *            to publish the events of
+	 * @param capacity
+	 *            number of events buffered for each subscriber
+	 * @param policy
+	 *            what to do when the buffer of a subscriber is full
+	 * @param executor
+	 *            to call the subscribers on
+	 */
+	public ClipboardEventPublisher(AbstractClipboardMonitor monitor,
+			int capacity, OverflowPolicy policy, Executor executor) {
+		if (null == monitor || null == policy || null == executor) {
+			throw new IllegalArgumentException(
+					"monitor, policy and executor must not be null"); //$NON-NLS-1$
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive"); //$NON-NLS-1$
+		}
+		this.monitor = monitor;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.executor = executor;
+		monitor.addListener(this);
+	}
+
+	/**
+	 * Subscribes the given subscriber. It receives the events that occur from
+	 * now on. If the publisher is closed, it is completed right away.
+	 * 
+	 * @throws NullPointerException
+	 *             if the subscriber is <code>null</code>
+	 */
+	public void subscribe(Flow.Subscriber<? super ClipboardEvent> subscriber) {
+		if (null == subscriber) {
+			throw new NullPointerException("subscriber must not be null"); //$NON-NLS-1$
+		}
+		final ClipboardSubscription subscription = new ClipboardSubscription(
+				this, subscriber, capacity, policy, executor);
+		for (ClipboardSubscription existing : subscriptions) {
+			if (existing.subscriber == subscriber) {
+				subscription.reject(new IllegalStateException(
+						"already subscribed")); //$NON-NLS-1$
+				return;
+			}
+		}
+		subscriptions.add(subscription);
+		subscription.start();
+		if (closed) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * Puts the event into the buffers of all subscribers.
+	 */
+	public void onEvent(ClipboardEvent event) {
+		if (closed || subscriptions.isEmpty()) {
+			return;
+		}
+		// Pooled events, captured contents and payloads (which monitors may
+		// reuse for the next change) are only valid during this call
+		if (monitor.isEventPooling() || monitor.isContentCapture()
+				|| event.getPayload() != null) {
+			event = event.copy();
+		}
+		for (ClipboardSubscription subscription : subscriptions) {
+			if (!subscription.offer(event)) {
+				monitor.getMetrics().recordDropped(1);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of subscribers that did not cancel yet.
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Stops publishing. The subscribers receive the events that are still
+	 * buffered and are then completed.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		monitor.removeListener(this);
+		for (ClipboardSubscription subscription : subscriptions) {
+			subscription.complete();
+		}
+	}
+
+	void remove(ClipboardSubscription subscription) {
+		subscriptions.remove(subscription);
+	}
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.OverflowPolicy;
+
+/**
+ * The buffer and demand of one subscriber.
+ * 
+ * <p>
+ * All signals to the subscriber are sent from a drain task that only ever runs
+ * once at a time, so they never overlap.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+final class ClipboardSubscription implements Flow.Subscription, Runnable {
+	final Flow.Subscriber<? super ClipboardEvent> subscriber;
+	private final ClipboardEventPublisher publisher;
+	private final OverflowPolicy policy;
+	private final Executor executor;
+
+	// Guarded by this
+	private final ClipboardEvent[] buffer;
+	private int head;
+	private int count;
+
+	private final AtomicLong demand = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	private volatile boolean cancelled;
+	private volatile boolean completed;
+	private volatile Throwable error;
+	/** Only touched by the drain task. */
+	private boolean terminated;
+	private boolean subscribed;
+
+	ClipboardSubscription(ClipboardEventPublisher publisher,
+			Flow.Subscriber<? super ClipboardEvent> subscriber, int capacity,
+			OverflowPolicy policy, Executor executor) {
+		this.publisher = publisher;
+		this.subscriber = subscriber;
+		this.policy = policy;
+		this.executor = executor;
+		this.buffer = new ClipboardEvent[capacity];
+	}
+
+	void start() {
+		drain();
+	}
+
+	void reject(Throwable error) {
+		this.error = error;
+		drain();
+	}
+
+	void complete() {
+		completed = true;
+		drain();
+	}
+
+	/**
+	 * @return <code>false</code> if an event was dropped.
+	 */
+	boolean offer(ClipboardEvent event) {
+		if (cancelled || completed) {
+			return true;
+		}
+		boolean dropped = false;
+		synchronized (this) {
+			if (count == buffer.length) {
+				switch (policy) {
+				case DROP_OLDEST:
+					buffer[head] = null;
+					head = (head + 1) % buffer.length;
+					--count;
+					dropped = true;
+					break;
+				case COALESCE:
+					final int last = (head + count - 1) % buffer.length;
+					buffer[last] = event.coalesce(buffer[last]);
+					event = null;
+					break;
+				case BLOCK:
+					while (count == buffer.length && !cancelled) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return false;
+						}
+					}
+					if (cancelled) {
+						return true;
+					}
+					break;
+				}
+			}
+			if (event != null) {
+				buffer[(head + count) % buffer.length] = event;
+				++count;
+			}
+		}
+		drain();
+		return !dropped;
+	}
+
+	private synchronized ClipboardEvent poll() {
+		if (0 == count) {
+			return null;
+		}
+		final ClipboardEvent event = buffer[head];
+		buffer[head] = null;
+		head = (head + 1) % buffer.length;
+		--count;
+		notifyAll();
+		return event;
+	}
+
+	private synchronized boolean isEmpty() {
+		return 0 == count;
+	}
+
+	private synchronized void clear() {
+		for (int i = 0; i < buffer.length; ++i) {
+			buffer[i] = null;
+		}
+		count = 0;
+		notifyAll();
+	}
+
+	public void request(long n) {
+		if (n <= 0) {
+			error = new IllegalArgumentException(
+					"non-positive request signals are illegal (rule 3.9)"); //$NON-NLS-1$
+		} else {
+			long current;
+			long next;
+			do {
+				current = demand.get();
+				next = current + n;
+				if (next < 0) {
+					// Long.MAX_VALUE means unbounded (rule 3.17)
+					next = Long.MAX_VALUE;
+				}
+			} while (!demand.compareAndSet(current, next));
+		}
+		drain();
+	}
+
+	public void cancel() {
+		if (!cancelled) {
+			cancelled = true;
+			publisher.remove(this);
+			drain();
+		}
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() == 0) {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				wip.set(0);
+				cancel();
+				clear();
+			}
+		}
+	}
+
+	public void run() {
+		int missed = 1;
+		do {
+			if (!subscribed) {
+				subscribed = true;
+				try {
+					subscriber.onSubscribe(this);
+				} catch (Throwable t) {
+					terminate();
+				}
+			}
+			if (!terminated) {
+				deliver();
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void deliver() {
+		if (cancelled) {
+			terminate();
+			return;
+		}
+		final Throwable error = this.error;
+		if (error != null) {
+			terminate();
+			subscriber.onError(error);
+			return;
+		}
+		final long requested = demand.get();
+		long emitted = 0;
+		while (emitted != requested && !cancelled) {
+			final ClipboardEvent event = poll();
+			if (null == event) {
+				break;
+			}
+			try {
+				subscriber.onNext(event);
+			} catch (Throwable t) {
+				// Subscribers must not throw (rule 2.13)
+				cancel();
+				terminate();
+				return;
+			}
+			++emitted;
+		}
+		if (emitted != 0 && requested != Long.MAX_VALUE) {
+			demand.addAndGet(-emitted);
+		}
+		if (completed && !cancelled && isEmpty()) {
+			terminate();
+			subscriber.onComplete();
+		}
+	}
+
+	private void terminate() {
+		terminated = true;
+		cancelled = true;
+		publisher.remove(this);
+		clear();
+	}
+}
@@ -0,0 +1,266 @@
+package clipboard.monitor.log.tests;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.log.ClipboardLog;
+import clipboard.monitor.log.LogRecord;
+
+public class ClipboardLogTests {
+	private static final int SEGMENT = 64 * 1024;
+
+	private Path directory;
+	private ClipboardLog log;
+
+	/**
+	 * Event with a payload of the given size, as a stream monitor would send
+	 * it.
+	 */
+	@SuppressWarnings("serial")
+	static ClipboardEvent event(long time, int size) {
+		final ByteBuffer payload = ByteBuffer.allocate(size);
+		while (payload.hasRemaining()) {
+			payload.put((byte) (time + payload.position()));
+		}
+		payload.flip();
+		return new ClipboardEvent(ClipboardLogTests.class, 1, 0, time, 1, null) {
+			@Override
+			public ByteBuffer getPayload() {
+				return payload.asReadOnlyBuffer();
+			}
+		};
+	}
+
+	static void assertPayload(long time, int size, LogRecord record) {
+		Assert.assertEquals(time, record.getTime());
+		Assert.assertEquals(event(time, size).getPayload(), record
+				.getPayload());
+	}
+
+	private void appendAll(int count, int size) throws IOException {
+		for (int i = 0; i < count; ++i) {
+			log.append(event(1000 + i, size));
+		}
+	}
+
+	private void deleteIndexes() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				"*.idx")) { //$NON-NLS-1$
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("clipboard-log"); //$NON-NLS-1$
+		log = new ClipboardLog(directory, SEGMENT);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		log.close();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testAppendAndGet() throws IOException {
+		Assert.assertEquals(0, log.getLastSequence());
+		Assert.assertNull(log.get(1));
+		Assert.assertEquals(1, log.append(event(1000, 10)));
+		Assert.assertEquals(2, log.append(new ClipboardEvent(this, 7, 42,
+				1001, 3, null)));
+		final LogRecord first = log.get(1);
+		assertPayload(1000, 10, first);
+		Assert.assertEquals(1, first.getNotificationCount());
+		final LogRecord second = log.get(2);
+		Assert.assertNull(second.getPayload());
+		Assert.assertEquals(42, second.getDetectedNanos());
+		Assert.assertEquals(3, second.getNotificationCount());
+		Assert.assertTrue(first.getHash() != second.getHash());
+		Assert.assertNull(log.get(3));
+	}
+
+	@Test
+	public void testRollAndSeek() throws IOException {
+		appendAll(5000, 100);
+		Assert.assertTrue(log.getSegmentCount() > 5);
+		for (int i = 1; i <= 5000; i += 37) {
+			assertPayload(999 + i, 100, log.get(i));
+		}
+		final List<LogRecord> range = log.getRange(2000, 2500);
+		Assert.assertEquals(500, range.size());
+		Assert.assertEquals(1001, range.get(0).getSequence());
+		Assert.assertEquals(1500, range.get(499).getSequence());
+		Assert.assertEquals(5000, log.getRange(0, Long.MAX_VALUE).size());
+		Assert.assertTrue(log.getRange(6000, 7000).isEmpty());
+	}
+
+	@Test
+	public void testLargeRecordGetsOwnSegment() throws IOException {
+		appendAll(10, 100);
+		log.append(event(5000, 3 * SEGMENT));
+		log.append(event(5001, 100));
+		assertPayload(5000, 3 * SEGMENT, log.get(11));
+		assertPayload(5001, 100, log.get(12));
+	}
+
+	@Test
+	public void testLargeFirstRecordGrowsEmptySegment() throws IOException {
+		log.append(event(5000, 3 * SEGMENT));
+		log.append(event(5001, 100));
+		Assert.assertEquals(2, log.getSegmentCount());
+		assertPayload(5000, 3 * SEGMENT, log.get(1));
+		assertPayload(5001, 100, log.get(2));
+		log.close();
+		log = new ClipboardLog(directory, SEGMENT);
+		assertPayload(5000, 3 * SEGMENT, log.get(1));
+	}
+
+	@Test
+	public void testReopenContinuesSequence() throws IOException {
+		appendAll(3000, 100);
+		log.close();
+		log = new ClipboardLog(directory, SEGMENT);
+		Assert.assertEquals(3000, log.getLastSequence());
+		Assert.assertEquals(3001, log.append(event(9000, 10)));
+		assertPayload(1999, 100, log.get(1000));
+		assertPayload(9000, 10, log.get(3001));
+	}
+
+	@Test
+	public void testTornRecordIsDropped() throws IOException {
+		appendAll(100, 100);
+		log.close();
+
+		// The length of the last record was written, its content was not
+		final Path tail = directory.resolve(String.format("%020d.log", //$NON-NLS-1$
+				Long.valueOf(1)));
+		final long end = 8 + 100 * (4 + 40 + 8 + 100);
+		try (RandomAccessFile file = new RandomAccessFile(tail.toFile(), "rw")) { //$NON-NLS-1$
+			file.seek(end);
+			file.writeInt(500);
+			file.writeLong(1234);
+		}
+		log = new ClipboardLog(directory, SEGMENT);
+		Assert.assertEquals(100, log.getLastSequence());
+		Assert.assertEquals(101, log.append(event(2000, 100)));
+		log.close();
+		log = new ClipboardLog(directory, SEGMENT);
+		assertPayload(2000, 100, log.get(101));
+
+		// A changed byte in the last record drops it
+		log.close();
+		try (RandomAccessFile file = new RandomAccessFile(tail.toFile(), "rw")) { //$NON-NLS-1$
+			file.seek(end + 100);
+			file.writeByte(~file.readByte());
+		}
+		log = new ClipboardLog(directory, SEGMENT);
+		Assert.assertEquals(100, log.getLastSequence());
+	}
+
+	@Test
+	public void testRetentionBySize() throws IOException {
+		log.setRetention(0, TimeUnit.MILLISECONDS, 4 * SEGMENT);
+		appendAll(5000, 100);
+		Assert.assertTrue(log.getSize() <= 4 * SEGMENT);
+		Assert.assertEquals(4, log.getSegmentCount());
+		Assert.assertNull(log.get(1));
+		Assert.assertNotNull(log.get(log.getFirstSequence()));
+		Assert.assertEquals(log.getLastSequence() - log.getFirstSequence()
+				+ 1, log.getRange(0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testRetentionByAge() throws IOException {
+		appendAll(1000, 100);
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < 10; ++i) {
+			log.append(event(now, 100));
+		}
+		log.setRetention(1, TimeUnit.HOURS, 0);
+		Assert.assertEquals(1, log.getSegmentCount());
+		Assert.assertEquals(1010, log.getLastSequence());
+		// Old records that share the segment with new ones are kept
+		final List<LogRecord> old = log.getRange(0, now);
+		Assert.assertEquals(log.getFirstSequence(), old.get(0).getSequence());
+		Assert.assertEquals(1000, old.get(old.size() - 1).getSequence());
+		Assert.assertTrue(old.size() < 1000);
+	}
+
+	@Test
+	public void testUndeletableSegmentIsDeletedLater() throws IOException {
+		appendAll(1000, 100);
+		final int segments = log.getSegmentCount();
+		// A file that cannot be deleted, like a mapped one on Windows
+		final Path first = directory.resolve(String.format("%020d.log", //$NON-NLS-1$
+				Long.valueOf(1)));
+		Files.delete(first);
+		Files.createDirectory(first);
+		final Path blocker = Files.createFile(first.resolve("blocker")); //$NON-NLS-1$
+
+		log.setRetention(0, TimeUnit.MILLISECONDS, (segments - 1) * SEGMENT);
+		Assert.assertEquals(segments - 1, log.getSegmentCount());
+		Assert.assertNull(log.get(1));
+		Assert.assertTrue(Files.exists(first));
+
+		// Appending and rolling over go on, the deletion is tried again
+		final long last = log.getLastSequence();
+		appendAll(500, 100);
+		Assert.assertEquals(last + 500, log.getLastSequence());
+		assertPayload(1499, 100, log.get(last + 500));
+		Assert.assertTrue(Files.exists(first));
+		Files.delete(blocker);
+		appendAll(500, 100);
+		Assert.assertFalse(Files.exists(first));
+		Assert.assertEquals(log.getLastSequence() - log.getFirstSequence()
+				+ 1, log.getRange(0, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testRecoveryOnlyScansTail() throws IOException {
+		log.close();
+		tearDown();
+		setUp();
+		log.close();
+		log = new ClipboardLog(directory, 4 * 1024 * 1024);
+		appendAll(200000, 200);
+		log.close();
+
+		long begin = System.nanoTime();
+		log = new ClipboardLog(directory, 4 * 1024 * 1024);
+		final long tail = System.nanoTime() - begin;
+		Assert.assertEquals(200000, log.getLastSequence());
+		log.close();
+
+		deleteIndexes();
+		begin = System.nanoTime();
+		log = new ClipboardLog(directory, 4 * 1024 * 1024);
+		final long full = System.nanoTime() - begin;
+		Assert.assertEquals(200000, log.getLastSequence());
+		assertPayload(1000 + 150000, 200, log.get(150001));
+		System.out.println("recovery of " + log.getSegmentCount() //$NON-NLS-1$
+				+ " segments: tail only " //$NON-NLS-1$
+				+ TimeUnit.NANOSECONDS.toMicros(tail) + "us, all " //$NON-NLS-1$
+				+ TimeUnit.NANOSECONDS.toMicros(full) + "us"); //$NON-NLS-1$
+		Assert.assertTrue(tail < full);
+	}
+}
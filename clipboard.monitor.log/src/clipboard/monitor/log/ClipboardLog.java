@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import clipboard.monitor.ClipboardContent;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardFormat;
+import clipboard.monitor.ClipboardListener;
+
+/**
+ * Persistent, append-only log of clipboard events.
+ * 
+ * <p>
+ * Add the log as a listener to a monitor. Every event is appended as one
+ * record with its time, formats, payload and captured contents. The records
+ * are written into memory-mapped segment files of a fixed size in the given
+ * directory. When a segment is full the log rolls over to a new one, and old
+ * segments are deleted by the retention set with
+ * {@link #setRetention(long, TimeUnit, long)}.
+ * 
+ * <p>
+ * Records are numbered by the log, starting with 1, and can be looked up by
+ * their number with {@link #get(long)} or by time with
+ * {@link #getRange(long, long)}. Both use a sparse index and only read the
+ * records close to what is looked up. Unlike the sequence numbers of the
+ * events, the numbers of the records keep increasing when the log is opened
+ * again.
+ * 
+ * <p>
+ * Every record carries a hash of its content. When the log is opened only
+ * the last segment is scanned, and a record at its end that was not
+ * completely written before a crash is dropped. The other segments have
+ * their index written next to them.
+ * 
+ * <p>
+ * The log is thread-safe. Records are only forced to disk by {@link #flush()},
+ * when a segment is full and on {@link #close()}.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class ClipboardLog implements ClipboardListener, Closeable {
+	/** Size of a segment file, 64MB. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final List<Segment> segments = new ArrayList<Segment>();
+	/** Removed from the log, but their files could not be deleted yet. */
+	private final List<Segment> expired = new ArrayList<Segment>();
+	private Segment active;
+	private long lastTime = Long.MIN_VALUE;
+	private long maxAge = Long.MAX_VALUE;
+	private long maxBytes = Long.MAX_VALUE;
+	private boolean closed;
+
+	/**
+	 * Opens the log in the given directory with segments of
+	 * {@link #DEFAULT_SEGMENT_SIZE}.
+	 * 
+	 * @param directory
+	 *            of the segment files
+	 * @throws IOException
+	 *             if the directory could not be created or the log could not
+	 *             be read.
+	 */
+	public ClipboardLog(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens the log in the given directory, or creates a new one.
+	 * 
+	 * @param directory
+	 *            of the segment files
+	 * @param segmentSize
+	 *            size of a segment file in bytes. Records larger than that
+	 *            get a segment of their own.
+	 * @throws IOException
+	 *             if the directory could not be created or the log could not
+	 *             be read.
+	 */
+	public ClipboardLog(Path directory, int segmentSize) throws IOException {
+		if (segmentSize < Segment.DATA_START + 4 + Segment.FIXED) {
+			throw new IllegalArgumentException("segmentSize"); //$NON-NLS-1$
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(directory);
+		open();
+	}
+
+	private void open() throws IOException {
+		final TreeMap<Long, Path> files = new TreeMap<Long, Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+				directory, "*" + Segment.SUFFIX)) { //$NON-NLS-1$
+			for (Path file : stream) {
+				final String name = file.getFileName().toString();
+				try {
+					files.put(Long.valueOf(name.substring(0, name.length()
+							- Segment.SUFFIX.length())), file);
+				} catch (NumberFormatException e) {
+					// Not a segment
+				}
+			}
+		}
+		for (Path file : files.values()) {
+			final String name = file.getFileName().toString();
+			final Segment segment = Segment.open(file, Long.parseLong(name
+					.substring(0, name.length() - Segment.SUFFIX.length())),
+					lastTime);
+			if (segment.getRecordCount() > 0) {
+				lastTime = Math.max(lastTime, segment.getLastTime());
+			}
+			if (!segments.isEmpty()) {
+				// Only the last segment may be written to
+				segments.get(segments.size() - 1).seal();
+			}
+			segments.add(segment);
+		}
+		if (segments.isEmpty()) {
+			roll(1, 0);
+		} else {
+			active = segments.get(segments.size() - 1);
+			if (active.isSealed()) {
+				roll(active.getLastSequence() + 1, 0);
+			}
+		}
+	}
+
+	/**
+	 * Sets how long records are kept. Whole segments are deleted when the
+	 * newest record in them is older than the given age, or when the log
+	 * grows larger than the given bytes. The segment currently written is
+	 * never deleted. The retention is applied whenever a segment is full.
+	 * 
+	 * <p>
+	 * Segment files that cannot be deleted yet, because the system does not
+	 * delete files that are still mapped, are no longer part of the log and
+	 * are deleted on a later roll over. Until then they are found again if
+	 * the log is opened anew, and are deleted by the retention set then.
+	 * 
+	 * @param maxAge
+	 *            maximum age, or 0 to keep records regardless of their age
+	 * @param unit
+	 *            of the age
+	 * @param maxBytes
+	 *            maximum size of all segments, or 0 for no limit
+	 */
+	public synchronized void setRetention(long maxAge, TimeUnit unit,
+			long maxBytes) {
+		if (maxAge < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxAge = 0 == maxAge ? Long.MAX_VALUE : unit.toMillis(maxAge);
+		this.maxBytes = 0 == maxBytes ? Long.MAX_VALUE : maxBytes;
+		retain();
+	}
+
+	/**
+	 * Appends the event to the log.
+	 * 
+	 * @param event
+	 *            to append
+	 */
+	public void onEvent(ClipboardEvent event) {
+		try {
+			append(event);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Appends the event to the log.
+	 * 
+	 * @param event
+	 *            to append
+	 * @return the sequence number of the new record.
+	 * @throws IOException
+	 *             if a new segment could not be created.
+	 */
+	public synchronized long append(ClipboardEvent event) throws IOException {
+		if (closed) {
+			throw new IOException("closed"); //$NON-NLS-1$
+		}
+		final List<ClipboardFormat> formats = event.getFormats();
+		final ByteBuffer payload = event.getPayload();
+		final List<ClipboardContent> contents = event.getContents();
+		final List<ByteBuffer> parts = new ArrayList<ByteBuffer>(contents
+				.size() + 1);
+		final List<Integer> partFormats = new ArrayList<Integer>(contents
+				.size() + 1);
+		if (payload != null) {
+			parts.add(payload);
+			partFormats.add(Integer.valueOf(LogRecord.PAYLOAD));
+		}
+		for (ClipboardContent content : contents) {
+			parts.add(content.getBuffer());
+			partFormats.add(Integer.valueOf(content.getFormat()));
+		}
+		long size = 4L + Segment.FIXED + 4L * formats.size() + 8L
+				* parts.size();
+		for (ByteBuffer part : parts) {
+			size += part.remaining();
+		}
+		if (size > Integer.MAX_VALUE - Segment.DATA_START) {
+			throw new IOException("record too large: " + size); //$NON-NLS-1$
+		}
+
+		final long sequence = active.getLastSequence() + 1;
+		final boolean rolled = active.remaining() < size;
+		if (rolled) {
+			roll(sequence, (int) size);
+		}
+		final long time = Math.max(lastTime, event.getTime());
+		final ByteBuffer out = active.buffer().duplicate();
+		out.position(active.end() + 12);
+		out.putLong(sequence).putLong(event.getTime()).putLong(
+				event.getDetectedNanos()).putInt(event.getNotificationCount());
+		out.putShort((short) formats.size());
+		for (ClipboardFormat format : formats) {
+			out.putInt(format.getId());
+		}
+		out.putShort((short) parts.size());
+		for (int i = 0; i < parts.size(); ++i) {
+			final ByteBuffer part = parts.get(i).duplicate();
+			out.putInt(partFormats.get(i).intValue()).putInt(part.remaining());
+			out.put(part);
+		}
+		active.commit(sequence, time, (int) size);
+		lastTime = time;
+		if (rolled) {
+			retain();
+		}
+		return sequence;
+	}
+
+	/**
+	 * Seals the active segment and starts a new one. An empty active segment
+	 * is grown instead.
+	 * 
+	 * @param size
+	 *            of the record that did not fit
+	 */
+	private void roll(long sequence, int size) throws IOException {
+		final int capacity = Math.max(segmentSize, Segment.DATA_START + size);
+		if (active != null && 0 == active.getRecordCount()) {
+			// An empty segment has the name the new one would get
+			active.grow(capacity);
+			return;
+		}
+		if (active != null) {
+			active.seal();
+		}
+		active = Segment.create(directory, sequence, capacity);
+		segments.add(active);
+	}
+
+	/**
+	 * Removes the segments that are too old or too many from the log and
+	 * deletes their files, or tries again later if they cannot be deleted
+	 * yet.
+	 */
+	private void retain() {
+		deleteExpired();
+		final long oldest = maxAge == Long.MAX_VALUE ? Long.MIN_VALUE : System
+				.currentTimeMillis()
+				- maxAge;
+		long bytes = getSize();
+		while (segments.size() > 1) {
+			final Segment segment = segments.get(0);
+			if (bytes <= maxBytes
+					&& (0 == segment.getRecordCount() || segment.getLastTime() >= oldest)) {
+				break;
+			}
+			segments.remove(0);
+			bytes -= segment.capacity;
+			if (!segment.delete()) {
+				expired.add(segment);
+			}
+		}
+	}
+
+	private void deleteExpired() {
+		for (int i = expired.size() - 1; i >= 0; --i) {
+			if (expired.get(i).delete()) {
+				expired.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * @param sequence
+	 *            number of the record
+	 * @return the record with the given sequence number, or <code>null</code>
+	 *         if there is none or it was deleted.
+	 * @throws IOException
+	 *             if the segment could not be read.
+	 */
+	public synchronized LogRecord get(long sequence) throws IOException {
+		final Segment segment = findSegment(sequence);
+		return null == segment ? null : segment.find(sequence);
+	}
+
+	private Segment findSegment(long sequence) {
+		int from = 0;
+		int to = segments.size() - 1;
+		while (from <= to) {
+			final int middle = (from + to) >>> 1;
+			final Segment segment = segments.get(middle);
+			if (segment.firstSequence > sequence) {
+				to = middle - 1;
+			} else if (segment.getLastSequence() < sequence) {
+				from = middle + 1;
+			} else {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the records detected in the given time range, oldest first.
+	 * Records whose time went backwards are treated as having the time of the
+	 * record before them.
+	 * 
+	 * @param from
+	 *            inclusive start of the range in milliseconds
+	 * @param to
+	 *            exclusive end of the range in milliseconds
+	 * @return the records in the range.
+	 * @throws IOException
+	 *             if a segment could not be read.
+	 */
+	public synchronized List<LogRecord> getRange(long from, long to)
+			throws IOException {
+		if (from >= to) {
+			return Collections.emptyList();
+		}
+		final List<LogRecord> records = new ArrayList<LogRecord>();
+		for (Segment segment : segments) {
+			if (0 == segment.getRecordCount()
+					|| segment.getLastTime() < from) {
+				continue;
+			}
+			if (segment.getFirstTime() >= to
+					|| !segment.collect(from, to, records)) {
+				break;
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * @return the number of the oldest record kept, or 0 if the log is empty.
+	 */
+	public synchronized long getFirstSequence() {
+		for (Segment segment : segments) {
+			if (segment.getRecordCount() > 0) {
+				return segment.firstSequence;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of the last record, or 0 if nothing was appended
+	 *         yet.
+	 */
+	public synchronized long getLastSequence() {
+		return active.getLastSequence();
+	}
+
+	/**
+	 * @return the number of segment files.
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return the size of all segment files in bytes.
+	 */
+	public synchronized long getSize() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.capacity;
+		}
+		return size;
+	}
+
+	/**
+	 * Forces the appended records to disk.
+	 */
+	public synchronized void flush() {
+		if (!closed) {
+			active.force();
+		}
+	}
+
+	/**
+	 * Forces the appended records to disk and closes the log. The active
+	 * segment is not indexed, it is scanned when the log is opened again.
+	 */
+	public synchronized void close() {
+		if (!closed) {
+			active.force();
+			deleteExpired();
+			closed = true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ClipboardLog " + directory + " " + segments; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
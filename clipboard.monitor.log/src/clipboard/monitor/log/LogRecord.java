@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A clipboard change read back from a {@link ClipboardLog}.
+ * 
+ * <p>
+ * The content is not copied out of the log. {@link #getPart(int)} returns
+ * read-only views of the memory-mapped segment the record is stored in.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @noinstantiate This class is not intended to be instantiated by clients.
+ */
+public final class LogRecord {
+	/** Format id under which the payload of the event is stored. */
+	public static final int PAYLOAD = -1;
+
+	private final long sequence;
+	private final long time;
+	private final long detected;
+	private final int notifications;
+	private final long hash;
+	private final int[] formats;
+	private final int[] partFormats;
+	private final ByteBuffer[] parts;
+
+	LogRecord(long sequence, long time, long detected, int notifications,
+			long hash, int[] formats, int[] partFormats, ByteBuffer[] parts) {
+		this.sequence = sequence;
+		this.time = time;
+		this.detected = detected;
+		this.notifications = notifications;
+		this.hash = hash;
+		this.formats = formats;
+		this.partFormats = partFormats;
+		this.parts = parts;
+	}
+
+	/**
+	 * @return the number of the record in the log. Unlike the sequence
+	 *         numbers of the events, which start over with every monitor, the
+	 *         numbers of the log keep increasing across restarts.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the wall-clock time in milliseconds when the change was
+	 *         detected.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} when the change was detected. Only
+	 *         comparable with other records written by the same process.
+	 */
+	public long getDetectedNanos() {
+		return detected;
+	}
+
+	/**
+	 * @return the number of clipboard changes the event stood for.
+	 */
+	public int getNotificationCount() {
+		return notifications;
+	}
+
+	/**
+	 * @return the xxHash64 of the record, over everything but its length and
+	 *         the hash itself.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the native ids of the formats that were available in the
+	 *         clipboard.
+	 */
+	public int[] getFormatIds() {
+		return formats.clone();
+	}
+
+	/**
+	 * @return the format ids of the stored parts, {@link #PAYLOAD} for the
+	 *         payload of the event.
+	 */
+	public int[] getPartFormats() {
+		return partFormats.clone();
+	}
+
+	/**
+	 * @param format
+	 *            native id of a captured format or {@link #PAYLOAD}
+	 * @return a read-only view of the stored bytes, or <code>null</code> if
+	 *         the record has no part in that format.
+	 */
+	public ByteBuffer getPart(int format) {
+		for (int i = 0; i < partFormats.length; ++i) {
+			if (partFormats[i] == format) {
+				return parts[i].duplicate();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the payload of the event or <code>null</code>.
+	 */
+	public ByteBuffer getPayload() {
+		return getPart(PAYLOAD);
+	}
+
+	@Override
+	public String toString() {
+		return "LogRecord " + sequence + " at " + time; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
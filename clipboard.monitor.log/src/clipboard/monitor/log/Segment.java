@@ -0,0 +1,484 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import clipboard.monitor.internal.XXHash64;
+
+/**
+ * One memory-mapped file of a {@link ClipboardLog}.
+ * 
+ * <p>
+ * A segment has a fixed size. It starts with a magic number and a version,
+ * followed by the records:
+ * 
+ * <pre>
+ * int    length of the record after this field
+ * long   xxHash64 of the record after this field
+ * long   sequence
+ * long   time
+ * long   detected nanos
+ * int    notifications
+ * short  number of formats, followed by their ids as ints
+ * short  number of parts, each an int format, an int length and the bytes
+ * </pre>
+ * 
+ * The length is written last, so a record that was not completely written
+ * reads as the end of the segment. The rest of the file is zero.
+ * 
+ * <p>
+ * Every {@link #INDEX_INTERVAL}th record is put into a sparse index of
+ * sequence, time and offset. When the log moves on to the next segment, the
+ * index is written next to the segment. A segment without an index is the
+ * tail of the log and is scanned when the log is opened.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+final class Segment {
+	static final String SUFFIX = ".log"; //$NON-NLS-1$
+	static final String INDEX_SUFFIX = ".idx"; //$NON-NLS-1$
+	static final int INDEX_INTERVAL = 32;
+
+	/** "CLOG" */
+	private static final int MAGIC = 0x434C4F47;
+	private static final int VERSION = 1;
+	static final int DATA_START = 8;
+	/** Bytes of the fixed fields after the length. */
+	static final int FIXED = 8 + 8 + 8 + 8 + 4 + 2 + 2;
+
+	final Path file;
+	final long firstSequence;
+	int capacity;
+
+	private MappedByteBuffer buffer;
+	private boolean writable;
+	private boolean sealed;
+	private int end = DATA_START;
+	private int records;
+	private long lastSequence;
+	private long firstTime = Long.MIN_VALUE;
+	private long lastTime = Long.MIN_VALUE;
+
+	private long[] indexSequences = new long[16];
+	private long[] indexTimes = new long[16];
+	private int[] indexOffsets = new int[16];
+	private int indexSize;
+
+	private Segment(Path file, long firstSequence, int capacity) {
+		this.file = file;
+		this.firstSequence = firstSequence;
+		this.capacity = capacity;
+		this.lastSequence = firstSequence - 1;
+	}
+
+	static Path file(Path directory, long firstSequence) {
+		return directory.resolve(String.format("%020d", //$NON-NLS-1$
+				Long.valueOf(firstSequence))
+				+ SUFFIX);
+	}
+
+	/**
+	 * Creates a new empty segment.
+	 */
+	static Segment create(Path directory, long firstSequence, int capacity)
+			throws IOException {
+		final Segment segment = new Segment(file(directory, firstSequence),
+				firstSequence, capacity);
+		segment.map(true, StandardOpenOption.CREATE_NEW);
+		segment.buffer.putInt(0, MAGIC).putInt(4, VERSION);
+		return segment;
+	}
+
+	/**
+	 * Opens a segment that was written before. Its index is read if it has
+	 * one, otherwise the segment is scanned.
+	 * 
+	 * @param previousTime
+	 *            the last time indexed in the segment before
+	 */
+	static Segment open(Path file, long firstSequence, long previousTime)
+			throws IOException {
+		final Segment segment = new Segment(file, firstSequence, (int) Files
+				.size(file));
+		if (!segment.readIndex()) {
+			segment.recover(previousTime);
+		}
+		return segment;
+	}
+
+	private void map(boolean writable, StandardOpenOption... options)
+			throws IOException {
+		final StandardOpenOption[] all = Arrays.copyOf(options,
+				options.length + 2);
+		all[options.length] = StandardOpenOption.READ;
+		all[options.length + 1] = writable ? StandardOpenOption.WRITE
+				: StandardOpenOption.READ;
+		try (FileChannel channel = FileChannel.open(file, all)) {
+			buffer = channel.map(writable ? MapMode.READ_WRITE
+					: MapMode.READ_ONLY, 0, capacity);
+		}
+		this.writable = writable;
+	}
+
+	/**
+	 * @return the mapped segment, mapped read-only if it is sealed and was
+	 *         not mapped before.
+	 */
+	ByteBuffer buffer() throws IOException {
+		if (null == buffer) {
+			map(false);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Scans the records of the tail segment and drops a record that was not
+	 * completely written.
+	 */
+	private void recover(long previousTime) throws IOException {
+		map(true);
+		if (0 == buffer.getLong(0)) {
+			// Crashed right after it was created
+			buffer.putInt(0, MAGIC).putInt(4, VERSION);
+		}
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException(file + " is not a clipboard log segment"); //$NON-NLS-1$
+		}
+		long time = previousTime;
+		int offset = DATA_START;
+		while (offset + 4 + FIXED <= capacity) {
+			final int length = buffer.getInt(offset);
+			if (length < FIXED || offset + 4 + length > capacity
+					|| !isValid(offset, length)) {
+				if (length != 0) {
+					// Torn record, clear it so it is not mistaken later
+					final int to = length > 0 ? (int) Math.min(capacity,
+							offset + 4L + length) : capacity;
+					for (int i = offset; i < to; ++i) {
+						buffer.put(i, (byte) 0);
+					}
+				}
+				break;
+			}
+			final long sequence = buffer.getLong(offset + 12);
+			if (sequence != lastSequence + 1) {
+				break;
+			}
+			time = Math.max(time, buffer.getLong(offset + 20));
+			add(sequence, time, offset, 4 + length);
+			offset += 4 + length;
+		}
+	}
+
+	private boolean isValid(int offset, int length) {
+		final ByteBuffer body = buffer.duplicate();
+		body.limit(offset + 4 + length);
+		body.position(offset + 12);
+		return XXHash64.hash(body, 0) == buffer.getLong(offset + 4);
+	}
+
+	/**
+	 * @return the bytes left for records.
+	 */
+	int remaining() {
+		return capacity - end;
+	}
+
+	/**
+	 * @return the offset of the next record.
+	 */
+	int end() {
+		return end;
+	}
+
+	/**
+	 * Seals the record just written at {@link #end()} by writing its hash and
+	 * length, and adds it to the index.
+	 * 
+	 * @param size
+	 *            of the record including the length field
+	 * @param time
+	 *            to index the record with
+	 */
+	void commit(long sequence, long time, int size) {
+		final int offset = end;
+		final ByteBuffer body = buffer.duplicate();
+		body.limit(offset + size);
+		body.position(offset + 12);
+		buffer.putLong(offset + 4, XXHash64.hash(body, 0));
+		buffer.putInt(offset, size - 4);
+		add(sequence, time, offset, size);
+	}
+
+	private void add(long sequence, long time, int offset, int size) {
+		if (records % INDEX_INTERVAL == 0) {
+			if (indexSize == indexSequences.length) {
+				indexSequences = Arrays.copyOf(indexSequences, 2 * indexSize);
+				indexTimes = Arrays.copyOf(indexTimes, 2 * indexSize);
+				indexOffsets = Arrays.copyOf(indexOffsets, 2 * indexSize);
+			}
+			indexSequences[indexSize] = sequence;
+			indexTimes[indexSize] = time;
+			indexOffsets[indexSize] = offset;
+			++indexSize;
+		}
+		if (0 == records) {
+			firstTime = time;
+		}
+		++records;
+		lastSequence = sequence;
+		lastTime = time;
+		end = offset + size;
+	}
+
+	/**
+	 * Flushes the segment and writes its index, so it is not scanned when the
+	 * log is opened again.
+	 */
+	void seal() throws IOException {
+		if (sealed) {
+			return;
+		}
+		if (writable) {
+			buffer.force();
+		}
+		final Path temp = file.resolveSibling(file.getFileName()
+				+ INDEX_SUFFIX + ".tmp"); //$NON-NLS-1$
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(end);
+			out.writeInt(records);
+			out.writeLong(lastSequence);
+			out.writeLong(firstTime);
+			out.writeLong(lastTime);
+			out.writeInt(indexSize);
+			for (int i = 0; i < indexSize; ++i) {
+				out.writeLong(indexSequences[i]);
+				out.writeLong(indexTimes[i]);
+				out.writeInt(indexOffsets[i]);
+			}
+		}
+		Files.move(temp, indexFile(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		sealed = true;
+	}
+
+	private Path indexFile() {
+		return file.resolveSibling(file.getFileName() + INDEX_SUFFIX);
+	}
+
+	private boolean readIndex() throws IOException {
+		final Path index = indexFile();
+		if (!Files.exists(index)) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(index)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return false;
+			}
+			end = in.readInt();
+			records = in.readInt();
+			lastSequence = in.readLong();
+			firstTime = in.readLong();
+			lastTime = in.readLong();
+			indexSize = in.readInt();
+			indexSequences = new long[Math.max(16, indexSize)];
+			indexTimes = new long[indexSequences.length];
+			indexOffsets = new int[indexSequences.length];
+			for (int i = 0; i < indexSize; ++i) {
+				indexSequences[i] = in.readLong();
+				indexTimes[i] = in.readLong();
+				indexOffsets[i] = in.readInt();
+			}
+		}
+		sealed = true;
+		return true;
+	}
+
+	boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * Makes an empty segment writable again with at least the given capacity,
+	 * instead of replacing it with a new file of the same name.
+	 */
+	void grow(int capacity) throws IOException {
+		Files.deleteIfExists(indexFile());
+		sealed = false;
+		this.capacity = Math.max(this.capacity, capacity);
+		// Mapping beyond the end extends the file
+		map(true);
+	}
+
+	/**
+	 * Deletes the files of the segment. Fails on systems that do not delete
+	 * files which are still mapped, until the mapping was garbage collected.
+	 * 
+	 * @return <code>false</code> if the segment file could not be deleted
+	 *         yet.
+	 */
+	boolean delete() {
+		buffer = null;
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			return false;
+		}
+		try {
+			Files.deleteIfExists(indexFile());
+		} catch (IOException e) {
+			// Without its segment the index is never read
+		}
+		return true;
+	}
+
+	/**
+	 * Flushes the written records to the file.
+	 */
+	void force() {
+		if (writable) {
+			buffer.force();
+		}
+	}
+
+	int getRecordCount() {
+		return records;
+	}
+
+	long getLastSequence() {
+		return lastSequence;
+	}
+
+	long getFirstTime() {
+		return firstTime;
+	}
+
+	long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * @return the record with the given sequence or <code>null</code>.
+	 */
+	LogRecord find(long sequence) throws IOException {
+		if (sequence < firstSequence || sequence > lastSequence) {
+			return null;
+		}
+		int slot = lowerBound(indexSequences, sequence + 1) - 1;
+		int offset = indexOffsets[slot];
+		long current = indexSequences[slot];
+		final ByteBuffer buffer = buffer();
+		while (current < sequence) {
+			offset += 4 + buffer.getInt(offset);
+			++current;
+		}
+		return read(offset);
+	}
+
+	/**
+	 * Adds the records from the given time range to the list.
+	 * 
+	 * @return <code>false</code> if the range ends in this segment.
+	 */
+	boolean collect(long from, long to, List<LogRecord> records)
+			throws IOException {
+		if (0 == this.records) {
+			return true;
+		}
+		final int slot = Math.max(0, lowerBound(indexTimes, from) - 1);
+		int offset = indexOffsets[slot];
+		long time = indexTimes[slot];
+		final ByteBuffer buffer = buffer();
+		while (offset < end) {
+			time = Math.max(time, buffer.getLong(offset + 20));
+			if (time >= to) {
+				return false;
+			}
+			if (time >= from) {
+				records.add(read(offset));
+			}
+			offset += 4 + buffer.getInt(offset);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the first index slot whose value is at least the given key.
+	 */
+	private int lowerBound(long[] values, long key) {
+		int from = 0;
+		int to = indexSize;
+		while (from < to) {
+			final int middle = (from + to) >>> 1;
+			if (values[middle] < key) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+
+	private LogRecord read(int offset) throws IOException {
+		final ByteBuffer in = buffer().asReadOnlyBuffer();
+		final long hash = in.getLong(offset + 4);
+		int position = offset + 12;
+		final long sequence = in.getLong(position);
+		final long time = in.getLong(position + 8);
+		final long detected = in.getLong(position + 16);
+		final int notifications = in.getInt(position + 24);
+		final int[] formats = new int[in.getShort(position + 28) & 0xFFFF];
+		position += 30;
+		for (int i = 0; i < formats.length; ++i) {
+			formats[i] = in.getInt(position);
+			position += 4;
+		}
+		final int[] partFormats = new int[in.getShort(position) & 0xFFFF];
+		final ByteBuffer[] parts = new ByteBuffer[partFormats.length];
+		position += 2;
+		for (int i = 0; i < parts.length; ++i) {
+			partFormats[i] = in.getInt(position);
+			final int length = in.getInt(position + 4);
+			position += 8;
+			in.limit(position + length);
+			in.position(position);
+			parts[i] = in.slice();
+			in.limit(in.capacity());
+			position += length;
+		}
+		return new LogRecord(sequence, time, detected, notifications, hash,
+				formats, partFormats, parts);
+	}
+
+	@Override
+	public String toString() {
+		return file.getFileName() + " (" + records + " records)"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,50 @@
+package clipboard.monitor.mime.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.mime.internal.LongObjectMap;
+
+public class LongObjectMapTests {
+
+	@Test
+	public void testAgreesWithHashMap() {
+		final LongObjectMap<String> map = new LongObjectMap<String>();
+		final Map<Long, String> expected = new HashMap<Long, String>();
+		final Random random = new Random(42);
+		for (int i = 0; i < 10000; ++i) {
+			// Few distinct keys, so values are replaced too
+			final long key = random.nextInt(2000) - 1000;
+			map.put(key, "v" + i); //$NON-NLS-1$
+			expected.put(key, "v" + i); //$NON-NLS-1$
+		}
+		Assert.assertEquals(expected.size(), map.size());
+		for (long key = -1100; key < 1100; ++key) {
+			Assert.assertEquals(expected.get(key), map.get(key));
+		}
+	}
+
+	@Test
+	public void testCopyIsIndependent() {
+		final LongObjectMap<String> map = new LongObjectMap<String>();
+		map.put(0, "zero"); //$NON-NLS-1$
+		map.put(Long.MIN_VALUE, "min"); //$NON-NLS-1$
+		map.put(1L << 40, "wide"); //$NON-NLS-1$
+		final LongObjectMap<String> copy = map.copy();
+		copy.put(1, "one"); //$NON-NLS-1$
+		map.clear();
+
+		Assert.assertNull(map.get(0));
+		Assert.assertEquals(0, map.size());
+		Assert.assertEquals("zero", copy.get(0)); //$NON-NLS-1$
+		Assert.assertEquals("min", copy.get(Long.MIN_VALUE)); //$NON-NLS-1$
+		Assert.assertEquals("wide", copy.get(1L << 40)); //$NON-NLS-1$
+		Assert.assertNull(copy.get(1L << 41));
+		Assert.assertEquals("one", copy.get(1)); //$NON-NLS-1$
+		Assert.assertEquals(4, copy.size());
+	}
+}
@@ -0,0 +1,132 @@
+package clipboard.monitor.mime.tests;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.mime.MimeTypeEngine;
+import clipboard.monitor.mime.MimeTypeRule;
+import clipboard.monitor.mime.MimeTypeSet;
+
+/**
+ * Measures how many clipboard changes per second the engine resolves, for
+ * format mixes recorded from common applications.
+ * 
+ * <p>
+ * Every mix runs {@value #WARMUP_ITERATIONS} warm-up iterations and
+ * {@value #ITERATIONS} measured iterations of {@value #CHANGES} changes. The
+ * result of every change is consumed, so the JIT cannot drop the work.
+ */
+public class MimeTypeEngineBenchmark {
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int ITERATIONS = 10;
+	private static final int CHANGES = 100000;
+
+	static class Mix {
+		final String name;
+		final long[] types;
+		final String[] names;
+
+		Mix(String name, long[] types, String... names) {
+			this.name = name;
+			this.types = types;
+			this.names = names;
+		}
+	}
+
+	private static final Mix[] MIXES = {
+			new Mix("Notepad text", new long[] { 13, 16, 1, 7 }, //$NON-NLS-1$
+					"CF_UNICODETEXT", "CF_LOCALE", "CF_TEXT", "CF_OEMTEXT"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			new Mix("Browser selection", new long[] { 0xC0F4, 0xC013, 0xC2A1, //$NON-NLS-1$
+					0xC0A0, 13, 16, 1, 7 }, "HTML Format", "Rich Text Format", //$NON-NLS-1$ //$NON-NLS-2$
+					"text/x-moz-url-priv", "UniformResourceLocatorW", //$NON-NLS-1$ //$NON-NLS-2$
+					"CF_UNICODETEXT", "CF_LOCALE", "CF_TEXT", "CF_OEMTEXT"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			new Mix("Explorer files", new long[] { 0xC06E, 0xC1E2, 0xC00A, //$NON-NLS-1$
+					0xC0C4, 15, 0xC09E, 0xC00B }, "Shell IDList Array", //$NON-NLS-1$
+					"DataObjectAttributes", "Preferred DropEffect", //$NON-NLS-1$ //$NON-NLS-2$
+					"Shell Object Offsets", "CF_HDROP", "FileNameW", "FileName"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			new Mix("Screenshot", new long[] { 8, 17, 2, 0xC1B0 }, "CF_DIB", //$NON-NLS-1$ //$NON-NLS-2$
+					"CF_DIBV5", "CF_BITMAP", "PNG"), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			new Mix("GTK text", new long[] { 223, 224, 225, 31, 226, 227, 228, //$NON-NLS-1$
+					229 }, "TIMESTAMP", "TARGETS", "MULTIPLE", "STRING", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					"UTF8_STRING", "TEXT", "COMPOUND_TEXT", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					"text/plain;charset=utf-8"), //$NON-NLS-1$
+			new Mix("Office document", new long[] { 0xC1A0, 0xC1A1, 0xC0A2, //$NON-NLS-1$
+					0xC013, 0xC0F4, 13, 1, 14, 3, 0xC0A5, 0xC0A6, 0xC0A7, 8, 2,
+					16, 7 }, "Object Descriptor", "Rich Text Format Without Objects", //$NON-NLS-1$ //$NON-NLS-2$
+					"RTF As Text", "Rich Text Format", "HTML Format", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					"CF_UNICODETEXT", "CF_TEXT", "CF_ENHMETAFILE", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					"CF_METAFILEPICT", "Embed Source", "Link Source", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					"Link Source Descriptor", "CF_DIB", "CF_BITMAP", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					"CF_LOCALE", "CF_OEMTEXT") }; //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static MimeTypeEngine createEngine() {
+		final MimeTypeEngine engine = new MimeTypeEngine().addDefaultNames();
+		engine.addRule(new MimeTypeRule() {
+			public void resolveMimeTypes(long type, String name,
+					Set<String> mimeTypes) {
+				if (name != null && name.startsWith("Link Source")) { //$NON-NLS-1$
+					mimeTypes.add("application/x-ole-link"); //$NON-NLS-1$
+				}
+			}
+		});
+		return engine;
+	}
+
+	private static long run(MimeTypeEngine engine, Mix mix) {
+		long sink = 0;
+		for (int i = 0; i < CHANGES; ++i) {
+			final MimeTypeSet mimeTypes = engine.resolve(mix.types, mix.names);
+			sink += mimeTypes.size();
+		}
+		return sink;
+	}
+
+	@Test
+	public void measureThroughput() {
+		final MimeTypeEngine engine = createEngine();
+		long sink = 0;
+		for (Mix mix : MIXES) {
+			Assert.assertEquals(mix.types.length, mix.names.length);
+			for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+				sink += run(engine, mix);
+			}
+			final double[] rates = new double[ITERATIONS];
+			double mean = 0;
+			for (int i = 0; i < ITERATIONS; ++i) {
+				final long begin = System.nanoTime();
+				sink += run(engine, mix);
+				rates[i] = CHANGES * 1e9 / (System.nanoTime() - begin);
+				mean += rates[i] / ITERATIONS;
+			}
+			double variance = 0;
+			for (double rate : rates) {
+				variance += (rate - mean) * (rate - mean) / (ITERATIONS - 1);
+			}
+			System.out.println(String.format(
+					"%-18s %2d formats %10.0f +- %8.0f changes/s, %s", //$NON-NLS-1$
+					mix.name, mix.types.length, mean, Math.sqrt(variance),
+					engine.resolve(mix.types, mix.names)));
+		}
+		Assert.assertTrue(sink > 0);
+	}
+
+	@Test
+	public void measureColdResolution() {
+		// Every change is new to the engine, like right after a rule changed
+		long sink = 0;
+		final long begin = System.nanoTime();
+		for (int i = 0; i < 1000; ++i) {
+			final MimeTypeEngine engine = createEngine();
+			for (Mix mix : MIXES) {
+				sink += engine.resolve(mix.types, mix.names).size();
+			}
+		}
+		final long elapsed = System.nanoTime() - begin;
+		System.out.println(String.format(
+				"cold: %.1fus for all %d mixes with a new engine", //$NON-NLS-1$
+				elapsed / 1e3 / 1000, MIXES.length));
+		Assert.assertTrue(sink > 0);
+	}
+}
@@ -0,0 +1,135 @@
+package clipboard.monitor.mime.tests;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.mime.MimeTypeEngine;
+import clipboard.monitor.mime.MimeTypeRule;
+import clipboard.monitor.mime.MimeTypeSet;
+
+public class MimeTypeEngineTests {
+
+	/**
+	 * Maps formats whose name starts with a prefix and counts its calls.
+	 */
+	static class PrefixRule implements MimeTypeRule {
+		final String prefix;
+		final String mimeType;
+		final AtomicInteger calls = new AtomicInteger();
+
+		PrefixRule(String prefix, String mimeType) {
+			this.prefix = prefix;
+			this.mimeType = mimeType;
+		}
+
+		public void resolveMimeTypes(long type, String name, Set<String> mimeTypes) {
+			calls.incrementAndGet();
+			if (name != null && name.startsWith(prefix)) {
+				mimeTypes.add(mimeType);
+			}
+		}
+	}
+
+	@Test
+	public void testDefaultNames() {
+		final MimeTypeEngine engine = new MimeTypeEngine().addDefaultNames();
+		Assert.assertEquals(new HashSet<String>(Arrays.asList(
+				MimeTypeEngine.TEXT, MimeTypeEngine.HTML,
+				MimeTypeEngine.RICH_TEXT)), engine.resolve(new long[] { 13,
+				0xC0A1, 0xC0A2, 16 }, new String[] { "CF_UNICODETEXT", //$NON-NLS-1$
+				"HTML Format", "Rich Text Format", "CF_LOCALE" })); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Assert.assertEquals(Arrays.asList(MimeTypeEngine.FILE), Arrays
+				.asList(engine.resolve(0x13A, "text/uri-list") //$NON-NLS-1$
+						.getMimeTypes()));
+		Assert.assertTrue(engine.resolve(1, "TIMESTAMP").isEmpty()); //$NON-NLS-1$
+		Assert.assertTrue(engine.resolve(new long[0], null).isEmpty());
+	}
+
+	@Test
+	public void testSetsAreInterned() {
+		final MimeTypeEngine engine = new MimeTypeEngine().addDefaultNames();
+		engine.addType(2, MimeTypeEngine.IMAGE);
+		final MimeTypeSet text = engine.resolve(13, "CF_UNICODETEXT"); //$NON-NLS-1$
+		Assert.assertSame(text, engine.resolve(1, "CF_TEXT")); //$NON-NLS-1$
+		Assert.assertSame(text, engine.resolve(new long[] { 1, 7, 13 },
+				new String[] { "CF_TEXT", "CF_OEMTEXT", "CF_UNICODETEXT" })); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		// The same union through other formats
+		final MimeTypeSet both = engine.resolve(new long[] { 13, 2 },
+				new String[] { "CF_UNICODETEXT", null }); //$NON-NLS-1$
+		Assert.assertEquals(2, both.size());
+		Assert.assertSame(both, engine.resolve(new long[] { 2, 1 },
+				new String[] { null, "CF_TEXT" })); //$NON-NLS-1$
+		Assert.assertSame(both, engine.resolve(new long[] { 0xC001, 8 },
+				new String[] { "text/plain", "CF_DIB" })); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testTypeAndNameAreCachedTogether() {
+		final MimeTypeEngine engine = new MimeTypeEngine();
+		final PrefixRule rule = new PrefixRule("image/", MimeTypeEngine.IMAGE); //$NON-NLS-1$
+		engine.addRule(rule);
+		for (int i = 0; i < 10; ++i) {
+			Assert.assertTrue(engine.resolve(300, "image/png").contains( //$NON-NLS-1$
+					MimeTypeEngine.IMAGE));
+			// Same id under another name, as atoms on another display
+			Assert.assertTrue(engine.resolve(300, "STRING").isEmpty()); //$NON-NLS-1$
+			Assert.assertTrue(engine.resolve(300, null).isEmpty());
+		}
+		Assert.assertEquals(3, rule.calls.get());
+
+		engine.removeRule(rule);
+		Assert.assertTrue(engine.resolve(300, "image/png").isEmpty()); //$NON-NLS-1$
+		Assert.assertEquals(3, rule.calls.get());
+	}
+
+	@Test
+	public void testChangesDiscardCache() {
+		final MimeTypeEngine engine = new MimeTypeEngine();
+		Assert.assertTrue(engine.resolve(49, null).isEmpty());
+		engine.addType(49, MimeTypeEngine.HTML);
+		Assert.assertTrue(engine.resolve(49, null).contains(MimeTypeEngine.HTML));
+		engine.addName("text/x-custom", "text/x-custom"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(2, engine.resolve(49, "text/x-custom").size()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testWideTypeIds() {
+		final MimeTypeEngine engine = new MimeTypeEngine();
+		engine.addType(0x100000031L, MimeTypeEngine.HTML);
+		Assert.assertTrue(engine.resolve(0x31, null).isEmpty());
+		Assert.assertTrue(engine.resolve(0x100000031L, null).contains(
+				MimeTypeEngine.HTML));
+	}
+
+	@Test
+	public void testManyMimeTypes() {
+		final MimeTypeEngine engine = new MimeTypeEngine();
+		final long[] types = new long[200];
+		for (int i = 0; i < types.length; ++i) {
+			types[i] = i;
+			engine.addType(i, "application/x-type-" + i); //$NON-NLS-1$
+		}
+		final MimeTypeSet all = engine.resolve(types, null);
+		Assert.assertEquals(200, all.size());
+		Assert.assertTrue(all.contains("application/x-type-199")); //$NON-NLS-1$
+		Assert.assertSame(all, engine.resolve(types, null));
+		Assert.assertSame(engine.resolve(199, null), engine.resolve(new long[] {
+				199, 199 }, null));
+		final String[] sorted = all.getMimeTypes();
+		for (int i = 1; i < sorted.length; ++i) {
+			Assert.assertTrue(sorted[i - 1].compareTo(sorted[i]) < 0);
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSetIsImmutable() {
+		new MimeTypeEngine().addDefaultNames().resolve(13, "CF_UNICODETEXT") //$NON-NLS-1$
+				.add(MimeTypeEngine.HTML);
+	}
+}
@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.mime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import clipboard.monitor.mime.internal.LongObjectMap;
+
+/**
+ * Resolves the MIME-Types of native clipboard formats, given as plain type ids
+ * and names. It needs neither SWT nor a display, so it also runs headless.
+ * 
+ * <p>
+ * A format is resolved through the mappings of its type id and of its name,
+ * added with {@link #addType(long, String)} and {@link #addName(String, String)},
+ * and through the {@link MimeTypeRule}s. {@link #addDefaultNames()} adds the
+ * names that Windows, GTK and Mac OS X use for the built-in MIME-Types.
+ * 
+ * <p>
+ * The result for a format is cached, so after the first change a format
+ * costs a single lookup. The resolved {@link MimeTypeSet}s are interned.
+ * Changing the mappings or rules discards the cache.
+ * 
+ * <p>
+ * The engine is thread-safe. Resolving does not lock once a format is cached.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class MimeTypeEngine {
+	/**
+	 * MIME-Type of plain text.
+	 */
+	public static final String TEXT = "text/plain"; //$NON-NLS-1$
+	/**
+	 * MIME-Type of HTML.
+	 */
+	public static final String HTML = "text/html"; //$NON-NLS-1$
+	/**
+	 * MIME-Type of rich text.
+	 */
+	public static final String RICH_TEXT = "text/richtext"; //$NON-NLS-1$
+	/**
+	 * MIME-Type of a URL.
+	 */
+	public static final String URL = "text/url"; //$NON-NLS-1$
+	/**
+	 * MIME-Type of images of any format.
+	 */
+	public static final String IMAGE = "image"; //$NON-NLS-1$
+	/**
+	 * MIME-Type of lists of files.
+	 */
+	public static final String FILE = "application/file"; //$NON-NLS-1$
+
+	private static final long[] NO_BITS = new long[0];
+	private static final MimeTypeRule[] NO_RULES = new MimeTypeRule[0];
+
+	/**
+	 * Resolved MIME-Types of a type id and name. Formats with the same type id
+	 * but another name are chained.
+	 */
+	private static final class Format {
+		final String name;
+		final MimeTypeSet mimeTypes;
+		final Format next;
+
+		Format(String name, MimeTypeSet mimeTypes, Format next) {
+			this.name = name;
+			this.mimeTypes = mimeTypes;
+			this.next = next;
+		}
+	}
+
+	private static final class Key {
+		final long[] bits;
+		final int hash;
+
+		Key(long[] bits) {
+			this.bits = bits;
+			this.hash = Arrays.hashCode(bits);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(bits, ((Key) obj).bits);
+		}
+	}
+
+	private final Object lock = new Object();
+	// Guarded by lock
+	private final LongObjectMap<Set<String>> types = new LongObjectMap<Set<String>>();
+	private final Map<String, Set<String>> names = new HashMap<String, Set<String>>();
+	private MimeTypeRule[] rules = NO_RULES;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private final List<String> byIndex = new ArrayList<String>();
+	private int generation;
+
+	// Never changed once published
+	private volatile LongObjectMap<Format> formats = new LongObjectMap<Format>();
+	private final Map<Key, MimeTypeSet> interned = new ConcurrentHashMap<Key, MimeTypeSet>();
+	private final MimeTypeSet empty = new MimeTypeSet(new String[0], NO_BITS);
+
+	/**
+	 * Creates an engine without any mappings or rules.
+	 */
+	public MimeTypeEngine() {
+		interned.put(new Key(NO_BITS), empty);
+	}
+
+	/**
+	 * Maps the names of native formats that Windows, GTK and Mac OS X use to
+	 * {@link #TEXT}, {@link #HTML}, {@link #RICH_TEXT}, {@link #URL},
+	 * {@link #IMAGE} and {@link #FILE}.
+	 * 
+	 * @return this engine
+	 */
+	public MimeTypeEngine addDefaultNames() {
+		addNames(TEXT, "CF_TEXT", "CF_OEMTEXT", "CF_UNICODETEXT", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				"UTF8_STRING", "STRING", "TEXT", "COMPOUND_TEXT", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				"text/plain", "text/plain;charset=utf-8", //$NON-NLS-1$ //$NON-NLS-2$
+				"public.utf8-plain-text", "public.utf16-plain-text"); //$NON-NLS-1$ //$NON-NLS-2$
+		addNames(HTML, "HTML Format", "text/html", "public.html"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		addNames(RICH_TEXT, "Rich Text Format", "text/rtf", "text/richtext", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				"public.rtf"); //$NON-NLS-1$
+		addNames(URL, "UniformResourceLocator", "UniformResourceLocatorW", //$NON-NLS-1$ //$NON-NLS-2$
+				"_NETSCAPE_URL", "text/x-moz-url", "public.url"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		addNames(IMAGE, "CF_BITMAP", "CF_DIB", "CF_DIBV5", "PNG", "image/png", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+				"image/jpeg", "image/gif", "image/bmp", "image/tiff", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				"public.png", "public.jpeg", "public.tiff"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		addNames(FILE, "CF_HDROP", "text/uri-list", "public.file-url"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return this;
+	}
+
+	private void addNames(String mimeType, String... names) {
+		for (String name : names) {
+			addName(name, mimeType);
+		}
+	}
+
+	/**
+	 * Maps the native type id to the MIME-Type.
+	 * 
+	 * @param type
+	 *            native type id of the format
+	 * @param mimeType
+	 *            MIME-Type that formats with this type id have
+	 */
+	public void addType(long type, String mimeType) {
+		synchronized (lock) {
+			Set<String> mapped = types.get(type);
+			if (null == mapped) {
+				mapped = new HashSet<String>();
+				types.put(type, mapped);
+			}
+			mapped.add(mimeType);
+			invalidate();
+		}
+	}
+
+	/**
+	 * Maps the native format name to the MIME-Type.
+	 * 
+	 * @param name
+	 *            native name of the format
+	 * @param mimeType
+	 *            MIME-Type that formats with this name have
+	 */
+	public void addName(String name, String mimeType) {
+		synchronized (lock) {
+			Set<String> mapped = names.get(name);
+			if (null == mapped) {
+				mapped = new HashSet<String>();
+				names.put(name, mapped);
+			}
+			mapped.add(mimeType);
+			invalidate();
+		}
+	}
+
+	/**
+	 * Adds a rule that is asked for every format after the mappings.
+	 * 
+	 * @param rule
+	 *            rule to add
+	 */
+	public void addRule(MimeTypeRule rule) {
+		synchronized (lock) {
+			final MimeTypeRule[] more = new MimeTypeRule[rules.length + 1];
+			System.arraycopy(rules, 0, more, 0, rules.length);
+			more[rules.length] = rule;
+			rules = more;
+			invalidate();
+		}
+	}
+
+	/**
+	 * Removes a rule added by {@link #addRule(MimeTypeRule)}.
+	 * 
+	 * @param rule
+	 *            rule to remove
+	 */
+	public void removeRule(MimeTypeRule rule) {
+		synchronized (lock) {
+			final List<MimeTypeRule> left = new ArrayList<MimeTypeRule>(Arrays
+					.asList(rules));
+			if (left.remove(rule)) {
+				rules = left.toArray(new MimeTypeRule[left.size()]);
+				invalidate();
+			}
+		}
+	}
+
+	/**
+	 * Discards the cached formats. Must be called when a {@link MimeTypeRule}
+	 * would resolve different MIME-Types than before.
+	 */
+	public void invalidate() {
+		synchronized (lock) {
+			++generation;
+			formats = new LongObjectMap<Format>();
+		}
+	}
+
+	/**
+	 * @param type
+	 *            native type id of the format
+	 * @param name
+	 *            native name of the format, or <code>null</code> if it is
+	 *            unknown
+	 * @return the MIME-Types of the format.
+	 */
+	public MimeTypeSet resolve(long type, String name) {
+		for (Format format = formats.get(type); format != null; format = format.next) {
+			if (format.name == name
+					|| (name != null && name.equals(format.name))) {
+				return format.mimeTypes;
+			}
+		}
+		return resolveFormat(type, name);
+	}
+
+	/**
+	 * @param types
+	 *            native type ids of the formats
+	 * @param names
+	 *            native names of the formats in the same order, or
+	 *            <code>null</code> if they are unknown
+	 * @return the MIME-Types of all formats.
+	 */
+	public MimeTypeSet resolve(long[] types, String[] names) {
+		if (names != null && names.length != types.length) {
+			throw new IllegalArgumentException("names and types differ in length"); //$NON-NLS-1$
+		}
+		if (0 == types.length) {
+			return empty;
+		}
+		final MimeTypeSet first = resolve(types[0], null == names ? null
+				: names[0]);
+		long[] union = null;
+		for (int i = 1; i < types.length; ++i) {
+			final MimeTypeSet next = resolve(types[i], null == names ? null
+					: names[i]);
+			if (next == first) {
+				continue;
+			}
+			if (null == union) {
+				union = first.bits.clone();
+			}
+			union = or(union, next.bits);
+		}
+		if (null == union) {
+			return first;
+		}
+		final Key key = new Key(union);
+		final MimeTypeSet mimeTypes = interned.get(key);
+		if (mimeTypes != null) {
+			return mimeTypes;
+		}
+		synchronized (lock) {
+			return intern(key);
+		}
+	}
+
+	private static long[] or(long[] union, long[] bits) {
+		if (bits.length > union.length) {
+			final long[] longer = bits.clone();
+			for (int i = 0; i < union.length; ++i) {
+				longer[i] |= union[i];
+			}
+			return longer;
+		}
+		for (int i = 0; i < bits.length; ++i) {
+			union[i] |= bits[i];
+		}
+		return union;
+	}
+
+	private MimeTypeSet resolveFormat(long type, String name) {
+		final int generation;
+		final MimeTypeRule[] rules;
+		final Set<String> resolved = new HashSet<String>();
+		synchronized (lock) {
+			generation = this.generation;
+			rules = this.rules;
+			Set<String> mapped = types.get(type);
+			if (mapped != null) {
+				resolved.addAll(mapped);
+			}
+			mapped = null == name ? null : names.get(name);
+			if (mapped != null) {
+				resolved.addAll(mapped);
+			}
+		}
+		// Rules may take their time, do not hold the lock
+		for (MimeTypeRule rule : rules) {
+			rule.resolveMimeTypes(type, name, resolved);
+		}
+		synchronized (lock) {
+			final MimeTypeSet mimeTypes = intern(resolved);
+			// Do not cache what was resolved with outdated mappings
+			if (generation == this.generation) {
+				final LongObjectMap<Format> formats = this.formats.copy();
+				formats.put(type, new Format(name, mimeTypes, formats.get(type)));
+				this.formats = formats;
+			}
+			return mimeTypes;
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 */
+	private MimeTypeSet intern(Set<String> resolved) {
+		long[] bits = NO_BITS;
+		for (String mimeType : resolved) {
+			Integer index = indexes.get(mimeType);
+			if (null == index) {
+				index = Integer.valueOf(byIndex.size());
+				indexes.put(mimeType, index);
+				byIndex.add(mimeType);
+			}
+			final int word = index.intValue() >>> 6;
+			if (word >= bits.length) {
+				final long[] longer = new long[word + 1];
+				System.arraycopy(bits, 0, longer, 0, bits.length);
+				bits = longer;
+			}
+			bits[word] |= 1L << index.intValue();
+		}
+		return intern(new Key(bits));
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 */
+	private MimeTypeSet intern(Key key) {
+		MimeTypeSet mimeTypes = interned.get(key);
+		if (null == mimeTypes) {
+			final List<String> members = new ArrayList<String>();
+			for (int word = 0; word < key.bits.length; ++word) {
+				for (long bits = key.bits[word]; bits != 0; bits &= bits - 1) {
+					members.add(byIndex.get(word * 64
+							+ Long.numberOfTrailingZeros(bits)));
+				}
+			}
+			final String[] sorted = members.toArray(new String[members.size()]);
+			Arrays.sort(sorted);
+			mimeTypes = new MimeTypeSet(sorted, key.bits);
+			interned.put(key, mimeTypes);
+		}
+		return mimeTypes;
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.mime;
+
+import java.util.Set;
+
+/**
+ * Resolves MIME-Types of a native clipboard format, in addition to the
+ * mappings of a {@link MimeTypeEngine}.
+ * 
+ * <p>
+ * The engine caches the result for the native format, so a rule must always
+ * resolve the same MIME-Types for the same format.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see MimeTypeEngine#addRule(MimeTypeRule)
+ */
+public interface MimeTypeRule {
+	/**
+	 * @param type
+	 *            native type id of the format
+	 * @param name
+	 *            native name of the format, or <code>null</code> if it is
+	 *            unknown
+	 * @param mimeTypes
+	 *            set to add new MIME-Types to
+	 */
+	void resolveMimeTypes(long type, String name, Set<String> mimeTypes);
+}
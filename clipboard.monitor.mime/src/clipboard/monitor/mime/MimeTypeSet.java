@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.mime;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, sorted set of MIME-Types resolved by a {@link MimeTypeEngine}.
+ * 
+ * <p>
+ * The engine interns its sets: the same MIME-Types are always resolved to the
+ * same instance, so sets of one engine can be compared with <code>==</code>.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class MimeTypeSet extends AbstractSet<String> {
+	private final String[] mimeTypes;
+	/** One bit for every MIME-Type, numbered by the engine */
+	final long[] bits;
+
+	MimeTypeSet(String[] mimeTypes, long[] bits) {
+		this.mimeTypes = mimeTypes;
+		this.bits = bits;
+	}
+
+	@Override
+	public int size() {
+		return mimeTypes.length;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof String
+				&& Arrays.binarySearch(mimeTypes, (String) o) >= 0;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next;
+
+			public boolean hasNext() {
+				return next < mimeTypes.length;
+			}
+
+			public String next() {
+				if (next == mimeTypes.length) {
+					throw new NoSuchElementException();
+				}
+				return mimeTypes[next++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return a new array with the MIME-Types in ascending order.
+	 */
+	public String[] getMimeTypes() {
+		return mimeTypes.clone();
+	}
+}
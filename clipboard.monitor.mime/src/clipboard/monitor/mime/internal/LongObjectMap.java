@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.mime.internal;
+
+import java.util.Arrays;
+
+/**
+ * Map from <code>long</code> keys to values that does not box its keys.
+ * 
+ * <p>
+ * The keys are stored with open addressing and linear probing in a table that
+ * is at most half full, so a lookup usually touches a single slot. Entries
+ * cannot be removed; {@link #copy()} and {@link #clear()} are used instead.
+ * The map is not thread-safe.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @param <V>
+ *            type of the values, which must not be <code>null</code>
+ */
+public final class LongObjectMap<V> {
+	private long[] keys;
+	private Object[] values;
+	private int size;
+
+	/**
+	 * Creates a map that holds 8 entries without growing.
+	 */
+	public LongObjectMap() {
+		this(8);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of entries the map holds without growing
+	 */
+	public LongObjectMap(int capacity) {
+		int length = 4;
+		while (length < capacity * 2) {
+			length <<= 1;
+		}
+		keys = new long[length];
+		values = new Object[length];
+	}
+
+	private static int slot(long key, int mask) {
+		// Spread the bits, native type ids are often close together
+		final long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * @param key
+	 *            key to look up
+	 * @return the value of the key, or <code>null</code> if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		final int mask = keys.length - 1;
+		for (int i = slot(key, mask);; i = (i + 1) & mask) {
+			final Object value = values[i];
+			if (null == value || keys[i] == key) {
+				return (V) value;
+			}
+		}
+	}
+
+	/**
+	 * Associates the value with the key, replacing a previous value.
+	 * 
+	 * @param key
+	 *            key of the entry
+	 * @param value
+	 *            value of the entry, not <code>null</code>
+	 */
+	public void put(long key, V value) {
+		if (null == value) {
+			throw new IllegalArgumentException("value must not be null"); //$NON-NLS-1$
+		}
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		final int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (values[i] != null && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		if (null == values[i]) {
+			++size;
+		}
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	private void resize(int length) {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new long[length];
+		values = new Object[length];
+		final int mask = length - 1;
+		for (int j = 0; j < oldKeys.length; ++j) {
+			if (oldValues[j] != null) {
+				int i = slot(oldKeys[j], mask);
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of keys.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * @return a new map with the same entries.
+	 */
+	public LongObjectMap<V> copy() {
+		final LongObjectMap<V> copy = new LongObjectMap<V>(0);
+		copy.keys = keys.clone();
+		copy.values = values.clone();
+		copy.size = size;
+		return copy;
+	}
+}
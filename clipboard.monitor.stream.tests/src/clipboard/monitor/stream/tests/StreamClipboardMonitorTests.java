@@ -0,0 +1,290 @@
+package clipboard.monitor.stream.tests;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.stream.StreamClipboardMonitor;
+import clipboard.monitor.stream.StreamSource;
+import clipboard.monitor.stream.StreamSources;
+
+public class StreamClipboardMonitorTests {
+	private static final int FRAMES = 100000;
+
+	private Path directory;
+	private StreamClipboardMonitor monitor;
+
+	/**
+	 * Checks that frame <code>i</code> arrives as the <code>i</code>-th
+	 * payload with the content written by {@link #frame(int)}.
+	 */
+	static class VerifyingListener implements ClipboardListener {
+		final Semaphore received = new Semaphore(0);
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicReference<String> error = new AtomicReference<String>();
+
+		public void onEvent(ClipboardEvent event) {
+			final ByteBuffer payload = event.getPayload();
+			final int expected = next.getAndIncrement();
+			if (!frame(expected).position(4).equals(payload)
+					&& null == error.get()) {
+				error.set("frame " + expected + " differs: " + payload); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			received.release();
+		}
+
+		void await(int frames) throws InterruptedException {
+			Assert.assertTrue(received.tryAcquire(frames, 30, TimeUnit.SECONDS));
+			Assert.assertNull(error.get());
+		}
+	}
+
+	/**
+	 * Source that hands out the given channels one after another.
+	 */
+	static class ChannelsSource implements StreamSource {
+		final Deque<ReadableByteChannel> channels = new ArrayDeque<ReadableByteChannel>();
+		final AtomicInteger opened = new AtomicInteger();
+
+		public synchronized ReadableByteChannel open() {
+			opened.incrementAndGet();
+			return channels.poll();
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * @return frame number <code>i</code>, between 4 and 300 bytes of content
+	 */
+	static ByteBuffer frame(int i) {
+		final int length = 4 + i % 297;
+		final ByteBuffer frame = ByteBuffer.allocate(4 + length);
+		frame.putInt(length).putInt(i);
+		while (frame.hasRemaining()) {
+			frame.put((byte) i);
+		}
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Writes the frames in slices of random length, so the reader sees partial
+	 * frames and several frames per read.
+	 */
+	static void write(WritableByteChannel channel, int from, int to)
+			throws IOException {
+		final Random random = new Random(from);
+		final ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+		int i = from;
+		while (i < to) {
+			batch.clear();
+			while (i < to && batch.remaining() >= 304) {
+				batch.put(frame(i++));
+			}
+			batch.flip();
+			while (batch.hasRemaining()) {
+				final ByteBuffer slice = batch.duplicate();
+				slice.limit(Math.min(batch.limit(), batch.position() + 1
+						+ random.nextInt(4096)));
+				while (slice.hasRemaining()) {
+					channel.write(slice);
+				}
+				batch.position(slice.position());
+			}
+		}
+	}
+
+	private static Path mkfifo(Path path) throws Exception {
+		try {
+			final Process process = new ProcessBuilder("mkfifo", path //$NON-NLS-1$
+					.toString()).start();
+			Assume.assumeTrue(process.waitFor() == 0);
+		} catch (IOException e) {
+			Assume.assumeNoException(e);
+		}
+		return path;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("clipboard"); //$NON-NLS-1$
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (monitor != null) {
+			monitor.stop().get(5, TimeUnit.SECONDS);
+		}
+		for (Path path : Files.newDirectoryStream(directory)) {
+			Files.delete(path);
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testFifoKeepsUpWithHighRate() throws Exception {
+		final Path fifo = mkfifo(directory.resolve("changes")); //$NON-NLS-1$
+		monitor = new StreamClipboardMonitor(StreamSources.fifo(fifo), 1024);
+		final VerifyingListener listener = new VerifyingListener();
+		monitor.addListener(listener);
+		monitor.start().get(5, TimeUnit.SECONDS);
+
+		final long begin = System.nanoTime();
+		try (FileChannel writer = FileChannel.open(fifo,
+				StandardOpenOption.WRITE)) {
+			write(writer, 0, FRAMES);
+		}
+		listener.await(FRAMES);
+		final long elapsed = System.nanoTime() - begin;
+		final long rate = FRAMES * TimeUnit.SECONDS.toNanos(1) / elapsed;
+		System.out.println("FIFO: " + rate + " frames/s"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertTrue(rate > 20000);
+
+		// A new writer continues the stream
+		try (FileChannel writer = FileChannel.open(fifo,
+				StandardOpenOption.WRITE)) {
+			write(writer, FRAMES, FRAMES + 10);
+		}
+		listener.await(10);
+		Assert.assertEquals(FRAMES + 10, monitor.getMetrics()
+				.getEventsReceived());
+	}
+
+	@Test
+	public void testStopWhileWaitingOnFifo() throws Exception {
+		final Path fifo = mkfifo(directory.resolve("idle")); //$NON-NLS-1$
+		monitor = new StreamClipboardMonitor(StreamSources.fifo(fifo), 1024);
+		monitor.start().get(5, TimeUnit.SECONDS);
+		Thread.sleep(50);
+		final long begin = System.nanoTime();
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		System.out.println("stop while reading FIFO: " //$NON-NLS-1$
+				+ TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin)
+				+ "us"); //$NON-NLS-1$
+
+		// And can be read again after a restart
+		final VerifyingListener listener = new VerifyingListener();
+		monitor.addListener(listener);
+		monitor.start().get(5, TimeUnit.SECONDS);
+		try (FileChannel writer = FileChannel.open(fifo,
+				StandardOpenOption.WRITE)) {
+			write(writer, 0, 100);
+		}
+		listener.await(100);
+	}
+
+	@Test
+	public void testPartialReadsOnPipe() throws Exception {
+		final Pipe pipe = Pipe.open();
+		final ChannelsSource source = new ChannelsSource();
+		source.channels.add(pipe.source());
+		monitor = new StreamClipboardMonitor(source, 1024);
+		final VerifyingListener listener = new VerifyingListener();
+		monitor.addListener(listener);
+		monitor.start().get(5, TimeUnit.SECONDS);
+
+		// One byte at a time
+		for (int i = 0; i < 50; ++i) {
+			final ByteBuffer frame = frame(i);
+			while (frame.hasRemaining()) {
+				final ByteBuffer single = frame.duplicate();
+				single.limit(single.position() + 1);
+				pipe.sink().write(single);
+				frame.position(frame.position() + 1);
+			}
+		}
+		listener.await(50);
+		write(pipe.sink(), 50, 10000);
+		listener.await(10000 - 50);
+		pipe.sink().close();
+	}
+
+	@Test
+	public void testMalformedFrameEndsChannel() throws Exception {
+		final Pipe bad = Pipe.open();
+		final Pipe good = Pipe.open();
+		final ChannelsSource source = new ChannelsSource();
+		source.channels.add(bad.source());
+		source.channels.add(good.source());
+		monitor = new StreamClipboardMonitor(source, 1024);
+		final VerifyingListener listener = new VerifyingListener();
+		monitor.addListener(listener);
+		monitor.start().get(5, TimeUnit.SECONDS);
+
+		write(bad.sink(), 0, 1);
+		bad.sink().write((ByteBuffer) ByteBuffer.allocate(4).putInt(4096)
+				.flip());
+		listener.await(1);
+
+		// The next channel starts over
+		listener.next.set(0);
+		write(good.sink(), 0, 10);
+		listener.await(10);
+		Assert.assertFalse(bad.source().isOpen());
+		Assert.assertEquals(2, source.opened.get());
+	}
+
+	@Test
+	public void testUnixSocketConnections() throws Exception {
+		final Path socket = directory.resolve("clipboard.sock"); //$NON-NLS-1$
+		monitor = new StreamClipboardMonitor(StreamSources.unixSocket(socket),
+				1024);
+		final VerifyingListener listener = new VerifyingListener();
+		monitor.addListener(listener);
+		monitor.start().get(5, TimeUnit.SECONDS);
+
+		for (int connection = 0; connection < 3; ++connection) {
+			try (SocketChannel writer = connect(socket)) {
+				write(writer, connection * 1000, (connection + 1) * 1000);
+			}
+			listener.await(1000);
+		}
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		Assert.assertFalse(Files.exists(socket));
+	}
+
+	private static SocketChannel connect(Path socket) throws Exception {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (true) {
+			final SocketChannel channel = SocketChannel
+					.open(StandardProtocolFamily.UNIX);
+			try {
+				channel.connect(UnixDomainSocketAddress.of(socket));
+				return channel;
+			} catch (IOException e) {
+				channel.close();
+				if (System.nanoTime() > deadline) {
+					throw e;
+				}
+				// The monitor thread did not bind the socket yet
+				Thread.sleep(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardEvent;
+
+/**
+ * Monitors a stream of clipboard changes written by another process, for
+ * example a clipboard watcher on a platform without native support.
+ * 
+ * <p>
+ * Every change is one frame: the length of the content as a 4 byte big-endian
+ * integer, followed by the content. Each frame is reported as a change with
+ * the content as {@link ClipboardEvent#getPayload()}.
+ * 
+ * <p>
+ * The frames are parsed in place from a single direct buffer that holds the
+ * largest allowed frame. The payload is a view of that buffer and is only
+ * valid while the listeners are called. Partial frames stay in the buffer
+ * until the rest arrived.
+ * 
+ * <p>
+ * Selectable channels, like sockets and pipes, are read in non-blocking mode.
+ * Other channels, like a FIFO, are read blocking on the monitor thread.
+ * 
+ * <p>
+ * A malformed frame ends the channel. The source is then asked for the next
+ * one.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class StreamClipboardMonitor extends AbstractClipboardMonitor {
+	/** Largest content of a frame if none is given. */
+	public static final int DEFAULT_MAX_FRAME = 1 << 20;
+	private static final int HEADER = 4;
+
+	private final StreamSource source;
+	private final int maxFrame;
+	private final ByteBuffer buffer;
+	private final ByteBuffer view;
+
+	/**
+	 * Creates a monitor for frames of up to {@link #DEFAULT_MAX_FRAME} bytes.
+	 * 
+	 * @param source
+	 *            to read the frames from
+	 */
+	public StreamClipboardMonitor(StreamSource source) {
+		this(source, DEFAULT_MAX_FRAME);
+	}
+
+	/**
+	 * @param source
+	 *            to read the frames from
+	 * @param maxFrame
+	 *            largest content of a frame in bytes
+	 */
+	public StreamClipboardMonitor(StreamSource source, int maxFrame) {
+		if (null == source) {
+			throw new IllegalArgumentException("source must not be null"); //$NON-NLS-1$
+		}
+		if (maxFrame < 0 || maxFrame > Integer.MAX_VALUE - HEADER) {
+			throw new IllegalArgumentException("invalid max frame size"); //$NON-NLS-1$
+		}
+		this.source = source;
+		this.maxFrame = maxFrame;
+		this.buffer = ByteBuffer.allocateDirect(maxFrame + HEADER);
+		this.view = buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Closes the source and interrupts the monitor thread.
+	 */
+	@Override
+	protected void onStop(Thread thread) {
+		source.close();
+		super.onStop(thread);
+	}
+
+	public void run() {
+		ready();
+		while (isRunning()) {
+			final ReadableByteChannel channel;
+			try {
+				channel = source.open();
+			} catch (ClosedChannelException e) {
+				// Stopped while waiting for a writer
+				return;
+			} catch (IOException e) {
+				if (isRunning()) {
+					e.printStackTrace();
+				}
+				return;
+			}
+			if (null == channel) {
+				return;
+			}
+			buffer.clear();
+			try {
+				if (channel instanceof SelectableChannel) {
+					readSelectable((SelectableChannel) channel, channel);
+				} else {
+					read(channel);
+				}
+				if (buffer.position() > 0) {
+					throw new EOFException(source + " ended within a frame"); //$NON-NLS-1$
+				}
+			} catch (ClosedByInterruptException e) {
+				return;
+			} catch (IOException e) {
+				if (!isRunning()) {
+					return;
+				}
+				e.printStackTrace();
+			} finally {
+				try {
+					channel.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private void read(ReadableByteChannel channel) throws IOException {
+		while (channel.read(buffer) >= 0) {
+			parse();
+		}
+	}
+
+	private void readSelectable(SelectableChannel selectable,
+			ReadableByteChannel channel) throws IOException {
+		selectable.configureBlocking(false);
+		try (Selector selector = Selector.open()) {
+			selectable.register(selector, SelectionKey.OP_READ);
+			while (true) {
+				int read;
+				while ((read = channel.read(buffer)) > 0) {
+					parse();
+				}
+				if (read < 0) {
+					return;
+				}
+				// Interrupting the monitor thread wakes up the selector
+				selector.select();
+				selector.selectedKeys().clear();
+				if (Thread.currentThread().isInterrupted()) {
+					throw new ClosedByInterruptException();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports all complete frames in the buffer and keeps the rest.
+	 */
+	private void parse() throws IOException {
+		buffer.flip();
+		while (buffer.remaining() >= HEADER) {
+			final int start = buffer.position();
+			final int length = buffer.getInt(start);
+			if (length < 0 || length > maxFrame) {
+				buffer.clear();
+				throw new IOException(source + " sent a frame of " + length //$NON-NLS-1$
+						+ " bytes, at most " + maxFrame + " are allowed"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			final int end = start + HEADER + length;
+			if (buffer.limit() < end) {
+				break;
+			}
+			view.limit(end).position(start + HEADER);
+			fireChange(view);
+			buffer.position(end);
+		}
+		buffer.compact();
+	}
+}
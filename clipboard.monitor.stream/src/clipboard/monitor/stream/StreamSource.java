@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.stream;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Where a {@link StreamClipboardMonitor} reads its frames from.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see StreamSources
+ */
+public interface StreamSource {
+	/**
+	 * Opens the next channel to read frames from. Called from the monitor
+	 * thread again whenever the previous channel reached its end.
+	 * 
+	 * <p>
+	 * May block until a writer is available. Must return or throw when the
+	 * monitor thread is interrupted or {@link #close()} is called.
+	 * 
+	 * <p>
+	 * If the channel is a {@link java.nio.channels.SelectableChannel} it is
+	 * read in non-blocking mode.
+	 * 
+	 * @return the channel or <code>null</code> if there will be no more
+	 *         frames.
+	 * @throws IOException
+	 *             if the channel cannot be opened
+	 */
+	ReadableByteChannel open() throws IOException;
+
+	/**
+	 * Releases the resources of this source. Called from the thread that
+	 * stops the monitor, possibly while {@link #open()} is blocked.
+	 */
+	void close();
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.stream;
+
+import java.nio.file.Path;
+
+import clipboard.monitor.stream.internal.FifoSource;
+import clipboard.monitor.stream.internal.StdinSource;
+import clipboard.monitor.stream.internal.UnixSocketSource;
+
+/**
+ * Creates {@link StreamSource}s.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class StreamSources {
+	private StreamSources() {
+	}
+
+	/**
+	 * The FIFO is opened for reading and writing, so it does not reach its end
+	 * when the writer closes it and a restarted writer continues the same
+	 * stream.
+	 * 
+	 * @param fifo
+	 *            path of an existing named pipe
+	 * @return a source that reads the named pipe
+	 */
+	public static StreamSource fifo(Path fifo) {
+		return new FifoSource(fifo);
+	}
+
+	/**
+	 * Uses the channel inherited from the process that started the VM if there
+	 * is one (see {@link System#inheritedChannel()}), and the standard input
+	 * otherwise. The monitor stops reading at the end of the input.
+	 * 
+	 * @return a source that reads the standard input of the VM
+	 */
+	public static StreamSource stdin() {
+		return new StdinSource();
+	}
+
+	/**
+	 * Listens on a Unix domain socket and reads the connections one after
+	 * another. A stale socket file is replaced.
+	 * 
+	 * @param socket
+	 *            path of the socket file
+	 * @return a source that accepts writers on the socket
+	 */
+	public static StreamSource unixSocket(Path socket) {
+		return new UnixSocketSource(socket);
+	}
+}
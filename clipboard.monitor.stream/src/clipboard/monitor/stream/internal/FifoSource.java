@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.stream.internal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import clipboard.monitor.stream.StreamSource;
+
+/**
+ * Reads a named pipe.
+ * 
+ * <p>
+ * Opening a FIFO only for reading blocks until a writer opens it, and reading
+ * it ends when the writer closes it. Opening it for reading and writing does
+ * neither. A {@link FileChannel} cannot be selected, so it is read blocking.
+ * Interrupting the monitor thread closes the channel and ends the read.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class FifoSource implements StreamSource {
+	private final Path fifo;
+	private volatile FileChannel channel;
+
+	public FifoSource(Path fifo) {
+		if (null == fifo) {
+			throw new IllegalArgumentException("fifo must not be null"); //$NON-NLS-1$
+		}
+		this.fifo = fifo;
+	}
+
+	public ReadableByteChannel open() throws IOException {
+		channel = FileChannel.open(fifo, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		return channel;
+	}
+
+	public void close() {
+		final FileChannel channel = this.channel;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FIFO " + fifo; //$NON-NLS-1$
+	}
+}
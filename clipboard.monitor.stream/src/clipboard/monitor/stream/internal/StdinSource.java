@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.stream.internal;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
+
+import clipboard.monitor.stream.StreamSource;
+
+/**
+ * Reads the standard input, once.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class StdinSource implements StreamSource {
+	private volatile ReadableByteChannel channel;
+	private boolean opened;
+
+	public synchronized ReadableByteChannel open() throws IOException {
+		if (opened) {
+			return null;
+		}
+		opened = true;
+		final Channel inherited = System.inheritedChannel();
+		if (inherited instanceof ReadableByteChannel) {
+			channel = (ReadableByteChannel) inherited;
+		} else {
+			channel = new FileInputStream(FileDescriptor.in).getChannel();
+		}
+		return channel;
+	}
+
+	public void close() {
+		final ReadableByteChannel channel = this.channel;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "standard input"; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.stream.internal;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import clipboard.monitor.stream.StreamSource;
+
+/**
+ * Accepts writers on a Unix domain socket, one at a time.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class UnixSocketSource implements StreamSource {
+	private final Path socket;
+	// Guarded by this
+	private ServerSocketChannel server;
+
+	public UnixSocketSource(Path socket) {
+		if (null == socket) {
+			throw new IllegalArgumentException("socket must not be null"); //$NON-NLS-1$
+		}
+		this.socket = socket;
+	}
+
+	public ReadableByteChannel open() throws IOException {
+		return getServer().accept();
+	}
+
+	private synchronized ServerSocketChannel getServer() throws IOException {
+		if (null == server || !server.isOpen()) {
+			Files.deleteIfExists(socket);
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			server.bind(UnixDomainSocketAddress.of(socket));
+		}
+		return server;
+	}
+
+	public synchronized void close() {
+		if (server != null) {
+			try {
+				server.close();
+				Files.deleteIfExists(socket);
+			} catch (IOException e) {
+			}
+			server = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Unix domain socket " + socket; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,136 @@
+package clipboard.monitor.swt.component.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.dnd.TransferData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.swt.AbstractSWTClipboardListener;
+import clipboard.monitor.swt.ClipboardMimeTypeResolver;
+import clipboard.monitor.swt.component.internal.ResolverRegistry;
+
+public class ResolverRegistryTests {
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Registry with a simulated clock that records what it logs.
+	 */
+	static class TestRegistry extends ResolverRegistry {
+		long now = 1;
+		final List<String> logged = new ArrayList<String>();
+
+		@Override
+		protected long now() {
+			return now;
+		}
+
+		@Override
+		protected void log(String message, Throwable t) {
+			logged.add(message);
+		}
+	}
+
+	/**
+	 * Adds its MIME-Type and counts the calls per native type.
+	 */
+	static class CountingResolver implements ClipboardMimeTypeResolver {
+		final String mimeType;
+		final List<Long> types = new ArrayList<Long>();
+		boolean failing;
+
+		CountingResolver(String mimeType) {
+			this.mimeType = mimeType;
+		}
+
+		public void resolveMimeTypes(TransferData transferData,
+				Set<String> mimeTypes) {
+			types.add(AbstractSWTClipboardListener.getNativeType(transferData));
+			if (failing) {
+				throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+			}
+			mimeTypes.add(mimeType);
+		}
+	}
+
+	private static TransferData data(int type) {
+		final TransferData data = new TransferData();
+		data.type = type;
+		return data;
+	}
+
+	@Test
+	public void testResolversAreCalledForTheirTypes() {
+		final TestRegistry registry = new TestRegistry();
+		final CountingResolver all = new CountingResolver("text/all"); //$NON-NLS-1$
+		final CountingResolver html = new CountingResolver("text/html"); //$NON-NLS-1$
+		registry.add(all, null, "all"); //$NON-NLS-1$
+		registry.add(html, new long[] { 49, 50, 49 }, "html"); //$NON-NLS-1$
+
+		for (int type = 48; type < 52; ++type) {
+			final Set<String> mimeTypes = new HashSet<String>();
+			Assert.assertTrue(registry.resolveMimeTypes(data(type), mimeTypes));
+			Assert.assertEquals(type == 49 || type == 50, mimeTypes
+					.contains("text/html")); //$NON-NLS-1$
+			Assert.assertTrue(mimeTypes.contains("text/all")); //$NON-NLS-1$
+		}
+		Assert.assertEquals(4, all.types.size());
+		Assert.assertEquals(2, html.types.size());
+
+		registry.remove(html);
+		Assert.assertEquals(1, registry.size());
+		registry.resolveMimeTypes(data(49), new HashSet<String>());
+		Assert.assertEquals(2, html.types.size());
+	}
+
+	@Test
+	public void testFailingResolverIsPausedWithBackoff() {
+		final TestRegistry registry = new TestRegistry();
+		final CountingResolver resolver = new CountingResolver("text/plain"); //$NON-NLS-1$
+		final CountingResolver healthy = new CountingResolver("text/html"); //$NON-NLS-1$
+		resolver.failing = true;
+		registry.add(resolver, null, "failing"); //$NON-NLS-1$
+		registry.add(healthy, null, "healthy"); //$NON-NLS-1$
+
+		// Called once, then paused for 1s, 2s and 4s
+		long pause = 1000;
+		for (int failure = 1; failure <= 3; ++failure) {
+			for (int change = 0; change < 100; ++change) {
+				Assert.assertFalse(registry.resolveMimeTypes(data(13),
+						new HashSet<String>()));
+				registry.now += (pause - 1) * MILLI / 100;
+			}
+			Assert.assertEquals(failure, resolver.types.size());
+			Assert.assertEquals(failure, registry.logged.size());
+			registry.now += pause * MILLI / 100 + MILLI;
+			pause *= 2;
+		}
+		Assert.assertEquals(300, healthy.types.size());
+
+		// Succeeds again after the pause
+		resolver.failing = false;
+		final Set<String> mimeTypes = new HashSet<String>();
+		Assert.assertTrue(registry.resolveMimeTypes(data(13), mimeTypes));
+		Assert.assertTrue(mimeTypes.contains("text/plain")); //$NON-NLS-1$
+		Assert.assertTrue(registry.resolveMimeTypes(data(13), mimeTypes));
+		Assert.assertEquals(5, resolver.types.size());
+		Assert.assertEquals(4, registry.logged.size());
+	}
+
+	@Test
+	public void testBackoffIsLimited() {
+		final TestRegistry registry = new TestRegistry();
+		final CountingResolver resolver = new CountingResolver("text/plain"); //$NON-NLS-1$
+		resolver.failing = true;
+		registry.add(resolver, null, "failing"); //$NON-NLS-1$
+		for (int i = 0; i < 100; ++i) {
+			registry.resolveMimeTypes(data(13), new HashSet<String>());
+			registry.now += TimeUnit.MINUTES.toNanos(10) + MILLI;
+		}
+		Assert.assertEquals(100, resolver.types.size());
+	}
+}
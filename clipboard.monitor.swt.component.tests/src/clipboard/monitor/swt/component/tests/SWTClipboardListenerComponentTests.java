@@ -0,0 +1,78 @@
+package clipboard.monitor.swt.component.tests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.swt.dnd.TransferData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.mime.MimeTypeEngine;
+import clipboard.monitor.swt.ClipboardMimeTypeResolver;
+import clipboard.monitor.swt.component.internal.SWTClipboardListenerComponent;
+import clipboard.monitor.swt.component.tests.ResolverRegistryTests.CountingResolver;
+
+public class SWTClipboardListenerComponentTests {
+	/**
+	 * Component without standard MIME-Types that does not log.
+	 */
+	static class TestComponent extends SWTClipboardListenerComponent {
+		@Override
+		protected MimeTypeEngine createMimeTypeEngine() {
+			return new MimeTypeEngine();
+		}
+
+		@Override
+		protected void log(String message, Throwable t) {
+		}
+
+		void bind(ClipboardMimeTypeResolver resolver, int type) {
+			bind(resolver, Collections.<String, Object> singletonMap(
+					ClipboardMimeTypeResolver.NATIVE_TYPES, Integer
+							.valueOf(type)));
+		}
+
+		@Override
+		public String[] getMimeTypes(TransferData[] transferData) {
+			return super.getMimeTypes(transferData);
+		}
+	}
+
+	private static TransferData[] data(int... types) {
+		final TransferData[] data = new TransferData[types.length];
+		for (int i = 0; i < types.length; ++i) {
+			data[i] = new TransferData();
+			data[i].type = types[i];
+		}
+		return data;
+	}
+
+	@Test
+	public void testPausedResolverOnlyKeepsItsTypeFromCache() {
+		final TestComponent component = new TestComponent();
+		final CountingResolver html = new CountingResolver("text/html"); //$NON-NLS-1$
+		final CountingResolver rtf = new CountingResolver("text/rtf"); //$NON-NLS-1$
+		final CountingResolver flaky = new CountingResolver("text/flaky"); //$NON-NLS-1$
+		flaky.failing = true;
+		component.bind(html, 49);
+		component.bind(rtf, 50);
+		component.bind(flaky, 50);
+
+		final TransferData[] data = data(49, 50);
+		Assert.assertEquals(Arrays.asList("text/html", "text/rtf"), //$NON-NLS-1$ //$NON-NLS-2$
+				sortedList(component.getMimeTypes(data)));
+		Assert.assertEquals(Arrays.asList("text/html", "text/rtf"), //$NON-NLS-1$ //$NON-NLS-2$
+				sortedList(component.getMimeTypes(data)));
+		// The type of the working resolver stays cached
+		Assert.assertEquals(1, html.types.size());
+		// The type of the paused resolver is resolved again
+		Assert.assertEquals(2, rtf.types.size());
+		Assert.assertEquals(1, flaky.types.size());
+	}
+
+	private static List<String> sortedList(String[] mimeTypes) {
+		Arrays.sort(mimeTypes);
+		return Arrays.asList(mimeTypes);
+	}
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.swt.component.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.dnd.TransferData;
+
+import clipboard.monitor.swt.AbstractSWTClipboardListener;
+import clipboard.monitor.swt.ClipboardMimeTypeResolver;
+import clipboard.monitor.mime.internal.LongObjectMap;
+
+/**
+ * Snapshot of the bound {@link ClipboardMimeTypeResolver}s.
+ * 
+ * <p>
+ * Resolvers that declared their native types are only called for transfer
+ * data of these types. A resolver that throws is not called again for a
+ * while. The pause starts at {@value #INITIAL_BACKOFF_MILLIS}ms and doubles
+ * with every further failure, up to {@value #MAX_BACKOFF_MILLIS}ms. The first
+ * call that succeeds ends the backoff.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public abstract class ResolverRegistry {
+	static final long INITIAL_BACKOFF_MILLIS = 1000;
+	static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+
+	private static final Entry[] NO_ENTRIES = new Entry[0];
+
+	private static final class Entry {
+		final ClipboardMimeTypeResolver resolver;
+		final long[] types;
+		final String name;
+
+		// Guarded by this
+		int failures;
+		volatile long retryAt;
+
+		Entry(ClipboardMimeTypeResolver resolver, long[] types, String name) {
+			this.resolver = resolver;
+			this.types = types;
+			this.name = name;
+		}
+	}
+
+	private static final class Snapshot {
+		final Entry[] all;
+		final Entry[] unfiltered;
+		final LongObjectMap<Entry[]> byType = new LongObjectMap<Entry[]>();
+
+		Snapshot(Entry[] all) {
+			this.all = all;
+			final List<Entry> unfiltered = new ArrayList<Entry>();
+			for (Entry entry : all) {
+				if (null == entry.types) {
+					unfiltered.add(entry);
+					continue;
+				}
+				for (long type : entry.types) {
+					final Entry[] entries = byType.get(type);
+					if (null == entries) {
+						byType.put(type, new Entry[] { entry });
+					} else if (!contains(entries, entry)) {
+						final Entry[] more = new Entry[entries.length + 1];
+						System.arraycopy(entries, 0, more, 0, entries.length);
+						more[entries.length] = entry;
+						byType.put(type, more);
+					}
+				}
+			}
+			this.unfiltered = unfiltered.toArray(new Entry[unfiltered.size()]);
+		}
+
+		private static boolean contains(Entry[] entries, Entry entry) {
+			for (Entry e : entries) {
+				if (e == entry) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private volatile Snapshot snapshot = new Snapshot(NO_ENTRIES);
+
+	/**
+	 * Adds the resolver to the snapshot.
+	 * 
+	 * @param types
+	 *            native types the resolver handles, or <code>null</code> for
+	 *            all types
+	 * @param name
+	 *            that identifies the resolver in log messages
+	 */
+	public synchronized void add(ClipboardMimeTypeResolver resolver,
+			long[] types, String name) {
+		final Entry[] all = snapshot.all;
+		final Entry[] more = new Entry[all.length + 1];
+		System.arraycopy(all, 0, more, 0, all.length);
+		more[all.length] = new Entry(resolver, null == types ? null : types
+				.clone(), name);
+		snapshot = new Snapshot(more);
+	}
+
+	/**
+	 * Removes the resolver from the snapshot.
+	 */
+	public synchronized void remove(ClipboardMimeTypeResolver resolver) {
+		final List<Entry> left = new ArrayList<Entry>();
+		for (Entry entry : snapshot.all) {
+			if (entry.resolver != resolver) {
+				left.add(entry);
+			}
+		}
+		snapshot = new Snapshot(left.toArray(new Entry[left.size()]));
+	}
+
+	/**
+	 * @return the number of resolvers.
+	 */
+	public int size() {
+		return snapshot.all.length;
+	}
+
+	/**
+	 * Calls the resolvers that handle the type of the transfer data and are
+	 * not paused after a failure.
+	 * 
+	 * @return <code>false</code> if a resolver failed or was skipped because
+	 *         of an earlier failure, so the MIME-Types may be incomplete.
+	 */
+	public boolean resolveMimeTypes(TransferData data, Set<String> mimeTypes) {
+		final Snapshot snapshot = this.snapshot;
+		boolean complete = resolve(snapshot.unfiltered, data, mimeTypes);
+		final Entry[] entries = snapshot.byType
+				.get(AbstractSWTClipboardListener.getNativeType(data));
+		if (entries != null) {
+			complete &= resolve(entries, data, mimeTypes);
+		}
+		return complete;
+	}
+
+	private boolean resolve(Entry[] entries, TransferData data,
+			Set<String> mimeTypes) {
+		boolean complete = true;
+		for (Entry entry : entries) {
+			final long retryAt = entry.retryAt;
+			if (retryAt != 0 && now() - retryAt < 0) {
+				complete = false;
+				continue;
+			}
+			try {
+				entry.resolver.resolveMimeTypes(data, mimeTypes);
+				if (retryAt != 0) {
+					recovered(entry);
+				}
+			} catch (Throwable t) {
+				failed(entry, t);
+				complete = false;
+			}
+		}
+		return complete;
+	}
+
+	private void recovered(Entry entry) {
+		synchronized (entry) {
+			entry.failures = 0;
+			entry.retryAt = 0;
+		}
+		log("Resolver " + entry.name + " recovered", null); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void failed(Entry entry, Throwable t) {
+		final long backoff;
+		synchronized (entry) {
+			backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math
+					.min(entry.failures, 20));
+			++entry.failures;
+			// 0 means not paused
+			entry.retryAt = (now() + TimeUnit.MILLISECONDS.toNanos(backoff)) | 1;
+		}
+		log("Error resolving MIME-Type with resolver " + entry.name //$NON-NLS-1$
+				+ ", paused for " + backoff + "ms", t); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * @return the current time in nanoseconds.
+	 */
+	protected long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Logs a failure or recovery of a resolver.
+	 */
+	protected abstract void log(String message, Throwable t);
+}
@@ -1,17 +1,22 @@
 package clipboard.monitor.swt.component.internal;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.eclipse.swt.dnd.Transfer;
 import org.eclipse.swt.dnd.TransferData;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
 import org.osgi.service.log.LogService;
 
+import clipboard.monitor.mime.internal.LongObjectMap;
 import clipboard.monitor.swt.AbstractSWTClipboardListener;
 import clipboard.monitor.swt.ClipboardMimeTypeResolver;
 
@@ -39,6 +44,18 @@ public class SWTClipboardListenerComponent extends AbstractSWTClipboardListener
 
 	private ComponentContext context;
 
+	private final ResolverRegistry resolvers = new ResolverRegistry() {
+		@Override
+		protected void log(String message, Throwable t) {
+			SWTClipboardListenerComponent.this.log(message, t);
+		}
+	};
+
+	// Never changed once published, replaced while holding resolvedLock
+	private volatile LongObjectMap<String[]> resolved = new LongObjectMap<String[]>();
+	private final Object resolvedLock = new Object();
+	private int resolvedGeneration;
+
 	@Override
 	protected void processEvent(String[] mimeTypes, String[] typeNames) {
 		EventAdmin eventAdmin = eventAdminRef.get();
@@ -54,6 +71,10 @@ public class SWTClipboardListenerComponent extends AbstractSWTClipboardListener
 		this.context = context;
 	}
 
+	protected void deactivate() {
+		dispose();
+	}
+
 	protected void bind(EventAdmin eventAdmin) {
 		eventAdminRef.set(eventAdmin);
 	}
@@ -62,6 +83,76 @@ public class SWTClipboardListenerComponent extends AbstractSWTClipboardListener
 		eventAdminRef.compareAndSet(eventAdmin, null);
 	}
 
+	/**
+	 * Adds the resolver to the snapshot of resolvers. The MIME-Types resolved
+	 * so far may change with the new resolver.
+	 * 
+	 * @param resolver
+	 *            to add
+	 * @param properties
+	 *            of the resolver service, see
+	 *            {@link ClipboardMimeTypeResolver#NATIVE_TYPES}
+	 */
+	protected void bind(ClipboardMimeTypeResolver resolver,
+			Map<String, Object> properties) {
+		resolvers.add(resolver, getNativeTypes(properties), getName(resolver));
+		invalidateResolved();
+	}
+
+	protected void unbind(ClipboardMimeTypeResolver resolver,
+			Map<String, Object> properties) {
+		resolvers.remove(resolver);
+		invalidateResolved();
+	}
+
+	private static String getName(ClipboardMimeTypeResolver resolver) {
+		final Bundle bundle = FrameworkUtil.getBundle(resolver.getClass());
+		if (null == bundle) {
+			return resolver.getClass().getName();
+		}
+		return String.format("%s from %s", resolver.getClass().getName(), //$NON-NLS-1$
+				bundle.getSymbolicName());
+	}
+
+	private static long[] getNativeTypes(Map<String, Object> properties) {
+		final Object value = properties != null ? properties
+				.get(ClipboardMimeTypeResolver.NATIVE_TYPES) : null;
+		if (value instanceof long[]) {
+			return (long[]) value;
+		}
+		if (value instanceof int[]) {
+			final int[] ids = (int[]) value;
+			final long[] types = new long[ids.length];
+			for (int i = 0; i < ids.length; ++i) {
+				types[i] = ids[i];
+			}
+			return types;
+		}
+		if (value instanceof Number) {
+			return new long[] { ((Number) value).longValue() };
+		}
+		if (value instanceof String) {
+			return new long[] { getNativeType((String) value) };
+		}
+		if (value instanceof String[]) {
+			final String[] names = (String[]) value;
+			final long[] types = new long[names.length];
+			for (int i = 0; i < names.length; ++i) {
+				types[i] = getNativeType(names[i]);
+			}
+			return types;
+		}
+		return null;
+	}
+
+	private static long getNativeType(String name) {
+		try {
+			return Long.decode(name.trim());
+		} catch (NumberFormatException e) {
+			return Transfer.registerType(name.trim());
+		}
+	}
+
 	protected void bind(LogService logService) {
 		logRef.set(logService);
 	}
@@ -87,30 +178,62 @@ public class SWTClipboardListenerComponent extends AbstractSWTClipboardListener
 		}
 	}
 
+	/**
+	 * Adds the MIME-Types of the bound {@link ClipboardMimeTypeResolver}
+	 * services to the standard ones. The MIME-Types the resolvers return for a
+	 * native type are cached until a resolver is bound or unbound. A native
+	 * type that a paused resolver was skipped for is not cached, so it is
+	 * resolved again once the resolver is back.
+	 */
 	@Override
-	protected void resolveMimeTypes(TransferData[] transferData,
-			Set<String> mimeTypes) {
-		super.resolveMimeTypes(transferData, mimeTypes);
-		// Query additional services that can help to resolve MIME-Types
-		Object resolvers[] = context
-				.locateServices(ClipboardMimeTypeResolver.class.getSimpleName());
-		if (resolvers != null) {
-			for (TransferData data : transferData) {
-				for (Object resolver : resolvers) {
-					try {
-						((ClipboardMimeTypeResolver) resolver)
-								.resolveMimeTypes(data, mimeTypes);
-					} catch (Throwable t) {
-						log(
-								String.format(
-										"Error resolving MIME-Type with resolver %s from %s",
-										resolver.getClass().getName(),
-										FrameworkUtil.getBundle(
-												resolver.getClass())
-												.getSymbolicName()), t);
-					}
+	protected String[] getMimeTypes(TransferData[] transferData) {
+		final String[] mimeTypes = super.getMimeTypes(transferData);
+		if (0 == resolvers.size()) {
+			return mimeTypes;
+		}
+		Set<String> union = null;
+		for (TransferData data : transferData) {
+			final String[] more = getResolvedMimeTypes(data);
+			if (more.length > 0) {
+				if (null == union) {
+					union = new HashSet<String>(Arrays.asList(mimeTypes));
 				}
+				union.addAll(Arrays.asList(more));
 			}
 		}
+		return null == union ? mimeTypes : union
+				.toArray(new String[union.size()]);
+	}
+
+	private String[] getResolvedMimeTypes(TransferData data) {
+		final long type = getNativeType(data);
+		final String[] cached = resolved.get(type);
+		if (cached != null) {
+			return cached;
+		}
+		final int generation;
+		synchronized (resolvedLock) {
+			generation = resolvedGeneration;
+		}
+		final Set<String> mimeTypes = new HashSet<String>();
+		final boolean complete = resolvers.resolveMimeTypes(data, mimeTypes);
+		final String[] result = mimeTypes.toArray(new String[mimeTypes.size()]);
+		synchronized (resolvedLock) {
+			// Do not cache what was resolved with outdated or without paused
+			// resolvers
+			if (complete && generation == resolvedGeneration) {
+				final LongObjectMap<String[]> cache = resolved.copy();
+				cache.put(type, result);
+				resolved = cache;
+			}
+		}
+		return result;
+	}
+
+	private void invalidateResolved() {
+		synchronized (resolvedLock) {
+			++resolvedGeneration;
+			resolved = new LongObjectMap<String[]>();
+		}
 	}
 }
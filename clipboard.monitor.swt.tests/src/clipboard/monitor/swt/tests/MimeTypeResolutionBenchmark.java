@@ -0,0 +1,198 @@
+package clipboard.monitor.swt.tests;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.swt.dnd.TransferData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.mime.MimeTypeEngine;
+import clipboard.monitor.mime.MimeTypeRule;
+import clipboard.monitor.swt.AbstractSWTClipboardListener;
+
+/**
+ * Resolves the MIME-Types of synthetic transfer data, once with the nested
+ * loop over all transfers for every change and once with a single call of the
+ * engine of {@link AbstractSWTClipboardListener}.
+ */
+public class MimeTypeResolutionBenchmark {
+	private static final int CHANGES = 10000;
+	private static final int TRANSFERS = 12;
+	private static final int TYPES_PER_TRANSFER = 3;
+	private static final int FORMATS = 20;
+
+	/**
+	 * Resolves like the former default implementation: every transfer checks
+	 * every format.
+	 */
+	static class SyntheticListener extends AbstractSWTClipboardListener {
+		final long[][] typeIds = new long[TRANSFERS][TYPES_PER_TRANSFER];
+		final String[] mimeTypes = new String[TRANSFERS];
+		int resolved;
+
+		SyntheticListener() {
+			for (int i = 0; i < TRANSFERS; ++i) {
+				for (int j = 0; j < TYPES_PER_TRANSFER; ++j) {
+					typeIds[i][j] = 0xC000 + i * TYPES_PER_TRANSFER + j;
+				}
+				mimeTypes[i] = "application/x-synthetic-" + i; //$NON-NLS-1$
+			}
+		}
+
+		@Override
+		protected void processEvent(String[] mimeTypes, String[] typeNames) {
+		}
+
+		void resolveMimeTypes(long[] types, Set<String> mimeTypes) {
+			for (int i = 0; i < TRANSFERS; ++i) {
+				for (long type : types) {
+					for (long id : typeIds[i]) {
+						if (id == type) {
+							mimeTypes.add(this.mimeTypes[i]);
+						}
+					}
+				}
+			}
+		}
+
+		@Override
+		protected MimeTypeEngine createMimeTypeEngine() {
+			final MimeTypeEngine engine = new MimeTypeEngine();
+			engine.addRule(new MimeTypeRule() {
+				public void resolveMimeTypes(long type, String name,
+						Set<String> mimeTypes) {
+					++resolved;
+					SyntheticListener.this.resolveMimeTypes(new long[] { type },
+							mimeTypes);
+				}
+			});
+			return engine;
+		}
+
+		@Override
+		public void invalidateMimeTypes() {
+			super.invalidateMimeTypes();
+		}
+
+		@Override
+		public String[] getMimeTypes(TransferData[] transferData) {
+			return super.getMimeTypes(transferData);
+		}
+	}
+
+	private static TransferData[] formats(int offset) {
+		final TransferData[] formats = new TransferData[FORMATS];
+		for (int i = 0; i < FORMATS; ++i) {
+			formats[i] = new TransferData();
+			// Some formats no transfer knows
+			formats[i].type = 0xC000 + (offset + i * 2) % (TRANSFERS
+					* TYPES_PER_TRANSFER + 8);
+		}
+		return formats;
+	}
+
+	private static long[] types(TransferData[] formats) {
+		final long[] types = new long[formats.length];
+		for (int i = 0; i < types.length; ++i) {
+			types[i] = AbstractSWTClipboardListener.getNativeType(formats[i]);
+		}
+		return types;
+	}
+
+	private static String[] sorted(String[] mimeTypes) {
+		Arrays.sort(mimeTypes);
+		return mimeTypes;
+	}
+
+	@Test
+	public void testEngineResolvesLikeLoop() {
+		final SyntheticListener listener = new SyntheticListener();
+		for (int offset = 0; offset < 10; ++offset) {
+			final TransferData[] formats = formats(offset);
+			final Set<String> expected = new HashSet<String>();
+			listener.resolveMimeTypes(types(formats), expected);
+			Assert.assertArrayEquals(sorted(expected
+					.toArray(new String[expected.size()])), listener
+					.getMimeTypes(formats));
+		}
+	}
+
+	@Test
+	public void testDeprecatedHookIsStillCalled() {
+		final SyntheticListener listener = new SyntheticListener() {
+			@Override
+			protected void resolveMimeTypes(TransferData[] transferData,
+					Set<String> mimeTypes) {
+				Assert.assertFalse(mimeTypes.isEmpty());
+				mimeTypes.add("text/x-legacy"); //$NON-NLS-1$
+			}
+		};
+		final TransferData[] formats = formats(0);
+		final Set<String> expected = new HashSet<String>();
+		listener.resolveMimeTypes(types(formats), expected);
+		expected.add("text/x-legacy"); //$NON-NLS-1$
+		Assert.assertArrayEquals(sorted(expected.toArray(new String[expected
+				.size()])), sorted(listener.getMimeTypes(formats)));
+	}
+
+	@Test
+	public void testInvalidateResolvesAgain() {
+		final SyntheticListener listener = new SyntheticListener();
+		final TransferData[] formats = formats(0);
+		listener.getMimeTypes(formats);
+		final int resolved = listener.resolved;
+		Assert.assertEquals(FORMATS, resolved);
+		listener.getMimeTypes(formats);
+		Assert.assertEquals(resolved, listener.resolved);
+
+		listener.mimeTypes[0] = "text/x-changed"; //$NON-NLS-1$
+		listener.invalidateMimeTypes();
+		Assert.assertTrue(Arrays.asList(listener.getMimeTypes(formats))
+				.contains("text/x-changed")); //$NON-NLS-1$
+		Assert.assertEquals(2 * resolved, listener.resolved);
+	}
+
+	@Test
+	public void compareResolution() {
+		final SyntheticListener listener = new SyntheticListener();
+		final TransferData[][] changes = new TransferData[16][];
+		final long[][] types = new long[changes.length][];
+		for (int i = 0; i < changes.length; ++i) {
+			changes[i] = formats(i);
+			types[i] = types(changes[i]);
+		}
+		int found = 0;
+		// Warm up both paths
+		for (int i = 0; i < CHANGES; ++i) {
+			final Set<String> mimeTypes = new HashSet<String>();
+			listener.resolveMimeTypes(types[i % changes.length], mimeTypes);
+			found += mimeTypes.size()
+					+ listener.getMimeTypes(changes[i % changes.length]).length;
+		}
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < CHANGES; ++i) {
+			final Set<String> mimeTypes = new HashSet<String>();
+			listener.resolveMimeTypes(types[i % changes.length], mimeTypes);
+			found += mimeTypes.toArray(new String[mimeTypes.size()]).length;
+		}
+		final long loop = System.nanoTime() - begin;
+
+		final int resolved = listener.resolved;
+		begin = System.nanoTime();
+		for (int i = 0; i < CHANGES; ++i) {
+			found += listener.getMimeTypes(changes[i % changes.length]).length;
+		}
+		final long engine = System.nanoTime() - begin;
+
+		Assert.assertTrue(found > 0);
+		// No resolution after warm-up
+		Assert.assertEquals(resolved, listener.resolved);
+		System.out.println(String.format(
+				"%d changes of %d formats: loop %.2fus, engine %.2fus per change", //$NON-NLS-1$
+				CHANGES, FORMATS, loop / 1e3 / CHANGES, engine / 1e3 / CHANGES));
+		Assert.assertTrue(engine < loop);
+	}
+}
@@ -10,10 +10,9 @@
  ******************************************************************************/
 package clipboard.monitor.swt;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.eclipse.swt.dnd.Clipboard;
 import org.eclipse.swt.dnd.FileTransfer;
@@ -28,6 +27,11 @@ import org.eclipse.swt.widgets.Display;
 
 import clipboard.monitor.ClipboardEvent;
 import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.DispatchExecutor;
+import clipboard.monitor.DispatchExecutors;
+import clipboard.monitor.SerialDispatchExecutor;
+import clipboard.monitor.mime.MimeTypeEngine;
+import clipboard.monitor.mime.MimeTypeSet;
 
 /**
  * ClipboardListener implementation that queries the clipboard for the available
@@ -37,26 +41,52 @@ import clipboard.monitor.ClipboardListener;
  * Subclasses must decide what to do with the available formats by implementing
  * {@link #processEvent(String[], String[])}.
  * 
+ * <p>
+ * The formats are queried on the UI thread, with a {@link Clipboard} that is
+ * reused for the lifetime of the {@link Display}. At most one query waits for
+ * the UI thread at a time; changes that arrive while it waits are merged into
+ * it. The formats are processed on a thread of
+ * the {@link DispatchExecutor} returned by {@link #createDispatchExecutor()},
+ * so the UI thread is not held up.
+ * 
+ * <p>
+ * By default the changes are processed in order on a single thread. When that
+ * thread falls behind, only the latest pending change is processed, because
+ * every change carries the complete formats of the clipboard.
+ * 
  * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
  * 
  */
 public abstract class AbstractSWTClipboardListener implements ClipboardListener {
-	private Map<Transfer, String> mimeTypesMapping;
+	/**
+	 * Number of changes the default executor keeps waiting.
+	 */
+	protected static final int QUEUE_CAPACITY = 16;
+
+	private MimeTypeEngine mimeTypeEngine;
+	private final boolean resolvesMimeTypes = overridesResolveMimeTypes(getClass());
+	private DispatchExecutor dispatcher;
+
+	// Guarded by this
+	private boolean queryPending;
+	private boolean disposed;
+	private long mergedCount;
+
+	// Only used on the UI thread
+	private Clipboard clipboard;
 
 	protected interface TypeRunnable {
 		void run(TransferData[] transferData, String[] typeNames);
 	}
 
-	public void onEvent(ClipboardEvent event) {
-		getTypes(new TypeRunnable() {
-			public void run(TransferData[] transferData, String[] typeNames) {
-				final Set<String> mimeTypes = new HashSet<String>();
-				resolveMimeTypes(transferData, mimeTypes);
+	private final TypeRunnable processor = new TypeRunnable() {
+		public void run(TransferData[] transferData, String[] typeNames) {
+			processEvent(getMimeTypes(transferData), typeNames);
+		}
+	};
 
-				processEvent(mimeTypes.toArray(new String[mimeTypes.size()]),
-						typeNames);
-			}
-		});
+	public void onEvent(ClipboardEvent event) {
+		getTypes(processor);
 	}
 
 	/**
@@ -68,32 +98,257 @@ public abstract class AbstractSWTClipboardListener implements ClipboardListener
 	 */
 	protected abstract void processEvent(String[] mimeTypes, String[] typeNames);
 
+	/**
+	 * Creates the executor that processes the clipboard formats. Called once,
+	 * when the first change is processed.
+	 * 
+	 * <p>
+	 * The default implementation processes the changes in order on a single
+	 * reused thread and keeps at most {@value #QUEUE_CAPACITY} changes
+	 * waiting, replacing the latest one when it falls behind.
+	 * 
+	 * @return the executor to use. It is started by the caller.
+	 * @subclass.override
+	 */
+	protected DispatchExecutor createDispatchExecutor() {
+		return DispatchExecutors.serial(
+				"Clipboard Change Dispatcher", QUEUE_CAPACITY); //$NON-NLS-1$
+	}
+
+	private synchronized SerialDispatchExecutor getSerialDispatcher() {
+		if (dispatcher instanceof SerialDispatchExecutor) {
+			return (SerialDispatchExecutor) dispatcher;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of changes that wait to be processed, or
+	 *         <code>-1</code> if the executor does not report it.
+	 * @see #createDispatchExecutor()
+	 */
+	public int getQueueDepth() {
+		final SerialDispatchExecutor serial = getSerialDispatcher();
+		return null == serial ? -1 : serial.getQueueDepth();
+	}
+
+	/**
+	 * @return the number of pending changes that were skipped because a newer
+	 *         change replaced them, or <code>-1</code> if the executor does
+	 *         not report it.
+	 */
+	public long getSkippedCount() {
+		final SerialDispatchExecutor serial = getSerialDispatcher();
+		return null == serial ? -1 : serial.getReplacedCount();
+	}
+
+	/**
+	 * @return the number of changes that were merged into a query that was
+	 *         still waiting for the UI thread.
+	 */
+	public synchronized long getMergedCount() {
+		return mergedCount;
+	}
+
+	/**
+	 * @return the mean time in nanoseconds from querying the formats until
+	 *         they were processed, or <code>-1</code> if the executor does not
+	 *         report it.
+	 */
+	public long getProcessingLatencyMean() {
+		final SerialDispatchExecutor serial = getSerialDispatcher();
+		return null == serial ? -1 : serial.getLatencyMean();
+	}
+
+	/**
+	 * @return the 99th percentile of the time in nanoseconds from querying
+	 *         the formats until they were processed, or <code>-1</code> if
+	 *         the executor does not report it.
+	 */
+	public long getProcessingLatency99th() {
+		final SerialDispatchExecutor serial = getSerialDispatcher();
+		return null == serial ? -1 : serial.getLatency99th();
+	}
+
+	/**
+	 * Stops the executor that processes the clipboard formats. Changes
+	 * reported afterwards are ignored.
+	 */
+	public synchronized void dispose() {
+		disposed = true;
+		if (dispatcher != null) {
+			dispatcher.stop();
+			dispatcher = null;
+		}
+	}
+
+	/**
+	 * @return the executor, or <code>null</code> if the listener was
+	 *         disposed.
+	 */
+	private synchronized DispatchExecutor getDispatcher() {
+		if (disposed) {
+			return null;
+		}
+		if (null == dispatcher) {
+			dispatcher = createDispatchExecutor();
+			dispatcher.start();
+		}
+		return dispatcher;
+	}
+
 	private void getTypes(final TypeRunnable runnable) {
-		Display.getDefault().asyncExec(new Runnable() {
-			public void run() {
-				Clipboard clipboard = new Clipboard(Display.getDefault());
-				final TransferData[] data;
-				final String[] types;
-				try {
-					data = clipboard.getAvailableTypes();
-					types = clipboard.getAvailableTypeNames();
-				} catch (Throwable t) {
-					log("Could not query clipboard", t); //$NON-NLS-1$
-					return;
-				} finally {
-					clipboard.dispose();
+		synchronized (this) {
+			if (disposed) {
+				return;
+			}
+			if (queryPending) {
+				// The pending query will see this change too
+				++mergedCount;
+				return;
+			}
+			queryPending = true;
+		}
+		try {
+			Display.getDefault().asyncExec(new Runnable() {
+				public void run() {
+					query(runnable);
 				}
-				// Spawn a new thread, so the UI thread is no longer busy when
-				// we process the clipboard data
-				Thread thread = new Thread(new Runnable() {
-					public void run() {
-						runnable.run(data, types);
-					}
-				}, "Clipboard Change Dispatcher"); //$NON-NLS-1$
-				thread.setDaemon(true);
-				thread.start();
+			});
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				queryPending = false;
 			}
-		});
+			log("Could not schedule clipboard query", e); //$NON-NLS-1$
+		}
+	}
+
+	private void query(final TypeRunnable runnable) {
+		// Changes from now on need a query of their own
+		synchronized (this) {
+			queryPending = false;
+		}
+		final TransferData[] data;
+		final String[] types;
+		try {
+			final Clipboard clipboard = getClipboard();
+			data = clipboard.getAvailableTypes();
+			types = clipboard.getAvailableTypeNames();
+		} catch (Throwable t) {
+			disposeClipboard();
+			log("Could not query clipboard", t); //$NON-NLS-1$
+			return;
+		}
+		final DispatchExecutor dispatcher = getDispatcher();
+		if (null == dispatcher) {
+			return;
+		}
+		// Leave the UI thread, so it is no longer busy when we process
+		// the clipboard data
+		try {
+			dispatcher.execute(new Runnable() {
+				public void run() {
+					runnable.run(data, types);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Disposed meanwhile
+		}
+	}
+
+	/**
+	 * Must be called on the UI thread.
+	 * 
+	 * @return the clipboard of the current display, created on first use and
+	 *         disposed together with the display.
+	 */
+	private Clipboard getClipboard() {
+		if (null == clipboard || clipboard.isDisposed()) {
+			final Display display = Display.getCurrent();
+			clipboard = new Clipboard(display);
+			display.disposeExec(new Runnable() {
+				public void run() {
+					disposeClipboard();
+				}
+			});
+		}
+		return clipboard;
+	}
+
+	private void disposeClipboard() {
+		if (clipboard != null) {
+			clipboard.dispose();
+			clipboard = null;
+		}
+	}
+
+	/**
+	 * Resolves the MIME-Types of the given transfer data with the engine
+	 * returned by {@link #createMimeTypeEngine()}, in a single call. The
+	 * engine caches the MIME-Types of a native type until
+	 * {@link #invalidateMimeTypes()} is called. If a subclass overrides
+	 * {@link #resolveMimeTypes(TransferData[], Set)}, it is called afterwards
+	 * with the resolved MIME-Types.
+	 * 
+	 * @param transferData
+	 *            formats on the clipboard
+	 * @return unique list of MIME-Types
+	 * @subclass.override
+	 */
+	protected String[] getMimeTypes(TransferData[] transferData) {
+		final long[] types = new long[transferData.length];
+		for (int i = 0; i < types.length; ++i) {
+			types[i] = getNativeType(transferData[i]);
+		}
+		final MimeTypeSet resolved = getMimeTypeEngine().resolve(types, null);
+		if (!resolvesMimeTypes) {
+			return resolved.getMimeTypes();
+		}
+		final Set<String> mimeTypes = new HashSet<String>(resolved);
+		resolveMimeTypes(transferData, mimeTypes);
+		return mimeTypes.toArray(new String[mimeTypes.size()]);
+	}
+
+	/**
+	 * Adds MIME-Types to the ones the engine resolved from the given transfer
+	 * dates. The default implementation adds none.
+	 * 
+	 * @param transferData
+	 *            formats on the clipboard
+	 * @param mimeTypes
+	 *            MIME-Types resolved so far, to add new MIME-Types to
+	 * @deprecated Called with a new set on every change. Map the native types
+	 *             in {@link #createMimeTypeEngine()} or add a
+	 *             {@link clipboard.monitor.mime.MimeTypeRule} instead, their
+	 *             results are cached.
+	 * @subclass.override
+	 */
+	@Deprecated
+	protected void resolveMimeTypes(TransferData[] transferData,
+			Set<String> mimeTypes) {
+	}
+
+	private static boolean overridesResolveMimeTypes(Class<?> type) {
+		for (Class<?> c = type; c != AbstractSWTClipboardListener.class; c = c
+				.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("resolveMimeTypes", TransferData[].class, //$NON-NLS-1$
+						Set.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// Look further up
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Discards the MIME-Types cached by the engine. Must be called when a
+	 * {@link clipboard.monitor.mime.MimeTypeRule} of the engine would resolve
+	 * different MIME-Types than before.
+	 */
+	protected void invalidateMimeTypes() {
+		getMimeTypeEngine().invalidate();
 	}
 
 	/**
@@ -119,30 +374,55 @@ public abstract class AbstractSWTClipboardListener implements ClipboardListener
 	}
 
 	/**
-	 * Resolves some standard MIME-Types from the given transfer dates.
+	 * Creates the engine that resolves the standard MIME-Types. Called once,
+	 * when the first change is processed.
 	 * 
-	 * @param transferData
-	 * @param mimeTypes
+	 * <p>
+	 * The default implementation maps the native types of the SWT text, URL,
+	 * image, RTF, HTML and file transfers.
+	 * 
+	 * @return the engine to use
 	 * @subclass.override
 	 */
-	protected void resolveMimeTypes(TransferData[] transferData,
-			Set<String> mimeTypes) {
-		if (mimeTypesMapping == null) {
-			mimeTypesMapping = new HashMap<Transfer, String>();
-			mimeTypesMapping.put(TextTransfer.getInstance(), "text/plain"); //$NON-NLS-1$
-			mimeTypesMapping.put(URLTransfer.getInstance(), "text/url"); //$NON-NLS-1$
-			mimeTypesMapping.put(ImageTransfer.getInstance(), "image"); //$NON-NLS-1$
-			mimeTypesMapping.put(RTFTransfer.getInstance(), "text/richtext"); //$NON-NLS-1$
-			mimeTypesMapping.put(HTMLTransfer.getInstance(), "text/html"); //$NON-NLS-1$
-			mimeTypesMapping
-					.put(FileTransfer.getInstance(), "application/file"); //$NON-NLS-1$
-		}
-		for (Transfer transfer : mimeTypesMapping.keySet()) {
-			for (TransferData data : transferData) {
-				if (transfer.isSupportedType(data)) {
-					mimeTypes.add(mimeTypesMapping.get(transfer));
-				}
-			}
+	protected MimeTypeEngine createMimeTypeEngine() {
+		final MimeTypeEngine engine = new MimeTypeEngine();
+		addTypes(engine, TextTransfer.getInstance(), MimeTypeEngine.TEXT);
+		addTypes(engine, URLTransfer.getInstance(), MimeTypeEngine.URL);
+		addTypes(engine, ImageTransfer.getInstance(), MimeTypeEngine.IMAGE);
+		addTypes(engine, RTFTransfer.getInstance(), MimeTypeEngine.RICH_TEXT);
+		addTypes(engine, HTMLTransfer.getInstance(), MimeTypeEngine.HTML);
+		addTypes(engine, FileTransfer.getInstance(), MimeTypeEngine.FILE);
+		return engine;
+	}
+
+	/**
+	 * Maps the native types supported by the transfer to the MIME-Type.
+	 */
+	protected static void addTypes(MimeTypeEngine engine, Transfer transfer,
+			String mimeType) {
+		for (TransferData data : transfer.getSupportedTypes()) {
+			engine.addType(getNativeType(data), mimeType);
+		}
+	}
+
+	/**
+	 * Returns the native type id of the transfer data. It is an
+	 * <code>int</code> on Windows but a <code>long</code> on GTK and 64-bit
+	 * Mac OS X, so code that must compile against every SWT fragment reads it
+	 * through this method.
+	 * 
+	 * @param data
+	 *            transfer data of a format
+	 * @return the native type id of the format.
+	 */
+	public static long getNativeType(TransferData data) {
+		return data.type;
+	}
+
+	private synchronized MimeTypeEngine getMimeTypeEngine() {
+		if (null == mimeTypeEngine) {
+			mimeTypeEngine = createMimeTypeEngine();
 		}
+		return mimeTypeEngine;
 	}
 }
@@ -11,9 +11,19 @@ import org.eclipse.swt.dnd.TransferData;
  * Resolves MIME-Types from SWT Clipboard TransferData.
  * 
  * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
- *
+ * 
  */
 public interface ClipboardMimeTypeResolver {
+	/**
+	 * Service property with the native types the resolver handles. It is only
+	 * called for transfer data of these types. The value is a
+	 * <code>Number</code>, an <code>int[]</code>, a <code>long[]</code>, a
+	 * <code>String</code> or a <code>String[]</code>. Strings are either type ids or the names of
+	 * registered native formats. Without the property the resolver is called
+	 * for all types.
+	 */
+	String NATIVE_TYPES = "clipboard.resolver.native-types"; //$NON-NLS-1$
+
 	/**
 	 * Extracts possible MIME-Types out of a TransferData.
 	 * 
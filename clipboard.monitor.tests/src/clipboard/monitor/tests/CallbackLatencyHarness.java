@@ -0,0 +1,95 @@
+package clipboard.monitor.tests;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.OverflowPolicy;
+
+/**
+ * Measures how long the native callback is held up before it can forward the
+ * clipboard message to the next viewer, with slow listeners attached.
+ */
+public class CallbackLatencyHarness {
+	private static final int CALLBACKS = 200;
+	private static final int SLOW_LISTENERS = 3;
+	private static final long LISTENER_MILLIS = 2;
+
+	/**
+	 * Mimics the <code>WM_DRAWCLIPBOARD</code> handling of a native monitor.
+	 */
+	static class CallbackMonitor extends AbstractClipboardMonitor {
+		public void run() {
+		}
+
+		/**
+		 * @return nanoseconds until the message could be forwarded
+		 */
+		long callback() {
+			final long start = System.nanoTime();
+			fireChange();
+			// This is where the message is sent to the next viewer
+			return System.nanoTime() - start;
+		}
+	}
+
+	static class SlowListener implements ClipboardListener {
+		public void onEvent(ClipboardEvent event) {
+			try {
+				Thread.sleep(LISTENER_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private long[] measure(CallbackMonitor monitor) throws InterruptedException {
+		for (int i = 0; i < SLOW_LISTENERS; ++i) {
+			monitor.addListener(new SlowListener());
+		}
+		monitor.start();
+		try {
+			final long[] latencies = new long[CALLBACKS];
+			for (int i = 0; i < CALLBACKS; ++i) {
+				latencies[i] = monitor.callback();
+				Thread.sleep(1);
+			}
+			Arrays.sort(latencies);
+			return latencies;
+		} finally {
+			monitor.stop();
+		}
+	}
+
+	private static void report(String mode, long[] sorted) {
+		System.out.println(String.format(
+				"%-24s p50 %9.1f us, p99 %9.1f us, max %9.1f us", mode, //$NON-NLS-1$
+				sorted[sorted.length / 2] / 1000.0,
+				sorted[sorted.length * 99 / 100] / 1000.0,
+				sorted[sorted.length - 1] / 1000.0));
+	}
+
+	@Test
+	public void compareSyncAndAsyncDispatch() throws InterruptedException {
+		final long[] sync = measure(new CallbackMonitor());
+		report("sync", sync); //$NON-NLS-1$
+		Assert.assertTrue(sync[0] >= SLOW_LISTENERS * LISTENER_MILLIS
+				* 1000000L);
+
+		for (OverflowPolicy policy : OverflowPolicy.values()) {
+			if (policy == OverflowPolicy.BLOCK) {
+				// Blocks by design as soon as the listeners fall behind
+				continue;
+			}
+			CallbackMonitor monitor = new CallbackMonitor();
+			monitor.setAsyncDispatch(16, policy);
+			final long[] async = measure(monitor);
+			report("async " + policy, async); //$NON-NLS-1$
+			Assert.assertTrue(async[async.length / 2] < LISTENER_MILLIS * 1000000L);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardFormat;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardReader;
+
+public class ClipboardEventTests {
+
+	static class CountingReader implements ClipboardReader {
+		final AtomicInteger reads = new AtomicInteger();
+
+		public ClipboardFormat[] getAvailableFormats() {
+			reads.incrementAndGet();
+			return new ClipboardFormat[] { new ClipboardFormat(13,
+					"CF_UNICODETEXT") }; //$NON-NLS-1$
+		}
+	}
+
+	@Test
+	public void testFormatsAreReadOnceForAllListeners() {
+		final CountingReader reader = new CountingReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.reader = reader;
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>();
+		for (int i = 0; i < 5; ++i) {
+			monitor.addListener(new ClipboardListener() {
+				public void onEvent(ClipboardEvent event) {
+					Assert.assertEquals(1, event.getFormats().size());
+					events.add(event);
+				}
+			});
+		}
+		monitor.start();
+		try {
+			for (int i = 0; i < 3; ++i) {
+				monitor.change();
+			}
+		} finally {
+			monitor.stop();
+		}
+
+		Assert.assertEquals(15, events.size());
+		Assert.assertEquals(3, reader.reads.get());
+		long previous = 0;
+		for (ClipboardEvent event : events) {
+			Assert.assertTrue(event.getSequence() >= previous);
+			previous = event.getSequence();
+			Assert.assertTrue(event.getTime() > 0);
+		}
+		Assert.assertEquals(3, previous);
+	}
+
+	@Test
+	public void testFormatsWithoutReader() {
+		ClipboardEvent event = new ClipboardEvent(this);
+		Assert.assertTrue(event.getFormats().isEmpty());
+		Assert.assertEquals(1, event.getNotificationCount());
+	}
+
+	@Test
+	public void testFailingReaderYieldsNoFormats() {
+		ClipboardEvent event = new ClipboardEvent(this, 1, System.nanoTime(),
+				System.currentTimeMillis(), 1, new ClipboardReader() {
+					public ClipboardFormat[] getAvailableFormats() {
+						throw new IllegalStateException("clipboard busy"); //$NON-NLS-1$
+					}
+				});
+		Assert.assertTrue(event.getFormats().isEmpty());
+	}
+
+	@Test
+	public void testPayloadIsSharedDuringDispatchAndCopied() {
+		final TestMonitor monitor = new TestMonitor();
+		final List<ClipboardEvent> copies = new ArrayList<ClipboardEvent>();
+		for (int i = 0; i < 2; ++i) {
+			monitor.addListener(new ClipboardListener() {
+				public void onEvent(ClipboardEvent event) {
+					final ByteBuffer payload = event.getPayload();
+					Assert.assertTrue(payload.isReadOnly());
+					Assert.assertEquals(3, payload.remaining());
+					// Reading does not disturb the next listener
+					payload.get();
+					copies.add(event.copy());
+				}
+			});
+		}
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+		buffer.put(new byte[] { 9, 1, 2, 3, 9 });
+		buffer.position(1).limit(4);
+		monitor.change(buffer);
+		Assert.assertEquals(1, buffer.position());
+
+		// The copy survives the reuse of the buffer
+		buffer.clear();
+		buffer.put(new byte[8]);
+		Assert.assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), copies
+				.get(1).getPayload());
+		Assert.assertNull(new ClipboardEvent(this).getPayload());
+	}
+}
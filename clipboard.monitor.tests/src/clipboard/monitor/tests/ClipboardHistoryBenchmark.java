@@ -0,0 +1,78 @@
+package clipboard.monitor.tests;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardHistory;
+
+/**
+ * Measures the cost of adding and looking up events in a history with 100k
+ * entries.
+ */
+public class ClipboardHistoryBenchmark {
+	private static final int ENTRIES = 100000;
+	private static final int LOOKUPS = 1000000;
+	private static final int OVERHEAD = 256;
+
+	private static void measure(String name, int kept) {
+		final ClipboardEvent[] events = new ClipboardEvent[ENTRIES];
+		for (int i = 0; i < ENTRIES; ++i) {
+			events[i] = ClipboardHistoryTests.event(i + 1, 1000L * (i + 1));
+		}
+		// Warm up
+		ClipboardHistory history = new ClipboardHistory((long) kept * OVERHEAD);
+		for (int i = 0; i < ENTRIES; ++i) {
+			history.onEvent(events[i]);
+		}
+
+		history = new ClipboardHistory((long) kept * OVERHEAD);
+		long begin = System.nanoTime();
+		for (int i = 0; i < ENTRIES; ++i) {
+			history.onEvent(events[i]);
+		}
+		final long insert = (System.nanoTime() - begin) / ENTRIES;
+		Assert.assertEquals(kept, history.size());
+
+		final Random random = new Random(1);
+		final long[] keys = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; ++i) {
+			keys[i] = ENTRIES - random.nextInt(kept);
+		}
+		int found = 0;
+		begin = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; ++i) {
+			if (history.get(keys[i]) != null) {
+				++found;
+			}
+		}
+		final long bySequence = (System.nanoTime() - begin) / LOOKUPS;
+		Assert.assertEquals(LOOKUPS, found);
+
+		found = 0;
+		begin = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; ++i) {
+			// Ten events per range
+			found += history.getRange(keys[i] * 1000, keys[i] * 1000 + 10000)
+					.size();
+		}
+		final long byTime = (System.nanoTime() - begin) / LOOKUPS;
+		Assert.assertTrue(found > 0);
+
+		System.out.println(name + ": insert " + insert //$NON-NLS-1$
+				+ " ns, get by sequence " + bySequence //$NON-NLS-1$
+				+ " ns, 10 events by time " + byTime + " ns"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void measureWithinBudget() {
+		measure("100k kept", ENTRIES); //$NON-NLS-1$
+	}
+
+	@Test
+	public void measureEvicting() {
+		measure("100k added, 25k kept", ENTRIES / 4); //$NON-NLS-1$
+	}
+}
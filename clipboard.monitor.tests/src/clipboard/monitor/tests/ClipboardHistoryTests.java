@@ -0,0 +1,200 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardHistory;
+import clipboard.monitor.ClipboardHistoryListener;
+
+public class ClipboardHistoryTests {
+	/** Bytes charged for an event without content. */
+	private static final int OVERHEAD = 256;
+
+	static ClipboardEvent event(long sequence, long time) {
+		return new ClipboardEvent(ClipboardHistoryTests.class, sequence, 0,
+				time, 1, null);
+	}
+
+	@Test
+	public void testBudgetIsKept() {
+		final TestMonitor monitor = new TestMonitor();
+		final ClipboardHistory history = new ClipboardHistory(100000);
+		monitor.addListener(history);
+		for (int i = 0; i < 1000; ++i) {
+			monitor.change(ByteBuffer.allocate(500));
+		}
+		Assert.assertTrue(history.getBytes() <= 100000);
+		Assert.assertEquals(100000 / (500 + OVERHEAD), history.size());
+		Assert.assertEquals(1000 - history.size(), history.getEvictedCount());
+		Assert.assertNotNull(history.get(1000));
+		Assert.assertNull(history.get(1));
+		Assert.assertEquals(500, history.get(1000).getPayload().remaining());
+	}
+
+	@Test
+	public void testLargeEntryIsEvictedBeforeSmallOnes() {
+		final int small = 1000 + OVERHEAD;
+		final int large = 50000 + OVERHEAD;
+		final TestMonitor monitor = new TestMonitor();
+		final ClipboardHistory history = new ClipboardHistory(100 * small
+				+ large + 100);
+		monitor.addListener(history);
+		for (int i = 0; i < 100; ++i) {
+			monitor.change(ByteBuffer.allocate(1000));
+		}
+		monitor.change(ByteBuffer.allocate(50000));
+		for (int i = 0; i < 10; ++i) {
+			monitor.change(ByteBuffer.allocate(1000));
+		}
+		Assert.assertEquals(1, history.getEvictedCount());
+		Assert.assertNull(history.get(101));
+		for (int i = 1; i <= 111; ++i) {
+			if (i != 101) {
+				Assert.assertNotNull(history.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testSmallEntriesStillAgeOut() {
+		final TestMonitor monitor = new TestMonitor();
+		final ClipboardHistory history = new ClipboardHistory(
+				10 * (100 + OVERHEAD));
+		monitor.addListener(history);
+		for (int i = 0; i < 100; ++i) {
+			monitor.change(ByteBuffer.allocate(100));
+		}
+		// Equal sizes are evicted oldest first
+		Assert.assertEquals(10, history.size());
+		Assert.assertNull(history.get(90));
+		Assert.assertNotNull(history.get(91));
+	}
+
+	@Test
+	public void testOversizedEventIsRejected() {
+		final TestMonitor monitor = new TestMonitor();
+		final ClipboardHistory history = new ClipboardHistory(10000);
+		monitor.addListener(history);
+		monitor.change(ByteBuffer.allocate(100));
+		monitor.change(ByteBuffer.allocate(20000));
+		Assert.assertEquals(1, history.size());
+		Assert.assertEquals(1, history.getRejectedCount());
+		Assert.assertEquals(0, history.getEvictedCount());
+	}
+
+	@Test
+	public void testThrowingListenerKeepsHistoryConsistent() {
+		final TestMonitor monitor = new TestMonitor();
+		final ClipboardHistory history = new ClipboardHistory(3 * (100 + OVERHEAD));
+		monitor.addListener(history);
+		final int[] evicted = new int[1];
+		history.addHistoryListener(new ClipboardHistoryListener() {
+			public void onEvent(ClipboardEvent event) {
+				throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+			}
+
+			public void onEvicted(ClipboardEvent event) {
+				throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+			}
+		});
+		history.addHistoryListener(new ClipboardHistoryListener() {
+			public void onEvent(ClipboardEvent event) {
+			}
+
+			public void onEvicted(ClipboardEvent event) {
+				++evicted[0];
+			}
+		});
+		for (int i = 0; i < 10; ++i) {
+			monitor.change(ByteBuffer.allocate(100));
+		}
+		Assert.assertEquals(3, history.size());
+		Assert.assertEquals(3 * (100 + OVERHEAD), history.getBytes());
+		Assert.assertEquals(7, history.getEvictedCount());
+		Assert.assertEquals(7, evicted[0]);
+		Assert.assertNotNull(history.get(10));
+	}
+
+	@Test
+	public void testLookupByTime() {
+		final ClipboardHistory history = new ClipboardHistory(1000000);
+		history.onEvent(event(1, 1000));
+		history.onEvent(event(2, 2000));
+		history.onEvent(event(3, 3000));
+		// The clock went back, indexed with the previous time
+		history.onEvent(event(4, 2500));
+		history.onEvent(event(5, 4000));
+
+		final List<ClipboardEvent> range = history.getRange(2000, 4000);
+		Assert.assertEquals(3, range.size());
+		Assert.assertEquals(2, range.get(0).getSequence());
+		Assert.assertEquals(4, range.get(2).getSequence());
+		Assert.assertTrue(history.getRange(5000, 6000).isEmpty());
+		Assert.assertEquals(5, history.getRange(0, Long.MAX_VALUE).size());
+
+		Assert.assertEquals(5, history.getLatest(2).get(0).getSequence());
+		Assert.assertEquals(1, history.getAll().get(0).getSequence());
+		history.clear();
+		Assert.assertNull(history.get(3));
+		Assert.assertEquals(0, history.getBytes());
+	}
+
+	@Test
+	public void testReadersSeeConsistentEntriesWhileWriting() throws Exception {
+		final int events = 200000;
+		final ClipboardHistory history = new ClipboardHistory(1000 * OVERHEAD);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final long[] written = new long[1];
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				final Random random = new Random(1);
+				try {
+					long last;
+					do {
+						synchronized (written) {
+							last = written[0];
+						}
+						if (last > 0) {
+							final long sequence = last
+									- random.nextInt((int) Math.min(last, 2000));
+							final ClipboardEvent event = history.get(sequence);
+							if (event != null && event.getSequence() != sequence) {
+								throw new AssertionError(event.getSequence()
+										+ " instead of " + sequence); //$NON-NLS-1$
+							}
+							long previous = -1;
+							for (ClipboardEvent e : history.getRange(
+									sequence * 10, sequence * 10 + 500)) {
+								if (e.getSequence() <= previous) {
+									throw new AssertionError("out of order"); //$NON-NLS-1$
+								}
+								previous = e.getSequence();
+							}
+						}
+					} while (last < events);
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+		reader.start();
+		for (int i = 1; i <= events; ++i) {
+			history.onEvent(event(i, i * 10));
+			synchronized (written) {
+				written[0] = i;
+			}
+		}
+		reader.join();
+		Assert.assertNull(failure.get());
+		Assert.assertEquals(1000, history.size());
+		Assert.assertNotNull(history.get(events));
+		Assert.assertNull(history.get(events - 1000));
+	}
+}
@@ -0,0 +1,129 @@
+package clipboard.monitor.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardListenerList;
+
+public class ClipboardListenerListTests {
+	private static final int EVENTS = 2000000;
+	private static final int MUTATORS = 4;
+
+	@Test
+	public void testRanking() {
+		final List<String> calls = new ArrayList<String>();
+		ClipboardListenerList list = new ClipboardListenerList();
+		list.add(new NamedListener("a", calls)); //$NON-NLS-1$
+		list.add(new NamedListener("low", calls), -1); //$NON-NLS-1$
+		list.add(new NamedListener("high", calls), 5); //$NON-NLS-1$
+		list.add(new NamedListener("b", calls)); //$NON-NLS-1$
+		for (ClipboardListener listener : list.getListeners()) {
+			listener.onEvent(null);
+		}
+		Assert.assertEquals("[high, a, b, low]", calls.toString()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testOrderWithinRanking() {
+		final List<String> calls = new ArrayList<String>();
+		ClipboardListenerList list = new ClipboardListenerList();
+		list.add(new NamedListener("7", calls), 0, 7); //$NON-NLS-1$
+		list.add(new NamedListener("high", calls), 5, 9); //$NON-NLS-1$
+		list.add(new NamedListener("3", calls), 0, 3); //$NON-NLS-1$
+		list.add(new NamedListener("unordered", calls), 0); //$NON-NLS-1$
+		list.add(new NamedListener("5", calls), 0, 5); //$NON-NLS-1$
+		for (ClipboardListener listener : list.getListeners()) {
+			listener.onEvent(null);
+		}
+		Assert.assertEquals("[high, 3, 5, 7, unordered]", calls.toString()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testSnapshotIsStable() {
+		ClipboardListenerList list = new ClipboardListenerList();
+		CountingListener listener1 = new CountingListener();
+		CountingListener listener2 = new CountingListener();
+		Assert.assertTrue(list.add(listener1));
+		ClipboardListener[] snapshot = list.getListeners();
+		Assert.assertTrue(list.add(listener2));
+		Assert.assertFalse(list.add(listener2));
+		Assert.assertEquals(1, snapshot.length);
+		Assert.assertEquals(2, list.size());
+		Assert.assertTrue(list.remove(listener1));
+		Assert.assertFalse(list.remove(listener1));
+		Assert.assertEquals(1, snapshot.length);
+		Assert.assertSame(listener2, list.getListeners()[0]);
+	}
+
+	/**
+	 * Adds and removes listeners from several threads while another thread
+	 * sends events at full speed. Listeners that stay registered must see
+	 * every event and the dispatching thread must never fail.
+	 */
+	@Test
+	public void testAddRemoveDuringEventStorm() throws Throwable {
+		final TestMonitor monitor = new TestMonitor();
+		final ClipboardEvent event = new ClipboardEvent(monitor);
+		final CountingListener permanent = new CountingListener();
+		monitor.addListener(permanent);
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch started = new CountDownLatch(MUTATORS);
+		final AtomicInteger mutations = new AtomicInteger();
+		final Thread[] mutators = new Thread[MUTATORS];
+		for (int i = 0; i < MUTATORS; ++i) {
+			mutators[i] = new Thread("Mutator " + i) { //$NON-NLS-1$
+				@Override
+				public void run() {
+					try {
+						final CountingListener[] own = new CountingListener[16];
+						for (int j = 0; j < own.length; ++j) {
+							own[j] = new CountingListener();
+						}
+						started.countDown();
+						int j = 0;
+						while (running.get()) {
+							CountingListener listener = own[j++ % own.length];
+							monitor.addListener(listener);
+							monitor.addListener(listener);
+							monitor.removeListener(listener);
+							mutations.incrementAndGet();
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			};
+			mutators[i].start();
+		}
+
+		started.await();
+		try {
+			for (int i = 0; i < EVENTS; ++i) {
+				monitor.fire(event);
+			}
+		} finally {
+			running.set(false);
+			for (Thread mutator : mutators) {
+				mutator.join();
+			}
+		}
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		Assert.assertEquals(EVENTS, permanent.events.get());
+		Assert.assertEquals(1, monitor.getListenerCount());
+		Assert.assertTrue(mutations.get() > 0);
+	}
+}
@@ -0,0 +1,152 @@
+package clipboard.monitor.tests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardTextIndex;
+
+/**
+ * Measures adding texts to and searching a text index with 100k entries.
+ * 
+ * <p>
+ * Single words, two letter prefixes and two words are answered in under 1ms
+ * at the 99th percentile. Three word phrases are not: a phrase of common
+ * words checks the positions in many entries, which takes several
+ * milliseconds at the 99th percentile. For them only the median is held to
+ * 1ms.
+ */
+public class ClipboardTextIndexBenchmark {
+	private static final int ENTRIES = 100000;
+	private static final int WORDS = 20000;
+	private static final int QUERIES = 2000;
+	private static final long MILLISECOND = 1000000;
+
+	private static String[] vocabulary() {
+		final Random random = new Random(1);
+		final String[] words = new String[WORDS];
+		final StringBuilder word = new StringBuilder();
+		for (int i = 0; i < WORDS; ++i) {
+			word.setLength(0);
+			final int length = 3 + random.nextInt(8);
+			for (int j = 0; j < length; ++j) {
+				word.append((char) ('a' + random.nextInt(26)));
+			}
+			words[i] = word.toString() + i;
+		}
+		return words;
+	}
+
+	/**
+	 * @return texts of 5 to 60 words, with the words picked by a Zipf-like
+	 *         distribution, like in natural language.
+	 */
+	private static String[] texts(String[] words) {
+		final Random random = new Random(2);
+		final String[] texts = new String[ENTRIES];
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < ENTRIES; ++i) {
+			text.setLength(0);
+			final int length = 5 + random.nextInt(56);
+			for (int j = 0; j < length; ++j) {
+				final double rank = Math.pow(WORDS, random.nextDouble()) - 1;
+				text.append(words[(int) rank]).append(' ');
+			}
+			texts[i] = text.toString();
+		}
+		return texts;
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[(int) Math.ceil(sorted.length * p / 100) - 1];
+	}
+
+	/**
+	 * @param p99
+	 *            whether the 99th percentile must be under 1ms, otherwise the
+	 *            median must be
+	 */
+	private static void measure(ClipboardTextIndex index, String name,
+			String[] queries, boolean p99) {
+		final long[] latencies = new long[queries.length];
+		int found = 0;
+		for (int i = 0; i < queries.length; ++i) {
+			final long begin = System.nanoTime();
+			found += index.search(queries[i], 20).length;
+			latencies[i] = System.nanoTime() - begin;
+		}
+		Arrays.sort(latencies);
+		System.out.println(name + ": p50 " + percentile(latencies, 50) / 1000 //$NON-NLS-1$
+				+ "us, p99 " + percentile(latencies, 99) / 1000 //$NON-NLS-1$
+				+ "us, " + found / queries.length + " results per query"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertTrue(name, percentile(latencies, p99 ? 99 : 50)
+				< MILLISECOND);
+	}
+
+	@Test
+	public void measureQueries() {
+		final String[] words = vocabulary();
+		final String[] texts = texts(words);
+		final ClipboardTextIndex index = new ClipboardTextIndex();
+		final long begin = System.nanoTime();
+		for (int i = 0; i < ENTRIES; ++i) {
+			index.add(i, texts[i]);
+		}
+		final long add = (System.nanoTime() - begin) / ENTRIES;
+		System.out.println("add: " + add + " ns per entry, " //$NON-NLS-1$ //$NON-NLS-2$
+				+ index.getWordCount() + " words, " //$NON-NLS-1$
+				+ index.getPostingsBytes() / 1024 + "KB postings"); //$NON-NLS-1$
+
+		final Random random = new Random(3);
+		final String[] rare = new String[QUERIES];
+		final String[] common = new String[QUERIES];
+		final String[] prefix = new String[QUERIES];
+		final String[] phrase = new String[QUERIES];
+		final String[] and = new String[QUERIES];
+		for (int i = 0; i < QUERIES; ++i) {
+			rare[i] = words[WORDS / 2 + random.nextInt(WORDS / 2)];
+			common[i] = words[random.nextInt(10)];
+			prefix[i] = words[random.nextInt(WORDS)].substring(0, 2) + '*';
+			final String[] text = texts[random.nextInt(ENTRIES)].split(" "); //$NON-NLS-1$
+			final int start = random.nextInt(text.length - 2);
+			phrase[i] = '"' + text[start] + ' ' + text[start + 1] + ' '
+					+ text[start + 2] + '"';
+			and[i] = words[random.nextInt(100)] + ' '
+					+ words[random.nextInt(1000)];
+		}
+		// Warm up
+		for (int i = 0; i < 5; ++i) {
+			for (String[] queries : new String[][] { rare, common, prefix,
+					phrase, and }) {
+				for (String query : queries) {
+					index.search(query, 20);
+				}
+			}
+		}
+		measure(index, "rare word", rare, true); //$NON-NLS-1$
+		measure(index, "common word", common, true); //$NON-NLS-1$
+		measure(index, "two letter prefix", prefix, true); //$NON-NLS-1$
+		measure(index, "three word phrase", phrase, false); //$NON-NLS-1$
+		measure(index, "two words", and, true); //$NON-NLS-1$
+	}
+
+	@Test
+	public void measureSlidingWindow() {
+		final String[] texts = texts(vocabulary());
+		final ClipboardTextIndex index = new ClipboardTextIndex();
+		final int window = ENTRIES / 4;
+		final long begin = System.nanoTime();
+		for (int i = 0; i < ENTRIES; ++i) {
+			index.add(i, texts[i]);
+			if (i >= window) {
+				index.remove(i - window);
+			}
+		}
+		final long update = (System.nanoTime() - begin) / ENTRIES;
+		Assert.assertEquals(window, index.size());
+		System.out.println("add and remove with " + window //$NON-NLS-1$
+				+ " entries kept: " + update + " ns per entry"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
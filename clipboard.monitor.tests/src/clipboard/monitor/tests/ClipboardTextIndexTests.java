@@ -0,0 +1,174 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardHistory;
+import clipboard.monitor.ClipboardHistoryListener;
+import clipboard.monitor.ClipboardTextIndex;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.tests.ContentCaptureTests.FakeContentReader;
+
+public class ClipboardTextIndexTests {
+	private static final int TEXT = 13;
+
+	private static ByteBuffer utf16(String text) {
+		final ByteBuffer bytes = Charset.forName("UTF-16LE").encode(text + '\0'); //$NON-NLS-1$
+		final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.remaining());
+		direct.put(bytes).flip();
+		return direct;
+	}
+
+	private static void assertFound(ClipboardTextIndex index, String query,
+			long... expected) {
+		final long[] found = index.search(query, 100);
+		Assert.assertEquals(query, Arrays.toString(expected),
+				Arrays.toString(found));
+	}
+
+	@Test
+	public void testWordsPrefixesAndPhrases() {
+		final ClipboardTextIndex index = new ClipboardTextIndex();
+		index.add(1, "The quick brown fox jumps over the lazy dog"); //$NON-NLS-1$
+		index.add(2, "Quick-sort is quicker than bubble sort"); //$NON-NLS-1$
+		index.add(3, "A lazy afternoon, brown leaves."); //$NON-NLS-1$
+		index.add(4, "Send an e-mail to the fox@example.com address"); //$NON-NLS-1$
+
+		assertFound(index, "quick", 2, 1); //$NON-NLS-1$
+		assertFound(index, "QUICK brown", 1); //$NON-NLS-1$
+		assertFound(index, "quick*", 2, 1); //$NON-NLS-1$
+		assertFound(index, "quicke*", 2); //$NON-NLS-1$
+		assertFound(index, "lazy", 3, 1); //$NON-NLS-1$
+		assertFound(index, "\"lazy dog\"", 1); //$NON-NLS-1$
+		assertFound(index, "\"dog lazy\""); //$NON-NLS-1$
+		assertFound(index, "\"brown fox\" lazy", 1); //$NON-NLS-1$
+		assertFound(index, "quick-sort", 2); //$NON-NLS-1$
+		assertFound(index, "e-mail fox", 4); //$NON-NLS-1$
+		assertFound(index, "fox@example.com", 4); //$NON-NLS-1$
+		assertFound(index, "cat"); //$NON-NLS-1$
+		assertFound(index, "  "); //$NON-NLS-1$
+		Assert.assertEquals(1, index.search("lazy", 1).length); //$NON-NLS-1$
+
+		// Adding an event again replaces its text
+		index.add(1, "Nothing left"); //$NON-NLS-1$
+		assertFound(index, "lazy", 3); //$NON-NLS-1$
+		assertFound(index, "nothing", 1); //$NON-NLS-1$
+		Assert.assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testPhraseDoesNotSpanTexts() {
+		final ClipboardTextIndex index = new ClipboardTextIndex();
+		index.add(1, "hello", "world"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFound(index, "hello world", 1); //$NON-NLS-1$
+		assertFound(index, "\"hello world\""); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testCapturedTextAndHtml() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		monitor.setContentCapture(new ContentPool(1024 * 1024), TEXT);
+		final ClipboardTextIndex text = new ClipboardTextIndex();
+		text.addTextFormat(TEXT, "UTF-16LE"); //$NON-NLS-1$
+		final ClipboardTextIndex html = new ClipboardTextIndex();
+		html.addHtmlFormat(TEXT, "UTF-16LE"); //$NON-NLS-1$
+		monitor.addListener(text);
+		monitor.addListener(html);
+
+		reader.data = utf16("Version:0.9\r\nStartHTML:0000000105\r\n" //$NON-NLS-1$
+				+ "<html><body><b>Bold</b>face &amp; caf&#233; &lt;tag&gt;</body></html>"); //$NON-NLS-1$
+		monitor.change();
+		assertFound(text, "version", 1); //$NON-NLS-1$
+		assertFound(text, "body", 1); //$NON-NLS-1$
+		assertFound(html, "version"); //$NON-NLS-1$
+		assertFound(html, "body"); //$NON-NLS-1$
+		assertFound(html, "\"bold face\"", 1); //$NON-NLS-1$
+		assertFound(html, "caf\u00e9 tag", 1); //$NON-NLS-1$
+
+		// Events without text are not indexed
+		monitor.setContentCapture(null);
+		monitor.change();
+		Assert.assertEquals(1, text.size());
+	}
+
+	@Test
+	public void testEvictedEventsAreRemoved() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		monitor.setContentCapture(new ContentPool(1024 * 1024), TEXT);
+		final ClipboardHistory history = new ClipboardHistory(10 * 1000);
+		final ClipboardTextIndex index = new ClipboardTextIndex();
+		index.addTextFormat(TEXT, "UTF-16LE"); //$NON-NLS-1$
+		Assert.assertTrue(history.addHistoryListener(index));
+		monitor.addListener(history);
+
+		for (int i = 0; i < 100; ++i) {
+			reader.data = utf16("entry number " + i); //$NON-NLS-1$
+			monitor.change();
+		}
+		Assert.assertEquals(history.size(), index.size());
+		final long[] found = index.search("entry", 1000); //$NON-NLS-1$
+		Assert.assertEquals(history.size(), found.length);
+		for (long sequence : found) {
+			Assert.assertNotNull(history.get(sequence));
+		}
+		assertFound(index, "0"); //$NON-NLS-1$
+		assertFound(index, "99", 100); //$NON-NLS-1$
+
+		history.clear();
+		Assert.assertEquals(0, index.size());
+		assertFound(index, "entry"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testHistoryListenerSeesKeptAndEvicted() {
+		final ClipboardHistory history = new ClipboardHistory(3 * 256);
+		final StringBuilder log = new StringBuilder();
+		history.addHistoryListener(new ClipboardHistoryListener() {
+			public void onEvent(ClipboardEvent event) {
+				log.append('+').append(event.getSequence());
+			}
+
+			public void onEvicted(ClipboardEvent event) {
+				log.append('-').append(event.getSequence());
+			}
+		});
+		for (int i = 1; i <= 5; ++i) {
+			history.onEvent(ClipboardHistoryTests.event(i, i));
+		}
+		Assert.assertEquals("+1+2+3-1+4-2+5", log.toString()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testCompaction() {
+		final ClipboardTextIndex index = new ClipboardTextIndex();
+		for (int i = 0; i < 5000; ++i) {
+			index.add(i, "common word" + i % 10 + " unique" + i); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		final long bytes = index.getPostingsBytes();
+		for (int i = 0; i < 4000; ++i) {
+			Assert.assertTrue(index.remove(i));
+		}
+		Assert.assertFalse(index.remove(0));
+		Assert.assertTrue(index.getPostingsBytes() < bytes / 2);
+		Assert.assertTrue(index.getWordCount() < 5000 / 2);
+		Assert.assertEquals(1000, index.size());
+		Assert.assertEquals(1000, index.search("common", 5000).length); //$NON-NLS-1$
+		Assert.assertEquals(100, index.search("word7", 5000).length); //$NON-NLS-1$
+		assertFound(index, "unique3999"); //$NON-NLS-1$
+		assertFound(index, "unique4000", 4000); //$NON-NLS-1$
+		assertFound(index, "\"common word3\" unique4993", 4993); //$NON-NLS-1$
+
+		// Still takes new events
+		index.add(9999, "common"); //$NON-NLS-1$
+		Assert.assertEquals(9999, index.search("common", 1)[0]); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,151 @@
+package clipboard.monitor.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.Clock;
+import clipboard.monitor.internal.ChangeSink;
+import clipboard.monitor.internal.Coalescer;
+
+public class CoalescerTests {
+	private static final long MS = 1000000L;
+
+	static class FakeClock implements Clock {
+		long now = 1000 * MS;
+
+		public long nanoTime() {
+			return now;
+		}
+	}
+
+	static class RecordingSink implements ChangeSink {
+		final List<long[]> deliveries = new ArrayList<long[]>();
+
+		public void deliver(long detected, int notifications, long change) {
+			deliveries.add(new long[] { detected, notifications });
+		}
+	}
+
+	/**
+	 * Synthetic event source that replays notifications at the given times
+	 * (in milliseconds) and lets the fake clock run until the last burst was
+	 * delivered. The coalescer is flushed every millisecond, like its thread
+	 * would do.
+	 */
+	static class SyntheticSource {
+		final FakeClock clock = new FakeClock();
+		final long origin = clock.now;
+
+		void replay(Coalescer coalescer, long... millis) {
+			int next = 0;
+			while (next < millis.length || coalescer.getDeadline() != -1) {
+				if (next < millis.length
+						&& clock.now == origin + millis[next] * MS) {
+					coalescer.deliver(clock.now, 1, next + 1);
+					++next;
+				}
+				coalescer.flush();
+				clock.now += MS;
+			}
+		}
+
+		long at(long millis) {
+			return origin + millis * MS;
+		}
+	}
+
+	@Test
+	public void testBurstIsMergedAfterQuietWindow() {
+		SyntheticSource source = new SyntheticSource();
+		RecordingSink sink = new RecordingSink();
+		Coalescer coalescer = new Coalescer(50 * MS, 500 * MS, source.clock,
+				sink);
+
+		source.replay(coalescer, 0, 5, 10, 12, 30);
+
+		Assert.assertEquals(1, sink.deliveries.size());
+		Assert.assertEquals(source.at(0), sink.deliveries.get(0)[0]);
+		Assert.assertEquals(5, sink.deliveries.get(0)[1]);
+		// Delivered 50ms after the last notification
+		Assert.assertEquals(source.at(80), source.clock.now - MS);
+	}
+
+	@Test
+	public void testSeparateBursts() {
+		SyntheticSource source = new SyntheticSource();
+		RecordingSink sink = new RecordingSink();
+		Coalescer coalescer = new Coalescer(20 * MS, 500 * MS, source.clock,
+				sink);
+
+		source.replay(coalescer, 0, 1, 2, 100, 101, 300);
+
+		Assert.assertEquals(3, sink.deliveries.size());
+		Assert.assertEquals(3, sink.deliveries.get(0)[1]);
+		Assert.assertEquals(source.at(100), sink.deliveries.get(1)[0]);
+		Assert.assertEquals(2, sink.deliveries.get(1)[1]);
+		Assert.assertEquals(1, sink.deliveries.get(2)[1]);
+	}
+
+	@Test
+	public void testMaxLatencyBoundsContinuousBurst() {
+		SyntheticSource source = new SyntheticSource();
+		RecordingSink sink = new RecordingSink();
+		Coalescer coalescer = new Coalescer(20 * MS, 100 * MS, source.clock,
+				sink);
+
+		// A notification every 10ms for one second never gets quiet
+		long[] millis = new long[100];
+		for (int i = 0; i < millis.length; ++i) {
+			millis[i] = i * 10;
+		}
+		source.replay(coalescer, millis);
+
+		int total = 0;
+		long previous = Long.MIN_VALUE;
+		for (long[] delivery : sink.deliveries) {
+			total += delivery[1];
+			Assert.assertTrue(delivery[1] <= 11);
+			Assert.assertTrue(delivery[0] > previous);
+			previous = delivery[0];
+		}
+		Assert.assertEquals(millis.length, total);
+		Assert.assertEquals(10, sink.deliveries.size());
+	}
+
+	@Test
+	public void testMonitorCoalescing() throws InterruptedException {
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>();
+		final CountDownLatch received = new CountDownLatch(1);
+		AbstractClipboardMonitor monitor = new AbstractClipboardMonitor() {
+			public void run() {
+				for (int i = 0; i < 10; ++i) {
+					fireChange();
+				}
+			}
+		};
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				events.add(event);
+				received.countDown();
+			}
+		});
+		monitor.setCoalescing(50, 1000, TimeUnit.MILLISECONDS);
+		monitor.start();
+		try {
+			Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+			Thread.sleep(100);
+		} finally {
+			monitor.stop();
+		}
+		Assert.assertEquals(1, events.size());
+		Assert.assertEquals(10, events.get(0).getNotificationCount());
+	}
+}
@@ -0,0 +1,309 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardContent;
+import clipboard.monitor.ClipboardContentReader;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.DispatchExecutor;
+import clipboard.monitor.ListenerMailboxes;
+import clipboard.monitor.MailboxPolicy;
+
+public class ContentCaptureTests {
+	private static final int TEXT = 13;
+	private static final int HTML = 0xC0A1;
+
+	/**
+	 * Reads the same bytes for every format it has and counts the reads.
+	 */
+	static class FakeContentReader implements ClipboardContentReader {
+		final AtomicInteger reads = new AtomicInteger();
+		volatile ByteBuffer data;
+
+		public ClipboardContent[] readContents(int[] formats, ContentPool pool) {
+			reads.incrementAndGet();
+			final ClipboardContent[] contents = new ClipboardContent[formats.length];
+			for (int i = 0; i < formats.length; ++i) {
+				if (TEXT == formats[i]) {
+					contents[i] = pool.capture(formats[i], data);
+				}
+			}
+			return contents;
+		}
+	}
+
+	static ByteBuffer bytes(int size, int seed) {
+		final ByteBuffer data = ByteBuffer.allocateDirect(size);
+		for (int i = 0; i < size; ++i) {
+			data.put((byte) (seed + i));
+		}
+		data.flip();
+		return data;
+	}
+
+	@Test
+	public void testContentReturnsToPoolAfterLastRelease() {
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		final ClipboardContent content = pool.capture(TEXT, bytes(100, 1));
+		Assert.assertEquals(100, content.getSize());
+		Assert.assertEquals(bytes(100, 1), content.getBuffer());
+		Assert.assertTrue(content.getBuffer().isReadOnly());
+
+		content.retain();
+		content.release();
+		Assert.assertFalse(content.isReleased());
+		Assert.assertEquals(0, pool.getPooledBytes());
+		content.release();
+		Assert.assertTrue(content.isReleased());
+		Assert.assertEquals(4096, pool.getPooledBytes());
+		try {
+			content.getBuffer();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			content.retain();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			content.release();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+
+		// The next capture of a similar size reuses the buffer
+		final ClipboardContent next = pool.capture(TEXT, bytes(4000, 2));
+		Assert.assertEquals(bytes(4000, 2), next.getBuffer());
+		Assert.assertEquals(1, pool.getAllocationCount());
+		Assert.assertEquals(1, pool.getReuseCount());
+		next.release();
+	}
+
+	@Test
+	public void testPoolKeepsAtMostMaxBytes() {
+		final ContentPool pool = new ContentPool(8192);
+		final List<ClipboardContent> contents = new ArrayList<ClipboardContent>();
+		for (int i = 0; i < 3; ++i) {
+			contents.add(pool.capture(TEXT, bytes(4096, i)));
+		}
+		contents.add(pool.capture(TEXT, bytes(4097, 3)));
+		for (ClipboardContent content : contents) {
+			content.release();
+		}
+		Assert.assertEquals(8192, pool.getPooledBytes());
+	}
+
+	@Test
+	public void testCapturedOnceForAllListeners() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setContentCapture(pool, TEXT, HTML);
+		final List<ClipboardContent> seen = new ArrayList<ClipboardContent>();
+		for (int i = 0; i < 4; ++i) {
+			monitor.addListener(new ClipboardListener() {
+				public void onEvent(ClipboardEvent event) {
+					seen.add(event.getContent(TEXT));
+					Assert.assertNull(event.getContent(HTML));
+					Assert.assertEquals(bytes(10000, 7), event.getContent(TEXT)
+							.getBuffer());
+				}
+			});
+		}
+		for (int i = 0; i < 10; ++i) {
+			reader.data = bytes(10000, 7);
+			monitor.change();
+		}
+		Assert.assertEquals(10, reader.reads.get());
+		Assert.assertEquals(40, seen.size());
+		for (int i = 0; i < 4; ++i) {
+			Assert.assertSame(seen.get(0), seen.get(i));
+		}
+		for (ClipboardContent content : seen) {
+			Assert.assertTrue(content.isReleased());
+		}
+		// One buffer served all changes
+		Assert.assertEquals(1, pool.getAllocationCount());
+		Assert.assertEquals(9, pool.getReuseCount());
+	}
+
+	@Test
+	public void testCopyAndRetainOutliveTheEvent() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setContentCapture(pool, TEXT);
+		final List<ClipboardEvent> copies = new ArrayList<ClipboardEvent>();
+		final List<ClipboardContent> retained = new ArrayList<ClipboardContent>();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				copies.add(event.copy());
+				retained.add(event.getContent(TEXT).retain());
+			}
+		});
+		reader.data = bytes(100, 1);
+		monitor.change();
+		Assert.assertEquals(0, pool.getPooledBytes());
+		retained.get(0).release();
+		Assert.assertEquals(4096, pool.getPooledBytes());
+
+		// The copy has its own bytes, so the next change can reuse the buffer
+		reader.data = bytes(100, 2);
+		monitor.change();
+		Assert.assertEquals(bytes(100, 1), copies.get(0).getContent(TEXT)
+				.getBuffer());
+		Assert.assertEquals(bytes(100, 2), retained.get(1).getBuffer());
+		retained.get(1).release();
+	}
+
+	@Test
+	public void testMailboxesReleaseDeliveredAndCoalescedEvents()
+			throws Exception {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(64 * 1024 * 1024);
+		monitor.setContentCapture(pool, TEXT);
+		monitor.setIsolatedDispatch(new ListenerMailboxes(2, 1, 1000,
+				TimeUnit.SECONDS));
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger slowEvents = new AtomicInteger();
+		final AtomicLong slowSequence = new AtomicLong();
+		final AtomicInteger fastEvents = new AtomicInteger();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				event.getContent(TEXT).getBuffer();
+				fastEvents.incrementAndGet();
+			}
+		}, MailboxPolicy.drop(32));
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				event.getContent(TEXT).getBuffer();
+				slowEvents.incrementAndGet();
+				slowSequence.set(event.getSequence());
+			}
+		}, MailboxPolicy.coalesce());
+		monitor.start().get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 20; ++i) {
+			reader.data = bytes(1000, i);
+			monitor.change();
+		}
+		release.countDown();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((fastEvents.get() < 20 || slowSequence.get() < 20)
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		monitor.stop().get(5, TimeUnit.SECONDS);
+
+		Assert.assertEquals(20, fastEvents.get());
+		Assert.assertEquals(20, slowSequence.get());
+		Assert.assertTrue(slowEvents.get() < 20);
+		// Every buffer went back to the pool
+		Assert.assertEquals(pool.getAllocationCount() * 4096, pool
+				.getPooledBytes());
+	}
+
+	@Test
+	public void testStopDeliversPendingEvents() throws Exception {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(64 * 1024 * 1024);
+		monitor.setContentCapture(pool, TEXT);
+		monitor.setIsolatedDispatch(new ListenerMailboxes(1, 1, 1000,
+				TimeUnit.SECONDS));
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger events = new AtomicInteger();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				event.getContent(TEXT).getBuffer();
+				events.incrementAndGet();
+			}
+		}, MailboxPolicy.drop(32));
+		monitor.start().get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 10; ++i) {
+			reader.data = bytes(1000, i);
+			monitor.change();
+		}
+		final Future<Void> stopped = monitor.stop();
+		Thread.sleep(50);
+		Assert.assertFalse(stopped.isDone());
+		release.countDown();
+		stopped.get(5, TimeUnit.SECONDS);
+
+		Assert.assertEquals(10, events.get());
+		Assert.assertEquals(pool.getAllocationCount() * 4096, pool
+				.getPooledBytes());
+	}
+
+	@Test
+	public void testStopReleasesUndeliveredEvents() throws Exception {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setContentCapture(pool, TEXT);
+		// Rejects the mailboxes, so their events are never delivered
+		final ListenerMailboxes mailboxes = new ListenerMailboxes(
+				new DispatchExecutor() {
+					public void start() {
+					}
+
+					public void execute(Runnable task) {
+						throw new RejectedExecutionException();
+					}
+
+					public void stop() {
+					}
+				}, 1, 1000, TimeUnit.SECONDS);
+		monitor.setIsolatedDispatch(mailboxes);
+		final AtomicInteger events = new AtomicInteger();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				events.incrementAndGet();
+			}
+		}, MailboxPolicy.drop(32));
+		monitor.start().get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 3; ++i) {
+			reader.data = bytes(1000, i);
+			monitor.change();
+		}
+		Assert.assertEquals(0, pool.getPooledBytes());
+		monitor.stop().get(5, TimeUnit.SECONDS);
+
+		Assert.assertEquals(0, events.get());
+		Assert.assertEquals(3, mailboxes.getDroppedCount());
+		Assert.assertEquals(pool.getAllocationCount() * 4096, pool
+				.getPooledBytes());
+	}
+}
@@ -0,0 +1,51 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.internal.XXHash64;
+
+/**
+ * Measures how fast the deduplication stage hashes clipboard content.
+ */
+public class ContentHashBenchmark {
+	private static final int SIZE = 16 * 1024 * 1024;
+	private static final int ROUNDS = 20;
+
+	private static double measure(ByteBuffer content) {
+		// Warm up
+		long sum = 0;
+		for (int i = 0; i < 5; ++i) {
+			sum += XXHash64.hash(content, i);
+		}
+		final long begin = System.nanoTime();
+		for (int i = 0; i < ROUNDS; ++i) {
+			sum += XXHash64.hash(content, i);
+		}
+		final long elapsed = System.nanoTime() - begin;
+		Assert.assertTrue(sum != 42);
+		Assert.assertEquals(0, content.position());
+		return (double) content.remaining() * ROUNDS / elapsed;
+	}
+
+	private static ByteBuffer fill(ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.capacity()];
+		new Random(1).nextBytes(bytes);
+		buffer.put(bytes).flip();
+		return buffer;
+	}
+
+	@Test
+	public void measureThroughput() {
+		final double direct = measure(fill(ByteBuffer.allocateDirect(SIZE)));
+		final double heap = measure(fill(ByteBuffer.allocate(SIZE)));
+		final double readOnly = measure(fill(ByteBuffer.allocateDirect(SIZE))
+				.asReadOnlyBuffer());
+		System.out.println(String.format(
+				"xxHash64: direct %.2f GB/s, heap %.2f GB/s, read-only %.2f GB/s", //$NON-NLS-1$
+				direct, heap, readOnly));
+	}
+}
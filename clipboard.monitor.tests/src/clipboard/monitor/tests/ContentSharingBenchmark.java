@@ -0,0 +1,121 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.tests.ContentCaptureTests.FakeContentReader;
+
+/**
+ * Compares listeners that each read their own heap copy of the clipboard
+ * content with listeners that share one captured off-heap buffer.
+ */
+public class ContentSharingBenchmark {
+	private static final int LISTENERS = 4;
+	private static final int FORMAT = 13;
+
+	/**
+	 * Simulates a listener that looks at every byte of the content.
+	 */
+	static long checksum(ByteBuffer buffer) {
+		long sum = 0;
+		while (buffer.remaining() >= 8) {
+			sum += buffer.getLong();
+		}
+		while (buffer.hasRemaining()) {
+			sum += buffer.get();
+		}
+		return sum;
+	}
+
+	static class SharedListener implements ClipboardListener {
+		long sum;
+
+		public void onEvent(ClipboardEvent event) {
+			sum += checksum(event.getContent(FORMAT).getBuffer());
+		}
+	}
+
+	private static ByteBuffer content(int size) {
+		final byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		final ByteBuffer content = ByteBuffer.allocateDirect(size);
+		content.put(bytes).flip();
+		return content;
+	}
+
+	/**
+	 * Every listener reads the clipboard into a heap array of its own, like
+	 * listeners that query the clipboard themselves.
+	 */
+	private static long heapCopies(ByteBuffer content, int changes) {
+		long sum = 0;
+		for (int change = 0; change < changes; ++change) {
+			for (int i = 0; i < LISTENERS; ++i) {
+				final byte[] copy = new byte[content.remaining()];
+				content.duplicate().get(copy);
+				sum += checksum(ByteBuffer.wrap(copy));
+			}
+		}
+		return sum;
+	}
+
+	private static void measure(int size, int changes) {
+		final ByteBuffer content = content(size);
+
+		final FakeContentReader reader = new FakeContentReader();
+		reader.data = content;
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(64 * 1024 * 1024);
+		monitor.setContentCapture(pool, FORMAT);
+		final SharedListener[] listeners = new SharedListener[LISTENERS];
+		for (int i = 0; i < LISTENERS; ++i) {
+			listeners[i] = new SharedListener();
+			monitor.addListener(listeners[i]);
+		}
+
+		// Warm up both paths
+		final long expected = checksum(content.duplicate());
+		heapCopies(content, 2);
+		monitor.change();
+		monitor.change();
+
+		long begin = System.nanoTime();
+		heapCopies(content, changes);
+		final long heap = (System.nanoTime() - begin) / changes;
+
+		begin = System.nanoTime();
+		for (int i = 0; i < changes; ++i) {
+			monitor.change();
+		}
+		final long shared = (System.nanoTime() - begin) / changes;
+
+		for (int i = 0; i < LISTENERS; ++i) {
+			Assert.assertEquals(expected * (changes + 2), listeners[i].sum);
+		}
+		Assert.assertEquals(1, pool.getAllocationCount());
+
+		System.out.println(size / 1024 / 1024 + "MB x " + LISTENERS //$NON-NLS-1$
+				+ " listeners: heap copies " + heap / 1000 //$NON-NLS-1$
+				+ "us, " + (long) size * LISTENERS / 1024 / 1024 //$NON-NLS-1$
+				+ "MB allocated per change; shared " + shared / 1000 //$NON-NLS-1$
+				+ "us, one pooled buffer of " + pool.getPooledBytes() / 1024 //$NON-NLS-1$
+				/ 1024 + "MB"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void measureOneMegabyte() {
+		measure(1024 * 1024, 200);
+	}
+
+	@Test
+	public void measureTwentyMegabytes() {
+		measure(20 * 1024 * 1024, 10);
+	}
+}
@@ -0,0 +1,22 @@
+package clipboard.monitor.tests;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+
+/**
+ * Listener shared by the tests that counts the events it receives and the
+ * changes they stand for.
+ */
+class CountingListener implements ClipboardListener {
+	final AtomicInteger events = new AtomicInteger();
+	final AtomicInteger notifications = new AtomicInteger();
+
+	public void onEvent(ClipboardEvent event) {
+		if (event != null) {
+			notifications.addAndGet(event.getNotificationCount());
+		}
+		events.incrementAndGet();
+	}
+}
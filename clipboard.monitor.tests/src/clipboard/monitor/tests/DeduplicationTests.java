@@ -0,0 +1,215 @@
+package clipboard.monitor.tests;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardFormat;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardReader;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.internal.XXHash64;
+import clipboard.monitor.tests.ContentCaptureTests.FakeContentReader;
+
+public class DeduplicationTests {
+	private static final int TEXT = 13;
+
+	/**
+	 * Keeps copies of the events and gives the monitor the formats set by the
+	 * test.
+	 */
+	static class Recorder implements ClipboardListener, ClipboardReader {
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>();
+		volatile ClipboardFormat[] formats;
+		int reads;
+
+		public void onEvent(ClipboardEvent event) {
+			events.add(event.copy());
+		}
+
+		public ClipboardFormat[] getAvailableFormats() {
+			++reads;
+			return formats;
+		}
+	}
+
+	private static ClipboardFormat[] formats(int... ids) {
+		final ClipboardFormat[] formats = new ClipboardFormat[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			formats[i] = new ClipboardFormat(ids[i], "format " + ids[i]); //$NON-NLS-1$
+		}
+		return formats;
+	}
+
+	@Test
+	public void testHashMatchesReferenceValues() throws Exception {
+		Assert.assertEquals(0xEF46DB3751D8E999L, XXHash64.hash(ByteBuffer
+				.allocate(0), 0));
+		Assert.assertEquals(0xD24EC4F1A98C6E5BL, XXHash64.hash(ByteBuffer
+				.wrap("a".getBytes("US-ASCII")), 0)); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(0x44BC2CF5AD770999L, XXHash64.hash(ByteBuffer
+				.wrap("abc".getBytes("US-ASCII")), 0)); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(0x0B242D361FDA71BCL, XXHash64.hash(ByteBuffer
+				.wrap("The quick brown fox jumps over the lazy dog" //$NON-NLS-1$
+						.getBytes("US-ASCII")), 0)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testHashReadsInPlace() {
+		final ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+		for (int i = 0; i < direct.capacity(); ++i) {
+			direct.put((byte) (i * 31));
+		}
+		direct.position(3).limit(997);
+		final byte[] bytes = new byte[direct.remaining()];
+		direct.duplicate().get(bytes);
+		Assert.assertEquals(XXHash64.hash(ByteBuffer.wrap(bytes), 42),
+				XXHash64.hash(direct, 42));
+		Assert.assertEquals(3, direct.position());
+		Assert.assertEquals(997, direct.limit());
+
+		final ByteBuffer value = ByteBuffer.allocate(8);
+		value.order(ByteOrder.LITTLE_ENDIAN).putLong(0, 123456789L);
+		Assert.assertEquals(XXHash64.hash(value, 7), XXHash64.hash(123456789L,
+				7));
+	}
+
+	@Test
+	public void testRepeatedPayloadIsSuppressed() throws Exception {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		monitor.setDeduplication(true);
+		monitor.change("first"); //$NON-NLS-1$
+		monitor.change("first"); //$NON-NLS-1$
+		monitor.change("second"); //$NON-NLS-1$
+		monitor.change("first"); //$NON-NLS-1$
+		monitor.change("first"); //$NON-NLS-1$
+
+		Assert.assertEquals(3, recorder.events.size());
+		Assert.assertEquals(2, monitor.getMetrics().getEventsSuppressed());
+		Assert.assertEquals(3, monitor.getMetrics().getEventsDispatched());
+		Assert.assertEquals(5, monitor.getMetrics().getEventsReceived());
+		// Suppressed changes do not use up sequence numbers
+		Assert.assertEquals(3, recorder.events.get(2).getSequence());
+	}
+
+	@Test
+	public void testFormatsAloneAreNoContent() throws Exception {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		monitor.setDeduplication(true);
+		// Copying "foo" and then "bar" in the same application
+		recorder.formats = formats(1, 13);
+		monitor.reader = recorder;
+		monitor.change();
+		monitor.change();
+
+		Assert.assertEquals(2, recorder.events.size());
+		Assert.assertEquals(0, monitor.getMetrics().getEventsSuppressed());
+	}
+
+	@Test
+	public void testFormatsAreComparedWithPayload() throws Exception {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		monitor.setDeduplication(true);
+		recorder.formats = formats(1, 13);
+		monitor.reader = recorder;
+		monitor.change("same"); //$NON-NLS-1$
+		monitor.change("same"); //$NON-NLS-1$
+		recorder.formats = formats(1, 13, 0xC0A1);
+		monitor.reader = recorder;
+		monitor.change("same"); //$NON-NLS-1$
+
+		Assert.assertEquals(2, recorder.events.size());
+		Assert.assertEquals(3, recorder.events.get(1).getFormats().size());
+		// The listeners got the formats read for the digest
+		Assert.assertEquals(3, recorder.reads);
+	}
+
+	@Test
+	public void testChangeWithoutContentEndsRepeat() throws Exception {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		monitor.setDeduplication(true);
+		monitor.change("same"); //$NON-NLS-1$
+		monitor.change();
+		monitor.change("same"); //$NON-NLS-1$
+		Assert.assertEquals(3, recorder.events.size());
+	}
+
+	@Test
+	public void testChangesWithoutContentAreAlwaysSent() {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		monitor.setDeduplication(true);
+		monitor.change();
+		monitor.change();
+		recorder.formats = formats();
+		monitor.reader = recorder;
+		monitor.change();
+		monitor.change();
+		Assert.assertEquals(4, recorder.events.size());
+		Assert.assertEquals(0, monitor.getMetrics().getEventsSuppressed());
+	}
+
+	@Test
+	public void testCapturedContentIsComparedAndReleased() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setContentCapture(pool, TEXT);
+		monitor.setDeduplication(true);
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				events.add(event);
+			}
+		});
+		for (int i = 0; i < 10; ++i) {
+			reader.data = ContentCaptureTests.bytes(5000, i / 5);
+			monitor.change();
+		}
+		Assert.assertEquals(2, events.size());
+		Assert.assertEquals(8, monitor.getMetrics().getEventsSuppressed());
+		// The suppressed captures went back to the pool
+		Assert.assertEquals(1, pool.getAllocationCount());
+	}
+
+	@Test
+	public void testFirstChangeAfterStartIsSent() throws Exception {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		monitor.setDeduplication(true);
+		monitor.change("same"); //$NON-NLS-1$
+		monitor.start().get(5, TimeUnit.SECONDS);
+		monitor.change("same"); //$NON-NLS-1$
+		monitor.change("same"); //$NON-NLS-1$
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(2, recorder.events.size());
+	}
+
+	@Test
+	public void testOffByDefault() throws Exception {
+		final Recorder recorder = new Recorder();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.addListener(recorder);
+		Assert.assertFalse(monitor.isDeduplicating());
+		monitor.change("same"); //$NON-NLS-1$
+		monitor.change("same"); //$NON-NLS-1$
+		Assert.assertEquals(2, recorder.events.size());
+	}
+}
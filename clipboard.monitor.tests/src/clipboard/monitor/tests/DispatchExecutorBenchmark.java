@@ -0,0 +1,117 @@
+package clipboard.monitor.tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.DispatchExecutor;
+import clipboard.monitor.DispatchExecutors;
+import clipboard.monitor.ListenerMailboxes;
+import clipboard.monitor.MailboxPolicy;
+
+/**
+ * Compares the dispatch strategies with listeners that block on I/O, under a
+ * bursty load.
+ */
+public class DispatchExecutorBenchmark {
+	private static final int LISTENERS = 100;
+	private static final int BURSTS = 3;
+	private static final int BURST_SIZE = 5;
+	private static final long BLOCKING_MILLIS = 1;
+	private static final int EVENTS = BURSTS * BURST_SIZE;
+
+	/**
+	 * Simulates a listener that writes to disk or network.
+	 */
+	static class BlockingListener implements ClipboardListener {
+		final CountDownLatch done;
+		final AtomicInteger events;
+
+		BlockingListener(CountDownLatch done, AtomicInteger events) {
+			this.done = done;
+			this.events = events;
+		}
+
+		public void onEvent(ClipboardEvent event) {
+			try {
+				Thread.sleep(BLOCKING_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			events.incrementAndGet();
+			done.countDown();
+		}
+	}
+
+	private static void run(String name, DispatchExecutor executor)
+			throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(LISTENERS * EVENTS);
+		final AtomicInteger events = new AtomicInteger();
+		final ListenerMailboxes mailboxes = new ListenerMailboxes(executor,
+				1, Integer.MAX_VALUE, TimeUnit.SECONDS);
+		final ClipboardListener[] listeners = new ClipboardListener[LISTENERS];
+		for (int i = 0; i < LISTENERS; ++i) {
+			listeners[i] = new BlockingListener(done, events);
+			mailboxes.setPolicy(listeners[i], MailboxPolicy.drop(EVENTS));
+		}
+		mailboxes.start();
+		final long start = System.nanoTime();
+		try {
+			long sequence = 0;
+			for (int burst = 0; burst < BURSTS; ++burst) {
+				for (int i = 0; i < BURST_SIZE; ++i) {
+					mailboxes.dispatch(listeners, new ClipboardEvent(
+							DispatchExecutorBenchmark.class, ++sequence,
+							System.nanoTime(), System.currentTimeMillis(), 1,
+							null));
+				}
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+		} finally {
+			mailboxes.stop();
+		}
+		final long elapsed = System.nanoTime() - start;
+		Assert.assertEquals(LISTENERS * EVENTS, events.get());
+		Assert.assertEquals(0, mailboxes.getDroppedCount());
+		System.out.println(String.format("%-20s %8.1fms for %d calls", name, //$NON-NLS-1$
+				elapsed / 1e6, LISTENERS * EVENTS));
+	}
+
+	@Test
+	public void compareExecutors() throws InterruptedException {
+		final String name = "Benchmark"; //$NON-NLS-1$
+		run("inline", DispatchExecutors.inline()); //$NON-NLS-1$
+		run("thread per event", DispatchExecutors.threadPerTask(name)); //$NON-NLS-1$
+		run("pool of 8", DispatchExecutors.pool(8, name)); //$NON-NLS-1$
+		if (DispatchExecutors.isVirtualThreadsSupported()) {
+			run("virtual threads", DispatchExecutors.virtualThreads(name)); //$NON-NLS-1$
+		} else {
+			System.out.println("virtual threads not supported by this VM"); //$NON-NLS-1$
+		}
+	}
+
+	@Test
+	public void testVirtualThreadsFallBack() throws InterruptedException {
+		final DispatchExecutor executor = DispatchExecutors
+				.virtualThreads("Test"); //$NON-NLS-1$
+		final Thread[] thread = new Thread[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.start();
+		executor.execute(new Runnable() {
+			public void run() {
+				thread[0] = Thread.currentThread();
+				done.countDown();
+			}
+		});
+		executor.stop();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(thread[0].isDaemon());
+		Assert.assertTrue(thread[0].getName().startsWith("Test")); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,144 @@
+package clipboard.monitor.tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.OverflowPolicy;
+import clipboard.monitor.internal.ChangeSink;
+import clipboard.monitor.internal.DispatchQueue;
+
+public class DispatchQueueTests {
+	private static final int OFFERS = 100000;
+
+	/**
+	 * Sink that is held up until it is released.
+	 */
+	static class GatedSink implements ChangeSink {
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AtomicInteger deliveries = new AtomicInteger();
+		final AtomicInteger notifications = new AtomicInteger();
+		volatile long change;
+
+		public void deliver(long detected, int notifications, long change) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.notifications.addAndGet(notifications);
+			this.change = change;
+			deliveries.incrementAndGet();
+		}
+	}
+
+	private static void awaitEmpty(DispatchQueue queue)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (queue.size() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testCoalesceKeepsAllNotifications() throws InterruptedException {
+		GatedSink sink = new GatedSink();
+		DispatchQueue queue = new DispatchQueue(8, OverflowPolicy.COALESCE,
+				sink);
+		queue.start();
+		for (int i = 0; i < OFFERS; ++i) {
+			queue.offer(System.nanoTime(), i + 1);
+		}
+		sink.gate.countDown();
+		awaitEmpty(queue);
+		queue.stop();
+		Thread.sleep(10);
+
+		Assert.assertEquals(OFFERS, sink.notifications.get());
+		Assert.assertTrue(sink.deliveries.get() <= 8 + 1);
+		// The last delivery stands for the last change
+		Assert.assertEquals(OFFERS, sink.change);
+		Assert.assertEquals(0, queue.getDroppedCount());
+	}
+
+	@Test
+	public void testMergedChangesDoNotHideNewerSlot()
+			throws InterruptedException {
+		final Semaphore permits = new Semaphore(0);
+		final AtomicInteger deliveries = new AtomicInteger();
+		final AtomicInteger notifications = new AtomicInteger();
+		final AtomicLong last = new AtomicLong();
+		DispatchQueue queue = new DispatchQueue(8, OverflowPolicy.COALESCE,
+				new ChangeSink() {
+					public void deliver(long detected, int count, long change) {
+						permits.acquireUninterruptibly();
+						notifications.addAndGet(count);
+						last.set(change);
+						deliveries.incrementAndGet();
+					}
+				});
+		queue.start();
+		queue.offer(System.nanoTime(), 1);
+		awaitEmpty(queue);
+		// 2 to 9 fill the queue, 10 to 12 are merged
+		for (int i = 2; i <= 12; ++i) {
+			queue.offer(System.nanoTime(), i);
+		}
+		permits.release(7);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (queue.size() > 1 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		// Only 9 is left, so 13 is queued after the merged changes
+		queue.offer(System.nanoTime(), 13);
+		permits.release(100);
+		awaitEmpty(queue);
+		queue.stop();
+		Thread.sleep(10);
+
+		Assert.assertEquals(13, notifications.get());
+		Assert.assertEquals(10, deliveries.get());
+		Assert.assertEquals(13, last.get());
+	}
+
+	@Test
+	public void testDropOldestCountsDrops() throws InterruptedException {
+		GatedSink sink = new GatedSink();
+		DispatchQueue queue = new DispatchQueue(8, OverflowPolicy.DROP_OLDEST,
+				sink);
+		queue.start();
+		for (int i = 0; i < OFFERS; ++i) {
+			queue.offer(System.nanoTime(), i + 1);
+		}
+		sink.gate.countDown();
+		awaitEmpty(queue);
+		queue.stop();
+		Thread.sleep(10);
+
+		Assert.assertEquals(OFFERS, sink.deliveries.get()
+				+ queue.getDroppedCount());
+		Assert.assertTrue(sink.deliveries.get() <= 8 + 1);
+	}
+
+	@Test
+	public void testBlockDeliversEverything() throws InterruptedException {
+		GatedSink sink = new GatedSink();
+		sink.gate.countDown();
+		DispatchQueue queue = new DispatchQueue(4, OverflowPolicy.BLOCK, sink);
+		queue.start();
+		for (int i = 0; i < OFFERS; ++i) {
+			queue.offer(System.nanoTime(), i + 1);
+		}
+		awaitEmpty(queue);
+		queue.stop();
+		Thread.sleep(10);
+
+		Assert.assertEquals(OFFERS, sink.deliveries.get());
+		Assert.assertEquals(0, queue.getDroppedCount());
+	}
+}
@@ -0,0 +1,91 @@
+package clipboard.monitor.tests;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+
+public class EventPoolingTests {
+	private static final int EVENTS = 1000000;
+	private static final int WARMUP = 200000;
+
+	static class SummingListener implements ClipboardListener {
+		long sum;
+
+		public void onEvent(ClipboardEvent event) {
+			sum += event.getSequence() + event.getNotificationCount();
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+
+	private static long measure(boolean pooling) {
+		TestMonitor monitor = new TestMonitor();
+		monitor.setEventPooling(pooling);
+		SummingListener[] listeners = new SummingListener[3];
+		for (int i = 0; i < listeners.length; ++i) {
+			listeners[i] = new SummingListener();
+			monitor.addListener(listeners[i]);
+		}
+		for (int i = 0; i < WARMUP; ++i) {
+			monitor.change();
+		}
+		final long before = allocatedBytes();
+		for (int i = 0; i < EVENTS; ++i) {
+			monitor.change();
+		}
+		final long allocated = allocatedBytes() - before;
+		Assert.assertTrue(listeners[0].sum > 0);
+		System.out.println(String.format(
+				"pooling %-5s: %10d bytes for %d events (%.2f bytes/event)", //$NON-NLS-1$
+				pooling, allocated, EVENTS, (double) allocated / EVENTS));
+		return allocated;
+	}
+
+	@Test
+	public void testPooledDispatchDoesNotAllocate() {
+		measure(false);
+		final long allocated = measure(true);
+		// Leave some room for allocations of the measurement itself
+		Assert.assertTrue(allocated < 64 * 1024);
+	}
+
+	@Test
+	public void testPooledEventIsReused() {
+		TestMonitor monitor = new TestMonitor();
+		monitor.setEventPooling(true);
+		final ClipboardEvent[] seen = new ClipboardEvent[2];
+		final ClipboardEvent[] copies = new ClipboardEvent[2];
+		monitor.addListener(new ClipboardListener() {
+			int index;
+
+			public void onEvent(ClipboardEvent event) {
+				seen[index] = event;
+				copies[index++] = event.copy();
+			}
+		});
+		monitor.change();
+		monitor.change();
+		Assert.assertSame(seen[0], seen[1]);
+		Assert.assertEquals(1, copies[0].getSequence());
+		Assert.assertEquals(2, copies[1].getSequence());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPoolingCannotChangeWhileRunning() {
+		TestMonitor monitor = new TestMonitor();
+		monitor.start();
+		try {
+			monitor.setEventPooling(true);
+		} finally {
+			monitor.stop();
+		}
+	}
+}
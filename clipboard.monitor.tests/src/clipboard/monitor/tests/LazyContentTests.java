@@ -0,0 +1,230 @@
+package clipboard.monitor.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardContent;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.ListenerMailboxes;
+import clipboard.monitor.MailboxPolicy;
+import clipboard.monitor.OverflowPolicy;
+import clipboard.monitor.tests.ContentCaptureTests.FakeContentReader;
+
+public class LazyContentTests {
+	private static final int TEXT = 13;
+	private static final int HTML = 0xC0A1;
+
+	@Test
+	public void testNothingIsReadUnlessAsked() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setLazyContent(pool);
+		Assert.assertTrue(monitor.isLazyContent());
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				events.add(event);
+			}
+		});
+		for (int i = 0; i < 100; ++i) {
+			reader.data = ContentCaptureTests.bytes(1000, i);
+			monitor.change();
+		}
+		Assert.assertEquals(100, events.size());
+		Assert.assertEquals(0, reader.reads.get());
+		Assert.assertEquals(0, pool.getAllocationCount());
+		// After the listeners returned the content can no longer be read
+		Assert.assertNull(events.get(99).getContent(TEXT));
+		Assert.assertEquals(0, reader.reads.get());
+	}
+
+	@Test
+	public void testFormatIsReadOnceForAllListeners() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setLazyContent(pool);
+		final List<ClipboardContent> seen = new ArrayList<ClipboardContent>();
+		for (int i = 0; i < 4; ++i) {
+			monitor.addListener(new ClipboardListener() {
+				public void onEvent(ClipboardEvent event) {
+					seen.add(event.getContent(TEXT));
+					Assert.assertNull(event.getContent(HTML));
+					Assert.assertEquals(1, event.getContents().size());
+				}
+			});
+		}
+		reader.data = ContentCaptureTests.bytes(10000, 3);
+		monitor.change();
+		// One read of the text, one of the missing HTML
+		Assert.assertEquals(2, reader.reads.get());
+		Assert.assertEquals(4, seen.size());
+		for (ClipboardContent content : seen) {
+			Assert.assertSame(seen.get(0), content);
+		}
+		Assert.assertTrue(seen.get(0).isReleased());
+		Assert.assertEquals(16384, pool.getPooledBytes());
+	}
+
+	@Test
+	public void testCapturedFormatsAreNotReadAgain() {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setContentCapture(pool, TEXT);
+		monitor.setLazyContent(pool);
+		final AtomicReference<ClipboardEvent> copy = new AtomicReference<ClipboardEvent>();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				Assert.assertNotNull(event.getContent(TEXT));
+				copy.set(event.copy());
+			}
+		});
+		reader.data = ContentCaptureTests.bytes(100, 1);
+		monitor.change();
+		Assert.assertEquals(1, reader.reads.get());
+		Assert.assertEquals(ContentCaptureTests.bytes(100, 1), copy.get()
+				.getContent(TEXT).getBuffer());
+	}
+
+	@Test
+	public void testStaleContentIsNotRead() throws Exception {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		monitor.setLazyContent(new ContentPool(1024 * 1024));
+		monitor.setIsolatedDispatch(new ListenerMailboxes(1, 1, 1000,
+				TimeUnit.SECONDS));
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		final List<ByteBuffer> read = new ArrayList<ByteBuffer>();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				final ClipboardContent content = event.getContent(TEXT);
+				synchronized (read) {
+					read.add(null == content ? null : content.getBuffer());
+				}
+				done.countDown();
+			}
+		}, MailboxPolicy.block(4, 1, TimeUnit.SECONDS));
+		monitor.start().get(5, TimeUnit.SECONDS);
+		try {
+			reader.data = ContentCaptureTests.bytes(100, 1);
+			monitor.change();
+			reader.data = ContentCaptureTests.bytes(100, 2);
+			monitor.change();
+			release.countDown();
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		} finally {
+			monitor.stop().get(5, TimeUnit.SECONDS);
+		}
+		// The first change was superseded before the listener asked
+		Assert.assertNull(read.get(0));
+		Assert.assertEquals(ContentCaptureTests.bytes(100, 2), read.get(1));
+		Assert.assertEquals(1, reader.reads.get());
+	}
+
+	@Test
+	public void testAsyncDispatchReadsContentOfItsOwnChange()
+			throws Exception {
+		final FakeContentReader reader = new FakeContentReader();
+		final TestMonitor monitor = new TestMonitor();
+		monitor.contentReader = reader;
+		monitor.setLazyContent(new ContentPool(1024 * 1024));
+		monitor.setAsyncDispatch(4, OverflowPolicy.BLOCK);
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(3);
+		final List<ByteBuffer> read = new ArrayList<ByteBuffer>();
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				final ClipboardContent content = event.getContent(TEXT);
+				read.add(null == content ? null : content.getBuffer());
+				done.countDown();
+			}
+		});
+		monitor.start().get(5, TimeUnit.SECONDS);
+		try {
+			reader.data = ContentCaptureTests.bytes(100, 1);
+			monitor.change();
+			Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+			// Both are queued while the dispatcher is busy with the first
+			reader.data = ContentCaptureTests.bytes(100, 2);
+			monitor.change();
+			reader.data = ContentCaptureTests.bytes(100, 3);
+			monitor.change();
+			release.countDown();
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		} finally {
+			monitor.stop().get(5, TimeUnit.SECONDS);
+		}
+		// Only the last change may see the content of the clipboard
+		Assert.assertNull(read.get(0));
+		Assert.assertNull(read.get(1));
+		Assert.assertEquals(ContentCaptureTests.bytes(100, 3), read.get(2));
+		Assert.assertEquals(1, reader.reads.get());
+	}
+
+	@Test
+	public void testStreamAndChannel() throws Exception {
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		final ByteBuffer data = ContentCaptureTests.bytes(100000, 5);
+		final ClipboardContent content = pool.capture(TEXT, data);
+
+		final InputStream stream = content.openStream();
+		Assert.assertEquals(100000, stream.available());
+		Assert.assertEquals(data.get(0) & 0xFF, stream.read());
+		Assert.assertEquals(10, stream.skip(10));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] chunk = new byte[4096];
+		int n;
+		while ((n = stream.read(chunk)) > 0) {
+			out.write(chunk, 0, n);
+		}
+		Assert.assertEquals(-1, stream.read());
+		final ByteBuffer expected = data.duplicate();
+		expected.position(11);
+		Assert.assertEquals(expected, ByteBuffer.wrap(out.toByteArray()));
+
+		final ReadableByteChannel channel = content.openChannel();
+		final ByteBuffer copy = ByteBuffer.allocateDirect(100000);
+		final ByteBuffer small = ByteBuffer.allocateDirect(3000);
+		while (channel.read(small) >= 0) {
+			small.flip();
+			copy.put(small);
+			small.clear();
+		}
+		channel.close();
+		Assert.assertFalse(channel.isOpen());
+		copy.flip();
+		Assert.assertEquals(data, copy);
+		content.release();
+	}
+}
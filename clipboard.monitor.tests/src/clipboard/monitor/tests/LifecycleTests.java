@@ -0,0 +1,214 @@
+package clipboard.monitor.tests;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.OverflowPolicy;
+
+public class LifecycleTests {
+	private static final int CYCLES = 500;
+
+	/**
+	 * Fake event source that behaves like a native message loop: it needs some
+	 * time to set up, reports ready and then waits until it is stopped.
+	 */
+	static class FakeSourceMonitor extends AbstractClipboardMonitor {
+		volatile long setupMillis;
+		volatile RuntimeException failure;
+
+		public void run() {
+			if (failure != null) {
+				throw failure;
+			}
+			try {
+				Thread.sleep(setupMillis);
+				ready();
+				while (true) {
+					Thread.sleep(Long.MAX_VALUE);
+				}
+			} catch (InterruptedException e) {
+				// Stopped
+			}
+		}
+
+		void change() {
+			fireChange();
+		}
+	}
+
+	private static int countMonitorThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith("Clipboard ")) { //$NON-NLS-1$
+				++count;
+			}
+		}
+		return count;
+	}
+
+	private static void awaitMonitorThreads(int expected)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (countMonitorThreads() > expected
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		final int count = countMonitorThreads();
+		Assert.assertTrue(count + " threads left", count <= expected); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testStartCompletesWhenReady() throws Exception {
+		final int baseline = countMonitorThreads();
+		FakeSourceMonitor monitor = new FakeSourceMonitor();
+		monitor.setupMillis = 50;
+		final CountDownLatch received = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.countDown();
+			}
+		});
+		final long begin = System.nanoTime();
+		Future<?> started = monitor.start();
+		Assert.assertFalse(started.isDone());
+		started.get(5, TimeUnit.SECONDS);
+		monitor.change();
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		final long firstEvent = System.nanoTime() - begin;
+		System.out.println("start to first event: " //$NON-NLS-1$
+				+ TimeUnit.NANOSECONDS.toMicros(firstEvent) + "us"); //$NON-NLS-1$
+		Assert.assertTrue(monitor.isRunning());
+
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		Assert.assertFalse(monitor.isRunning());
+		Assert.assertTrue(monitor.stop().isDone());
+		awaitMonitorThreads(baseline);
+	}
+
+	@Test
+	public void testStopDeliversPendingEvents() throws Exception {
+		final int baseline = countMonitorThreads();
+		FakeSourceMonitor monitor = new FakeSourceMonitor();
+		CountingListener listener = new CountingListener();
+		monitor.addListener(listener);
+		monitor.setAsyncDispatch(16, OverflowPolicy.BLOCK);
+		monitor.start().get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 10000; ++i) {
+			monitor.change();
+		}
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(10000, listener.events.get());
+		Assert.assertEquals(0, monitor.getMetrics().getEventsDropped());
+		awaitMonitorThreads(baseline);
+	}
+
+	@Test
+	public void testRestartCyclesDoNotLeakThreads() throws Exception {
+		FakeSourceMonitor monitor = new FakeSourceMonitor();
+		CountingListener listener = new CountingListener();
+		monitor.addListener(listener);
+		monitor.setAsyncDispatch(64, OverflowPolicy.COALESCE);
+		monitor.setCoalescing(1, 10, TimeUnit.MILLISECONDS);
+		final int baseline = countMonitorThreads();
+
+		final long begin = System.nanoTime();
+		for (int i = 0; i < CYCLES; ++i) {
+			monitor.start().get(5, TimeUnit.SECONDS);
+			monitor.change();
+			monitor.change();
+			Future<?> stopped = monitor.stop();
+			stopped.get(5, TimeUnit.SECONDS);
+			Assert.assertTrue(stopped.isDone());
+		}
+		final long elapsed = System.nanoTime() - begin;
+		System.out.println(CYCLES + " restarts: " //$NON-NLS-1$
+				+ TimeUnit.NANOSECONDS.toMicros(elapsed / CYCLES)
+				+ "us per cycle"); //$NON-NLS-1$
+
+		// Every pending burst was delivered before the stop completed
+		Assert.assertEquals(2 * CYCLES, listener.notifications.get());
+		awaitMonitorThreads(baseline);
+	}
+
+	@Test
+	public void testStartWhileStoppingRestarts() throws Exception {
+		final int baseline = countMonitorThreads();
+		FakeSourceMonitor monitor = new FakeSourceMonitor();
+		monitor.start().get(5, TimeUnit.SECONDS);
+		Future<?> stopped = monitor.stop();
+		Future<?> restarted = monitor.start();
+		restarted.get(5, TimeUnit.SECONDS);
+		Assert.assertTrue(stopped.isDone());
+		Assert.assertTrue(monitor.isRunning());
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		awaitMonitorThreads(baseline);
+	}
+
+	@Test
+	public void testStopCancelsPendingRestart() throws Exception {
+		final int baseline = countMonitorThreads();
+		FakeSourceMonitor monitor = new FakeSourceMonitor();
+		final CountDownLatch delivering = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				delivering.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		monitor.setAsyncDispatch(4, OverflowPolicy.COALESCE);
+		monitor.start().get(5, TimeUnit.SECONDS);
+		monitor.change();
+		Assert.assertTrue(delivering.await(5, TimeUnit.SECONDS));
+
+		// The stop waits for the listener
+		Future<?> stopped = monitor.stop();
+		Future<?> restarted = monitor.start();
+		Assert.assertFalse(restarted.isDone());
+		monitor.stop();
+		Assert.assertTrue(restarted.isCancelled());
+		try {
+			restarted.get();
+			Assert.fail();
+		} catch (CancellationException e) {
+			// Expected
+		}
+		release.countDown();
+		stopped.get(5, TimeUnit.SECONDS);
+		Assert.assertFalse(monitor.isRunning());
+		awaitMonitorThreads(baseline);
+	}
+
+	@Test
+	public void testFailingSourceFailsStart() throws Exception {
+		final int baseline = countMonitorThreads();
+		FakeSourceMonitor monitor = new FakeSourceMonitor();
+		monitor.failure = new IllegalStateException("no clipboard"); //$NON-NLS-1$
+		try {
+			monitor.start().get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertSame(monitor.failure, e.getCause());
+		}
+		monitor.stop().get(5, TimeUnit.SECONDS);
+
+		// The monitor can be started again after the failure
+		monitor.failure = null;
+		monitor.start().get(5, TimeUnit.SECONDS);
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		awaitMonitorThreads(baseline);
+	}
+}
@@ -0,0 +1,274 @@
+package clipboard.monitor.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ListenerMailboxes;
+import clipboard.monitor.MailboxPolicy;
+
+public class ListenerMailboxesTests {
+	private static final long MS = 1000000L;
+
+	private ListenerMailboxes mailboxes;
+
+	@After
+	public void tearDown() {
+		if (mailboxes != null) {
+			mailboxes.stop();
+		}
+	}
+
+	static class SleepingListener implements ClipboardListener {
+		final long millis;
+		final AtomicInteger events = new AtomicInteger();
+		final AtomicInteger notifications = new AtomicInteger();
+		final CountDownLatch gate;
+
+		SleepingListener(long millis) {
+			this(millis, null);
+		}
+
+		SleepingListener(long millis, CountDownLatch gate) {
+			this.millis = millis;
+			this.gate = gate;
+		}
+
+		public void onEvent(ClipboardEvent event) {
+			try {
+				if (gate != null) {
+					gate.await();
+				}
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			notifications.addAndGet(event.getNotificationCount());
+			events.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records how long the events took from detection to the listener.
+	 */
+	static class LatencyListener implements ClipboardListener {
+		final long[] latencies;
+		final CountDownLatch done;
+		int count;
+
+		LatencyListener(int events) {
+			latencies = new long[events];
+			done = new CountDownLatch(events);
+		}
+
+		public void onEvent(ClipboardEvent event) {
+			latencies[count++] = System.nanoTime() - event.getDetectedNanos();
+			done.countDown();
+		}
+
+		long percentile(double p) {
+			long[] sorted = latencies.clone();
+			Arrays.sort(sorted);
+			return sorted[(int) Math.min(sorted.length - 1, sorted.length * p)];
+		}
+	}
+
+	/**
+	 * Records the order of the events and whether it was ever called
+	 * concurrently.
+	 */
+	static class OrderListener implements ClipboardListener {
+		final List<Long> sequences = Collections
+				.synchronizedList(new ArrayList<Long>());
+		final AtomicInteger active = new AtomicInteger();
+		volatile boolean overlapped;
+		final CountDownLatch gate;
+
+		OrderListener(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		public void onEvent(ClipboardEvent event) {
+			if (active.incrementAndGet() > 1) {
+				overlapped = true;
+			}
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			sequences.add(event.getSequence());
+			active.decrementAndGet();
+		}
+	}
+
+	private static ClipboardEvent event(long sequence) {
+		return new ClipboardEvent(ListenerMailboxesTests.class, sequence,
+				System.nanoTime(), System.currentTimeMillis(), 1, null);
+	}
+
+	private static void awaitCount(AtomicInteger counter, int expected)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (counter.get() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testFastListenerLatencyIsIndependentOfSlowListener()
+			throws InterruptedException {
+		final int events = 100;
+		mailboxes = new ListenerMailboxes(2, 10, 3, TimeUnit.MILLISECONDS);
+		mailboxes.start();
+		SleepingListener slow = new SleepingListener(50);
+		LatencyListener fast = new LatencyListener(events);
+		ClipboardListener[] listeners = { slow, fast };
+		for (int i = 0; i < events; ++i) {
+			mailboxes.dispatch(listeners, event(i + 1));
+			Thread.sleep(1);
+		}
+		Assert.assertTrue(fast.done.await(10, TimeUnit.SECONDS));
+		final long p99 = fast.percentile(0.99);
+		System.out.println(String.format(
+				"fast listener: p50 %.3fms, p99 %.3fms next to a 50ms listener", //$NON-NLS-1$
+				fast.percentile(0.5) / (double) MS, p99 / (double) MS));
+		Assert.assertTrue(p99 < 20 * MS);
+	}
+
+	@Test
+	public void testDropKeepsNewestEvents() throws InterruptedException {
+		mailboxes = new ListenerMailboxes(1, 1000, 3, TimeUnit.MILLISECONDS);
+		CountDownLatch gate = new CountDownLatch(1);
+		SleepingListener listener = new SleepingListener(0, gate);
+		mailboxes.setPolicy(listener, MailboxPolicy.drop(4));
+		mailboxes.start();
+		ClipboardListener[] listeners = { listener };
+		for (int i = 0; i < 100; ++i) {
+			mailboxes.dispatch(listeners, event(i + 1));
+		}
+		gate.countDown();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (listener.events.get() + mailboxes.getDroppedCount() < 100
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		// The worker may have taken the first event before the gate
+		Assert.assertTrue(listener.events.get() <= 5);
+		Assert.assertEquals(100, listener.events.get()
+				+ mailboxes.getDroppedCount());
+	}
+
+	@Test
+	public void testCoalesceKeepsNotifications() throws InterruptedException {
+		mailboxes = new ListenerMailboxes(1, 1000, 3, TimeUnit.MILLISECONDS);
+		CountDownLatch gate = new CountDownLatch(1);
+		SleepingListener listener = new SleepingListener(0, gate);
+		mailboxes.start();
+		ClipboardListener[] listeners = { listener };
+		for (int i = 0; i < 100; ++i) {
+			mailboxes.dispatch(listeners, event(i + 1));
+		}
+		gate.countDown();
+		awaitCount(listener.notifications, 100);
+		Assert.assertEquals(100, listener.notifications.get());
+		Assert.assertTrue(listener.events.get() <= 2);
+		Assert.assertEquals(0, mailboxes.getDroppedCount());
+	}
+
+	@Test
+	public void testBlockWaitsForRoomThenDrops() throws InterruptedException {
+		mailboxes = new ListenerMailboxes(1, 1000, 3, TimeUnit.MILLISECONDS);
+		CountDownLatch gate = new CountDownLatch(1);
+		SleepingListener listener = new SleepingListener(0, gate);
+		mailboxes.setPolicy(listener, MailboxPolicy.block(2, 20,
+				TimeUnit.MILLISECONDS));
+		mailboxes.start();
+		ClipboardListener[] listeners = { listener };
+		final long start = System.nanoTime();
+		for (int i = 0; i < 5; ++i) {
+			mailboxes.dispatch(listeners, event(i + 1));
+		}
+		final long elapsed = System.nanoTime() - start;
+		gate.countDown();
+		awaitCount(listener.events, 3);
+		Thread.sleep(20);
+		// One event is with the worker, two fit, two time out
+		Assert.assertTrue(elapsed >= 2 * 20 * MS);
+		Assert.assertEquals(2, mailboxes.getDroppedCount());
+		Assert.assertEquals(3, listener.events.get());
+	}
+
+	@Test
+	public void testPolicyChangeKeepsPendingEvents()
+			throws InterruptedException {
+		mailboxes = new ListenerMailboxes(2, 1000, 3, TimeUnit.MILLISECONDS);
+		CountDownLatch gate = new CountDownLatch(1);
+		OrderListener listener = new OrderListener(gate);
+		SleepingListener other = new SleepingListener(0);
+		mailboxes.setPolicy(listener, MailboxPolicy.drop(16));
+		mailboxes.start();
+		ClipboardListener[] listeners = { listener, other };
+		for (int i = 0; i < 5; ++i) {
+			mailboxes.dispatch(listeners, event(i + 1));
+		}
+		// Neither may lose its mailbox and run twice at the same time
+		mailboxes.setPolicy(other, MailboxPolicy.drop(8));
+		mailboxes.setPolicy(listener, MailboxPolicy.drop(2));
+		mailboxes.dispatch(listeners, event(6));
+		gate.countDown();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (listener.sequences.size() + mailboxes.getDroppedCount() < 6
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		awaitCount(other.notifications, 6);
+		Assert.assertFalse(listener.overlapped);
+		Assert.assertEquals(6, other.notifications.get());
+		// The pending events are kept, only the new one pushes the oldest out
+		Assert.assertEquals(1, mailboxes.getDroppedCount());
+		Assert.assertEquals(5, listener.sequences.size());
+		long previous = 0;
+		for (Long sequence : listener.sequences) {
+			Assert.assertTrue(sequence.longValue() > previous);
+			previous = sequence.longValue();
+		}
+		Assert.assertEquals(6L, previous);
+	}
+
+	@Test
+	public void testSlowListenerIsReported() throws InterruptedException {
+		final AtomicInteger reports = new AtomicInteger();
+		final ClipboardListener[] reported = new ClipboardListener[1];
+		mailboxes = new ListenerMailboxes(2, 5, 3, TimeUnit.MILLISECONDS) {
+			@Override
+			protected void onSlowListener(ClipboardListener listener,
+					long nanos) {
+				reported[0] = listener;
+				reports.incrementAndGet();
+			}
+		};
+		SleepingListener slow = new SleepingListener(10);
+		SleepingListener fast = new SleepingListener(0);
+		mailboxes.setPolicy(slow, MailboxPolicy.drop(16));
+		mailboxes.start();
+		ClipboardListener[] listeners = { slow, fast };
+		for (int i = 0; i < 6; ++i) {
+			mailboxes.dispatch(listeners, event(i + 1));
+		}
+		awaitCount(slow.events, 6);
+		Thread.sleep(20);
+		Assert.assertEquals(2, reports.get());
+		Assert.assertSame(slow, reported[0]);
+	}
+}
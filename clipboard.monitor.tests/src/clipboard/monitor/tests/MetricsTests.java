@@ -0,0 +1,178 @@
+package clipboard.monitor.tests;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardMetrics;
+import clipboard.monitor.internal.LogLinearHistogram;
+import clipboard.monitor.internal.StripedCounter;
+
+public class MetricsTests {
+
+	@Test
+	public void testHistogramPercentilesWithinBucketError() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		long[] values = new long[100000];
+		Random random = new Random(42);
+		for (int i = 0; i < values.length; ++i) {
+			// Log-uniform between 1us and 1s
+			values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 6);
+			histogram.record(values[i]);
+		}
+		java.util.Arrays.sort(values);
+		Assert.assertEquals(values.length, histogram.getCount());
+		Assert.assertEquals(values[values.length - 1], histogram.getMax());
+		for (double p : new double[] { 50, 90, 99, 99.9 }) {
+			final long exact = values[(int) Math.ceil(values.length * p / 100) - 1];
+			final long estimate = histogram.getPercentile(p);
+			Assert.assertTrue(p + ": " + estimate + " vs " + exact, //$NON-NLS-1$ //$NON-NLS-2$
+					estimate >= exact && estimate <= exact * 1.125 + 1);
+		}
+	}
+
+	@Test
+	public void testHistogramSmallValuesAreExact() {
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for (int i = 0; i < 16; ++i) {
+			histogram.record(i);
+		}
+		Assert.assertEquals(7, histogram.getPercentile(50));
+		Assert.assertEquals(15, histogram.getPercentile(100));
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(-1);
+		Assert.assertEquals(Long.MAX_VALUE, histogram.getMax());
+		Assert.assertEquals(0, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testStripedCounterFromManyThreads()
+			throws InterruptedException {
+		final StripedCounter counter = new StripedCounter();
+		final int threads = 8;
+		final int increments = 100000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; ++t) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < increments; ++i) {
+						counter.increment();
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(threads * increments, counter.sum());
+	}
+
+	@Test
+	public void testMonitorCountsEventsAndFailures()
+			throws InterruptedException {
+		final CountDownLatch received = new CountDownLatch(1);
+		TestMonitor monitor = new TestMonitor() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 10; ++i) {
+					change();
+				}
+			}
+		};
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+			}
+		});
+		// Called last, after the failure was recorded
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.countDown();
+			}
+		});
+		monitor.setCoalescing(20, 1000, TimeUnit.MILLISECONDS);
+		monitor.start();
+		ClipboardMetrics metrics = monitor.getMetrics();
+		try {
+			Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+			// The last listener is recorded after it returned
+			final long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(5);
+			while (metrics.getListenerTimes().length < 2
+					&& System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+		} finally {
+			monitor.stop();
+		}
+		Assert.assertEquals(10, metrics.getEventsReceived());
+		Assert.assertEquals(1, metrics.getEventsDispatched());
+		Assert.assertEquals(9, metrics.getEventsCoalesced());
+		Assert.assertEquals(1, metrics.getListenerFailures());
+		Assert.assertEquals(2, metrics.getListenerTimes().length);
+		Assert.assertTrue(metrics.getDispatchLatencyMax() >= 20000);
+	}
+
+	private static ClipboardListener newListener() {
+		return new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+			}
+		};
+	}
+
+	@Test
+	public void testListenersOfOneClassAreRecordedApart() {
+		TestMonitor monitor = new TestMonitor();
+		ClipboardListener first = newListener();
+		ClipboardListener second = newListener();
+		monitor.addListener(first);
+		monitor.addListener(second);
+		monitor.change();
+		ClipboardMetrics metrics = monitor.getMetrics();
+		String[] lines = metrics.getListenerTimes();
+		Assert.assertEquals(2, lines.length);
+		Assert.assertFalse(lines[0].equals(lines[1]));
+		Assert.assertTrue(lines[0].startsWith(first.getClass().getName() + '@'));
+
+		monitor.removeListener(first);
+		lines = metrics.getListenerTimes();
+		Assert.assertEquals(1, lines.length);
+		Assert.assertTrue(lines[0].startsWith(first.getClass().getName() + '@'
+				+ Integer.toHexString(System.identityHashCode(second))));
+		monitor.change();
+		Assert.assertEquals(1, metrics.getListenerTimes().length);
+		monitor.removeListener(second);
+		Assert.assertEquals(0, metrics.getListenerTimes().length);
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getListenerTimes().length);
+	}
+
+	@Test
+	public void testMBeanRegistration() throws Exception {
+		TestMonitor monitor = new TestMonitor();
+		monitor.change();
+		monitor.change();
+		ClipboardMetrics metrics = monitor.getMetrics();
+		metrics.register("test"); //$NON-NLS-1$
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(
+					"clipboard.monitor:type=ClipboardMonitor,name=\"test\""); //$NON-NLS-1$
+			Assert.assertEquals(Long.valueOf(2), server.getAttribute(name,
+					"EventsReceived")); //$NON-NLS-1$
+			server.invoke(name, "reset", null, null); //$NON-NLS-1$
+			Assert.assertEquals(0, metrics.getEventsReceived());
+		} finally {
+			metrics.unregister();
+		}
+	}
+}
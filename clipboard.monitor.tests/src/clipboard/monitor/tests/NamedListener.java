@@ -0,0 +1,24 @@
+package clipboard.monitor.tests;
+
+import java.util.List;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+
+/**
+ * Listener shared by the tests that adds its name to a list when it is
+ * called, to check the order of the calls.
+ */
+class NamedListener implements ClipboardListener {
+	final String name;
+	final List<String> calls;
+
+	NamedListener(String name, List<String> calls) {
+		this.name = name;
+		this.calls = calls;
+	}
+
+	public void onEvent(ClipboardEvent event) {
+		calls.add(name);
+	}
+}
@@ -0,0 +1,241 @@
+package clipboard.monitor.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ClipboardProbe;
+import clipboard.monitor.PollingClipboardMonitor;
+
+public class PollingMonitorTests {
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+	/**
+	 * Probe whose token changes at scripted times of a simulated clock.
+	 */
+	static class FakeProbe implements ClipboardProbe {
+		long now;
+		long[] changes = new long[0];
+		int polls;
+
+		public long getChangeToken() {
+			++polls;
+			int token = 0;
+			while (token < changes.length && changes[token] <= now) {
+				++token;
+			}
+			return token;
+		}
+	}
+
+	/**
+	 * Runs on the calling thread and lets the simulated time pass instead of
+	 * sleeping, until the given duration is over.
+	 */
+	static class SimulatedMonitor extends PollingClipboardMonitor {
+		final FakeProbe probe;
+		final long duration;
+		final List<Long> detected = new ArrayList<Long>();
+		final List<Long> logged = new ArrayList<Long>();
+
+		SimulatedMonitor(FakeProbe probe, long duration) {
+			super(probe);
+			this.probe = probe;
+			this.duration = duration;
+			addListener(new ClipboardListener() {
+				public void onEvent(ClipboardEvent event) {
+					detected.add(SimulatedMonitor.this.probe.now);
+				}
+			});
+		}
+
+		@Override
+		protected boolean pause(long nanos) {
+			Assert.assertTrue(nanos > 0);
+			probe.now += nanos;
+			return probe.now < duration;
+		}
+
+		@Override
+		protected void log(String message, Throwable t) {
+			logged.add(probe.now);
+		}
+	}
+
+	@Test
+	public void testIdleHourWakeups() {
+		FakeProbe probe = new FakeProbe();
+		SimulatedMonitor monitor = new SimulatedMonitor(probe, HOUR);
+		monitor.setInterval(100, 30000, TimeUnit.MILLISECONDS);
+		monitor.run();
+
+		// 9 doublings from 100ms to 30s, then one wake-up every 30s (+-10%)
+		final long wakeups = monitor.getWakeupCount();
+		System.out.println("idle hour: " + wakeups + " wake-ups"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertTrue(wakeups >= 3600 / 33 && wakeups <= 3600 / 27 + 10);
+		Assert.assertEquals(0, monitor.detected.size());
+	}
+
+	@Test
+	public void testChangesAreReportedOncePerPoll() {
+		FakeProbe probe = new FakeProbe();
+		probe.changes = new long[] { 1 * SECOND, 90 * SECOND, 91 * SECOND,
+				600 * SECOND, 3000 * SECOND };
+		SimulatedMonitor monitor = new SimulatedMonitor(probe, HOUR);
+		monitor.setInterval(100, 30000, TimeUnit.MILLISECONDS);
+		monitor.setJitter(0);
+		monitor.run();
+
+		// The changes at 90s and 91s fall into the same idle interval
+		Assert.assertEquals(4, monitor.detected.size());
+		final long[] first = { probe.changes[0], probe.changes[1],
+				probe.changes[3], probe.changes[4] };
+		for (int i = 0; i < first.length; ++i) {
+			final long delay = monitor.detected.get(i) - first[i];
+			// Never later than the max interval
+			Assert.assertTrue(delay >= 0 && delay <= 30 * SECOND);
+		}
+	}
+
+	@Test
+	public void testActiveClipboardIsPolledFast() {
+		FakeProbe probe = new FakeProbe();
+		// A change every second for a minute
+		probe.changes = new long[60];
+		for (int i = 0; i < probe.changes.length; ++i) {
+			probe.changes[i] = (i + 1) * SECOND;
+		}
+		SimulatedMonitor monitor = new SimulatedMonitor(probe, 61 * SECOND);
+		monitor.setInterval(100, 30000, TimeUnit.MILLISECONDS);
+		monitor.setJitter(0);
+		monitor.run();
+
+		Assert.assertEquals(60, monitor.detected.size());
+		for (int i = 0; i < probe.changes.length; ++i) {
+			Assert.assertTrue(monitor.detected.get(i) - probe.changes[i] <= SECOND);
+		}
+	}
+
+	@Test
+	public void testFailingProbeIsNoChange() {
+		SimulatedMonitor monitor = new SimulatedMonitor(new FakeProbe() {
+			@Override
+			public long getChangeToken() {
+				if (++polls % 2 == 0) {
+					throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+				}
+				return 42;
+			}
+		}, 10 * SECOND);
+		monitor.setInterval(1, 1, TimeUnit.SECONDS);
+		monitor.setJitter(0);
+		monitor.run();
+		Assert.assertEquals(0, monitor.detected.size());
+		Assert.assertEquals(9, monitor.getWakeupCount());
+	}
+
+	@Test
+	public void testFailingFirstPollIsNoChange() {
+		SimulatedMonitor monitor = new SimulatedMonitor(new FakeProbe() {
+			@Override
+			public long getChangeToken() {
+				if (++polls <= 3) {
+					throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+				}
+				return now < 5 * SECOND ? 42 : 43;
+			}
+		}, 10 * SECOND);
+		monitor.setInterval(1, 1, TimeUnit.SECONDS);
+		monitor.setJitter(0);
+		monitor.run();
+		// Only the change from 42 to 43
+		Assert.assertEquals(1, monitor.detected.size());
+		Assert.assertEquals(5 * SECOND, monitor.detected.get(0).longValue());
+	}
+
+	@Test
+	public void testOnlyFirstFailureOfStreakIsLogged() {
+		SimulatedMonitor monitor = new SimulatedMonitor(new FakeProbe() {
+			@Override
+			public long getChangeToken() {
+				// Fails from 2s to 4s and from 7s to 8s
+				if (now >= 2 * SECOND && now <= 4 * SECOND || now >= 7 * SECOND
+						&& now <= 8 * SECOND) {
+					throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+				}
+				return 42;
+			}
+		}, 10 * SECOND);
+		monitor.setInterval(1, 1, TimeUnit.SECONDS);
+		monitor.setJitter(0);
+		monitor.run();
+		Assert.assertEquals(2, monitor.logged.size());
+		Assert.assertEquals(2 * SECOND, monitor.logged.get(0).longValue());
+		Assert.assertEquals(7 * SECOND, monitor.logged.get(1).longValue());
+	}
+
+	@Test
+	public void testPollingThread() throws Exception {
+		final long[] token = new long[1];
+		PollingClipboardMonitor monitor = new PollingClipboardMonitor(
+				new ClipboardProbe() {
+					public long getChangeToken() {
+						synchronized (token) {
+							return token[0];
+						}
+					}
+				});
+		monitor.setInterval(1, 10, TimeUnit.MILLISECONDS);
+		final CountDownLatch received = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.countDown();
+			}
+		});
+		monitor.start().get(5, TimeUnit.SECONDS);
+		try {
+			synchronized (token) {
+				++token[0];
+			}
+			Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		} finally {
+			monitor.stop().get(5, TimeUnit.SECONDS);
+		}
+		final long wakeups = monitor.getWakeupCount();
+		Thread.sleep(50);
+		Assert.assertEquals(wakeups, monitor.getWakeupCount());
+	}
+
+	@Test
+	public void testStopInterruptsBlockedProbe() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch never = new CountDownLatch(1);
+		PollingClipboardMonitor monitor = new PollingClipboardMonitor(
+				new ClipboardProbe() {
+					private boolean first = true;
+
+					public long getChangeToken() throws InterruptedException {
+						if (first) {
+							first = false;
+							return 0;
+						}
+						blocked.countDown();
+						never.await();
+						return 1;
+					}
+				});
+		monitor.setInterval(1, 10, TimeUnit.MILLISECONDS);
+		monitor.start().get(5, TimeUnit.SECONDS);
+		Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		monitor.stop().get(5, TimeUnit.SECONDS);
+		Assert.assertFalse(monitor.isRunning());
+		Assert.assertEquals(1, monitor.getWakeupCount());
+	}
+}
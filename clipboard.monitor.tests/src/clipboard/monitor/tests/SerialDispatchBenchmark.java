@@ -0,0 +1,122 @@
+package clipboard.monitor.tests;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.DispatchExecutor;
+import clipboard.monitor.DispatchExecutors;
+import clipboard.monitor.SerialDispatchExecutor;
+
+/**
+ * Replays clipboard change notifications through the executor that processes
+ * the formats of the SWT listener: a new thread per change as before, and the
+ * serial executor that replaces the latest waiting change.
+ */
+public class SerialDispatchBenchmark {
+	private static final int CHANGES = 10000;
+	private static final long PROCESSING_NANOS = TimeUnit.MICROSECONDS
+			.toNanos(20);
+
+	static class Result {
+		long elapsed;
+		int processed;
+		int threads;
+		int outOfOrder;
+		int last;
+	}
+
+	/**
+	 * Stands for the resolution of the MIME-Types of one change.
+	 */
+	static class ProcessChange implements Runnable {
+		final int sequence;
+		final Result result;
+		final Map<Thread, Boolean> threads;
+		final Semaphore done;
+
+		ProcessChange(int sequence, Result result, Map<Thread, Boolean> threads,
+				Semaphore done) {
+			this.sequence = sequence;
+			this.result = result;
+			this.threads = threads;
+			this.done = done;
+		}
+
+		public void run() {
+			final long end = System.nanoTime() + PROCESSING_NANOS;
+			while (System.nanoTime() < end) {
+				// Busy
+			}
+			threads.put(Thread.currentThread(), Boolean.TRUE);
+			synchronized (result) {
+				if (sequence < result.last) {
+					++result.outOfOrder;
+				}
+				result.last = Math.max(result.last, sequence);
+				++result.processed;
+			}
+			done.release();
+		}
+	}
+
+	private static Result replay(String name, DispatchExecutor executor)
+			throws InterruptedException {
+		final Result result = new Result();
+		final Map<Thread, Boolean> threads = Collections
+				.synchronizedMap(new IdentityHashMap<Thread, Boolean>());
+		final Semaphore done = new Semaphore(0);
+		final AtomicInteger submitted = new AtomicInteger();
+		executor.start();
+		final long begin = System.nanoTime();
+		try {
+			for (int i = 1; i <= CHANGES; ++i) {
+				executor.execute(new ProcessChange(i, result, threads, done));
+				submitted.incrementAndGet();
+			}
+			// Wait until the last change was processed
+			final long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(60);
+			while (true) {
+				synchronized (result) {
+					if (CHANGES == result.last) {
+						break;
+					}
+				}
+				Assert.assertTrue(System.nanoTime() < deadline);
+				done.tryAcquire(10, TimeUnit.MILLISECONDS);
+			}
+			result.elapsed = System.nanoTime() - begin;
+		} finally {
+			executor.stop();
+		}
+		result.threads = threads.size();
+		System.out.println(String.format(
+				"%-18s %8.1fms, %5d processed, %5d threads, %4d out of order", //$NON-NLS-1$
+				name, result.elapsed / 1e6, result.processed, result.threads,
+				result.outOfOrder));
+		return result;
+	}
+
+	@Test
+	public void replayChanges() throws InterruptedException {
+		final String name = "Clipboard Benchmark"; //$NON-NLS-1$
+		replay("thread per change", DispatchExecutors.threadPerTask(name)); //$NON-NLS-1$
+		final SerialDispatchExecutor serial = DispatchExecutors.serial(name, 16);
+		final Result result = replay("serial", serial); //$NON-NLS-1$
+		System.out.println(String.format(
+				"serial: %d skipped, latency mean %dus, p99 %dus, max %dus", //$NON-NLS-1$
+				serial.getReplacedCount(), serial.getLatencyMean() / 1000,
+				serial.getLatency99th() / 1000, serial.getLatencyMax() / 1000));
+		Assert.assertEquals(0, result.outOfOrder);
+		Assert.assertEquals(1, result.threads);
+		Assert.assertEquals(CHANGES, result.processed
+				+ serial.getReplacedCount());
+	}
+}
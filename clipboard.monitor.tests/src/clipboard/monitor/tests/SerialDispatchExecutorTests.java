@@ -0,0 +1,186 @@
+package clipboard.monitor.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import clipboard.monitor.DispatchExecutors;
+import clipboard.monitor.SerialDispatchExecutor;
+
+public class SerialDispatchExecutorTests {
+	private final SerialDispatchExecutor executor = DispatchExecutors.serial(
+			"Clipboard Serial Test", 4); //$NON-NLS-1$
+
+	/**
+	 * Records the number it was created with.
+	 */
+	static class RecordingTask implements Runnable {
+		final List<Integer> done;
+		final int number;
+
+		RecordingTask(List<Integer> done, int number) {
+			this.done = done;
+			this.number = number;
+		}
+
+		public void run() {
+			done.add(number);
+		}
+	}
+
+	/**
+	 * Blocks the worker until released.
+	 */
+	static class BlockingTask implements Runnable {
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		public void run() {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void await(final int executed) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (executor.getExecutedCount() < executed
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(executed, executor.getExecutedCount());
+	}
+
+	@After
+	public void tearDown() {
+		executor.stop();
+	}
+
+	@Test
+	public void testTasksRunInOrderOnOneThread() throws Exception {
+		final List<Integer> done = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		final List<Thread> threads = Collections
+				.synchronizedList(new ArrayList<Thread>());
+		executor.start();
+		for (int i = 0; i < 1000; ++i) {
+			executor.execute(new RecordingTask(done, i) {
+				@Override
+				public void run() {
+					super.run();
+					if (!threads.contains(Thread.currentThread())) {
+						threads.add(Thread.currentThread());
+					}
+				}
+			});
+			if (executor.getQueueDepth() == executor.getCapacity()) {
+				Thread.sleep(1);
+			}
+		}
+		await((int) (1000 - executor.getReplacedCount()));
+		for (int i = 1; i < done.size(); ++i) {
+			Assert.assertTrue(done.get(i - 1) < done.get(i));
+		}
+		Assert.assertEquals(999, done.get(done.size() - 1).intValue());
+		Assert.assertEquals(1, threads.size());
+		Assert.assertTrue(threads.get(0).isDaemon());
+	}
+
+	@Test
+	public void testLatestReplacesNewestWaitingTask() throws Exception {
+		final List<Integer> done = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		final BlockingTask blocker = new BlockingTask();
+		executor.start();
+		executor.execute(blocker);
+		Assert.assertTrue(blocker.running.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; ++i) {
+			executor.execute(new RecordingTask(done, i));
+		}
+		Assert.assertEquals(4, executor.getQueueDepth());
+		Assert.assertEquals(6, executor.getReplacedCount());
+		blocker.release.countDown();
+		await(5);
+		// The oldest waiting tasks are kept, the latest always runs
+		Assert.assertEquals(Arrays.asList(0, 1, 2, 9), done);
+		Assert.assertEquals(0, executor.getQueueDepth());
+	}
+
+	@Test
+	public void testFailingTaskDoesNotEndWorker() throws Exception {
+		final List<Integer> done = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		executor.start();
+		executor.execute(new Runnable() {
+			public void run() {
+				throw new IllegalStateException("expected by test"); //$NON-NLS-1$
+			}
+		});
+		executor.execute(new RecordingTask(done, 1));
+		await(2);
+		Assert.assertEquals(Collections.singletonList(1), done);
+	}
+
+	@Test
+	public void testStoppedExecutorRejectsTasks() throws Exception {
+		final List<Integer> done = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		try {
+			executor.execute(new RecordingTask(done, 0));
+			Assert.fail();
+		} catch (RejectedExecutionException e) {
+			// Expected
+		}
+
+		// Waiting tasks are discarded on stop
+		final BlockingTask blocker = new BlockingTask();
+		executor.start();
+		executor.execute(blocker);
+		Assert.assertTrue(blocker.running.await(5, TimeUnit.SECONDS));
+		executor.execute(new RecordingTask(done, 1));
+		executor.stop();
+		Assert.assertEquals(0, executor.getQueueDepth());
+		try {
+			executor.execute(new RecordingTask(done, 2));
+			Assert.fail();
+		} catch (RejectedExecutionException e) {
+			// Expected
+		}
+
+		// And runs again after a restart
+		executor.start();
+		executor.execute(new RecordingTask(done, 3));
+		await(2);
+		Assert.assertEquals(Collections.singletonList(3), done);
+	}
+
+	@Test
+	public void testLatencyIsReported() throws Exception {
+		executor.start();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		await(1);
+		final long millis = TimeUnit.NANOSECONDS.toMillis(executor
+				.getLatency99th());
+		Assert.assertTrue(millis + "ms", millis >= 17 && millis < 5000); //$NON-NLS-1$
+		Assert.assertEquals(executor.getLatencyMax(), executor.getLatency99th());
+	}
+}
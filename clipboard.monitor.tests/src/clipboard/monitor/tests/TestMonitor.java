@@ -0,0 +1,62 @@
+package clipboard.monitor.tests;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardContentReader;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardReader;
+
+/**
+ * Monitor without a native source, shared by the tests. Changes are reported
+ * by calling {@link #change()}. Once started it runs until it is stopped.
+ */
+class TestMonitor extends AbstractClipboardMonitor {
+	/** Reads the formats of a change, <code>null</code> for none. */
+	volatile ClipboardReader reader;
+	/** Reads the content of a change, <code>null</code> for none. */
+	volatile ClipboardContentReader contentReader;
+
+	public void run() {
+		ready();
+		try {
+			Thread.sleep(Long.MAX_VALUE);
+		} catch (InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	@Override
+	protected ClipboardReader getClipboardReader() {
+		return reader;
+	}
+
+	@Override
+	protected ClipboardContentReader getContentReader() {
+		return contentReader;
+	}
+
+	void change() {
+		fireChange();
+	}
+
+	void change(ByteBuffer payload) {
+		fireChange(payload);
+	}
+
+	void change(String text) throws UnsupportedEncodingException {
+		fireChange(ByteBuffer.wrap(text.getBytes("UTF-8"))); //$NON-NLS-1$
+	}
+
+	/**
+	 * Sends the event to the listeners as it is.
+	 */
+	void fire(ClipboardEvent event) {
+		onChange(event);
+	}
+
+	int getListenerCount() {
+		return getListeners().size();
+	}
+}
@@ -0,0 +1,356 @@
+package clipboard.monitor.windows.tests;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clipboard.monitor.windows.Win32;
+import clipboard.monitor.windows.WindowProc;
+import clipboard.monitor.windows.internal.User32;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.examples.win32.W32API.HANDLE;
+import com.sun.jna.examples.win32.W32API.HWND;
+import com.sun.jna.examples.win32.W32API.LPARAM;
+import com.sun.jna.examples.win32.W32API.WPARAM;
+
+/**
+ * In-process simulation of the Win32 message loop and the clipboard viewer
+ * chain.
+ * 
+ * <p>
+ * Windows created by the monitor get their messages through
+ * {@link #dispatchMessages()} on the monitor thread, like with a real message
+ * queue. Foreign viewers added with {@link #addViewer()} stand for other
+ * applications in the chain. They only count the messages sent to them.
+ * 
+ * <p>
+ * Unlike Windows, {@link #setClipboardViewer(HWND)} does not send an initial
+ * <code>WM_DRAWCLIPBOARD</code>.
+ */
+public class FakeWin32 implements Win32 {
+
+	private static final class Message {
+		final HWND window;
+		final int message;
+		final long wParam;
+		final long lParam;
+
+		Message(HWND window, int message, long wParam, long lParam) {
+			this.window = window;
+			this.message = message;
+			this.wParam = wParam;
+			this.lParam = lParam;
+		}
+	}
+
+	private final AtomicLong handles = new AtomicLong(0x1000);
+	private final Map<Pointer, WindowProc> procs = new ConcurrentHashMap<Pointer, WindowProc>();
+	private final Map<Pointer, Long> values = new ConcurrentHashMap<Pointer, Long>();
+	private final Map<String, AtomicInteger> received = new HashMap<String, AtomicInteger>();
+
+	// Guarded by this
+	private final LinkedList<HWND> chain = new LinkedList<HWND>();
+	private final LinkedList<Message> queue = new LinkedList<Message>();
+	private final Set<Pointer> signaled = new HashSet<Pointer>();
+	private boolean dispatching;
+	private int failingWaits;
+
+	private final Map<Integer, String> formatNames = new HashMap<Integer, String>();
+	private volatile int[] formats = new int[0];
+	private final AtomicInteger clipboardOpened = new AtomicInteger();
+	private final Map<Integer, byte[]> data = new ConcurrentHashMap<Integer, byte[]>();
+	private final AtomicInteger dataRead = new AtomicInteger();
+
+	private Pointer newHandle() {
+		final long handle = handles.incrementAndGet();
+		final Pointer pointer = Pointer.createConstant(handle);
+		values.put(pointer, Long.valueOf(handle));
+		return pointer;
+	}
+
+	private HWND newWindow() {
+		return new HWND(newHandle());
+	}
+
+	private long valueOf(HWND window) {
+		return null == window ? 0 : values.get(window.getPointer()).longValue();
+	}
+
+	/**
+	 * Adds a window of another application to the front of the viewer chain.
+	 */
+	public synchronized HWND addViewer() {
+		final HWND viewer = newWindow();
+		chain.addFirst(viewer);
+		return viewer;
+	}
+
+	/**
+	 * Lets a window of another application leave the viewer chain, like it
+	 * would by calling <code>ChangeClipboardChain</code>.
+	 */
+	public void removeViewer(HWND viewer) {
+		final HWND next;
+		synchronized (this) {
+			final int index = chain.indexOf(viewer);
+			next = index + 1 < chain.size() ? chain.get(index + 1) : null;
+		}
+		changeClipboardChain(viewer, next);
+	}
+
+	/**
+	 * Sends <code>WM_DRAWCLIPBOARD</code> to the first viewer, like Windows
+	 * does when the clipboard content changed.
+	 */
+	public void drawClipboard() {
+		final HWND first;
+		synchronized (this) {
+			first = chain.isEmpty() ? null : chain.getFirst();
+		}
+		if (first != null) {
+			post(new Message(first, User32.WM_DRAWCLIPBOARD, 0, 0));
+		}
+	}
+
+	/**
+	 * @return the windows in the viewer chain, first viewer first.
+	 */
+	public synchronized HWND[] getChain() {
+		return chain.toArray(new HWND[chain.size()]);
+	}
+
+	/**
+	 * @return number of messages of the given type sent to a foreign viewer.
+	 */
+	public int getReceived(HWND viewer, int message) {
+		synchronized (received) {
+			final AtomicInteger count = received.get(key(viewer, message));
+			return null == count ? 0 : count.get();
+		}
+	}
+
+	/**
+	 * Puts the given formats on the clipboard.
+	 */
+	public void setFormats(int[] formats, String[] names) {
+		synchronized (formatNames) {
+			for (int i = 0; i < formats.length; ++i) {
+				formatNames.put(formats[i], names[i]);
+			}
+		}
+		this.formats = formats.clone();
+	}
+
+	/**
+	 * Puts data in the given format on the clipboard.
+	 */
+	public void setData(int format, byte[] bytes) {
+		data.put(format, bytes);
+	}
+
+	/**
+	 * @return how often clipboard data was read.
+	 */
+	public int getDataRead() {
+		return dataRead.get();
+	}
+
+	/**
+	 * @return how often the clipboard was opened.
+	 */
+	public int getClipboardOpened() {
+		return clipboardOpened.get();
+	}
+
+	/**
+	 * Lets the next call of {@link #waitForMessages(HANDLE[])} fail.
+	 */
+	public synchronized void failNextWait() {
+		++failingWaits;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until all messages were dispatched.
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (!queue.isEmpty() || dispatching) {
+			wait();
+		}
+	}
+
+	private static String key(HWND window, int message) {
+		return window.getPointer() + "/" + message; //$NON-NLS-1$
+	}
+
+	private synchronized void post(Message message) {
+		queue.add(message);
+		notifyAll();
+	}
+
+	public HWND createWindow() {
+		return newWindow();
+	}
+
+	public void destroyWindow(HWND window) {
+		final WindowProc proc = procs.get(window.getPointer());
+		if (proc != null) {
+			proc.callback(window, User32.WM_DESTROY, new WPARAM(0),
+					new LPARAM(0));
+			procs.remove(window.getPointer());
+		}
+	}
+
+	public void setWindowProc(HWND window, WindowProc proc) {
+		procs.put(window.getPointer(), proc);
+	}
+
+	public synchronized HWND setClipboardViewer(HWND viewer) {
+		final HWND next = chain.isEmpty() ? null : chain.getFirst();
+		chain.addFirst(viewer);
+		return next;
+	}
+
+	public boolean changeClipboardChain(HWND remove, HWND next) {
+		final HWND first;
+		synchronized (this) {
+			if (!chain.remove(remove)) {
+				return false;
+			}
+			first = chain.isEmpty() ? null : chain.getFirst();
+		}
+		if (first != null) {
+			final Message message = new Message(first,
+					User32.WM_CHANGECBCHAIN, valueOf(remove), valueOf(next));
+			if (procs.containsKey(first.getPointer())) {
+				post(message);
+			} else {
+				deliver(message);
+			}
+		}
+		return true;
+	}
+
+	public int sendMessage(HWND window, int message, WPARAM wParam,
+			LPARAM lParam) {
+		return deliver(new Message(window, message, wParam.longValue(), lParam
+				.longValue()));
+	}
+
+	private int deliver(Message message) {
+		final WindowProc proc = procs.get(message.window.getPointer());
+		if (proc != null) {
+			return proc.callback(message.window, message.message, new WPARAM(
+					message.wParam), new LPARAM(message.lParam));
+		}
+		final String key = key(message.window, message.message);
+		synchronized (received) {
+			final AtomicInteger count = received.get(key);
+			if (null == count) {
+				received.put(key, new AtomicInteger(1));
+			} else {
+				count.incrementAndGet();
+			}
+		}
+		return 0;
+	}
+
+	public int defWindowProc(HWND window, int message, WPARAM wParam,
+			LPARAM lParam) {
+		return 0;
+	}
+
+	public HANDLE createEvent() {
+		return new HANDLE(newHandle());
+	}
+
+	public synchronized void setEvent(HANDLE event) {
+		signaled.add(event.getPointer());
+		notifyAll();
+	}
+
+	public synchronized void resetEvent(HANDLE event) {
+		signaled.remove(event.getPointer());
+	}
+
+	public synchronized int waitForMessages(HANDLE[] handles) {
+		while (true) {
+			if (failingWaits > 0) {
+				--failingWaits;
+				return -1;
+			}
+			for (int i = 0; i < handles.length; ++i) {
+				if (signaled.remove(handles[i].getPointer())) {
+					return WAIT_OBJECT_0 + i;
+				}
+			}
+			if (!queue.isEmpty()) {
+				return WAIT_OBJECT_0 + handles.length;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+	}
+
+	public void dispatchMessages() {
+		while (true) {
+			final Message message;
+			synchronized (this) {
+				message = queue.poll();
+				dispatching = message != null;
+				if (null == message) {
+					notifyAll();
+					return;
+				}
+			}
+			deliver(message);
+		}
+	}
+
+	public boolean openClipboard() {
+		clipboardOpened.incrementAndGet();
+		return true;
+	}
+
+	public void closeClipboard() {
+	}
+
+	public int enumClipboardFormats(int format) {
+		final int[] formats = this.formats;
+		if (0 == format) {
+			return formats.length > 0 ? formats[0] : 0;
+		}
+		for (int i = 0; i < formats.length - 1; ++i) {
+			if (formats[i] == format) {
+				return formats[i + 1];
+			}
+		}
+		return 0;
+	}
+
+	public String getClipboardFormatName(int format) {
+		synchronized (formatNames) {
+			return formatNames.get(format);
+		}
+	}
+
+	public ByteBuffer getClipboardData(int format) {
+		final byte[] bytes = data.get(format);
+		if (null == bytes) {
+			return null;
+		}
+		dataRead.incrementAndGet();
+		return ByteBuffer.wrap(bytes);
+	}
+}
@@ -0,0 +1,292 @@
+package clipboard.monitor.windows.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import clipboard.monitor.ClipboardContent;
+import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardFormat;
+import clipboard.monitor.ClipboardListener;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.windows.WindowsClipboardMonitor;
+import clipboard.monitor.windows.internal.User32;
+
+import com.sun.jna.examples.win32.W32API.HWND;
+
+/**
+ * Runs the message loop of the Windows monitor against {@link FakeWin32}.
+ */
+public class WindowsMessageLoopTests {
+	private static final int MESSAGES = 200000;
+	private static final int SAMPLES = 2000;
+
+	private FakeWin32 win32;
+	private WindowsClipboardMonitor monitor;
+
+	@Before
+	public void setUp() {
+		win32 = new FakeWin32();
+		monitor = new WindowsClipboardMonitor(win32);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		monitor.stop().get(5, TimeUnit.SECONDS);
+	}
+
+	private HWND start() throws Exception {
+		monitor.start().get(5, TimeUnit.SECONDS);
+		return win32.getChain()[0];
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[(int) Math.ceil(sorted.length * p / 100) - 1];
+	}
+
+	@Test
+	public void testDrawClipboardIsReportedAndForwarded() throws Exception {
+		final HWND other = win32.addViewer();
+		final CountDownLatch received = new CountDownLatch(10);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.countDown();
+			}
+		});
+		start();
+		for (int i = 0; i < 10; ++i) {
+			win32.drawClipboard();
+		}
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		win32.awaitIdle();
+		Assert.assertEquals(10, win32.getReceived(other,
+				User32.WM_DRAWCLIPBOARD));
+	}
+
+	@Test
+	public void testNextViewerIsNotifiedBeforeListeners() throws Exception {
+		final HWND other = win32.addViewer();
+		final AtomicReference<Integer> forwarded = new AtomicReference<Integer>();
+		final CountDownLatch received = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				forwarded.set(win32.getReceived(other,
+						User32.WM_DRAWCLIPBOARD));
+				received.countDown();
+			}
+		});
+		start();
+		win32.drawClipboard();
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(Integer.valueOf(1), forwarded.get());
+	}
+
+	@Test
+	public void testChainIsRepairedWhenNextViewerLeaves() throws Exception {
+		final HWND last = win32.addViewer();
+		final HWND next = win32.addViewer();
+		final HWND viewer = start();
+		Assert.assertEquals(Arrays.asList(viewer, next, last), Arrays
+				.asList(win32.getChain()));
+
+		win32.removeViewer(next);
+		win32.awaitIdle();
+		win32.drawClipboard();
+		win32.awaitIdle();
+
+		Assert.assertEquals(0, win32.getReceived(next,
+				User32.WM_CHANGECBCHAIN));
+		Assert.assertEquals(0, win32.getReceived(next,
+				User32.WM_DRAWCLIPBOARD));
+		Assert.assertEquals(1, win32.getReceived(last,
+				User32.WM_DRAWCLIPBOARD));
+	}
+
+	@Test
+	public void testChainChangeOfOtherViewerIsForwarded() throws Exception {
+		final HWND last = win32.addViewer();
+		final HWND next = win32.addViewer();
+		start();
+
+		win32.removeViewer(last);
+		win32.awaitIdle();
+		win32.drawClipboard();
+		win32.awaitIdle();
+
+		Assert.assertEquals(1, win32.getReceived(next,
+				User32.WM_CHANGECBCHAIN));
+		Assert.assertEquals(1, win32.getReceived(next,
+				User32.WM_DRAWCLIPBOARD));
+	}
+
+	@Test
+	public void testLastNextViewerLeaves() throws Exception {
+		final HWND next = win32.addViewer();
+		final CountDownLatch received = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.countDown();
+			}
+		});
+		start();
+
+		win32.removeViewer(next);
+		win32.awaitIdle();
+		win32.drawClipboard();
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		win32.awaitIdle();
+		Assert.assertEquals(0, win32.getReceived(next,
+				User32.WM_DRAWCLIPBOARD));
+	}
+
+	@Test
+	public void testStopLeavesChain() throws Exception {
+		final HWND next = win32.addViewer();
+		final HWND viewer = start();
+		monitor.stop().get(5, TimeUnit.SECONDS);
+
+		Assert.assertEquals(Arrays.asList(next), Arrays.asList(win32
+				.getChain()));
+		Assert.assertEquals(1, win32.getReceived(next,
+				User32.WM_CHANGECBCHAIN));
+		Assert.assertFalse(Arrays.asList(win32.getChain()).contains(viewer));
+
+		// And joins again on restart
+		start();
+		Assert.assertEquals(2, win32.getChain().length);
+	}
+
+	@Test
+	public void testRestartAfterFailedWait() throws Exception {
+		final HWND next = win32.addViewer();
+		final CountDownLatch received = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.countDown();
+			}
+		});
+		start();
+		// run() returns on its own, so the stop signals an unused event
+		win32.failNextWait();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (win32.getChain().length > 1 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(Arrays.asList(next), Arrays.asList(win32
+				.getChain()));
+		monitor.stop().get(5, TimeUnit.SECONDS);
+
+		start();
+		win32.drawClipboard();
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(monitor.isRunning());
+	}
+
+	@Test
+	public void testFormatsAreReadThroughWin32() throws Exception {
+		win32.setFormats(new int[] { 13, 0xC0A1 }, new String[] { null,
+				"HTML Format" }); //$NON-NLS-1$
+		final AtomicReference<List<ClipboardFormat>> formats = new AtomicReference<List<ClipboardFormat>>();
+		final CountDownLatch received = new CountDownLatch(1);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				formats.set(event.getFormats());
+				received.countDown();
+			}
+		});
+		start();
+		win32.drawClipboard();
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+
+		Assert.assertEquals(2, formats.get().size());
+		Assert.assertEquals("CF_UNICODETEXT", formats.get().get(0).getName()); //$NON-NLS-1$
+		Assert.assertEquals("HTML Format", formats.get().get(1).getName()); //$NON-NLS-1$
+		Assert.assertEquals(1, win32.getClipboardOpened());
+	}
+
+	@Test
+	public void testContentIsCapturedOncePerChange() throws Exception {
+		final byte[] text = "clipboard".getBytes("UTF-16LE"); //$NON-NLS-1$ //$NON-NLS-2$
+		win32.setData(13, text);
+		final ContentPool pool = new ContentPool(1024 * 1024);
+		monitor.setContentCapture(pool, 13, 0xC0A1);
+		final CountDownLatch received = new CountDownLatch(3);
+		final AtomicReference<String> error = new AtomicReference<String>();
+		for (int i = 0; i < 3; ++i) {
+			monitor.addListener(new ClipboardListener() {
+				public void onEvent(ClipboardEvent event) {
+					final ClipboardContent content = event.getContent(13);
+					if (null == content
+							|| !ByteBuffer.wrap(text).equals(content.getBuffer())
+							|| event.getContent(0xC0A1) != null) {
+						error.set("unexpected content " + content); //$NON-NLS-1$
+					}
+					received.countDown();
+				}
+			});
+		}
+		start();
+		win32.drawClipboard();
+		Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+		Assert.assertNull(error.get());
+		Assert.assertEquals(1, win32.getDataRead());
+		Assert.assertEquals(1, win32.getClipboardOpened());
+		win32.awaitIdle();
+		Assert.assertEquals(4096, pool.getPooledBytes());
+	}
+
+	@Test
+	public void measureCallbackThroughputAndLatency() throws Exception {
+		final Semaphore received = new Semaphore(0);
+		monitor.addListener(new ClipboardListener() {
+			public void onEvent(ClipboardEvent event) {
+				received.release();
+			}
+		});
+		start();
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < MESSAGES; ++i) {
+			win32.drawClipboard();
+		}
+		Assert.assertTrue(received.tryAcquire(MESSAGES, 30, TimeUnit.SECONDS));
+		final long elapsed = System.nanoTime() - begin;
+
+		final long[] latencies = new long[SAMPLES];
+		for (int i = 0; i < SAMPLES; ++i) {
+			begin = System.nanoTime();
+			win32.drawClipboard();
+			Assert.assertTrue(received.tryAcquire(5, TimeUnit.SECONDS));
+			latencies[i] = System.nanoTime() - begin;
+		}
+		Arrays.sort(latencies);
+		System.out.println("WM_DRAWCLIPBOARD: " + elapsed / MESSAGES //$NON-NLS-1$
+				+ " ns/message, round trip p50 " //$NON-NLS-1$
+				+ percentile(latencies, 50) / 1000 + "us, p99 " //$NON-NLS-1$
+				+ percentile(latencies, 99) / 1000 + "us"); //$NON-NLS-1$
+	}
+
+	@Test
+	public void measureStopLatency() throws Exception {
+		final long[] latencies = new long[SAMPLES / 10];
+		for (int i = 0; i < latencies.length; ++i) {
+			start();
+			final long begin = System.nanoTime();
+			monitor.stop().get(5, TimeUnit.SECONDS);
+			latencies[i] = System.nanoTime() - begin;
+			Assert.assertEquals(0, win32.getChain().length);
+		}
+		Arrays.sort(latencies);
+		System.out.println("stop: p50 " + percentile(latencies, 50) / 1000 //$NON-NLS-1$
+				+ "us, p99 " + percentile(latencies, 99) / 1000 + "us"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -11,13 +11,13 @@
 package clipboard.monitor.windows;
 
 import clipboard.monitor.AbstractClipboardMonitor;
+import clipboard.monitor.ClipboardContentReader;
 import clipboard.monitor.ClipboardEvent;
+import clipboard.monitor.ClipboardReader;
 import clipboard.monitor.windows.internal.User32;
-import clipboard.monitor.windows.internal.User32.MSG;
-import clipboard.monitor.windows.internal.User32.WNDPROC;
+import clipboard.monitor.windows.internal.WindowsClipboardReader;
 
 import com.sun.jna.Pointer;
-import com.sun.jna.examples.win32.Kernel32;
 import com.sun.jna.examples.win32.W32API.HANDLE;
 import com.sun.jna.examples.win32.W32API.HWND;
 import com.sun.jna.examples.win32.W32API.LPARAM;
@@ -27,22 +27,70 @@ import com.sun.jna.examples.win32.W32API.WPARAM;
  * A component that monitors the clipboard on Win32 systems using JNA.
  * 
  * <p>
- * Implementors must implement their own listener management.
+ * Listeners are managed by the base class. Implementors may override
+ * {@link #onChange(ClipboardEvent)} to send the events elsewhere.
+ * 
+ * <p>
+ * All calls into Windows go through {@link Win32}. By default the native
+ * functions are used, which are only loaded once the monitor is started.
  * 
  * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
  * 
  */
 public abstract class AbstractWindowsClipboardMonitor extends
-		AbstractClipboardMonitor implements WNDPROC {
+		AbstractClipboardMonitor implements WindowProc {
 
+	private final Win32 win32;
 	private HWND viewer;
 	private HWND nextViewer;
-	private final HANDLE event = Kernel32.INSTANCE.CreateEvent(null, false,
-			false, null);
+	private boolean linked;
+	// Guarded by this
+	private HANDLE event;
+	private final WindowsClipboardReader reader;
+
+	public AbstractWindowsClipboardMonitor() {
+		this(Win32.NATIVE);
+	}
+
+	/**
+	 * @param win32
+	 *            to call Windows with
+	 */
+	protected AbstractWindowsClipboardMonitor(Win32 win32) {
+		if (null == win32) {
+			throw new IllegalArgumentException("win32 must not be null"); //$NON-NLS-1$
+		}
+		this.win32 = win32;
+		this.reader = new WindowsClipboardReader(win32);
+	}
+
+	@Override
+	protected ClipboardReader getClipboardReader() {
+		return reader;
+	}
+
+	@Override
+	protected ClipboardContentReader getContentReader() {
+		return reader;
+	}
+
+	/**
+	 * @return the event that stops the message loop. Created on first use and
+	 *         kept for restarts.
+	 */
+	private synchronized HANDLE getEvent() {
+		if (null == event) {
+			event = win32.createEvent();
+		}
+		return event;
+	}
 
+	/**
+	 * Signals the message loop in {@link #run()} to return.
+	 */
 	@Override
-	public void stop() {
-		Kernel32.INSTANCE.SetEvent(event);
+	protected void onStop(Thread thread) {
+		win32.setEvent(getEvent());
 	}
 
 	/**
@@ -53,33 +101,47 @@ public abstract class AbstractWindowsClipboardMonitor extends
 	 * 
 	 */
 	public void run() {
-		viewer = User32.INSTANCE.CreateWindowEx(0, "STATIC", "", 0, 0, 0, 0, 0, //$NON-NLS-1$ //$NON-NLS-2$
-				null, 0, 0, null);
-		nextViewer = User32.INSTANCE.SetClipboardViewer(viewer);
-		User32.INSTANCE.SetWindowLong(viewer, User32.GWL_WNDPROC, this);
-
-		MSG msg = new MSG();
-
-		final HANDLE handles[] = { event };
-		while (true) {
-			int result = User32.INSTANCE.MsgWaitForMultipleObjects(
-					handles.length, handles, false, Kernel32.INFINITE,
-					User32.QS_ALLINPUT);
-
-			if (result == Kernel32.WAIT_OBJECT_0) {
-				User32.INSTANCE.DestroyWindow(viewer);
-				return;
-			}
-			if (result != Kernel32.WAIT_OBJECT_0 + handles.length) {
-				// Serious problem!
-				break;
-			}
+		final HANDLE handles[] = { getEvent() };
+		// The last stop may have signaled the event after run() returned on
+		// its own. A stop of this run sets the event after isRunning() is
+		// false, so it is not lost.
+		win32.resetEvent(handles[0]);
+		if (!isRunning()) {
+			return;
+		}
+		viewer = win32.createWindow();
+		nextViewer = win32.setClipboardViewer(viewer);
+		linked = true;
+		win32.setWindowProc(viewer, this);
+		ready();
+
+		try {
+			while (true) {
+				int result = win32.waitForMessages(handles);
 
-			while (User32.INSTANCE.PeekMessage(msg, null, 0, 0,
-					User32.PM_REMOVE)) {
-				User32.INSTANCE.TranslateMessage(msg);
-				User32.INSTANCE.DispatchMessage(msg);
+				if (result == Win32.WAIT_OBJECT_0) {
+					return;
+				}
+				if (result != Win32.WAIT_OBJECT_0 + handles.length) {
+					// Serious problem!
+					return;
+				}
+
+				win32.dispatchMessages();
 			}
+		} finally {
+			unlink();
+			win32.destroyWindow(viewer);
+		}
+	}
+
+	/**
+	 * Removes the viewer from the clipboard viewer chain, once.
+	 */
+	private void unlink() {
+		if (linked) {
+			linked = false;
+			win32.changeClipboardChain(viewer, nextViewer);
 		}
 	}
 
@@ -87,25 +149,35 @@ public abstract class AbstractWindowsClipboardMonitor extends
 		switch (uMsg) {
 		case User32.WM_CHANGECBCHAIN:
 			// If the next window is closing, repair the chain.
-			if (nextViewer.toNative().equals(wParam.toNative())) {
-				nextViewer = new HWND(Pointer
+			if (isWindow(nextViewer, wParam)) {
+				nextViewer = 0 == lParam.longValue() ? null : new HWND(Pointer
 						.createConstant(lParam.longValue()));
 			} // Otherwise, pass the message to the next link.
 			else if (nextViewer != null) {
-				User32.INSTANCE.SendMessage(nextViewer, uMsg, wParam, lParam);
+				win32.sendMessage(nextViewer, uMsg, wParam, lParam);
 			}
 			return 0;
 		case User32.WM_DRAWCLIPBOARD:
+			// Forward first, the next viewers must not wait until the change
+			// was read and maybe delivered
 			try {
-				onChange(new ClipboardEvent(this));
+				if (nextViewer != null) {
+					win32.sendMessage(nextViewer, uMsg, wParam, lParam);
+				}
 			} finally {
-				User32.INSTANCE.SendMessage(nextViewer, uMsg, wParam, lParam);
+				fireChange();
 			}
 			return 0;
 		case User32.WM_DESTROY:
-			User32.INSTANCE.ChangeClipboardChain(viewer, nextViewer);
+			unlink();
 			break;
 		}
-		return User32.INSTANCE.DefWindowProc(hWnd, uMsg, wParam, lParam);
+		return win32.defWindowProc(hWnd, uMsg, wParam, lParam);
+	}
+
+	private static boolean isWindow(HWND window, WPARAM handle) {
+		return window != null
+				&& window.getPointer().equals(
+						Pointer.createConstant(handle.longValue()));
 	}
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.windows;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import clipboard.monitor.windows.internal.GlobalMemory;
+import clipboard.monitor.windows.internal.User32;
+import clipboard.monitor.windows.internal.User32.MSG;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.examples.win32.Kernel32;
+import com.sun.jna.examples.win32.W32API.HANDLE;
+import com.sun.jna.examples.win32.W32API.HWND;
+import com.sun.jna.examples.win32.W32API.LPARAM;
+import com.sun.jna.examples.win32.W32API.WPARAM;
+
+/**
+ * {@link Win32} implementation that calls <code>user32.dll</code> and
+ * <code>kernel32.dll</code> through JNA.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+final class NativeWin32 implements Win32 {
+	/** Messages are only pumped by the monitor thread. */
+	private final ThreadLocal<MSG> messages = new ThreadLocal<MSG>() {
+		@Override
+		protected MSG initialValue() {
+			return new MSG();
+		}
+	};
+	private final ThreadLocal<char[]> names = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[256];
+		}
+	};
+	/** Handles locked by the thread that has the clipboard open. */
+	private final ThreadLocal<List<HANDLE>> locked = new ThreadLocal<List<HANDLE>>() {
+		@Override
+		protected List<HANDLE> initialValue() {
+			return new ArrayList<HANDLE>();
+		}
+	};
+
+	public HWND createWindow() {
+		return User32.INSTANCE.CreateWindowEx(0, "STATIC", "", 0, 0, 0, 0, 0, //$NON-NLS-1$ //$NON-NLS-2$
+				null, 0, 0, null);
+	}
+
+	public void destroyWindow(HWND window) {
+		User32.INSTANCE.DestroyWindow(window);
+	}
+
+	public void setWindowProc(HWND window, WindowProc proc) {
+		User32.INSTANCE.SetWindowLong(window, User32.GWL_WNDPROC, proc);
+	}
+
+	public HWND setClipboardViewer(HWND viewer) {
+		return User32.INSTANCE.SetClipboardViewer(viewer);
+	}
+
+	public boolean changeClipboardChain(HWND remove, HWND next) {
+		return User32.INSTANCE.ChangeClipboardChain(remove, next);
+	}
+
+	public int sendMessage(HWND window, int message, WPARAM wParam,
+			LPARAM lParam) {
+		return User32.INSTANCE.SendMessage(window, message, wParam, lParam);
+	}
+
+	public int defWindowProc(HWND window, int message, WPARAM wParam,
+			LPARAM lParam) {
+		return User32.INSTANCE.DefWindowProc(window, message, wParam, lParam);
+	}
+
+	public HANDLE createEvent() {
+		return Kernel32.INSTANCE.CreateEvent(null, false, false, null);
+	}
+
+	public void setEvent(HANDLE event) {
+		Kernel32.INSTANCE.SetEvent(event);
+	}
+
+	public void resetEvent(HANDLE event) {
+		// Consumes the signal of the auto-reset event without waiting
+		Kernel32.INSTANCE.WaitForSingleObject(event, 0);
+	}
+
+	public int waitForMessages(HANDLE[] handles) {
+		return User32.INSTANCE.MsgWaitForMultipleObjects(handles.length,
+				handles, false, Kernel32.INFINITE, User32.QS_ALLINPUT);
+	}
+
+	public void dispatchMessages() {
+		final MSG msg = messages.get();
+		while (User32.INSTANCE.PeekMessage(msg, null, 0, 0, User32.PM_REMOVE)) {
+			User32.INSTANCE.TranslateMessage(msg);
+			User32.INSTANCE.DispatchMessage(msg);
+		}
+	}
+
+	public boolean openClipboard() {
+		return User32.INSTANCE.OpenClipboard(null);
+	}
+
+	public void closeClipboard() {
+		final List<HANDLE> handles = locked.get();
+		for (int i = 0; i < handles.size(); ++i) {
+			GlobalMemory.unlock(handles.get(i));
+		}
+		handles.clear();
+		User32.INSTANCE.CloseClipboard();
+	}
+
+	public int enumClipboardFormats(int format) {
+		return User32.INSTANCE.EnumClipboardFormats(format);
+	}
+
+	public String getClipboardFormatName(int format) {
+		final char[] buffer = names.get();
+		final int length = User32.INSTANCE.GetClipboardFormatName(format,
+				buffer, buffer.length);
+		if (length > 0) {
+			return Native.toString(buffer);
+		}
+		return null;
+	}
+
+	public ByteBuffer getClipboardData(int format) {
+		final HANDLE handle = User32.INSTANCE.GetClipboardData(format);
+		if (null == handle) {
+			return null;
+		}
+		final Pointer data = GlobalMemory.lock(handle);
+		if (null == data) {
+			return null;
+		}
+		locked.get().add(handle);
+		return data.getByteBuffer(0, GlobalMemory.size(handle));
+	}
+}
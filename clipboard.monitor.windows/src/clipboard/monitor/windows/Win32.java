@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.windows;
+
+import java.nio.ByteBuffer;
+
+import com.sun.jna.examples.win32.W32API.HANDLE;
+import com.sun.jna.examples.win32.W32API.HWND;
+import com.sun.jna.examples.win32.W32API.LPARAM;
+import com.sun.jna.examples.win32.W32API.WPARAM;
+
+/**
+ * The Win32 functions used by the Windows clipboard monitor.
+ * 
+ * <p>
+ * {@link #NATIVE} calls <code>user32.dll</code> and <code>kernel32.dll</code>.
+ * Other implementations can simulate the message loop and the clipboard
+ * viewer chain, so the monitor can also run on other platforms, for example in
+ * tests.
+ * 
+ * <p>
+ * The methods are called from the monitor thread, except
+ * {@link #setEvent(HANDLE)} which is called from the thread that stops the
+ * monitor.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public interface Win32 {
+	/**
+	 * Calls the native functions. The libraries are loaded on the first call.
+	 */
+	Win32 NATIVE = new NativeWin32();
+
+	/** {@link #waitForMessages(HANDLE[])} result if a handle was signaled. */
+	int WAIT_OBJECT_0 = 0;
+
+	/**
+	 * @return a new invisible window for the calling thread.
+	 */
+	HWND createWindow();
+
+	void destroyWindow(HWND window);
+
+	/**
+	 * Replaces the window procedure of the given window.
+	 */
+	void setWindowProc(HWND window, WindowProc proc);
+
+	/**
+	 * Adds the window to the clipboard viewer chain.
+	 * 
+	 * @return the next window in the chain, or <code>null</code> if it was the
+	 *         first viewer.
+	 */
+	HWND setClipboardViewer(HWND viewer);
+
+	/**
+	 * Removes a window from the clipboard viewer chain.
+	 */
+	boolean changeClipboardChain(HWND remove, HWND next);
+
+	/**
+	 * @return the result of processing the message.
+	 */
+	int sendMessage(HWND window, int message, WPARAM wParam, LPARAM lParam);
+
+	int defWindowProc(HWND window, int message, WPARAM wParam, LPARAM lParam);
+
+	/**
+	 * @return a new auto-reset event that is not signaled.
+	 */
+	HANDLE createEvent();
+
+	void setEvent(HANDLE event);
+
+	/**
+	 * Clears the signal of an auto-reset event, if it is signaled.
+	 */
+	void resetEvent(HANDLE event);
+
+	/**
+	 * Waits until one of the handles is signaled or a message for the calling
+	 * thread arrived. Messages that are sent from other threads are delivered
+	 * while waiting.
+	 * 
+	 * @return {@link #WAIT_OBJECT_0} plus the index of the signaled handle,
+	 *         <code>WAIT_OBJECT_0 + handles.length</code> if a message
+	 *         arrived, or any other value on failure.
+	 */
+	int waitForMessages(HANDLE[] handles);
+
+	/**
+	 * Dispatches all messages of the calling thread to their window
+	 * procedures.
+	 */
+	void dispatchMessages();
+
+	boolean openClipboard();
+
+	void closeClipboard();
+
+	/**
+	 * @return the format after the given one, or <code>0</code> if there are
+	 *         no more formats. Starts with format <code>0</code>.
+	 */
+	int enumClipboardFormats(int format);
+
+	/**
+	 * @return the name of a registered format or <code>null</code> if it has
+	 *         none.
+	 */
+	String getClipboardFormatName(int format);
+
+	/**
+	 * Must only be called while the clipboard is open.
+	 * 
+	 * @return a view of the clipboard data in the given format, valid until
+	 *         {@link #closeClipboard()}. <code>null</code> if the clipboard
+	 *         has no data in that format or it is not stored in global
+	 *         memory.
+	 */
+	ByteBuffer getClipboardData(int format);
+}
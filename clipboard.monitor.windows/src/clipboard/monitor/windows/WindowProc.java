@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.windows;
+
+import com.sun.jna.examples.win32.W32API.HWND;
+import com.sun.jna.examples.win32.W32API.LPARAM;
+import com.sun.jna.examples.win32.W32API.WPARAM;
+import com.sun.jna.win32.StdCallLibrary.StdCallCallback;
+
+/**
+ * Window procedure that receives the messages of a window, see
+ * {@link Win32#setWindowProc(HWND, WindowProc)}.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public interface WindowProc extends StdCallCallback {
+	/**
+	 * @return the result of processing the message, depends on the message.
+	 */
+	int callback(HWND hWnd, int uMsg, WPARAM wParam, LPARAM lParam);
+}
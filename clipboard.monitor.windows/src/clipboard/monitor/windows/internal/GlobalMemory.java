@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.windows.internal;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+import com.sun.jna.examples.win32.W32API.HANDLE;
+
+/**
+ * The global memory functions of <code>kernel32.dll</code> that the example
+ * definitions lack. They are looked up when the class is first used.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class GlobalMemory {
+	private static final String KERNEL32 = "kernel32"; //$NON-NLS-1$
+
+	// http://msdn.microsoft.com/en-us/library/aa366584(VS.85).aspx
+	private static final Function LOCK = Function.getFunction(KERNEL32,
+			"GlobalLock", Function.ALT_CONVENTION); //$NON-NLS-1$
+	private static final Function UNLOCK = Function.getFunction(KERNEL32,
+			"GlobalUnlock", Function.ALT_CONVENTION); //$NON-NLS-1$
+	private static final Function SIZE = Function.getFunction(KERNEL32,
+			"GlobalSize", Function.ALT_CONVENTION); //$NON-NLS-1$
+
+	private GlobalMemory() {
+	}
+
+	/**
+	 * @return the first byte of the memory, or <code>null</code> on failure.
+	 */
+	public static Pointer lock(HANDLE memory) {
+		return LOCK.invokePointer(new Object[] { memory });
+	}
+
+	public static void unlock(HANDLE memory) {
+		UNLOCK.invokeInt(new Object[] { memory });
+	}
+
+	/**
+	 * @return the size of the memory in bytes, or <code>0</code> on failure.
+	 */
+	public static int size(HANDLE memory) {
+		return SIZE.invokeInt(new Object[] { memory });
+	}
+}
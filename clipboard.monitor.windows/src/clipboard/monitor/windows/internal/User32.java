@@ -10,6 +10,8 @@
  ******************************************************************************/
 package clipboard.monitor.windows.internal;
 
+import clipboard.monitor.windows.WindowProc;
+
 import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
@@ -40,11 +42,7 @@ public interface User32 extends W32API {
 
 	int SetWindowLong(HWND hWnd, int nIndex, int dwNewLong);
 
-	interface WNDPROC extends StdCallCallback {
-		int callback(HWND hWnd, int uMsg, WPARAM uParam, LPARAM lParam);
-	}
-
-	int SetWindowLong(HWND hWnd, int nIndex, WNDPROC proc);
+	int SetWindowLong(HWND hWnd, int nIndex, WindowProc proc);
 
 	HWND CreateWindowEx(int styleEx, String className, String windowName,
 			int style, int x, int y, int width, int height, HWND hndParent,
@@ -62,6 +60,18 @@ public interface User32 extends W32API {
 
 	boolean ChangeClipboardChain(HWND hWndRemove, HWND hWndNewNext);
 
+	// http://msdn.microsoft.com/en-us/library/ms649048(VS.85).aspx
+	boolean OpenClipboard(HWND hWndNewOwner);
+
+	boolean CloseClipboard();
+
+	int EnumClipboardFormats(int format);
+
+	int GetClipboardFormatName(int format, char[] lpszFormatName,
+			int cchMaxCount);
+
+	HANDLE GetClipboardData(int format);
+
 	// http://msdn.microsoft.com/en-us/library/ms644958(VS.85).aspx
 	public static class POINT extends Structure {
 		public int x;
@@ -117,7 +127,7 @@ public interface User32 extends W32API {
 	int MsgWaitForMultipleObjects(int nCount, HANDLE[] pHandles,
 			boolean bWaitAll, int dwMilliseconds, int dwWakeMask);
 
-	void SendMessage(HWND hWnd, int message, WPARAM wParam, LPARAM lParam);
+	int SendMessage(HWND hWnd, int message, WPARAM wParam, LPARAM lParam);
 
 	void PostMessage(HWND hWnd, int message, WPARAM wParam, LPARAM lParam);
 
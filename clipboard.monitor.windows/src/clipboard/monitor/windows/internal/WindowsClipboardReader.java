@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.windows.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import clipboard.monitor.ClipboardContent;
+import clipboard.monitor.ClipboardContentReader;
+import clipboard.monitor.ClipboardFormat;
+import clipboard.monitor.ClipboardReader;
+import clipboard.monitor.ContentPool;
+import clipboard.monitor.windows.Win32;
+
+/**
+ * Enumerates the formats on the Windows clipboard and captures its data.
+ * 
+ * <p>
+ * The clipboard can only be opened by one window at a time. If another
+ * application holds it open, opening it is retried a few times before giving
+ * up.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class WindowsClipboardReader implements ClipboardReader,
+		ClipboardContentReader {
+	private static final int OPEN_RETRIES = 5;
+	private static final long OPEN_RETRY_DELAY = 10;
+
+	/** Names of the predefined formats, indexed by their id. */
+	private static final String[] STANDARD_FORMATS = { null, "CF_TEXT", //$NON-NLS-1$
+			"CF_BITMAP", "CF_METAFILEPICT", "CF_SYLK", "CF_DIF", "CF_TIFF", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			"CF_OEMTEXT", "CF_DIB", "CF_PALETTE", "CF_PENDATA", "CF_RIFF", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			"CF_WAVE", "CF_UNICODETEXT", "CF_ENHMETAFILE", "CF_HDROP", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			"CF_LOCALE", "CF_DIBV5" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final ClipboardFormat[] NO_FORMATS = new ClipboardFormat[0];
+
+	private final Win32 win32;
+
+	/**
+	 * @param win32
+	 *            to read the clipboard with
+	 */
+	public WindowsClipboardReader(Win32 win32) {
+		this.win32 = win32;
+	}
+
+	public ClipboardFormat[] getAvailableFormats() {
+		if (!open()) {
+			return NO_FORMATS;
+		}
+		final List<ClipboardFormat> formats = new ArrayList<ClipboardFormat>();
+		try {
+			int format = 0;
+			while ((format = win32.enumClipboardFormats(format)) != 0) {
+				formats.add(new ClipboardFormat(format, getName(format)));
+			}
+		} finally {
+			win32.closeClipboard();
+		}
+		return formats.toArray(new ClipboardFormat[formats.size()]);
+	}
+
+	public ClipboardContent[] readContents(int[] formats, ContentPool pool) {
+		final ClipboardContent[] contents = new ClipboardContent[formats.length];
+		if (!open()) {
+			return contents;
+		}
+		try {
+			for (int i = 0; i < formats.length; ++i) {
+				final ByteBuffer data = win32.getClipboardData(formats[i]);
+				if (data != null) {
+					contents[i] = pool.capture(formats[i], data);
+				}
+			}
+		} finally {
+			win32.closeClipboard();
+		}
+		return contents;
+	}
+
+	private boolean open() {
+		for (int i = 0; i < OPEN_RETRIES; ++i) {
+			if (win32.openClipboard()) {
+				return true;
+			}
+			try {
+				Thread.sleep(OPEN_RETRY_DELAY);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private String getName(int format) {
+		if (format < STANDARD_FORMATS.length) {
+			return STANDARD_FORMATS[format];
+		}
+		final String name = win32.getClipboardFormatName(format);
+		if (name != null) {
+			return name;
+		}
+		return "0x" + Integer.toHexString(format); //$NON-NLS-1$
+	}
+}
@@ -10,6 +10,16 @@
  ******************************************************************************/
 package clipboard.monitor;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clipboard.monitor.internal.ChangeSink;
+import clipboard.monitor.internal.Coalescer;
+import clipboard.monitor.internal.DispatchQueue;
+import clipboard.monitor.internal.XXHash64;
+
 /**
  * Abstract base class for a ClipboardMonitor that starts a daemon thread and
  * lets the monitoring happening in the {@link #run()} method.
@@ -18,34 +28,904 @@ package clipboard.monitor;
  * Subclass must implement the logic of monitoring inside the the {@link #run()}
  * method.
  * 
+ * <p>
+ * {@link #start()} and {@link #stop()} return futures. The start future
+ * completes when the subclass calls {@link #ready()}, or at the latest when
+ * {@link #run()} returns. {@link #onStop(Thread)} asks {@link #run()} to
+ * return. The stop future completes when it did and all pending events were
+ * delivered. The dispatch stages are kept between restarts unless their
+ * configuration changed.
+ * 
+ * <p>
+ * The monitor manages its {@link ClipboardListener}s in a
+ * {@link ClipboardListenerList}. Listeners can be added and removed from any
+ * thread while the monitor thread sends events to them.
+ * 
+ * <p>
+ * Subclasses report changes by calling {@link #fireChange()}. By default the
+ * listeners are called right away on the reporting thread. With
+ * {@link #setAsyncDispatch(int, OverflowPolicy)} the change is only put into a
+ * bounded queue and a separate dispatcher thread calls the listeners, so the
+ * reporting thread is never held up by slow listeners.
+ * 
+ * <p>
+ * With {@link #setCoalescing(long, long, TimeUnit)} a burst of changes, as
+ * produced by applications that write the clipboard several times per copy,
+ * is merged into a single event. See
+ * {@link ClipboardEvent#getNotificationCount()}.
+ * 
+ * <p>
+ * Every event carries a sequence number and the time its change was detected.
+ * Subclasses that can read the clipboard should return a
+ * {@link ClipboardReader} from {@link #getClipboardReader()}, so listeners can
+ * ask the event for the available formats.
+ * 
+ * <p>
+ * Subclasses that can also read the clipboard data return a
+ * {@link ClipboardContentReader} from {@link #getContentReader()}. With
+ * {@link #setContentCapture(ContentPool, int[])} the monitor then reads the
+ * requested formats once per change into pooled off-heap buffers, which all
+ * listeners share. With {@link #setLazyContent(ContentPool)} a format is only
+ * read when the first listener asks for it. See
+ * {@link ClipboardEvent#getContent(int)}.
+ * 
+ * <p>
+ * Applications often write the same content to the clipboard again. With
+ * {@link #setDeduplication(boolean)} such changes are not sent to the
+ * listeners.
+ * 
+ * <p>
+ * Long running monitors can turn on {@link #setEventPooling(boolean)}. The
+ * monitor then reuses its events and sending a change to the listeners does
+ * not allocate memory.
+ * 
+ * <p>
+ * By default the listeners are called one after another, so a slow listener
+ * delays all others. With {@link #setIsolatedDispatch(ListenerMailboxes)}
+ * every listener gets a mailbox of its own that is served by a pool of
+ * workers.
+ * 
+ * <p>
+ * What the monitor does is counted in its {@link ClipboardMetrics}.
+ * 
  * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
  * 
  */
 public abstract class AbstractClipboardMonitor implements Runnable,
 		ClipboardMonitor {
 
+	private static final int EVENT_POOL_SIZE = 4;
+
+	// Guarded by this
 	private Thread thread;
+	private boolean stopping;
+	private MonitorFuture started;
+	private MonitorFuture stopped;
+	private MonitorFuture restart;
+	private final ClipboardListenerList listeners = new ClipboardListenerList();
+	private int queueCapacity;
+	private OverflowPolicy overflowPolicy;
+	private long quietWindow;
+	private long maxLatency;
+	private volatile EventPool pool;
+	private volatile ListenerMailboxes mailboxes;
+	private volatile ContentPool contentPool;
+	private volatile int[] capturedFormats;
+	private volatile ContentPool lazyContentPool;
+	/** Counts the changes received, to tell whether lazy content is stale. */
+	private final AtomicLong changes = new AtomicLong();
+	private volatile boolean deduplicating;
+	/** Digest of the content of the last sent change, 0 if none. */
+	private final AtomicLong lastDigest = new AtomicLong();
+	private volatile ClipboardMetrics metrics = new ClipboardMetrics();
 
-	public void start() {
-		if (null == thread) {
-			thread = new Thread(this, "Clipboard Monitor"); //$NON-NLS-1$
-			thread.setDaemon(true);
-			thread.start();
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final ChangeSink emitter = new ChangeSink() {
+		public void deliver(long detected, int notifications, long change) {
+			emit(detected, notifications, change, null);
+		}
+	};
+	private volatile DispatchQueue queue;
+	private volatile Coalescer coalescer;
+	private volatile ChangeSink entry = emitter;
+
+	/**
+	 * Runs {@link AbstractClipboardMonitor#run()} and takes the monitor down
+	 * once it was asked to stop.
+	 */
+	private final class MonitorThread extends Thread {
+		private final MonitorFuture started;
+
+		MonitorThread(MonitorFuture started) {
+			super("Clipboard Monitor"); //$NON-NLS-1$
+			this.started = started;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				AbstractClipboardMonitor.this.run();
+				started.complete();
+			} catch (Throwable t) {
+				started.fail(t);
+			}
+			// Changes may still be reported from other threads
+			awaitStopping();
+			shutdown();
 		}
 	}
 
-	public void stop() {
+	/**
+	 * Starts the monitor thread and the dispatch stages. Has no effect if the
+	 * monitor is already running. If the monitor is stopping, it is started
+	 * again as soon as it stopped.
+	 * 
+	 * @return a future that completes when the monitor is ready to report
+	 *         changes. It fails if {@link #run()} threw an exception before.
+	 */
+	public synchronized MonitorFuture start() {
+		if (stopping) {
+			if (null == restart) {
+				restart = new MonitorFuture();
+			}
+			return restart;
+		}
 		if (thread != null) {
-			thread.interrupt();
+			return started;
+		}
+		return launch(new MonitorFuture());
+	}
+
+	private MonitorFuture launch(MonitorFuture future) {
+		if (mailboxes != null) {
+			mailboxes.setMetrics(metrics);
+			mailboxes.start();
+		}
+		if (quietWindow > 0) {
+			if (null == coalescer) {
+				coalescer = new Coalescer(quietWindow, maxLatency,
+						Clock.SYSTEM, emitter);
+			}
+			coalescer.start();
+			entry = coalescer;
+		} else {
+			entry = emitter;
+		}
+		if (queueCapacity > 0) {
+			if (null == queue) {
+				queue = new DispatchQueue(queueCapacity, overflowPolicy, entry);
+				metrics.setQueue(queue);
+			}
+			queue.start();
+		}
+		lastDigest.set(0);
+		started = future;
+		stopped = new MonitorFuture();
+		thread = new MonitorThread(future);
+		thread.start();
+		return future;
+	}
+
+	/**
+	 * Stops the monitor. A pending restart is cancelled.
+	 * 
+	 * <p>
+	 * Must not be waited for on a thread that sends events, because the
+	 * pending events are delivered before the monitor is stopped.
+	 * 
+	 * @return a future that completes when {@link #run()} returned and all
+	 *         pending events were sent to the listeners.
+	 */
+	public synchronized MonitorFuture stop() {
+		if (restart != null) {
+			restart.abort();
+			restart = null;
+		}
+		if (null == thread) {
+			return MonitorFuture.completed();
+		}
+		if (!stopping) {
+			stopping = true;
+			notifyAll();
+			try {
+				onStop(thread);
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+		return stopped;
+	}
+
+	/**
+	 * @return <code>true</code> if the monitor was started and is not stopping.
+	 */
+	public synchronized boolean isRunning() {
+		return thread != null && !stopping;
+	}
+
+	/**
+	 * Must be called by subclasses from {@link #run()} once they are ready to
+	 * report changes. Completes the future returned by {@link #start()}.
+	 */
+	protected void ready() {
+		final MonitorFuture started;
+		synchronized (this) {
+			started = this.started;
+		}
+		if (started != null) {
+			started.complete();
+		}
+	}
+
+	/**
+	 * Called when the monitor should stop. Implementations must make
+	 * {@link #run()} return.
+	 * 
+	 * <p>
+	 * The default implementation interrupts the monitor thread.
+	 * 
+	 * @param thread
+	 *            that runs {@link #run()}
+	 */
+	protected void onStop(Thread thread) {
+		thread.interrupt();
+	}
+
+	private synchronized void awaitStopping() {
+		boolean interrupted = false;
+		while (!stopping) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the dispatch stages and waits until they delivered the pending
+	 * events. Runs on the monitor thread, without holding the lock, so
+	 * listeners can still call the monitor.
+	 */
+	private void shutdown() {
+		final DispatchQueue queue = this.queue;
+		if (queue != null) {
+			queue.stop();
+			join(queue.getThread());
+		}
+		final Coalescer coalescer = this.coalescer;
+		if (coalescer != null) {
+			coalescer.stop();
+			join(coalescer.getThread());
+		}
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			mailboxes.stop();
+		}
+		final MonitorFuture stopped;
+		synchronized (this) {
+			entry = emitter;
+			stopped = this.stopped;
 			thread = null;
+			stopping = false;
+			if (restart != null) {
+				final MonitorFuture future = restart;
+				restart = null;
+				launch(future);
+			}
+		}
+		stopped.complete();
+	}
+
+	private static void join(Thread thread) {
+		if (null == thread || thread == Thread.currentThread()) {
+			return;
+		}
+		boolean interrupted = Thread.interrupted();
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Lets a dispatcher thread call the listeners. {@link #fireChange()} then
+	 * only records the change in a bounded queue and returns immediately.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped. Takes effect with the next
+	 * {@link #start()}.
+	 * 
+	 * @param capacity
+	 *            number of changes that can be pending
+	 * @param policy
+	 *            what to do with a change if <code>capacity</code> changes are
+	 *            already pending
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 */
+	public synchronized void setAsyncDispatch(int capacity, OverflowPolicy policy) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		if (capacity < 1 || null == policy) {
+			throw new IllegalArgumentException(
+					"capacity must be positive and policy must not be null"); //$NON-NLS-1$
+		}
+		queueCapacity = capacity;
+		overflowPolicy = policy;
+		discardStages();
+	}
+
+	/**
+	 * Lets the thread that reports a change call the listeners. This is the
+	 * default.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 */
+	public synchronized void setSyncDispatch() {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		queueCapacity = 0;
+		discardStages();
+	}
+
+	/**
+	 * Lets the next start build the dispatch stages from the changed
+	 * configuration.
+	 */
+	private void discardStages() {
+		queue = null;
+		coalescer = null;
+		metrics.setQueue(null);
+	}
+
+	/**
+	 * Merges bursts of changes into a single event. A burst ends when no change
+	 * was detected for <code>quietWindow</code>, or at the latest
+	 * <code>maxLatency</code> after its first change. The event is then sent
+	 * from a thread of the coalescing stage.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped. Takes effect with the next
+	 * {@link #start()}.
+	 * 
+	 * @param quietWindow
+	 *            without changes that ends a burst. <code>0</code> disables
+	 *            coalescing.
+	 * @param maxLatency
+	 *            after the first change of a burst when the event is sent at
+	 *            the latest. Must not be less than <code>quietWindow</code>.
+	 * @param unit
+	 *            of <code>quietWindow</code> and <code>maxLatency</code>
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 */
+	public synchronized void setCoalescing(long quietWindow, long maxLatency, TimeUnit unit) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		if (quietWindow < 0 || maxLatency < quietWindow) {
+			throw new IllegalArgumentException(
+					"quiet window must not be negative or exceed the max latency"); //$NON-NLS-1$
+		}
+		this.quietWindow = unit.toNanos(quietWindow);
+		this.maxLatency = unit.toNanos(maxLatency);
+		discardStages();
+	}
+
+	/**
+	 * Reuses event instances instead of creating a new event for every change.
+	 * 
+	 * <p>
+	 * A pooled event is only valid while it is sent to the listeners. Listeners
+	 * that keep events must keep a {@link ClipboardEvent#copy()}.
+	 * 
+	 * <p>
+	 * Has no effect with isolated dispatch, because the events stay in the
+	 * mailboxes of the listeners.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to reuse events
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 */
+	public synchronized void setEventPooling(boolean enabled) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		pool = enabled ? new EventPool(this, EVENT_POOL_SIZE) : null;
+	}
+
+	/**
+	 * @return <code>true</code> if the events of this monitor are reused. See
+	 *         {@link #setEventPooling(boolean)}.
+	 */
+	public boolean isEventPooling() {
+		return pool != null;
+	}
+
+	/**
+	 * Sends the events to the listeners through the given mailboxes. Each
+	 * listener is then called on a worker thread, independently of the other
+	 * listeners.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped. The monitor starts and
+	 * stops the mailboxes together with itself.
+	 * 
+	 * @param mailboxes
+	 *            to use. <code>null</code> calls the listeners one after
+	 *            another again.
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 * @see #addListener(ClipboardListener, MailboxPolicy)
+	 */
+	public synchronized void setIsolatedDispatch(ListenerMailboxes mailboxes) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		this.mailboxes = mailboxes;
+	}
+
+	/**
+	 * Reads the given formats once per change, before the listeners are
+	 * called, and attaches them to the event. Requires a
+	 * {@link #getContentReader()}.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped.
+	 * 
+	 * @param pool
+	 *            to capture the content into. <code>null</code> turns content
+	 *            capture off.
+	 * @param formats
+	 *            native ids of the formats to capture
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 * @see ClipboardEvent#getContent(int)
+	 */
+	public synchronized void setContentCapture(ContentPool pool, int... formats) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		this.capturedFormats = formats.clone();
+		this.contentPool = 0 == formats.length ? null : pool;
+	}
+
+	/**
+	 * Lets the listeners read the content of a change on demand, with
+	 * {@link ClipboardEvent#getContent(int)}. A format is read from the
+	 * clipboard the first time a listener asks for it and shared with all
+	 * other listeners of the change. Changes whose content no listener asks
+	 * for do not read the clipboard at all. Requires a
+	 * {@link #getContentReader()}.
+	 * 
+	 * <p>
+	 * Formats captured with {@link #setContentCapture(ContentPool, int[])} are
+	 * still read with every change. Lazy content can only be read as long as
+	 * the clipboard did not change again. Listeners that run late, like with
+	 * asynchronous or isolated dispatch, may therefore not get it.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped.
+	 * 
+	 * @param pool
+	 *            to read the content into. <code>null</code> turns lazy
+	 *            content off.
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 */
+	public synchronized void setLazyContent(ContentPool pool) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		this.lazyContentPool = pool;
+	}
+
+	/**
+	 * @return <code>true</code> if the listeners can read content on demand.
+	 *         See {@link #setLazyContent(ContentPool)}.
+	 */
+	public boolean isLazyContent() {
+		return lazyContentPool != null;
+	}
+
+	/**
+	 * Drops changes whose content is the same as that of the previous change.
+	 * 
+	 * <p>
+	 * The content of a change is its payload or its captured contents,
+	 * together with the list of the available formats. They are hashed with
+	 * xxHash64 when the change is sent. The formats alone are not content:
+	 * copying other text in the same application gives the same formats. So a
+	 * change without payload and captured contents is always sent, and so is
+	 * the first change after {@link #start()}. Suppressed changes are counted
+	 * in {@link ClipboardMetrics#getEventsSuppressed()}.
+	 * 
+	 * <p>
+	 * Monitors without a payload need {@link #setContentCapture(ContentPool,
+	 * int[])} for repeated content to be found. For changes with content the
+	 * formats are read eagerly, on the thread that sends the events.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to drop repeated content
+	 */
+	public void setDeduplication(boolean enabled) {
+		lastDigest.set(0);
+		deduplicating = enabled;
+	}
+
+	/**
+	 * @return <code>true</code> if repeated content is dropped. See
+	 *         {@link #setDeduplication(boolean)}.
+	 */
+	public boolean isDeduplicating() {
+		return deduplicating;
+	}
+
+	/**
+	 * @return <code>true</code> if the events carry captured content. See
+	 *         {@link #setContentCapture(ContentPool, int[])}.
+	 */
+	public boolean isContentCapture() {
+		return contentPool != null;
+	}
+
+	public ClipboardMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Lets this monitor count into the given metrics, for example to share
+	 * them with the component that wraps the monitor.
+	 * 
+	 * <p>
+	 * Must be called while the monitor is stopped.
+	 * 
+	 * @param metrics
+	 *            to use
+	 * @throws IllegalStateException
+	 *             if the monitor is running
+	 */
+	public synchronized void setMetrics(ClipboardMetrics metrics) {
+		if (thread != null) {
+			throw new IllegalStateException("monitor is running"); //$NON-NLS-1$
+		}
+		if (null == metrics) {
+			throw new IllegalArgumentException("metrics must not be null"); //$NON-NLS-1$
+		}
+		discardStages();
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Subclasses that can read the clipboard return a reader here. It is passed
+	 * to every event.
+	 * 
+	 * @return the reader or <code>null</code> if this monitor cannot read the
+	 *         clipboard. The default implementation returns <code>null</code>.
+	 */
+	protected ClipboardReader getClipboardReader() {
+		return null;
+	}
+
+	/**
+	 * Subclasses that can read the clipboard data return a reader here. It is
+	 * called once per change if content capture is enabled.
+	 * 
+	 * @return the reader or <code>null</code> if this monitor cannot read the
+	 *         clipboard data. The default implementation returns
+	 *         <code>null</code>.
+	 * @see #setContentCapture(ContentPool, int[])
+	 */
+	protected ClipboardContentReader getContentReader() {
+		return null;
+	}
+
+	/**
+	 * Must be called by subclasses when they detect a change of the clipboard.
+	 * 
+	 * <p>
+	 * Depending on the dispatch mode this either calls
+	 * {@link #onChange(ClipboardEvent)} right away or passes the change on to
+	 * the dispatcher thread or the coalescing stage.
+	 * 
+	 * <p>
+	 * With asynchronous dispatch the changes are recorded in a single-producer
+	 * queue, see {@link #setAsyncDispatch(int, OverflowPolicy)}. This method
+	 * must then not be called by several threads at the same time. Monitors
+	 * usually call it only from the monitor thread.
+	 */
+	protected void fireChange() {
+		final long change = changes.incrementAndGet();
+		metrics.recordReceived();
+		final DispatchQueue queue = this.queue;
+		if (queue != null) {
+			queue.offer(System.nanoTime(), change);
+		} else {
+			entry.deliver(System.nanoTime(), 1, change);
 		}
 	}
 
+	/**
+	 * Reports a change together with the new content of the clipboard, see
+	 * {@link ClipboardEvent#getPayload()}.
+	 * 
+	 * <p>
+	 * The listeners are called right away on the calling thread, also with
+	 * asynchronous dispatch or coalescing, because the payload usually lives in
+	 * a buffer that is reused once this method returns. With isolated dispatch
+	 * the payload is copied for the mailboxes.
+	 * 
+	 * @param payload
+	 *            the content from its position to its limit. Not copied.
+	 */
+	protected void fireChange(ByteBuffer payload) {
+		final long change = changes.incrementAndGet();
+		metrics.recordReceived();
+		emit(System.nanoTime(), 1, change, payload);
+	}
+
+	/**
+	 * @param change
+	 *            count of the (last) change the event stands for. Lazy content
+	 *            can only be read as long as no later change was received.
+	 */
+	private void emit(long detected, int notifications, long change,
+			ByteBuffer payload) {
+		final ClipboardContent[] contents = captureContents();
+		List<ClipboardFormat> formats = null;
+		if (deduplicating) {
+			if (hasContent(payload, contents)) {
+				final ClipboardReader reader = getClipboardReader();
+				if (reader != null) {
+					formats = ClipboardEvent.readFormats(reader);
+				}
+				if (isRepeated(digest(formats, payload, contents))) {
+					ClipboardEvent.release(contents);
+					metrics.recordSuppressed();
+					return;
+				}
+			} else {
+				// Unknown content, the next change is no repeat of it
+				lastDigest.set(0);
+			}
+		}
+		final long latency = System.nanoTime() - detected;
+		final long time = System.currentTimeMillis() - latency / 1000000L;
+		metrics.recordDispatched(latency, notifications);
+		final LazyContents lazy = createLazyContents(change);
+		final EventPool pool = this.pool;
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (null == pool || mailboxes != null) {
+			try {
+				onChange(new ClipboardEvent(this, sequence.incrementAndGet(),
+						detected, time, notifications, getClipboardReader())
+						.setPayload(
+								mailboxes != null ? ClipboardEvent
+										.copyOf(payload) : payload)
+						.setFormats(formats).setContents(contents)
+						.setLazyContents(lazy));
+			} finally {
+				ClipboardEvent.release(contents);
+				if (lazy != null) {
+					lazy.release();
+				}
+			}
+			return;
+		}
+		final ClipboardEvent event = pool.acquire(sequence.incrementAndGet(),
+				detected, time, notifications, getClipboardReader());
+		event.setPayload(payload).setFormats(formats).setContents(contents)
+				.setLazyContents(lazy);
+		try {
+			onChange(event);
+		} finally {
+			ClipboardEvent.release(contents);
+			if (lazy != null) {
+				lazy.release();
+			}
+			pool.release(event);
+		}
+	}
+
+	/**
+	 * @return the lazy content of the given change, or <code>null</code> if
+	 *         lazy content is off.
+	 */
+	private LazyContents createLazyContents(long change) {
+		final ContentPool pool = lazyContentPool;
+		if (null == pool) {
+			return null;
+		}
+		final ClipboardContentReader reader = getContentReader();
+		return null == reader ? null : new LazyContents(reader, pool,
+				changes, change);
+	}
+
+	/**
+	 * @return <code>true</code> if the digest is the same as that of the last
+	 *         sent change. Remembers the digest otherwise.
+	 */
+	private boolean isRepeated(long digest) {
+		return lastDigest.getAndSet(digest) == digest;
+	}
+
+	private static boolean hasContent(ByteBuffer payload,
+			ClipboardContent[] contents) {
+		if (payload != null) {
+			return true;
+		}
+		if (contents != null) {
+			for (int i = 0; i < contents.length; ++i) {
+				if (contents[i] != null) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hashes the content in place. Must only be called for changes with
+	 * content.
+	 * 
+	 * @return the digest, never <code>0</code>.
+	 */
+	private static long digest(List<ClipboardFormat> formats,
+			ByteBuffer payload, ClipboardContent[] contents) {
+		long digest = 0;
+		if (formats != null && !formats.isEmpty()) {
+			for (int i = 0; i < formats.size(); ++i) {
+				digest = XXHash64.hash(formats.get(i).getId(), digest);
+			}
+			digest = XXHash64.hash(formats.size(), digest);
+		}
+		if (payload != null) {
+			digest = XXHash64.hash(payload, digest);
+		}
+		if (contents != null) {
+			for (int i = 0; i < contents.length; ++i) {
+				if (contents[i] != null) {
+					digest = XXHash64.hash(contents[i].getFormat(), digest);
+					digest = XXHash64.hash(contents[i].getBuffer(), digest);
+				} else {
+					digest = XXHash64.hash(-1, digest);
+				}
+			}
+		}
+		return 0 == digest ? 1 : digest;
+	}
+
+	/**
+	 * @return the captured contents, or <code>null</code> if content capture
+	 *         is off or reading the clipboard failed.
+	 */
+	private ClipboardContent[] captureContents() {
+		final ContentPool pool = contentPool;
+		if (null == pool) {
+			return null;
+		}
+		final ClipboardContentReader reader = getContentReader();
+		if (null == reader) {
+			return null;
+		}
+		try {
+			return reader.readContents(capturedFormats, pool);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the given listener to this monitor.
+	 * 
+	 * @param listener
+	 *            to add. Adding the same listener more than once has no effect.
+	 */
+	public void addListener(ClipboardListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Adds the given listener with its own mailbox policy. Requires isolated
+	 * dispatch.
+	 * 
+	 * @param listener
+	 *            to add
+	 * @param policy
+	 *            for the mailbox of the listener
+	 * @throws IllegalStateException
+	 *             if isolated dispatch is not enabled
+	 * @see #setIsolatedDispatch(ListenerMailboxes)
+	 */
+	public void addListener(ClipboardListener listener, MailboxPolicy policy) {
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (null == mailboxes) {
+			throw new IllegalStateException("isolated dispatch is not enabled"); //$NON-NLS-1$
+		}
+		mailboxes.setPolicy(listener, policy);
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes the given listener from this monitor.
+	 * 
+	 * @param listener
+	 *            to remove. Removing the same listener more than once has no
+	 *            effect. If the listener was not added to this monitor before,
+	 *            this method has no effect.
+	 */
+	public void removeListener(ClipboardListener listener) {
+		listeners.remove(listener);
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			mailboxes.setPolicy(listener, null);
+		}
+		metrics.removeListener(listener);
+	}
+
+	/**
+	 * @return the listeners of this monitor, for subclasses that send events
+	 *         themselves.
+	 */
+	protected ClipboardListenerList getListeners() {
+		return listeners;
+	}
+
 	/**
 	 * Called upon changes in the clipboard.
 	 * 
+	 * <p>
+	 * The default implementation sends the event to all listeners added to this
+	 * monitor.
+	 * 
 	 * @param event
 	 *            describing the change
 	 */
-	abstract protected void onChange(ClipboardEvent event);
+	protected void onChange(ClipboardEvent event) {
+		final ClipboardListener[] snapshot = listeners.getListeners();
+		final ListenerMailboxes mailboxes = this.mailboxes;
+		if (mailboxes != null) {
+			mailboxes.dispatch(snapshot, event);
+			return;
+		}
+		final ClipboardMetrics metrics = this.metrics;
+		// The end of one call is the start of the next
+		long start = System.nanoTime();
+		for (int i = 0; i < snapshot.length; ++i) {
+			boolean failed = false;
+			try {
+				snapshot[i].onEvent(event);
+			} catch (Throwable t) {
+				failed = true;
+				t.printStackTrace();
+			}
+			final long end = System.nanoTime();
+			metrics.recordListener(snapshot[i], end - start, failed);
+			start = end;
+		}
+	}
 }
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content of the clipboard in one format, captured once per change and shared
+ * by all listeners of the change.
+ * 
+ * <p>
+ * The bytes usually live in an off-heap buffer of a {@link ContentPool}. The
+ * content counts its references. The monitor holds one while it sends the
+ * event, so listeners can read the content during
+ * {@link ClipboardListener#onEvent(ClipboardEvent)} without further ado. A
+ * listener that reads it later, for example on a thread of its own, must call
+ * {@link #retain()} during <code>onEvent</code> and {@link #release()} once it
+ * is done. When the last reference is released the buffer goes back to the
+ * pool and is overwritten by a later change.
+ * 
+ * <p>
+ * Large contents can be read piece by piece with {@link #openStream()} or
+ * {@link #openChannel()}, without copying them onto the heap first.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @noinstantiate This class is not intended to be instantiated by clients.
+ * @see ClipboardEvent#getContent(int)
+ */
+public final class ClipboardContent {
+	private final int format;
+	private final ByteBuffer buffer;
+	private final ContentPool pool;
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	/**
+	 * @param buffer
+	 *            the content from position <code>0</code> to its limit
+	 * @param pool
+	 *            to give the buffer back to, or <code>null</code>
+	 */
+	ClipboardContent(int format, ByteBuffer buffer, ContentPool pool) {
+		this.format = format;
+		this.buffer = buffer;
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the native id of the format of this content.
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the size of the content in bytes.
+	 */
+	public int getSize() {
+		return buffer.limit();
+	}
+
+	/**
+	 * Every call returns a new read-only view of the same bytes, so listeners
+	 * do not disturb each other when they read it. The view is only valid as
+	 * long as the caller holds a reference.
+	 * 
+	 * @return the content
+	 * @throws IllegalStateException
+	 *             if the content was already released
+	 */
+	public ByteBuffer getBuffer() {
+		if (isReleased()) {
+			throw new IllegalStateException("content was released"); //$NON-NLS-1$
+		}
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Opens a stream that reads the content from the start. Like the buffer
+	 * returned by {@link #getBuffer()} it is only valid as long as the caller
+	 * holds a reference.
+	 * 
+	 * @return a new stream
+	 * @throws IllegalStateException
+	 *             if the content was already released
+	 */
+	public InputStream openStream() {
+		return new ContentStream(getBuffer());
+	}
+
+	/**
+	 * Opens a channel that reads the content from the start. Reading into a
+	 * direct buffer copies the bytes without going through the heap. The
+	 * channel is only valid as long as the caller holds a reference.
+	 * 
+	 * @return a new channel
+	 * @throws IllegalStateException
+	 *             if the content was already released
+	 */
+	public ReadableByteChannel openChannel() {
+		return new ContentChannel(getBuffer());
+	}
+
+	private static final class ContentStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ContentStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int read = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) {
+			final int skipped = (int) Math.max(0, Math.min(n, buffer
+					.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	private static final class ContentChannel implements ReadableByteChannel {
+		private final ByteBuffer buffer;
+		private volatile boolean open = true;
+
+		ContentChannel(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read(ByteBuffer destination) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			final int read = Math.min(destination.remaining(), buffer
+					.remaining());
+			final ByteBuffer slice = buffer.duplicate();
+			slice.limit(slice.position() + read);
+			destination.put(slice);
+			buffer.position(slice.position());
+			return read;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public void close() {
+			open = false;
+		}
+	}
+
+	/**
+	 * Adds a reference to this content. Must be paired with a call to
+	 * {@link #release()}.
+	 * 
+	 * @return this content
+	 * @throws IllegalStateException
+	 *             if the content was already released
+	 */
+	public ClipboardContent retain() {
+		while (true) {
+			final int count = references.get();
+			if (count <= 0) {
+				throw new IllegalStateException("content was released"); //$NON-NLS-1$
+			}
+			if (references.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Gives up a reference to this content. The last release hands the buffer
+	 * back to its pool.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the content was already released
+	 */
+	public void release() {
+		final int count = references.decrementAndGet();
+		if (0 == count) {
+			if (pool != null) {
+				pool.recycle(buffer);
+			}
+		} else if (count < 0) {
+			references.incrementAndGet();
+			throw new IllegalStateException("content was released"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if all references were released.
+	 */
+	public boolean isReleased() {
+		return references.get() <= 0;
+	}
+
+	/**
+	 * @return a content with a heap copy of the bytes that does not belong to
+	 *         a pool.
+	 */
+	ClipboardContent copy() {
+		return new ClipboardContent(format, ClipboardEvent.copyOf(getBuffer()),
+				null);
+	}
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * Captures the content of the system clipboard once per change.
+ * 
+ * <p>
+ * Implemented by the platform specific monitors that can read the clipboard
+ * data. The monitor calls the reader before it sends the event to the
+ * listeners, if content capture is enabled.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see AbstractClipboardMonitor#getContentReader()
+ * @see AbstractClipboardMonitor#setContentCapture(ContentPool, int[])
+ */
+public interface ClipboardContentReader {
+	/**
+	 * Copies the content in the given formats into the pool with
+	 * {@link ContentPool#capture(int, java.nio.ByteBuffer)}. Implementations
+	 * should open the clipboard only once for all formats.
+	 * 
+	 * @param formats
+	 *            native ids of the formats to capture
+	 * @param pool
+	 *            to capture the content into
+	 * @return the captured contents, in the order of the formats. An element
+	 *         is <code>null</code> if the clipboard has no content in that
+	 *         format. The caller owns the references.
+	 */
+	ClipboardContent[] readContents(int[] formats, ContentPool pool);
+}
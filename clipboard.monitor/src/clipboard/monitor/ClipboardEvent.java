@@ -10,11 +10,40 @@
  ******************************************************************************/
 package clipboard.monitor;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EventObject;
+import java.util.List;
 
 /**
  * Sent when a change event in the system clipboard has occured.
  * 
+ * <p>
+ * Besides its source the event describes when the change was detected and
+ * where it stands in the sequence of changes reported by the monitor. The
+ * formats available in the clipboard are read lazily, the first time a listener
+ * asks for them, and then shared by all listeners of the event.
+ * 
+ * <p>
+ * A monitor with event pooling enabled reuses its event instances. Such an
+ * event is only valid during the call to
+ * {@link ClipboardListener#onEvent(ClipboardEvent)}. Listeners that need to
+ * keep it longer must keep a {@link #copy()}.
+ * 
+ * <p>
+ * Monitors that receive the clipboard content together with the change
+ * attach it as {@link #getPayload()}. The same rule applies: the payload may
+ * live in a buffer that the monitor reuses for the next change.
+ * 
+ * <p>
+ * Monitors with content capture read the requested formats once per change
+ * and attach them as {@link #getContent(int)}. All listeners share the same
+ * captured bytes. Monitors with lazy content read a format only when the first
+ * listener asks for it, so listeners that do not read the content do not cost
+ * anything.
+ * 
  * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
  * @noextend This class is not intended to be subclassed by clients.
  * @noinstantiate This class is not intended to be instantiated by clients.
@@ -22,6 +51,16 @@ import java.util.EventObject;
 public class ClipboardEvent extends EventObject {
 	private static final long serialVersionUID = 6354639749124932240L;
 
+	private long sequence;
+	private long detected;
+	private long time;
+	private int notifications;
+	private transient ClipboardReader reader;
+	private transient volatile List<ClipboardFormat> formats;
+	private transient ByteBuffer payload;
+	private transient ClipboardContent[] contents;
+	private transient LazyContents lazy;
+
 	/**
 	 * Creates a new event.
 	 * 
@@ -31,6 +70,367 @@ public class ClipboardEvent extends EventObject {
 	 *            of the event should not depend on that.
 	 */
 	public ClipboardEvent(Object source) {
+		this(source, 0, System.nanoTime(), System.currentTimeMillis(), 1, null);
+	}
+
+	/**
+	 * Creates a new event.
+	 * 
+	 * @param source
+	 *            of the event
+	 * @param sequence
+	 *            number of the change within the monitor
+	 * @param detected
+	 *            {@link System#nanoTime()} when the change was detected
+	 * @param time
+	 *            {@link System#currentTimeMillis()} when the change was
+	 *            detected
+	 * @param notifications
+	 *            number of clipboard changes this event replaces. Must be at
+	 *            least <code>1</code>.
+	 * @param reader
+	 *            to read the available formats with. May be <code>null</code>.
+	 */
+	public ClipboardEvent(Object source, long sequence, long detected,
+			long time, int notifications, ClipboardReader reader) {
 		super(source);
+		reset(sequence, detected, time, notifications, reader);
+	}
+
+	/**
+	 * Reinitializes a pooled event for its next use.
+	 */
+	ClipboardEvent reset(long sequence, long detected, long time,
+			int notifications, ClipboardReader reader) {
+		if (notifications < 1) {
+			throw new IllegalArgumentException(
+					"notifications must be at least 1"); //$NON-NLS-1$
+		}
+		this.sequence = sequence;
+		this.detected = detected;
+		this.time = time;
+		this.notifications = notifications;
+		this.reader = reader;
+		this.formats = null;
+		this.payload = null;
+		this.contents = null;
+		this.lazy = null;
+		return this;
+	}
+
+	/**
+	 * Attaches the content of the clipboard. The buffer is not copied.
+	 */
+	ClipboardEvent setPayload(ByteBuffer payload) {
+		this.payload = payload;
+		return this;
+	}
+
+	/**
+	 * Sets the formats if the monitor already read them for this change.
+	 */
+	ClipboardEvent setFormats(List<ClipboardFormat> formats) {
+		this.formats = formats;
+		return this;
+	}
+
+	/**
+	 * Attaches the captured contents. Their references stay with the caller.
+	 */
+	ClipboardEvent setContents(ClipboardContent[] contents) {
+		this.contents = contents;
+		return this;
+	}
+
+	/**
+	 * Lets the event read the content on demand. The reference stays with the
+	 * caller.
+	 */
+	ClipboardEvent setLazyContents(LazyContents lazy) {
+		this.lazy = lazy;
+		return this;
+	}
+
+	/**
+	 * Adds a reference to every captured content, for a listener that gets
+	 * the event later.
+	 */
+	void retainContents() {
+		final LazyContents lazy = this.lazy;
+		if (lazy != null) {
+			lazy.retain();
+		}
+		final ClipboardContent[] contents = this.contents;
+		if (contents != null) {
+			for (int i = 0; i < contents.length; ++i) {
+				if (contents[i] != null) {
+					contents[i].retain();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives up a reference to every captured content.
+	 */
+	void releaseContents() {
+		release(contents);
+		final LazyContents lazy = this.lazy;
+		if (lazy != null) {
+			lazy.release();
+		}
+	}
+
+	static void release(ClipboardContent[] contents) {
+		if (contents != null) {
+			for (int i = 0; i < contents.length; ++i) {
+				if (contents[i] != null) {
+					contents[i].release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a heap copy of the remaining bytes of the given buffer, or
+	 *         <code>null</code>.
+	 */
+	static ByteBuffer copyOf(ByteBuffer payload) {
+		if (null == payload) {
+			return null;
+		}
+		final ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+		copy.put(payload.duplicate()).flip();
+		return copy.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Creates an independent copy of this event. The copy shares the formats
+	 * if they were already read and has its own heap copies of the payload and
+	 * the captured contents. Of the lazy content only the formats that were
+	 * already read are copied, the copy does not read any more.
+	 * 
+	 * @return a new event with the same values
+	 */
+	public ClipboardEvent copy() {
+		ClipboardEvent copy = new ClipboardEvent(getSource(), sequence,
+				detected, time, notifications, reader);
+		copy.formats = formats;
+		copy.payload = copyOf(payload);
+		final List<ClipboardContent> contents = getContents();
+		if (!contents.isEmpty()) {
+			copy.contents = new ClipboardContent[contents.size()];
+			for (int i = 0; i < copy.contents.length; ++i) {
+				copy.contents[i] = contents.get(i).copy();
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Creates an event that replaces the given older, still pending event. It
+	 * has the values of this event but also counts the notifications of the
+	 * older one.
+	 * 
+	 * <p>
+	 * The new event takes over the captured contents of this event, including
+	 * the references held for it.
+	 * 
+	 * @param older
+	 *            event that is replaced
+	 * @return a new event
+	 */
+	public ClipboardEvent coalesce(ClipboardEvent older) {
+		ClipboardEvent merged = new ClipboardEvent(getSource(), sequence,
+				detected, time, notifications + older.notifications, reader);
+		merged.formats = formats;
+		merged.payload = payload;
+		merged.contents = contents;
+		merged.lazy = lazy;
+		return merged;
+	}
+
+	/**
+	 * @return the number of this change. The numbers of the events of a
+	 *         monitor increase monotonically, starting with <code>1</code>.
+	 *         <code>0</code> if the source does not number its events.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} when the change was detected. Can
+	 *         be used to measure how long the event took to reach a listener.
+	 */
+	public long getDetectedNanos() {
+		return detected;
+	}
+
+	/**
+	 * @return the wall-clock time in milliseconds when the change was
+	 *         detected.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the number of clipboard changes this event stands for. Greater
+	 *         than <code>1</code> if the monitor merged a burst of changes into
+	 *         this event.
+	 */
+	public int getNotificationCount() {
+		return notifications;
+	}
+
+	/**
+	 * Returns the formats that were available in the clipboard when this
+	 * method was called for the first time on this event.
+	 * 
+	 * <p>
+	 * The clipboard is only read on the first call. All later calls, from any
+	 * listener, return the same list.
+	 * 
+	 * @return unmodifiable list of formats. Empty if the source of this event
+	 *         cannot read the clipboard or reading failed.
+	 */
+	public List<ClipboardFormat> getFormats() {
+		List<ClipboardFormat> result = formats;
+		if (null == result) {
+			synchronized (this) {
+				result = formats;
+				if (null == result) {
+					result = readFormats(reader);
+					formats = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the content of the clipboard if the monitor received it with the
+	 * change.
+	 * 
+	 * <p>
+	 * Every call returns a new read-only view of the same bytes, so listeners
+	 * do not disturb each other when they read it. Unless the event was
+	 * copied, the bytes are only valid during
+	 * {@link ClipboardListener#onEvent(ClipboardEvent)}.
+	 * 
+	 * @return the payload from its position to its limit, or <code>null</code>
+	 *         if the event has none.
+	 */
+	public ByteBuffer getPayload() {
+		final ByteBuffer payload = this.payload;
+		return null == payload ? null : payload.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the captured contents, in the order of the requested formats,
+	 *         followed by the lazy contents that were already read. Formats
+	 *         the clipboard did not have are left out. The same rules as for
+	 *         {@link #getContent(int)} apply.
+	 */
+	public List<ClipboardContent> getContents() {
+		final ClipboardContent[] contents = this.contents;
+		final LazyContents lazy = this.lazy;
+		if (null == contents && null == lazy) {
+			return Collections.emptyList();
+		}
+		final List<ClipboardContent> result = new ArrayList<ClipboardContent>();
+		if (contents != null) {
+			for (int i = 0; i < contents.length; ++i) {
+				if (contents[i] != null) {
+					result.add(contents[i]);
+				}
+			}
+		}
+		if (lazy != null) {
+			for (ClipboardContent content : lazy.getRead()) {
+				if (getCaptured(content.getFormat()) == null) {
+					result.add(content);
+				}
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @return the number of bytes of the payload and the captured contents.
+	 */
+	long getContentBytes() {
+		long bytes = 0;
+		final ByteBuffer payload = this.payload;
+		if (payload != null) {
+			bytes += payload.remaining();
+		}
+		for (ClipboardContent content : getContents()) {
+			bytes += content.getSize();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the content of the clipboard in the given format if the monitor
+	 * captured it with the change.
+	 * 
+	 * <p>
+	 * If the monitor has lazy content and did not capture the format, it is
+	 * read from the clipboard now. Only the first listener that asks for a
+	 * format waits for it to be read, all others get the same content. The
+	 * content can only be read as long as the clipboard did not change again.
+	 * 
+	 * <p>
+	 * The content is only valid during
+	 * {@link ClipboardListener#onEvent(ClipboardEvent)}. Listeners that read
+	 * it later must {@link ClipboardContent#retain()} it and release it when
+	 * they are done.
+	 * 
+	 * @param format
+	 *            native id of the format
+	 * @return the content or <code>null</code> if the format was not captured
+	 *         or the clipboard did not have content in that format. With lazy
+	 *         content also if the clipboard changed since this event.
+	 * @see AbstractClipboardMonitor#setLazyContent(ContentPool)
+	 */
+	public ClipboardContent getContent(int format) {
+		final ClipboardContent captured = getCaptured(format);
+		if (captured != null) {
+			return captured;
+		}
+		final LazyContents lazy = this.lazy;
+		return null == lazy ? null : lazy.get(format);
+	}
+
+	private ClipboardContent getCaptured(int format) {
+		final ClipboardContent[] contents = this.contents;
+		if (contents != null) {
+			for (int i = 0; i < contents.length; ++i) {
+				if (contents[i] != null && contents[i].getFormat() == format) {
+					return contents[i];
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the formats read with the given reader. Empty if there is no
+	 *         reader or it failed.
+	 */
+	static List<ClipboardFormat> readFormats(ClipboardReader reader) {
+		if (reader != null) {
+			try {
+				ClipboardFormat[] available = reader.getAvailableFormats();
+				if (available != null && available.length > 0) {
+					return Collections.unmodifiableList(Arrays
+							.asList(available.clone()));
+				}
+			} catch (RuntimeException e) {
+			}
+		}
+		return Collections.emptyList();
 	}
 }
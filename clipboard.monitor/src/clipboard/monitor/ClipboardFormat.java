@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * A format the clipboard content is available in, as reported by the
+ * platform.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public final class ClipboardFormat {
+	private final int id;
+	private final String name;
+
+	/**
+	 * @param id
+	 *            native id of the format
+	 * @param name
+	 *            native name of the format. Must not be <code>null</code>.
+	 */
+	public ClipboardFormat(int id, String name) {
+		if (null == name) {
+			throw new IllegalArgumentException("name must not be null"); //$NON-NLS-1$
+		}
+		this.id = id;
+		this.name = name;
+	}
+
+	/**
+	 * @return the native id of the format. On Windows this is the clipboard
+	 *         format number.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the native name of the format.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ClipboardFormat)) {
+			return false;
+		}
+		ClipboardFormat other = (ClipboardFormat) obj;
+		return id == other.id && name.equals(other.name);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * id + name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + id + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
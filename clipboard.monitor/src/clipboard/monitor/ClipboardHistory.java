@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps copies of recent clipboard events within a budget of bytes.
+ * 
+ * <p>
+ * Add the history as a listener to a monitor. Every event is kept as a
+ * {@link ClipboardEvent#copy()}, with its formats, payload and captured
+ * contents. The formats are read when the event arrives, so they match the
+ * content. An entry is charged with its content bytes plus a fixed overhead.
+ * 
+ * <p>
+ * When the budget is exceeded entries are evicted by their size and age, with
+ * the GreedyDual-Size policy: every entry gets a priority of
+ * <code>L + 1 / size</code>, where <code>L</code> is the priority of the last
+ * evicted entry. The entry with the lowest priority is evicted first. A large
+ * image therefore goes before the many small text entries around it, while
+ * small entries still age out as <code>L</code> grows. An event that alone
+ * exceeds the budget is not kept at all.
+ * 
+ * <p>
+ * The entries are kept in the order they arrived. Lookups by sequence number
+ * or time use a binary search and take <code>O(log n)</code>. They do not
+ * lock, so readers never hold up the listener that adds the events. Events
+ * are expected to arrive with non-decreasing sequence numbers and times, as
+ * sent by one monitor. An event with a time before that of the previous event
+ * is indexed with the previous time.
+ * 
+ * <p>
+ * Other views of the kept events, like a {@link ClipboardTextIndex}, can
+ * follow the history with a {@link ClipboardHistoryListener}. The listeners
+ * are called while the history is locked, so they see the events in order. A
+ * listener that throws does not keep the event from the history or from the
+ * other listeners.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class ClipboardHistory implements ClipboardListener {
+	/** Bytes charged for the event, its formats and the index. */
+	static final int ENTRY_OVERHEAD = 256;
+	private static final int MIN_CAPACITY = 16;
+
+	private final long maxBytes;
+	private final ClipboardListenerList listeners = new ClipboardListenerList();
+
+	// Guarded by this
+	private final PriorityQueue<Entry> evictionOrder = new PriorityQueue<Entry>();
+	private double inflation;
+	private long bytes;
+	private long evicted;
+	private long rejected;
+
+	/** Published by the writer, read without locking. */
+	private volatile Index index = new Index(MIN_CAPACITY);
+
+	private static final class Entry implements Comparable<Entry> {
+		final ClipboardEvent event;
+		final long size;
+		final double priority;
+		/** Slot in the current index. Writer only. */
+		int slot;
+
+		Entry(ClipboardEvent event, long size, double priority) {
+			this.event = event;
+			this.size = size;
+			this.priority = priority;
+		}
+
+		public int compareTo(Entry other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			final long sequence = event.getSequence();
+			final long otherSequence = other.event.getSequence();
+			return sequence < otherSequence ? -1
+					: (sequence == otherSequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Append-only arrays of the entries in arrival order. Evicted entries leave
+	 * an empty slot behind. When the arrays are full the writer copies the
+	 * remaining entries into a new index.
+	 */
+	private static final class Index {
+		final long[] sequences;
+		final long[] times;
+		final AtomicReferenceArray<Entry> entries;
+		/** First slot that may hold an entry. */
+		volatile int head;
+		/** Number of used slots. Written after the slot. */
+		volatile int size;
+
+		Index(int capacity) {
+			sequences = new long[capacity];
+			times = new long[capacity];
+			entries = new AtomicReferenceArray<Entry>(capacity);
+		}
+
+		/**
+		 * @return the first slot between <code>from</code> and
+		 *         <code>to</code> whose value is at least the given key, or
+		 *         <code>to</code>.
+		 */
+		static int lowerBound(long[] values, int from, int to, long key) {
+			while (from < to) {
+				final int middle = (from + to) >>> 1;
+				if (values[middle] < key) {
+					from = middle + 1;
+				} else {
+					to = middle;
+				}
+			}
+			return from;
+		}
+	}
+
+	/**
+	 * @param maxBytes
+	 *            how many bytes the kept events may take
+	 */
+	public ClipboardHistory(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive"); //$NON-NLS-1$
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Adds a copy of the event.
+	 */
+	public void onEvent(ClipboardEvent event) {
+		event.getFormats();
+		add(event.copy());
+	}
+
+	private synchronized void add(ClipboardEvent event) {
+		final long size = ENTRY_OVERHEAD + event.getContentBytes()
+				+ event.getFormats().size() * 32L;
+		if (size > maxBytes) {
+			++rejected;
+			return;
+		}
+		while (bytes + size > maxBytes) {
+			evict();
+		}
+		final Entry entry = new Entry(event, size, inflation + 1.0 / size);
+		append(entry);
+		evictionOrder.add(entry);
+		bytes += size;
+		for (ClipboardListener listener : listeners.getListeners()) {
+			try {
+				listener.onEvent(event);
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+	}
+
+	private void evict() {
+		final Entry entry = evictionOrder.poll();
+		inflation = entry.priority;
+		bytes -= entry.size;
+		++evicted;
+		final Index index = this.index;
+		index.entries.set(entry.slot, null);
+		int head = index.head;
+		final int size = index.size;
+		while (head < size && null == index.entries.get(head)) {
+			++head;
+		}
+		index.head = head;
+		fireEvicted(entry.event);
+	}
+
+	private void fireEvicted(ClipboardEvent event) {
+		for (ClipboardListener listener : listeners.getListeners()) {
+			try {
+				((ClipboardHistoryListener) listener).onEvicted(event);
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Adds a listener that is told about the events kept and evicted from now
+	 * on.
+	 * 
+	 * @param listener
+	 *            to add
+	 * @return <code>true</code> if the listener was added,
+	 *         <code>false</code> if it was already added.
+	 */
+	public boolean addHistoryListener(ClipboardHistoryListener listener) {
+		return listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 *            to remove
+	 * @return <code>true</code> if the listener was removed.
+	 */
+	public boolean removeHistoryListener(ClipboardHistoryListener listener) {
+		return listeners.remove(listener);
+	}
+
+	private void append(Entry entry) {
+		Index index = this.index;
+		int size = index.size;
+		if (size == index.sequences.length) {
+			index = compact(index);
+			size = index.size;
+		}
+		final long time = Math.max(entry.event.getTime(), size > 0
+				? index.times[size - 1] : Long.MIN_VALUE);
+		index.sequences[size] = entry.event.getSequence();
+		index.times[size] = time;
+		index.entries.set(size, entry);
+		entry.slot = size;
+		index.size = size + 1;
+	}
+
+	/**
+	 * Copies the remaining entries into a new index with room for as many
+	 * again and publishes it.
+	 */
+	private Index compact(Index old) {
+		final int live = evictionOrder.size();
+		final Index index = new Index(Math.max(MIN_CAPACITY, 2 * live));
+		int size = 0;
+		for (int i = old.head; i < old.size; ++i) {
+			final Entry entry = old.entries.get(i);
+			if (entry != null) {
+				index.sequences[size] = old.sequences[i];
+				index.times[size] = old.times[i];
+				index.entries.set(size, entry);
+				entry.slot = size;
+				++size;
+			}
+		}
+		index.size = size;
+		this.index = index;
+		return index;
+	}
+
+	/**
+	 * @param sequence
+	 *            number of the event, see {@link ClipboardEvent#getSequence()}
+	 * @return the kept event with the given sequence number or
+	 *         <code>null</code>.
+	 */
+	public ClipboardEvent get(long sequence) {
+		final Index index = this.index;
+		final int size = index.size;
+		final int slot = Index.lowerBound(index.sequences, index.head, size,
+				sequence);
+		if (slot < size && index.sequences[slot] == sequence) {
+			final Entry entry = index.entries.get(slot);
+			if (entry != null) {
+				return entry.event;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param from
+	 *            first time in milliseconds, see {@link ClipboardEvent#getTime()}
+	 * @param to
+	 *            time in milliseconds after the last event to return
+	 * @return the kept events from the given time range, oldest first.
+	 */
+	public List<ClipboardEvent> getRange(long from, long to) {
+		final Index index = this.index;
+		final int size = index.size;
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>();
+		int slot = Index.lowerBound(index.times, index.head, size, from);
+		for (; slot < size && index.times[slot] < to; ++slot) {
+			final Entry entry = index.entries.get(slot);
+			if (entry != null) {
+				events.add(entry.event);
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * @param count
+	 *            maximum number of events to return
+	 * @return the most recent kept events, newest first.
+	 */
+	public List<ClipboardEvent> getLatest(int count) {
+		final Index index = this.index;
+		final int head = index.head;
+		final List<ClipboardEvent> events = new ArrayList<ClipboardEvent>(Math
+				.min(count, 64));
+		int slot = index.size - 1;
+		for (; slot >= head && events.size() < count; --slot) {
+			final Entry entry = index.entries.get(slot);
+			if (entry != null) {
+				events.add(entry.event);
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * @return all kept events, oldest first.
+	 */
+	public List<ClipboardEvent> getAll() {
+		final List<ClipboardEvent> events = getLatest(Integer.MAX_VALUE);
+		Collections.reverse(events);
+		return events;
+	}
+
+	/**
+	 * Removes all events. The {@link ClipboardHistoryListener}s are told about
+	 * every removed event.
+	 */
+	public synchronized void clear() {
+		final Index old = index;
+		for (int slot = old.head; slot < old.size; ++slot) {
+			final Entry entry = old.entries.get(slot);
+			if (entry != null) {
+				fireEvicted(entry.event);
+			}
+		}
+		evictionOrder.clear();
+		bytes = 0;
+		inflation = 0;
+		index = new Index(MIN_CAPACITY);
+	}
+
+	/**
+	 * @return the budget in bytes.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the bytes charged for the kept events.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of kept events.
+	 */
+	public synchronized int size() {
+		return evictionOrder.size();
+	}
+
+	/**
+	 * @return the number of events that were evicted to stay within the
+	 *         budget.
+	 */
+	public synchronized long getEvictedCount() {
+		return evicted;
+	}
+
+	/**
+	 * @return the number of events that were not kept because they alone
+	 *         exceed the budget.
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+}
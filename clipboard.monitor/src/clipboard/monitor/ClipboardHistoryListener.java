@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * Is told about the events a {@link ClipboardHistory} keeps and evicts.
+ * 
+ * <p>
+ * {@link #onEvent(ClipboardEvent)} is called with the copy the history keeps,
+ * after it was added. Events that the history does not keep are not passed
+ * on. Both methods are called while the history is locked, in the order the
+ * events were added and evicted. They must return quickly and must not call
+ * back into the history from another thread.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see ClipboardHistory#addHistoryListener(ClipboardHistoryListener)
+ */
+public interface ClipboardHistoryListener extends ClipboardListener {
+	/**
+	 * @param event
+	 *            that was removed from the history, because it was evicted or
+	 *            the history was cleared.
+	 */
+	void onEvicted(ClipboardEvent event);
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe registry of {@link ClipboardListener}s.
+ * 
+ * <p>
+ * The listeners are kept in an immutable array that is replaced atomically on
+ * every change. Threads sending events just read the current array with
+ * {@link #getListeners()} and loop over it, without locking and without
+ * allocating an iterator. Adding and removing listeners never blocks and may
+ * happen concurrently from any thread.
+ * 
+ * <p>
+ * The listeners are ordered by descending ranking and then by ascending
+ * order key. Listeners with the same ranking and order key are kept in the
+ * order they were added.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public final class ClipboardListenerList {
+	private static final State EMPTY = new State(new ClipboardListener[0],
+			new int[0], new long[0]);
+
+	private final AtomicReference<State> state = new AtomicReference<State>(
+			EMPTY);
+
+	/**
+	 * Immutable snapshot of the listeners and their rankings.
+	 */
+	private static final class State {
+		final ClipboardListener[] listeners;
+		final int[] rankings;
+		final long[] orders;
+
+		State(ClipboardListener[] listeners, int[] rankings, long[] orders) {
+			this.listeners = listeners;
+			this.rankings = rankings;
+			this.orders = orders;
+		}
+
+		int indexOf(ClipboardListener listener) {
+			for (int i = 0; i < listeners.length; ++i) {
+				if (listeners[i].equals(listener)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Adds the given listener with a ranking of <code>0</code>.
+	 * 
+	 * @param listener
+	 *            to add. Adding the same listener more than once has no effect.
+	 * @return <code>true</code> if the listener was added.
+	 */
+	public boolean add(ClipboardListener listener) {
+		return add(listener, 0);
+	}
+
+	/**
+	 * Adds the given listener. Listeners with a higher ranking are called
+	 * first.
+	 * 
+	 * @param listener
+	 *            to add. Adding the same listener more than once has no effect.
+	 * @param ranking
+	 *            of the listener
+	 * @return <code>true</code> if the listener was added.
+	 */
+	public boolean add(ClipboardListener listener, int ranking) {
+		return add(listener, ranking, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Adds the given listener. Listeners with a higher ranking are called
+	 * first, listeners with the same ranking in ascending order of the given
+	 * key, like services by their <code>service.id</code>.
+	 * 
+	 * @param listener
+	 *            to add. Adding the same listener more than once has no effect.
+	 * @param ranking
+	 *            of the listener
+	 * @param order
+	 *            of the listener among those with the same ranking
+	 * @return <code>true</code> if the listener was added.
+	 */
+	public boolean add(ClipboardListener listener, int ranking, long order) {
+		if (null == listener) {
+			throw new IllegalArgumentException("listener must not be null"); //$NON-NLS-1$
+		}
+		while (true) {
+			final State current = state.get();
+			if (current.indexOf(listener) != -1) {
+				return false;
+			}
+			final int length = current.listeners.length;
+			int index = 0;
+			while (index < length
+					&& (current.rankings[index] > ranking || current.rankings[index] == ranking
+							&& current.orders[index] <= order)) {
+				++index;
+			}
+			final ClipboardListener[] listeners = new ClipboardListener[length + 1];
+			final int[] rankings = new int[length + 1];
+			final long[] orders = new long[length + 1];
+			System.arraycopy(current.listeners, 0, listeners, 0, index);
+			System.arraycopy(current.rankings, 0, rankings, 0, index);
+			System.arraycopy(current.orders, 0, orders, 0, index);
+			listeners[index] = listener;
+			rankings[index] = ranking;
+			orders[index] = order;
+			System.arraycopy(current.listeners, index, listeners, index + 1,
+					length - index);
+			System.arraycopy(current.rankings, index, rankings, index + 1,
+					length - index);
+			System.arraycopy(current.orders, index, orders, index + 1, length
+					- index);
+			if (state.compareAndSet(current, new State(listeners, rankings,
+					orders))) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes the given listener.
+	 * 
+	 * @param listener
+	 *            to remove. Removing the same listener more than once has no
+	 *            effect. If the listener was not added before, this method has
+	 *            no effect.
+	 * @return <code>true</code> if the listener was removed.
+	 */
+	public boolean remove(ClipboardListener listener) {
+		while (true) {
+			final State current = state.get();
+			final int index = current.indexOf(listener);
+			if (index == -1) {
+				return false;
+			}
+			final State updated;
+			final int length = current.listeners.length - 1;
+			if (length == 0) {
+				updated = EMPTY;
+			} else {
+				final ClipboardListener[] listeners = new ClipboardListener[length];
+				final int[] rankings = new int[length];
+				final long[] orders = new long[length];
+				System.arraycopy(current.listeners, 0, listeners, 0, index);
+				System.arraycopy(current.rankings, 0, rankings, 0, index);
+				System.arraycopy(current.orders, 0, orders, 0, index);
+				System.arraycopy(current.listeners, index + 1, listeners,
+						index, length - index);
+				System.arraycopy(current.rankings, index + 1, rankings, index,
+						length - index);
+				System.arraycopy(current.orders, index + 1, orders, index,
+						length - index);
+				updated = new State(listeners, rankings, orders);
+			}
+			if (state.compareAndSet(current, updated)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the current listeners in calling order.
+	 * 
+	 * <p>
+	 * The returned array is shared and <em>must not</em> be modified. It is
+	 * not affected by later changes of this list.
+	 * 
+	 * @return the current listeners. Never <code>null</code>.
+	 */
+	public ClipboardListener[] getListeners() {
+		return state.get().listeners;
+	}
+
+	/**
+	 * @return the number of listeners in this list.
+	 */
+	public int size() {
+		return state.get().listeners.length;
+	}
+
+	/**
+	 * @return <code>true</code> if this list has no listeners.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all listeners.
+	 */
+	public void clear() {
+		state.set(EMPTY);
+	}
+}
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import clipboard.monitor.internal.DispatchQueue;
+import clipboard.monitor.internal.LogLinearHistogram;
+import clipboard.monitor.internal.StripedCounter;
+
+/**
+ * Counts what happens in a {@link ClipboardMonitor} and how long it takes.
+ * 
+ * <p>
+ * The <code>record</code> methods are called on the dispatch path. They only
+ * update striped counters and fixed-bucket histograms and neither lock nor
+ * allocate, except for the first call of a listener.
+ * 
+ * <p>
+ * The metrics can be published as a JMX MBean with {@link #register(String)}.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see ClipboardMonitor#getMetrics()
+ */
+public class ClipboardMetrics implements ClipboardMetricsMBean {
+	private static final String DOMAIN = "clipboard.monitor"; //$NON-NLS-1$
+
+	private final StripedCounter received = new StripedCounter();
+	private final StripedCounter dispatched = new StripedCounter();
+	private final StripedCounter coalesced = new StripedCounter();
+	private final StripedCounter dropped = new StripedCounter();
+	private final StripedCounter suppressed = new StripedCounter();
+	private final StripedCounter failures = new StripedCounter();
+	private final LogLinearHistogram latency = new LogLinearHistogram();
+	/** Copied on write, so it is read without a lock. */
+	private volatile Map<ClipboardListener, ListenerStats> listeners = new IdentityHashMap<ClipboardListener, ListenerStats>();
+	/** Times of the listeners that were removed. */
+	private final LogLinearHistogram removedTime = new LogLinearHistogram();
+	private volatile DispatchQueue queue;
+	private ObjectName name;
+
+	/**
+	 * Execution times of one listener.
+	 */
+	private static final class ListenerStats {
+		final String label;
+		final LogLinearHistogram time = new LogLinearHistogram();
+		final StripedCounter failures = new StripedCounter();
+
+		ListenerStats(ClipboardListener listener) {
+			label = listener.getClass().getName() + '@'
+					+ Integer.toHexString(System.identityHashCode(listener));
+		}
+	}
+
+	/**
+	 * Records a clipboard change reported by the monitor.
+	 */
+	public void recordReceived() {
+		received.increment();
+	}
+
+	/**
+	 * Records an event sent to the listeners.
+	 * 
+	 * @param latency
+	 *            nanoseconds from the detection of the change until the event
+	 *            was sent
+	 * @param notifications
+	 *            number of changes the event stands for
+	 */
+	public void recordDispatched(long latency, int notifications) {
+		dispatched.increment();
+		if (notifications > 1) {
+			coalesced.add(notifications - 1);
+		}
+		this.latency.record(latency);
+	}
+
+	/**
+	 * Records changes or events that were discarded.
+	 * 
+	 * @param count
+	 *            number of discarded changes or events
+	 */
+	public void recordDropped(long count) {
+		dropped.add(count);
+	}
+
+	/**
+	 * Records an event that was not sent because its content did not change.
+	 */
+	public void recordSuppressed() {
+		suppressed.increment();
+	}
+
+	/**
+	 * Records a call of a listener.
+	 * 
+	 * @param listener
+	 *            that was called
+	 * @param nanos
+	 *            the call took
+	 * @param failed
+	 *            <code>true</code> if the listener threw an exception
+	 */
+	public void recordListener(ClipboardListener listener, long nanos,
+			boolean failed) {
+		ListenerStats stats = listeners.get(listener);
+		if (null == stats) {
+			stats = addStats(listener);
+		}
+		stats.time.record(nanos);
+		if (failed) {
+			failures.increment();
+			stats.failures.increment();
+		}
+	}
+
+	private synchronized ListenerStats addStats(ClipboardListener listener) {
+		ListenerStats stats = listeners.get(listener);
+		if (null == stats) {
+			stats = new ListenerStats(listener);
+			final Map<ClipboardListener, ListenerStats> copy = new IdentityHashMap<ClipboardListener, ListenerStats>(
+					listeners);
+			copy.put(listener, stats);
+			listeners = copy;
+		}
+		return stats;
+	}
+
+	/**
+	 * Discards the statistics of a listener that was removed from the monitor.
+	 * Its time still counts in the totals of all listeners.
+	 * 
+	 * <p>
+	 * A call of the listener that is still running when it is removed records
+	 * the listener again.
+	 * 
+	 * @param listener
+	 *            that was removed
+	 */
+	public synchronized void removeListener(ClipboardListener listener) {
+		if (!listeners.containsKey(listener)) {
+			return;
+		}
+		final Map<ClipboardListener, ListenerStats> copy = new IdentityHashMap<ClipboardListener, ListenerStats>(
+				listeners);
+		copy.remove(listener).time.addTo(removedTime);
+		listeners = copy;
+	}
+
+	void setQueue(DispatchQueue queue) {
+		final DispatchQueue previous = this.queue;
+		if (previous != null) {
+			dropped.add(previous.getDroppedCount());
+		}
+		this.queue = queue;
+	}
+
+	public long getEventsReceived() {
+		return received.sum();
+	}
+
+	public long getEventsDispatched() {
+		return dispatched.sum();
+	}
+
+	public long getEventsCoalesced() {
+		return coalesced.sum();
+	}
+
+	public long getEventsDropped() {
+		final DispatchQueue queue = this.queue;
+		return dropped.sum() + (queue != null ? queue.getDroppedCount() : 0);
+	}
+
+	public long getEventsSuppressed() {
+		return suppressed.sum();
+	}
+
+	public long getListenerFailures() {
+		return failures.sum();
+	}
+
+	public int getQueueDepth() {
+		final DispatchQueue queue = this.queue;
+		return queue != null ? queue.size() : 0;
+	}
+
+	public long getDispatchLatencyMean() {
+		return latency.getMean() / 1000L;
+	}
+
+	public long getDispatchLatency50th() {
+		return latency.getPercentile(50) / 1000L;
+	}
+
+	public long getDispatchLatency99th() {
+		return latency.getPercentile(99) / 1000L;
+	}
+
+	public long getDispatchLatencyMax() {
+		return latency.getMax() / 1000L;
+	}
+
+	public long getListenerTimeMean() {
+		return getListenerTime().getMean() / 1000L;
+	}
+
+	public long getListenerTime99th() {
+		return getListenerTime().getPercentile(99) / 1000L;
+	}
+
+	public long getListenerTimeMax() {
+		return getListenerTime().getMax() / 1000L;
+	}
+
+	/**
+	 * The times of all listeners are only merged when they are read, so a
+	 * listener call only records into one histogram.
+	 */
+	private LogLinearHistogram getListenerTime() {
+		final LogLinearHistogram merged = new LogLinearHistogram();
+		removedTime.addTo(merged);
+		for (ListenerStats stats : listeners.values()) {
+			stats.time.addTo(merged);
+		}
+		return merged;
+	}
+
+	public String[] getListenerTimes() {
+		final List<String> lines = new ArrayList<String>();
+		for (ListenerStats stats : listeners.values()) {
+			final LogLinearHistogram time = stats.time;
+			lines.add(String.format(
+					"%s: calls=%d failures=%d p50=%dus p99=%dus max=%dus", //$NON-NLS-1$
+					stats.label, time.getCount(), stats.failures.sum(), time
+							.getPercentile(50) / 1000L, time.getPercentile(99) / 1000L,
+					time.getMax() / 1000L));
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	public void reset() {
+		received.reset();
+		dispatched.reset();
+		coalesced.reset();
+		dropped.reset();
+		suppressed.reset();
+		failures.reset();
+		latency.reset();
+		synchronized (this) {
+			listeners = new IdentityHashMap<ClipboardListener, ListenerStats>();
+			removedTime.reset();
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, as
+	 * <code>clipboard.monitor:type=ClipboardMonitor,name=</code><i>name</i>.
+	 * 
+	 * @param name
+	 *            of the monitor
+	 * @throws JMException
+	 *             if the MBean could not be registered
+	 */
+	public synchronized void register(String name) throws JMException {
+		unregister();
+		final ObjectName objectName = new ObjectName(DOMAIN
+				+ ":type=ClipboardMonitor,name=" + ObjectName.quote(name)); //$NON-NLS-1$
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		this.name = objectName;
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server. Has no effect if
+	 * they are not registered.
+	 */
+	public synchronized void unregister() {
+		if (null == name) {
+			return;
+		}
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(name);
+		} catch (JMException e) {
+		}
+		name = null;
+	}
+}
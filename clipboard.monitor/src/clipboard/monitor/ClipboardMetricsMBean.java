@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * Management interface of {@link ClipboardMetrics}.
+ * 
+ * <p>
+ * All times are in microseconds.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public interface ClipboardMetricsMBean {
+	/**
+	 * @return number of clipboard changes reported by the monitor.
+	 */
+	long getEventsReceived();
+
+	/**
+	 * @return number of events sent to the listeners.
+	 */
+	long getEventsDispatched();
+
+	/**
+	 * @return number of changes that were merged into another event.
+	 */
+	long getEventsCoalesced();
+
+	/**
+	 * @return number of changes or events that were discarded because a queue
+	 *         or mailbox was full.
+	 */
+	long getEventsDropped();
+
+	/**
+	 * @return number of events that were not sent because their content was
+	 *         the same as that of the previous change.
+	 */
+	long getEventsSuppressed();
+
+	/**
+	 * @return number of listener calls that threw an exception.
+	 */
+	long getListenerFailures();
+
+	/**
+	 * @return number of changes waiting in the dispatch queue.
+	 */
+	int getQueueDepth();
+
+	/**
+	 * @return mean time from the detection of a change until
+	 *         its event was sent to the listeners.
+	 */
+	long getDispatchLatencyMean();
+
+	/**
+	 * @return 50th percentile of the time from the detection of a
+	 *         change until its event was sent to the listeners.
+	 */
+	long getDispatchLatency50th();
+
+	/**
+	 * @return 99th percentile of the time from the detection of a
+	 *         change until its event was sent to the listeners.
+	 */
+	long getDispatchLatency99th();
+
+	/**
+	 * @return longest time from the detection of a change until
+	 *         its event was sent to the listeners.
+	 */
+	long getDispatchLatencyMax();
+
+	/**
+	 * @return mean time a listener took to process an event, over
+	 *         all listeners.
+	 */
+	long getListenerTimeMean();
+
+	/**
+	 * @return 99th percentile of the time a listener took to
+	 *         process an event, over all listeners.
+	 */
+	long getListenerTime99th();
+
+	/**
+	 * @return longest time a listener took to process an event.
+	 */
+	long getListenerTimeMax();
+
+	/**
+	 * @return one line per listener with the number of calls, failures
+	 *         and the 50th and 99th percentile and the maximum of the time the
+	 *         listener took.
+	 */
+	String[] getListenerTimes();
+
+	/**
+	 * Sets all counters and histograms back to zero.
+	 */
+	void reset();
+}
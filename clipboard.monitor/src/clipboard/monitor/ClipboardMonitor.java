@@ -10,6 +10,8 @@
  ******************************************************************************/
 package clipboard.monitor;
 
+import java.util.concurrent.Future;
+
 /**
  * A service that monitors the system clipboard for changes.
  * 
@@ -22,13 +24,24 @@ public interface ClipboardMonitor {
 	 * Starts the monitoring of the clipboard. This method can be called
 	 * multiple times. If the monitor was already started the call has no
 	 * effect.
+	 * 
+	 * @return a future that completes when the monitor is ready to report
+	 *         changes.
 	 */
-	void start();
+	Future<?> start();
 
 	/**
 	 * Stops the monitoring of the clipboard. This method can be called multiple
 	 * times. If the monitor has already been stopped, then the call has no
 	 * effect.
+	 * 
+	 * @return a future that completes when the monitor has stopped and will
+	 *         not send any more events.
+	 */
+	Future<?> stop();
+
+	/**
+	 * @return the metrics of this monitor. Never <code>null</code>.
 	 */
-	void stop();
+	ClipboardMetrics getMetrics();
 }
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * Cheap check of the clipboard state for monitors that have to poll.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see PollingClipboardMonitor
+ */
+public interface ClipboardProbe {
+	/**
+	 * Called from the polling thread only.
+	 * 
+	 * @return a token that changes whenever the clipboard content changes, for
+	 *         example a sequence number maintained by the system or a hash of
+	 *         the content. Must be cheap to compute.
+	 * @throws Exception
+	 *             if the clipboard cannot be checked right now. The poll is
+	 *             treated as "no change".
+	 */
+	long getChangeToken() throws Exception;
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * Reads the system clipboard on behalf of a {@link ClipboardEvent}.
+ * 
+ * <p>
+ * Implemented by the platform specific monitors. The event calls the reader at
+ * most once per event, the first time a listener asks for the data, and shares
+ * the result with all other listeners of that event.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see AbstractClipboardMonitor#getClipboardReader()
+ */
+public interface ClipboardReader {
+	/**
+	 * May be called from any thread.
+	 * 
+	 * @return the formats currently available in the clipboard. Never
+	 *         <code>null</code>.
+	 */
+	ClipboardFormat[] getAvailableFormats();
+}
@@ -0,0 +1,941 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory full-text index of the text in clipboard events.
+ * 
+ * <p>
+ * Tell the index which captured formats hold plain text and which hold HTML
+ * with {@link #addTextFormat(int, String)} and
+ * {@link #addHtmlFormat(int, String)}, and enable the
+ * {@link AbstractClipboardMonitor#setContentCapture(ContentPool, int[])
+ * content capture} for them. Then add the index as a
+ * {@link ClipboardHistoryListener} to a {@link ClipboardHistory}: it indexes
+ * the events the history keeps and removes them again when the history
+ * evicts them. It can also be added to a monitor directly, then events are
+ * only removed with {@link #remove(long)}.
+ * 
+ * <p>
+ * Text is split into words of letters and digits, which are compared without
+ * case. Every event is added to the index as it arrives, nothing is rebuilt.
+ * For every word the index keeps a postings list of the events containing it
+ * and the positions of the word in them. The lists are stored as variable
+ * length encoded deltas in a byte array. Removed events are only marked, and
+ * the lists are compacted once more than half of the indexed events were
+ * removed.
+ * 
+ * <p>
+ * A query is a list of clauses that must all match:
+ * <ul>
+ * <li><code>word</code> matches events containing the word</li>
+ * <li><code>prefix*</code> matches events containing a word that starts with
+ * the prefix</li>
+ * <li><code>"some words"</code> matches events containing the words in that
+ * order. A word with punctuation inside, like <code>e-mail</code>, is a
+ * phrase as well.</li>
+ * </ul>
+ * 
+ * <p>
+ * The index is thread-safe. Queries run in parallel, adding and removing
+ * events locks them out for the time it takes to update the lists of the
+ * words of one event.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class ClipboardTextIndex implements ClipboardHistoryListener {
+	/** Longer words are cut to this length. */
+	static final int MAX_WORD_LENGTH = 64;
+	/** Removed events from which on the index is compacted. */
+	private static final int MIN_COMPACTION = 1024;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Guarded by lock
+	private final Map<Integer, TextFormat> formats = new LinkedHashMap<Integer, TextFormat>();
+	private final Map<String, Postings> words = new HashMap<String, Postings>();
+	/** The same words sorted, to look up prefixes. */
+	private final TreeMap<String, Postings> sortedWords = new TreeMap<String, Postings>();
+	private final Map<Long, Integer> documents = new HashMap<Long, Integer>();
+	/** Sequence numbers of the events by document. */
+	private long[] sequences = new long[64];
+	/** Bit set of the removed documents. */
+	private long[] removed = new long[1];
+	private int documentCount;
+	private int removedCount;
+
+	private static final class TextFormat {
+		final Charset charset;
+		final boolean html;
+
+		TextFormat(Charset charset, boolean html) {
+			this.charset = charset;
+			this.html = html;
+		}
+	}
+
+	/**
+	 * Documents that contain a word, in ascending order, each with the
+	 * positions of the word in it:
+	 * 
+	 * <pre>
+	 * varint document - previous document
+	 * varint number of positions
+	 * varint position - previous position, for each position
+	 * </pre>
+	 * 
+	 * Every {@link #BLOCK} documents start a block. The first document and the
+	 * offset of every block are kept, so a document can be looked up without
+	 * reading the list from the start.
+	 */
+	private static final class Postings {
+		static final int BLOCK = 64;
+
+		byte[] data = new byte[16];
+		int length;
+		int lastDocument = -1;
+		int documents;
+		int[] blockDocuments = new int[1];
+		int[] blockOffsets = new int[1];
+		int[] blockBases = new int[1];
+
+		void add(int document, int[] positions, int count) {
+			if (documents % BLOCK == 0) {
+				final int block = documents / BLOCK;
+				if (block == blockOffsets.length) {
+					blockDocuments = copyOf(blockDocuments, 2 * block);
+					blockOffsets = copyOf(blockOffsets, 2 * block);
+					blockBases = copyOf(blockBases, 2 * block);
+				}
+				blockDocuments[block] = document;
+				blockOffsets[block] = length;
+				blockBases[block] = lastDocument;
+			}
+			final int needed = length + 5 * (2 + count);
+			if (needed > data.length) {
+				data = copyOf(data, Math.max(needed, 2 * data.length));
+			}
+			write(document - lastDocument);
+			write(count);
+			int last = 0;
+			for (int i = 0; i < count; ++i) {
+				write(positions[i] - last);
+				last = positions[i];
+			}
+			lastDocument = document;
+			++documents;
+		}
+
+		int getBlockCount() {
+			return (documents + BLOCK - 1) / BLOCK;
+		}
+
+		private void write(int value) {
+			while ((value & ~0x7F) != 0) {
+				data[length++] = (byte) (value & 0x7F | 0x80);
+				value >>>= 7;
+			}
+			data[length++] = (byte) value;
+		}
+	}
+
+	/**
+	 * Reads a {@link Postings} list.
+	 */
+	private static final class Cursor {
+		private final Postings postings;
+		private int offset;
+		private int end;
+		private int positionsOffset;
+		int document = -1;
+		int count;
+		/** Block read by {@link #seek(int)}. */
+		private int cached = -1;
+		private int cachedSize;
+		private int[] cachedDocuments;
+		private int[] cachedCounts;
+		private int[] cachedOffsets;
+
+		Cursor(Postings postings) {
+			this.postings = postings;
+			end = postings.length;
+		}
+
+		/**
+		 * @return <code>false</code> if there are no more documents.
+		 */
+		boolean next() {
+			if (offset >= end) {
+				return false;
+			}
+			final byte[] data = postings.data;
+			document += read();
+			count = read();
+			positionsOffset = offset;
+			for (int i = 0; i < count; ++i) {
+				while (data[offset++] < 0) {
+					// Skip
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Positions the cursor before the given block. {@link #next()} then
+		 * returns the documents of that block only.
+		 */
+		void block(int block) {
+			offset = postings.blockOffsets[block];
+			document = postings.blockBases[block];
+			end = block + 1 < postings.getBlockCount() ? postings.blockOffsets[block + 1]
+					: postings.length;
+		}
+
+		/**
+		 * Moves to the given document. The documents of the block are read
+		 * once and kept, so looking up more documents of the same block is
+		 * cheap.
+		 * 
+		 * @return <code>false</code> if the list does not contain the
+		 *         document.
+		 */
+		boolean seek(int target) {
+			final int[] firsts = postings.blockDocuments;
+			final int blocks = postings.getBlockCount();
+			if (cached < 0 || target < firsts[cached]
+					|| (cached + 1 < blocks && target >= firsts[cached + 1])) {
+				int from = 0;
+				int to = blocks;
+				while (from < to) {
+					final int middle = (from + to) >>> 1;
+					if (firsts[middle] <= target) {
+						from = middle + 1;
+					} else {
+						to = middle;
+					}
+				}
+				if (0 == from) {
+					return false;
+				}
+				cache(from - 1);
+			}
+			int from = 0;
+			int to = cachedSize - 1;
+			while (from <= to) {
+				final int middle = (from + to) >>> 1;
+				final int document = cachedDocuments[middle];
+				if (document < target) {
+					from = middle + 1;
+				} else if (document > target) {
+					to = middle - 1;
+				} else {
+					this.document = document;
+					count = cachedCounts[middle];
+					positionsOffset = cachedOffsets[middle];
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void cache(int block) {
+			if (null == cachedDocuments) {
+				cachedDocuments = new int[Postings.BLOCK];
+				cachedCounts = new int[Postings.BLOCK];
+				cachedOffsets = new int[Postings.BLOCK];
+			}
+			block(block);
+			cachedSize = 0;
+			while (next()) {
+				cachedDocuments[cachedSize] = document;
+				cachedCounts[cachedSize] = count;
+				cachedOffsets[cachedSize] = positionsOffset;
+				++cachedSize;
+			}
+			cached = block;
+		}
+
+		int[] positions(int[] buffer) {
+			final int[] positions = buffer.length >= count ? buffer
+					: new int[count];
+			final int saved = offset;
+			offset = positionsOffset;
+			int position = 0;
+			for (int i = 0; i < count; ++i) {
+				position += read();
+				positions[i] = position;
+			}
+			offset = saved;
+			return positions;
+		}
+
+		private int read() {
+			final byte[] data = postings.data;
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[offset++];
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+	}
+
+	/**
+	 * Growable list of positions.
+	 */
+	private static final class Positions {
+		int[] values = new int[4];
+		int size;
+
+		void add(int position) {
+			if (size == values.length) {
+				values = copyOf(values, 2 * size);
+			}
+			values[size++] = position;
+		}
+	}
+
+	/**
+	 * One clause of a query.
+	 */
+	private static final class Clause {
+		final String[] words;
+		final boolean prefix;
+
+		Clause(String[] words, boolean prefix) {
+			this.words = words;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Indexes the captured content in the given format as plain text.
+	 * 
+	 * @param format
+	 *            native id of the format
+	 * @param charset
+	 *            name of the charset of the content, like
+	 *            <code>UTF-16LE</code> for <code>CF_UNICODETEXT</code>
+	 */
+	public void addTextFormat(int format, String charset) {
+		addFormat(format, new TextFormat(Charset.forName(charset), false));
+	}
+
+	/**
+	 * Indexes the captured content in the given format as HTML. Only the text
+	 * is indexed, without the tags. Anything before the first tag, like the
+	 * description of the <code>HTML Format</code> on Windows, is skipped.
+	 * 
+	 * @param format
+	 *            native id of the format
+	 * @param charset
+	 *            name of the charset of the content
+	 */
+	public void addHtmlFormat(int format, String charset) {
+		addFormat(format, new TextFormat(Charset.forName(charset), true));
+	}
+
+	private void addFormat(int format, TextFormat textFormat) {
+		lock.writeLock().lock();
+		try {
+			formats.put(Integer.valueOf(format), textFormat);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Indexes the text captured with the event.
+	 */
+	public void onEvent(ClipboardEvent event) {
+		final List<CharSequence> texts = new ArrayList<CharSequence>();
+		lock.readLock().lock();
+		try {
+			for (Map.Entry<Integer, TextFormat> entry : formats.entrySet()) {
+				final ClipboardContent content = event.getContent(entry
+						.getKey().intValue());
+				if (content != null) {
+					final TextFormat format = entry.getValue();
+					final CharSequence text = format.charset.decode(content
+							.getBuffer());
+					texts.add(format.html ? stripTags(text) : text);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (!texts.isEmpty()) {
+			add(event.getSequence(), texts.toArray(new CharSequence[texts
+					.size()]));
+		}
+	}
+
+	/**
+	 * Removes the event from the index.
+	 */
+	public void onEvicted(ClipboardEvent event) {
+		remove(event.getSequence());
+	}
+
+	/**
+	 * Indexes the given texts of an event. A phrase does not match across the
+	 * end of one text and the start of the next. If the event was indexed
+	 * before, its old texts are removed.
+	 * 
+	 * @param sequence
+	 *            number of the event
+	 * @param texts
+	 *            to index
+	 */
+	public void add(long sequence, CharSequence... texts) {
+		final Map<String, Positions> occurrences = new HashMap<String, Positions>();
+		int position = 0;
+		for (CharSequence text : texts) {
+			position = tokenize(text, position, occurrences) + 1;
+		}
+		lock.writeLock().lock();
+		try {
+			remove(Long.valueOf(sequence));
+			final int document = documentCount++;
+			if (document == sequences.length) {
+				sequences = copyOf(sequences, 2 * document);
+			}
+			if (document >> 6 == removed.length) {
+				removed = copyOf(removed, 2 * removed.length);
+			}
+			sequences[document] = sequence;
+			documents.put(Long.valueOf(sequence), Integer.valueOf(document));
+			for (Map.Entry<String, Positions> entry : occurrences.entrySet()) {
+				Postings postings = words.get(entry.getKey());
+				if (null == postings) {
+					postings = new Postings();
+					words.put(entry.getKey(), postings);
+					sortedWords.put(entry.getKey(), postings);
+				}
+				final Positions positions = entry.getValue();
+				postings.add(document, positions.values, positions.size);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an event from the index.
+	 * 
+	 * @param sequence
+	 *            number of the event
+	 * @return <code>true</code> if the event was indexed.
+	 */
+	public boolean remove(long sequence) {
+		lock.writeLock().lock();
+		try {
+			return remove(Long.valueOf(sequence));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean remove(Long sequence) {
+		final Integer document = documents.remove(sequence);
+		if (null == document) {
+			return false;
+		}
+		final int index = document.intValue();
+		removed[index >> 6] |= 1L << index;
+		++removedCount;
+		if (removedCount >= MIN_COMPACTION && 2 * removedCount > documentCount) {
+			compact();
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites the postings lists without the removed documents and numbers
+	 * the remaining documents from 0.
+	 */
+	private void compact() {
+		final int[] renumbered = new int[documentCount];
+		int live = 0;
+		for (int document = 0; document < documentCount; ++document) {
+			if (isRemoved(document)) {
+				renumbered[document] = -1;
+			} else {
+				sequences[live] = sequences[document];
+				documents.put(Long.valueOf(sequences[live]), Integer
+						.valueOf(live));
+				renumbered[document] = live++;
+			}
+		}
+		int[] buffer = new int[16];
+		for (Iterator<Map.Entry<String, Postings>> i = words.entrySet()
+				.iterator(); i.hasNext();) {
+			final Map.Entry<String, Postings> entry = i.next();
+			final Postings postings = new Postings();
+			final Cursor cursor = new Cursor(entry.getValue());
+			while (cursor.next()) {
+				final int document = renumbered[cursor.document];
+				if (document >= 0) {
+					buffer = cursor.positions(buffer);
+					postings.add(document, buffer, cursor.count);
+				}
+			}
+			if (0 == postings.documents) {
+				i.remove();
+				sortedWords.remove(entry.getKey());
+			} else {
+				postings.data = copyOf(postings.data, postings.length);
+				entry.setValue(postings);
+				sortedWords.put(entry.getKey(), postings);
+			}
+		}
+		documentCount = live;
+		removedCount = 0;
+		removed = new long[Math.max(1, (sequences.length + 63) >> 6)];
+	}
+
+	private boolean isRemoved(int document) {
+		return (removed[document >> 6] & 1L << document) != 0;
+	}
+
+	/**
+	 * Removes all events from the index.
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			words.clear();
+			sortedWords.clear();
+			documents.clear();
+			sequences = new long[64];
+			removed = new long[1];
+			documentCount = 0;
+			removedCount = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the events that match the query.
+	 * 
+	 * <p>
+	 * The documents of the rarest word of the query are walked from the most
+	 * recent one backwards, and looked up in the lists of the other words,
+	 * until enough matches were found. Prefixes are first resolved into a set
+	 * of documents.
+	 * 
+	 * @param query
+	 *            clauses that must all match, see the class description
+	 * @param limit
+	 *            maximum number of events to return
+	 * @return the sequence numbers of the matching events, most recently
+	 *         indexed first. Empty if the query has no words.
+	 */
+	public long[] search(String query, int limit) {
+		final List<Clause> clauses = parse(query);
+		if (clauses.isEmpty() || limit <= 0) {
+			return new long[0];
+		}
+		lock.readLock().lock();
+		try {
+			return search(clauses, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private long[] search(List<Clause> clauses, int limit) {
+		final long[] none = new long[0];
+		// The prefixes in one set, the words in lists
+		long[] prefixes = null;
+		final List<Clause> phrases = new ArrayList<Clause>();
+		Postings lead = null;
+		for (Clause clause : clauses) {
+			if (clause.prefix) {
+				final long[] matches = matchPrefix(clause.words[0]);
+				if (null == prefixes) {
+					prefixes = matches;
+				} else {
+					for (int i = 0; i < matches.length; ++i) {
+						prefixes[i] &= matches[i];
+					}
+				}
+				continue;
+			}
+			for (String word : clause.words) {
+				final Postings postings = words.get(word);
+				if (null == postings) {
+					return none;
+				}
+				if (null == lead || postings.documents < lead.documents) {
+					lead = postings;
+				}
+			}
+			phrases.add(clause);
+		}
+
+		final Match match = new Match(limit);
+		if (null == lead) {
+			// Only prefixes
+			for (int word = prefixes.length - 1; word >= 0 && !match.isFull(); --word) {
+				long bits = prefixes[word] & ~removed[word];
+				while (bits != 0 && !match.isFull()) {
+					final int bit = 63 - Long.numberOfLeadingZeros(bits);
+					match.add(sequences[(word << 6) + bit]);
+					bits &= ~(1L << bit);
+				}
+			}
+			return match.toArray();
+		}
+
+		final Cursor cursor = new Cursor(lead);
+		final int[] documents = new int[Postings.BLOCK];
+		final Matcher matcher = new Matcher(phrases);
+		for (int block = lead.getBlockCount() - 1; block >= 0
+				&& !match.isFull(); --block) {
+			cursor.block(block);
+			int size = 0;
+			while (cursor.next()) {
+				documents[size++] = cursor.document;
+			}
+			while (--size >= 0 && !match.isFull()) {
+				final int document = documents[size];
+				if (!isRemoved(document)
+						&& (null == prefixes || (prefixes[document >> 6] & 1L << document) != 0)
+						&& matcher.matches(document)) {
+					match.add(sequences[document]);
+				}
+			}
+		}
+		return match.toArray();
+	}
+
+	/**
+	 * @return the set of documents containing a word with the prefix.
+	 */
+	private long[] matchPrefix(String prefix) {
+		final long[] matches = new long[(documentCount + 63) >> 6];
+		for (Postings postings : sortedWords.subMap(prefix,
+				prefix + Character.MAX_VALUE).values()) {
+			final Cursor cursor = new Cursor(postings);
+			while (cursor.next()) {
+				matches[cursor.document >> 6] |= 1L << cursor.document;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Collects the sequence numbers of the matches.
+	 */
+	private static final class Match {
+		private final int limit;
+		private long[] sequences;
+		private int size;
+
+		Match(int limit) {
+			this.limit = limit;
+			sequences = new long[Math.min(limit, 16)];
+		}
+
+		boolean isFull() {
+			return size == limit;
+		}
+
+		void add(long sequence) {
+			if (size == sequences.length) {
+				sequences = copyOf(sequences, Math.min(limit, 2 * size));
+			}
+			sequences[size++] = sequence;
+		}
+
+		long[] toArray() {
+			return size == sequences.length ? sequences : copyOf(sequences,
+					size);
+		}
+	}
+
+	/**
+	 * Looks up documents in the lists of the words and phrases of a query.
+	 */
+	private final class Matcher {
+		private final Cursor[][] cursors;
+		private int[][] positions = new int[0][];
+
+		Matcher(List<Clause> clauses) {
+			cursors = new Cursor[clauses.size()][];
+			for (int i = 0; i < cursors.length; ++i) {
+				final String[] phrase = clauses.get(i).words;
+				cursors[i] = new Cursor[phrase.length];
+				for (int j = 0; j < phrase.length; ++j) {
+					cursors[i][j] = new Cursor(words.get(phrase[j]));
+				}
+				if (phrase.length > positions.length) {
+					positions = new int[phrase.length][16];
+				}
+			}
+		}
+
+		boolean matches(int document) {
+			for (Cursor[] phrase : cursors) {
+				for (Cursor cursor : phrase) {
+					if (!cursor.seek(document)) {
+						return false;
+					}
+				}
+				if (phrase.length > 1) {
+					for (int i = 0; i < phrase.length; ++i) {
+						positions[i] = phrase[i].positions(positions[i]);
+					}
+					if (!containsPhrase(phrase, positions)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	private static boolean containsPhrase(Cursor[] cursors, int[][] positions) {
+		candidates: for (int p = 0; p < cursors[0].count; ++p) {
+			final int start = positions[0][p];
+			for (int i = 1; i < cursors.length; ++i) {
+				if (Arrays.binarySearch(positions[i], 0, cursors[i].count,
+						start + i) < 0) {
+					continue candidates;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of indexed events.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of distinct words in the index, including words
+	 *         only used by removed events that were not compacted yet.
+	 */
+	public int getWordCount() {
+		lock.readLock().lock();
+		try {
+			return words.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the bytes used by the postings lists.
+	 */
+	public long getPostingsBytes() {
+		lock.readLock().lock();
+		try {
+			long bytes = 0;
+			for (Postings postings : words.values()) {
+				bytes += postings.length;
+			}
+			return bytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static byte[] copyOf(byte[] values, int length) {
+		final byte[] copy = new byte[length];
+		System.arraycopy(values, 0, copy, 0, Math.min(length, values.length));
+		return copy;
+	}
+
+	private static int[] copyOf(int[] values, int length) {
+		final int[] copy = new int[length];
+		System.arraycopy(values, 0, copy, 0, Math.min(length, values.length));
+		return copy;
+	}
+
+	private static long[] copyOf(long[] values, int length) {
+		final long[] copy = new long[length];
+		System.arraycopy(values, 0, copy, 0, Math.min(length, values.length));
+		return copy;
+	}
+
+	/**
+	 * Splits the text into lower case words and records their positions.
+	 * 
+	 * @return the position after the last word.
+	 */
+	private static int tokenize(CharSequence text, int position,
+			Map<String, Positions> occurrences) {
+		final StringBuilder word = new StringBuilder();
+		final int length = text.length();
+		for (int i = 0; i <= length; ++i) {
+			final char c = i < length ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				if (word.length() < MAX_WORD_LENGTH) {
+					word.append(Character.toLowerCase(c));
+				}
+			} else if (word.length() > 0) {
+				if (occurrences != null) {
+					final String key = word.toString();
+					Positions positions = occurrences.get(key);
+					if (null == positions) {
+						positions = new Positions();
+						occurrences.put(key, positions);
+					}
+					positions.add(position);
+				}
+				++position;
+				word.setLength(0);
+			}
+		}
+		return position;
+	}
+
+	private static String[] words(CharSequence text) {
+		final Map<String, Positions> occurrences = new HashMap<String, Positions>();
+		final String[] words = new String[tokenize(text, 0, occurrences)];
+		for (Map.Entry<String, Positions> entry : occurrences.entrySet()) {
+			final Positions positions = entry.getValue();
+			for (int i = 0; i < positions.size; ++i) {
+				words[positions.values[i]] = entry.getKey();
+			}
+		}
+		return words;
+	}
+
+	private static List<Clause> parse(String query) {
+		final List<Clause> clauses = new ArrayList<Clause>();
+		final int length = query.length();
+		int i = 0;
+		while (i < length) {
+			final char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				++i;
+				continue;
+			}
+			final int end;
+			final String[] words;
+			boolean prefix = false;
+			if ('"' == c) {
+				final int close = query.indexOf('"', i + 1);
+				end = close < 0 ? length : close + 1;
+				words = words(query.substring(i + 1, close < 0 ? length
+						: close));
+			} else {
+				int j = i;
+				while (j < length && !Character.isWhitespace(query.charAt(j))) {
+					++j;
+				}
+				end = j;
+				words = words(query.substring(i, end));
+				prefix = '*' == query.charAt(end - 1) && 1 == words.length;
+			}
+			if (words.length > 0) {
+				clauses.add(new Clause(words, prefix));
+			}
+			i = end;
+		}
+		return clauses;
+	}
+
+	/**
+	 * @return the text of the HTML, with tags replaced by spaces and the
+	 *         common entities decoded.
+	 */
+	static CharSequence stripTags(CharSequence html) {
+		final int length = html.length();
+		final StringBuilder text = new StringBuilder(length);
+		int i = 0;
+		while (i < length && html.charAt(i) != '<') {
+			++i;
+		}
+		while (i < length) {
+			final char c = html.charAt(i);
+			if ('<' == c) {
+				while (i < length && html.charAt(i) != '>') {
+					++i;
+				}
+				text.append(' ');
+			} else if ('&' == c) {
+				int end = i + 1;
+				while (end < length && end - i < 10 && html.charAt(end) != ';') {
+					++end;
+				}
+				if (end < length && html.charAt(end) == ';') {
+					text.append(decodeEntity(html.subSequence(i + 1, end)
+							.toString()));
+					i = end;
+				} else {
+					text.append(c);
+				}
+			} else {
+				text.append(c);
+			}
+			++i;
+		}
+		return text;
+	}
+
+	private static char decodeEntity(String entity) {
+		try {
+			if (entity.startsWith("#x") || entity.startsWith("#X")) { //$NON-NLS-1$ //$NON-NLS-2$
+				return (char) Integer.parseInt(entity.substring(2), 16);
+			}
+			if (entity.startsWith("#")) { //$NON-NLS-1$
+				return (char) Integer.parseInt(entity.substring(1));
+			}
+		} catch (NumberFormatException e) {
+			return ' ';
+		}
+		if ("amp".equals(entity)) { //$NON-NLS-1$
+			return '&';
+		}
+		if ("lt".equals(entity)) { //$NON-NLS-1$
+			return '<';
+		}
+		if ("gt".equals(entity)) { //$NON-NLS-1$
+			return '>';
+		}
+		if ("quot".equals(entity)) { //$NON-NLS-1$
+			return '"';
+		}
+		if ("apos".equals(entity)) { //$NON-NLS-1$
+			return '\'';
+		}
+		return ' ';
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of off-heap buffers that hold captured clipboard content.
+ * 
+ * <p>
+ * A monitor with content capture copies each requested format once per change
+ * into a buffer of this pool, see
+ * {@link AbstractClipboardMonitor#setContentCapture(ContentPool, int[])}. All
+ * listeners of the change read the same buffer through a
+ * {@link ClipboardContent}. The buffer goes back to the pool when the last
+ * reference to the content is released, so the next change of about the same
+ * size does not allocate.
+ * 
+ * <p>
+ * Buffers are kept in bins of power of two capacities. The pool only keeps
+ * free buffers up to the given number of bytes. Buffers that do not fit are
+ * left to the garbage collector.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class ContentPool {
+	/** Capacity of the smallest bin. */
+	private static final int MIN_BIN = 12;
+	/** Largest bin that still has a power of two capacity. */
+	private static final int MAX_BIN = 30;
+
+	private final long maxPooledBytes;
+	private final AtomicLong allocations = new AtomicLong();
+	private final AtomicLong reuses = new AtomicLong();
+
+	// Guarded by this
+	private final List<LinkedList<ByteBuffer>> free;
+	private long pooledBytes;
+
+	/**
+	 * @param maxPooledBytes
+	 *            how many bytes of free buffers the pool keeps at most
+	 */
+	public ContentPool(long maxPooledBytes) {
+		if (maxPooledBytes < 0) {
+			throw new IllegalArgumentException(
+					"maxPooledBytes must not be negative"); //$NON-NLS-1$
+		}
+		this.maxPooledBytes = maxPooledBytes;
+		this.free = new ArrayList<LinkedList<ByteBuffer>>(MAX_BIN + 1);
+		for (int i = 0; i <= MAX_BIN; ++i) {
+			free.add(i < MIN_BIN ? null : new LinkedList<ByteBuffer>());
+		}
+	}
+
+	/**
+	 * Copies the remaining bytes of the given buffer into a pooled buffer.
+	 * 
+	 * <p>
+	 * Called by {@link ClipboardContentReader}s while the clipboard is open.
+	 * 
+	 * @param format
+	 *            native id of the format of the content
+	 * @param source
+	 *            the content from its position to its limit. Its position is
+	 *            not changed.
+	 * @return the captured content. The caller owns its only reference.
+	 */
+	public ClipboardContent capture(int format, ByteBuffer source) {
+		final ByteBuffer buffer = acquire(source.remaining());
+		buffer.put(source.duplicate()).flip();
+		return new ClipboardContent(format, buffer, this);
+	}
+
+	/**
+	 * @return a cleared buffer with at least the given capacity
+	 */
+	ByteBuffer acquire(int size) {
+		final int bin = bin(size);
+		if (bin <= MAX_BIN) {
+			synchronized (this) {
+				final ByteBuffer buffer = free.get(bin).poll();
+				if (buffer != null) {
+					pooledBytes -= buffer.capacity();
+					reuses.incrementAndGet();
+					buffer.clear();
+					return buffer;
+				}
+			}
+		}
+		allocations.incrementAndGet();
+		return ByteBuffer.allocateDirect(bin <= MAX_BIN ? 1 << bin : size);
+	}
+
+	/**
+	 * Takes a buffer back that was handed out by {@link #acquire(int)}.
+	 */
+	void recycle(ByteBuffer buffer) {
+		final int capacity = buffer.capacity();
+		final int bin = bin(capacity);
+		if (bin > MAX_BIN || 1 << bin != capacity) {
+			return;
+		}
+		synchronized (this) {
+			if (pooledBytes + capacity <= maxPooledBytes) {
+				free.get(bin).add(buffer);
+				pooledBytes += capacity;
+			}
+		}
+	}
+
+	private static int bin(int size) {
+		return Math.max(MIN_BIN, 32 - Integer.numberOfLeadingZeros(size - 1));
+	}
+
+	/**
+	 * @return how many buffers were allocated because the pool had no free
+	 *         buffer of the requested size.
+	 */
+	public long getAllocationCount() {
+		return allocations.get();
+	}
+
+	/**
+	 * @return how many buffers were taken from the pool.
+	 */
+	public long getReuseCount() {
+		return reuses.get();
+	}
+
+	/**
+	 * @return the capacity of the free buffers kept by the pool.
+	 */
+	public synchronized long getPooledBytes() {
+		return pooledBytes;
+	}
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the tasks that call listeners.
+ * 
+ * <p>
+ * Implementations for the common strategies are created by
+ * {@link DispatchExecutors}.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see ListenerMailboxes
+ */
+public interface DispatchExecutor extends Executor {
+	/**
+	 * Prepares the executor to run tasks. An executor can be started again
+	 * after it was stopped.
+	 */
+	void start();
+
+	/**
+	 * Runs the given task at some time in the future.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor is not started
+	 */
+	void execute(Runnable task);
+
+	/**
+	 * Stops the executor. Tasks that did not start yet may be discarded.
+	 */
+	void stop();
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.ThreadFactory;
+
+import clipboard.monitor.internal.InlineExecutor;
+import clipboard.monitor.internal.PooledExecutor;
+import clipboard.monitor.internal.ThreadPerTaskExecutor;
+import clipboard.monitor.internal.VirtualThreads;
+
+/**
+ * Creates {@link DispatchExecutor}s.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class DispatchExecutors {
+	private DispatchExecutors() {
+	}
+
+	/**
+	 * @return an executor that runs the tasks right away on the calling
+	 *         thread.
+	 */
+	public static DispatchExecutor inline() {
+		return new InlineExecutor();
+	}
+
+	/**
+	 * @param workers
+	 *            number of threads
+	 * @param name
+	 *            of the threads, followed by their number
+	 * @return an executor with a fixed number of daemon threads
+	 */
+	public static DispatchExecutor pool(int workers, String name) {
+		return new PooledExecutor(workers, name);
+	}
+
+	/**
+	 * @param name
+	 *            of the threads
+	 * @return an executor that starts a new platform daemon thread for every
+	 *         task
+	 */
+	public static DispatchExecutor threadPerTask(final String name) {
+		return new ThreadPerTaskExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param name
+	 *            of the thread
+	 * @param capacity
+	 *            maximum number of waiting tasks
+	 * @return an executor that runs the tasks in order on a single reused
+	 *         daemon thread and replaces the most recent waiting task when
+	 *         it falls behind
+	 * @see SerialDispatchExecutor
+	 */
+	public static SerialDispatchExecutor serial(String name, int capacity) {
+		return new SerialDispatchExecutor(name, capacity);
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for every task.
+	 * Virtual threads are cheap to create and do not hold on to a platform
+	 * thread while they block on I/O, so even hundreds of blocking listeners
+	 * can run at the same time.
+	 * 
+	 * <p>
+	 * On Java versions without virtual threads a platform thread is started
+	 * for every task instead.
+	 * 
+	 * @param name
+	 *            prefix of the thread names
+	 * @return an executor that starts a new virtual thread for every task,
+	 *         or a platform daemon thread if virtual threads are not
+	 *         supported.
+	 * @see #isVirtualThreadsSupported()
+	 */
+	public static DispatchExecutor virtualThreads(String name) {
+		final ThreadFactory factory = VirtualThreads.newFactory(name);
+		if (null == factory) {
+			return threadPerTask(name);
+		}
+		return new ThreadPerTaskExecutor(factory);
+	}
+
+	/**
+	 * @return <code>true</code> if the running Java version supports virtual
+	 *         threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return VirtualThreads.isSupported();
+	}
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed set of reusable events.
+ * 
+ * <p>
+ * Usually only one thread sends events at a time, so the first slot is almost
+ * always free. If all slots are taken, because several threads send events at
+ * once, a new event is created instead.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+final class EventPool {
+	private final ClipboardEvent[] events;
+	private final AtomicIntegerArray taken;
+
+	EventPool(Object source, int size) {
+		events = new ClipboardEvent[size];
+		taken = new AtomicIntegerArray(size);
+		for (int i = 0; i < size; ++i) {
+			events[i] = new ClipboardEvent(source);
+		}
+	}
+
+	ClipboardEvent acquire(long sequence, long detected, long time,
+			int notifications, ClipboardReader reader) {
+		for (int i = 0; i < events.length; ++i) {
+			if (taken.get(i) == 0 && taken.compareAndSet(i, 0, 1)) {
+				return events[i].reset(sequence, detected, time, notifications,
+						reader);
+			}
+		}
+		return new ClipboardEvent(events[0].getSource(), sequence, detected,
+				time, notifications, reader);
+	}
+
+	void release(ClipboardEvent event) {
+		for (int i = 0; i < events.length; ++i) {
+			if (events[i] == event) {
+				taken.set(i, 0);
+				return;
+			}
+		}
+	}
+}
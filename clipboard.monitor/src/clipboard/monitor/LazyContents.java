@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the content of the clipboard for one change on demand, one format at
+ * a time.
+ * 
+ * <p>
+ * A format is read the first time a listener asks for it and then kept for
+ * all other listeners of the change, also if the clipboard did not have it.
+ * Reading is only possible as long as the clipboard did not change again,
+ * otherwise the content of a newer change would be returned.
+ * 
+ * <p>
+ * Counts its references like {@link ClipboardContent}. The contents that were
+ * read are released together with the last reference.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+final class LazyContents {
+	private final ClipboardContentReader reader;
+	private final ContentPool pool;
+	private final AtomicLong changes;
+	private final long change;
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	// Guarded by this
+	private int[] formats = new int[2];
+	private ClipboardContent[] contents = new ClipboardContent[2];
+	private int size;
+
+	/**
+	 * @param changes
+	 *            counts the changes the monitor received
+	 * @param change
+	 *            the count of the change whose content is read
+	 */
+	LazyContents(ClipboardContentReader reader, ContentPool pool,
+			AtomicLong changes, long change) {
+		this.reader = reader;
+		this.pool = pool;
+		this.changes = changes;
+		this.change = change;
+	}
+
+	/**
+	 * @return the content in the given format or <code>null</code> if the
+	 *         clipboard does not have it, it could not be read or the
+	 *         clipboard changed since.
+	 */
+	synchronized ClipboardContent get(int format) {
+		for (int i = 0; i < size; ++i) {
+			if (formats[i] == format) {
+				return contents[i];
+			}
+		}
+		if (references.get() <= 0 || changes.get() != change) {
+			return null;
+		}
+		ClipboardContent content = null;
+		try {
+			content = reader.readContents(new int[] { format }, pool)[0];
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		if (changes.get() != change) {
+			// The clipboard changed while it was read
+			if (content != null) {
+				content.release();
+			}
+			return null;
+		}
+		if (size == formats.length) {
+			final int[] grownFormats = new int[2 * size];
+			final ClipboardContent[] grownContents = new ClipboardContent[2 * size];
+			System.arraycopy(formats, 0, grownFormats, 0, size);
+			System.arraycopy(contents, 0, grownContents, 0, size);
+			formats = grownFormats;
+			contents = grownContents;
+		}
+		formats[size] = format;
+		contents[size] = content;
+		++size;
+		return content;
+	}
+
+	/**
+	 * @return the contents read so far.
+	 */
+	synchronized List<ClipboardContent> getRead() {
+		final List<ClipboardContent> read = new ArrayList<ClipboardContent>(
+				size);
+		for (int i = 0; i < size; ++i) {
+			if (contents[i] != null) {
+				read.add(contents[i]);
+			}
+		}
+		return read;
+	}
+
+	void retain() {
+		references.incrementAndGet();
+	}
+
+	/**
+	 * Gives up a reference. The last release also releases the contents read.
+	 */
+	void release() {
+		if (references.decrementAndGet() == 0) {
+			synchronized (this) {
+				for (int i = 0; i < size; ++i) {
+					if (contents[i] != null) {
+						contents[i].release();
+						contents[i] = null;
+					}
+				}
+				size = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Isolates listeners from each other. Every listener gets a bounded mailbox of
+ * its own, and the mailboxes are served by a {@link DispatchExecutor}, by
+ * default a shared pool of worker threads. A mailbox is only run by one thread
+ * at a time, so each listener receives its events in order.
+ * 
+ * <p>
+ * {@link #dispatch(ClipboardListener[], ClipboardEvent)} only puts the event
+ * into the mailboxes and returns. A slow listener only delays its own events;
+ * what happens when its mailbox runs full is decided by its
+ * {@link MailboxPolicy}. As long as there are fewer slow listeners than
+ * workers, the other listeners are called without delay. Listeners that block
+ * on I/O scale best with {@link DispatchExecutors#virtualThreads(String)}.
+ * 
+ * <p>
+ * A listener that exceeds the deadline for a number of consecutive events is
+ * reported to {@link #onSlowListener(ClipboardListener, long)}.
+ * 
+ * <p>
+ * The events are kept after <code>dispatch</code> returns, so they must not be
+ * pooled.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class ListenerMailboxes {
+	private static final Mailbox[] NO_MAILBOXES = new Mailbox[0];
+
+	private final DispatchExecutor executor;
+	private final long deadline;
+	private final int strikes;
+	private final Map<ClipboardListener, MailboxPolicy> policies = new ConcurrentHashMap<ClipboardListener, MailboxPolicy>();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile ClipboardMetrics metrics;
+	private volatile Binding binding = new Binding(null, NO_MAILBOXES);
+
+	/**
+	 * The mailboxes for one snapshot of the listeners.
+	 */
+	private static final class Binding {
+		final ClipboardListener[] listeners;
+		final Mailbox[] mailboxes;
+
+		Binding(ClipboardListener[] listeners, Mailbox[] mailboxes) {
+			this.listeners = listeners;
+			this.mailboxes = mailboxes;
+		}
+	}
+
+	/**
+	 * Creates mailboxes served by a pool of worker threads.
+	 * 
+	 * @param workers
+	 *            number of threads that call the listeners
+	 * @param deadline
+	 *            a listener should handle an event in
+	 * @param strikes
+	 *            number of consecutive events a listener may exceed the
+	 *            deadline before it is reported
+	 * @param unit
+	 *            of the deadline
+	 */
+	public ListenerMailboxes(int workers, long deadline, int strikes,
+			TimeUnit unit) {
+		this(DispatchExecutors.pool(workers, "Clipboard Listener Worker"), //$NON-NLS-1$
+				deadline, strikes, unit);
+	}
+
+	/**
+	 * Creates mailboxes served by the given executor.
+	 * 
+	 * @param executor
+	 *            to run the mailboxes on. It is started and stopped together
+	 *            with the mailboxes.
+	 * @param deadline
+	 *            a listener should handle an event in
+	 * @param strikes
+	 *            number of consecutive events a listener may exceed the
+	 *            deadline before it is reported
+	 * @param unit
+	 *            of the deadline
+	 */
+	public ListenerMailboxes(DispatchExecutor executor, long deadline,
+			int strikes, TimeUnit unit) {
+		if (null == executor) {
+			throw new IllegalArgumentException("executor must not be null"); //$NON-NLS-1$
+		}
+		if (deadline < 1 || strikes < 1) {
+			throw new IllegalArgumentException(
+					"deadline and strikes must be positive"); //$NON-NLS-1$
+		}
+		this.executor = executor;
+		this.deadline = unit.toNanos(deadline);
+		this.strikes = strikes;
+	}
+
+	/**
+	 * Starts the executor.
+	 */
+	public synchronized void start() {
+		executor.start();
+	}
+
+	/**
+	 * Waits until the pending events were delivered, then stops the executor.
+	 * Must not be called from a listener.
+	 * 
+	 * <p>
+	 * Events that could not be delivered, because the executor rejected them
+	 * or they were dispatched while stopping, are released and counted as
+	 * dropped.
+	 */
+	public void stop() {
+		final Mailbox[] pending;
+		synchronized (this) {
+			pending = binding.mailboxes;
+		}
+		// Do not hold the lock, listeners may still change their policies
+		for (Mailbox mailbox : pending) {
+			mailbox.awaitIdle();
+		}
+		final Mailbox[] mailboxes;
+		synchronized (this) {
+			executor.stop();
+			mailboxes = binding.mailboxes;
+			binding = new Binding(null, NO_MAILBOXES);
+		}
+		for (Mailbox mailbox : pending) {
+			mailbox.close();
+		}
+		for (Mailbox mailbox : mailboxes) {
+			mailbox.close();
+		}
+	}
+
+	/**
+	 * Lets the mailboxes record the listener calls and dropped events in the
+	 * given metrics.
+	 * 
+	 * @param metrics
+	 *            to record in. May be <code>null</code>.
+	 */
+	public void setMetrics(ClipboardMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the policy for the mailbox of the given listener. Events that are
+	 * already pending for the listener are still delivered.
+	 * 
+	 * @param listener
+	 *            to set the policy for
+	 * @param policy
+	 *            for the listener. <code>null</code> resets it to
+	 *            {@link MailboxPolicy#DEFAULT}.
+	 */
+	public void setPolicy(ClipboardListener listener, MailboxPolicy policy) {
+		if (null == policy) {
+			policies.remove(listener);
+		} else {
+			policies.put(listener, policy);
+		}
+		synchronized (this) {
+			final Mailbox mailbox = find(binding.mailboxes, listener);
+			if (mailbox != null) {
+				mailbox.setPolicy(null == policy ? MailboxPolicy.DEFAULT
+						: policy);
+			}
+		}
+	}
+
+	/**
+	 * Puts the event into the mailboxes of the given listeners.
+	 * 
+	 * @param listeners
+	 *            snapshot of the listeners, as returned by
+	 *            {@link ClipboardListenerList#getListeners()}. The mailboxes
+	 *            are only rebuilt when a different snapshot is passed in.
+	 * @param event
+	 *            to send. Must not be a pooled event.
+	 */
+	public void dispatch(ClipboardListener[] listeners, ClipboardEvent event) {
+		final Mailbox[] mailboxes = getMailboxes(listeners);
+		for (int i = 0; i < mailboxes.length; ++i) {
+			mailboxes[i].offer(event);
+		}
+	}
+
+	/**
+	 * @return number of events that were dropped because a mailbox was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Called from a worker thread when a listener exceeded the deadline for
+	 * the configured number of consecutive events.
+	 * 
+	 * <p>
+	 * The default implementation prints a warning to {@link System#err}.
+	 * 
+	 * @param listener
+	 *            that is too slow
+	 * @param nanos
+	 *            the listener took for the last event
+	 */
+	protected void onSlowListener(ClipboardListener listener, long nanos) {
+		System.err.println("Clipboard listener " + listener + " took " //$NON-NLS-1$ //$NON-NLS-2$
+				+ nanos / 1000000L + "ms for " + strikes //$NON-NLS-1$
+				+ " consecutive events"); //$NON-NLS-1$
+	}
+
+	private Mailbox[] getMailboxes(ClipboardListener[] listeners) {
+		Binding current = binding;
+		if (current.listeners == listeners) {
+			return current.mailboxes;
+		}
+		synchronized (this) {
+			current = binding;
+			if (current.listeners == listeners) {
+				return current.mailboxes;
+			}
+			final Mailbox[] mailboxes = new Mailbox[listeners.length];
+			for (int i = 0; i < listeners.length; ++i) {
+				mailboxes[i] = find(current.mailboxes, listeners[i]);
+				if (null == mailboxes[i]) {
+					MailboxPolicy policy = policies.get(listeners[i]);
+					mailboxes[i] = new Mailbox(this, listeners[i],
+							null == policy ? MailboxPolicy.DEFAULT : policy);
+				}
+			}
+			binding = new Binding(listeners, mailboxes);
+			return mailboxes;
+		}
+	}
+
+	private static Mailbox find(Mailbox[] mailboxes, ClipboardListener listener) {
+		for (int i = 0; i < mailboxes.length; ++i) {
+			if (mailboxes[i].listener == listener) {
+				return mailboxes[i];
+			}
+		}
+		return null;
+	}
+
+	void execute(Runnable mailbox) {
+		executor.execute(mailbox);
+	}
+
+	void dropped() {
+		dropped.incrementAndGet();
+		final ClipboardMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordDropped(1);
+		}
+	}
+
+	void delivered(ClipboardListener listener, long nanos, boolean failed) {
+		final ClipboardMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordListener(listener, nanos, failed);
+		}
+	}
+
+	long getDeadline() {
+		return deadline;
+	}
+
+	int getStrikes() {
+		return strikes;
+	}
+
+	void reportSlow(ClipboardListener listener, long nanos) {
+		try {
+			onSlowListener(listener, nanos);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+}
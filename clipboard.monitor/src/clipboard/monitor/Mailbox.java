@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Pending events of a single listener. Scheduled on the workers of
+ * {@link ListenerMailboxes} whenever it has events and is not already
+ * running.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+final class Mailbox implements Runnable {
+	/** Events delivered in one go before the worker is handed back. */
+	private static final int BATCH = 16;
+
+	final ClipboardListener listener;
+	private final ListenerMailboxes owner;
+
+	// Guarded by this
+	private MailboxPolicy policy;
+	private ClipboardEvent[] events;
+	private int head;
+	private int count;
+	private boolean scheduled;
+	private boolean closed;
+
+	/** Consecutive deliveries that exceeded the deadline. Worker only. */
+	private int strikes;
+
+	Mailbox(ListenerMailboxes owner, ClipboardListener listener,
+			MailboxPolicy policy) {
+		this.owner = owner;
+		this.listener = listener;
+		this.policy = policy;
+		this.events = new ClipboardEvent[policy.getCapacity()];
+	}
+
+	/**
+	 * Changes the policy without losing the pending events. If there are more
+	 * events pending than the new capacity allows, they are kept and the next
+	 * offer applies the new overflow policy.
+	 */
+	synchronized void setPolicy(MailboxPolicy policy) {
+		this.policy = policy;
+		final int length = Math.max(policy.getCapacity(), count);
+		if (length != events.length) {
+			final ClipboardEvent[] resized = new ClipboardEvent[length];
+			for (int i = 0; i < count; ++i) {
+				resized[i] = events[(head + i) % events.length];
+			}
+			events = resized;
+			head = 0;
+		}
+		// Blocked producers may have room now
+		notifyAll();
+	}
+
+	/**
+	 * Holds a reference to the captured contents of the event until it was
+	 * delivered or dropped.
+	 * 
+	 * @return <code>false</code> if the event was dropped.
+	 */
+	boolean offer(ClipboardEvent event) {
+		event.retainContents();
+		synchronized (this) {
+			if (closed) {
+				event.releaseContents();
+				owner.dropped();
+				return false;
+			}
+			if (count >= policy.getCapacity()) {
+				switch (policy.getOverflowPolicy()) {
+				case DROP_OLDEST:
+					events[head].releaseContents();
+					events[head] = null;
+					head = (head + 1) % events.length;
+					--count;
+					owner.dropped();
+					break;
+				case COALESCE:
+					final int last = (head + count - 1) % events.length;
+					final ClipboardEvent older = events[last];
+					events[last] = event.coalesce(older);
+					older.releaseContents();
+					return true;
+				case BLOCK:
+					if (!awaitRoom()) {
+						event.releaseContents();
+						owner.dropped();
+						return false;
+					}
+					break;
+				}
+			}
+			events[(head + count) % events.length] = event;
+			++count;
+			if (scheduled) {
+				return true;
+			}
+			scheduled = true;
+		}
+		schedule();
+		return true;
+	}
+
+	private boolean awaitRoom() {
+		final long deadline = System.nanoTime() + policy.getTimeoutNanos();
+		while (count >= policy.getCapacity()) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			try {
+				wait(remaining / 1000000L, (int) (remaining % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void schedule() {
+		try {
+			owner.execute(this);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				scheduled = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the mailbox is no longer scheduled, that is until the
+	 * pending events were delivered or the executor rejected the mailbox.
+	 */
+	synchronized void awaitIdle() {
+		boolean interrupted = Thread.interrupted();
+		while (scheduled) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Releases the events that are still pending and drops the events that
+	 * are offered from now on.
+	 */
+	synchronized void close() {
+		closed = true;
+		for (; count > 0; --count) {
+			events[head].releaseContents();
+			events[head] = null;
+			head = (head + 1) % events.length;
+			owner.dropped();
+		}
+		notifyAll();
+	}
+
+	private synchronized ClipboardEvent poll() {
+		if (0 == count) {
+			scheduled = false;
+			notifyAll();
+			return null;
+		}
+		final ClipboardEvent event = events[head];
+		events[head] = null;
+		head = (head + 1) % events.length;
+		--count;
+		notifyAll();
+		return event;
+	}
+
+	public void run() {
+		for (int i = 0; i < BATCH; ++i) {
+			final ClipboardEvent event = poll();
+			if (null == event) {
+				return;
+			}
+			deliver(event);
+		}
+		// Let the other mailboxes have the worker
+		schedule();
+	}
+
+	private void deliver(ClipboardEvent event) {
+		boolean failed = false;
+		final long start = System.nanoTime();
+		try {
+			listener.onEvent(event);
+		} catch (Throwable t) {
+			failed = true;
+			t.printStackTrace();
+		} finally {
+			event.releaseContents();
+		}
+		final long elapsed = System.nanoTime() - start;
+		owner.delivered(listener, elapsed, failed);
+		if (elapsed > owner.getDeadline()) {
+			if (++strikes == owner.getStrikes()) {
+				owner.reportSlow(listener, elapsed);
+				strikes = 0;
+			}
+		} else {
+			strikes = 0;
+		}
+	}
+}
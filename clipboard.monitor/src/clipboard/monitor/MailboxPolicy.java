@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes the mailbox of a listener with isolated dispatch: how many events
+ * may be pending for the listener and what happens when it is full.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see ListenerMailboxes
+ */
+public final class MailboxPolicy {
+	/**
+	 * Keeps only the latest pending event. The default.
+	 */
+	public static final MailboxPolicy DEFAULT = coalesce();
+
+	private final OverflowPolicy overflowPolicy;
+	private final int capacity;
+	private final long timeout;
+
+	private MailboxPolicy(OverflowPolicy overflowPolicy, int capacity,
+			long timeout) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive"); //$NON-NLS-1$
+		}
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout must not be negative"); //$NON-NLS-1$
+		}
+		this.overflowPolicy = overflowPolicy;
+		this.capacity = capacity;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * The oldest pending event is dropped when the mailbox is full.
+	 * 
+	 * @param capacity
+	 *            number of events that can be pending
+	 * @return a policy that drops the oldest pending event
+	 */
+	public static MailboxPolicy drop(int capacity) {
+		return new MailboxPolicy(OverflowPolicy.DROP_OLDEST, capacity, 0);
+	}
+
+	/**
+	 * Only the latest event is kept pending. A new event replaces the pending
+	 * one and takes over its notification count.
+	 * 
+	 * @return a policy that keeps only the latest event
+	 */
+	public static MailboxPolicy coalesce() {
+		return new MailboxPolicy(OverflowPolicy.COALESCE, 1, 0);
+	}
+
+	/**
+	 * The sending thread waits for room in the mailbox, but not longer than
+	 * the given timeout. If the mailbox is still full the new event is
+	 * dropped.
+	 * 
+	 * @param capacity
+	 *            number of events that can be pending
+	 * @param timeout
+	 *            to wait for room
+	 * @param unit
+	 *            of the timeout
+	 * @return a policy that blocks the sending thread
+	 */
+	public static MailboxPolicy block(int capacity, long timeout,
+			TimeUnit unit) {
+		return new MailboxPolicy(OverflowPolicy.BLOCK, capacity, unit
+				.toNanos(timeout));
+	}
+
+	/**
+	 * @return what happens when the mailbox is full.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return the number of events that can be pending.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return nanoseconds to wait for room with
+	 *         {@link OverflowPolicy#BLOCK}, otherwise <code>0</code>.
+	 */
+	public long getTimeoutNanos() {
+		return timeout;
+	}
+
+	@Override
+	public String toString() {
+		return overflowPolicy + "(" + capacity + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} that a monitor completes when it reached a state of its
+ * lifecycle.
+ * 
+ * <p>
+ * Only the monitor completes it, clients cannot complete or cancel it. It is
+ * cancelled by the monitor if the state is never reached, for example when a
+ * pending restart is stopped.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see ClipboardMonitor#start()
+ * @see ClipboardMonitor#stop()
+ */
+public final class MonitorFuture implements Future<Void> {
+	private static final MonitorFuture COMPLETED = new MonitorFuture();
+
+	static {
+		COMPLETED.complete();
+	}
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile Throwable failure;
+	private volatile boolean cancelled;
+
+	/**
+	 * @return a future that is already completed.
+	 */
+	public static MonitorFuture completed() {
+		return COMPLETED;
+	}
+
+	/**
+	 * Completes this future. Has no effect if it is already done.
+	 */
+	synchronized void complete() {
+		done.countDown();
+	}
+
+	/**
+	 * Completes this future with the given failure. Has no effect if it is
+	 * already done.
+	 * 
+	 * @param failure
+	 *            that {@link #get()} throws wrapped in an
+	 *            {@link ExecutionException}
+	 */
+	synchronized void fail(Throwable failure) {
+		if (!isDone()) {
+			this.failure = failure;
+			done.countDown();
+		}
+	}
+
+	synchronized void abort() {
+		if (!isDone()) {
+			cancelled = true;
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Cannot be cancelled by clients.
+	 * 
+	 * @return <code>false</code>
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isDone() {
+		return 0 == done.getCount();
+	}
+
+	public Void get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private Void result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return null;
+	}
+}
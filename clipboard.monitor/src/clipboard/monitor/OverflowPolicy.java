@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+/**
+ * Decides what happens with a clipboard change when a bounded queue of pending
+ * changes is full.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see AbstractClipboardMonitor#setAsyncDispatch(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+	/**
+	 * The oldest pending change is discarded to make room for the new one.
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new change is merged into the changes that are already pending.
+	 * Listeners will be notified about it with the last pending event.
+	 */
+	COALESCE,
+	/**
+	 * The thread reporting the change waits until there is room in the queue.
+	 */
+	BLOCK
+}
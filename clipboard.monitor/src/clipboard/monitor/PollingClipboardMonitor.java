@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monitors the clipboard by polling a {@link ClipboardProbe}, for platforms
+ * that do not report clipboard changes.
+ * 
+ * <p>
+ * A change is reported when the token of the probe differs from the previous
+ * poll. After a change the probe is polled at the minimum interval. Every poll
+ * without a change doubles the interval, up to the maximum interval. So an
+ * idle clipboard costs about one wake-up per maximum interval. Each interval
+ * is varied randomly by the jitter, so monitors started together do not wake
+ * up together.
+ * 
+ * <p>
+ * A poll that fails is no change. The first token is only known after the
+ * first poll that succeeds, so a probe that fails at first does not cause a
+ * change either. Only the first failure of a streak is logged. A probe that
+ * blocks is interrupted to stop the monitor.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class PollingClipboardMonitor extends AbstractClipboardMonitor {
+	private static final long DEFAULT_MIN_INTERVAL = TimeUnit.MILLISECONDS
+			.toNanos(100);
+	private static final long DEFAULT_MAX_INTERVAL = TimeUnit.SECONDS
+			.toNanos(5);
+	private static final double DEFAULT_JITTER = 0.1;
+
+	private final ClipboardProbe probe;
+	private final Random random = new Random();
+	private volatile long minInterval = DEFAULT_MIN_INTERVAL;
+	private volatile long maxInterval = DEFAULT_MAX_INTERVAL;
+	private volatile double jitter = DEFAULT_JITTER;
+	private volatile long wakeups;
+
+	// Only used by the monitor thread
+	private long token;
+	private boolean failing;
+
+	/**
+	 * @param probe
+	 *            to poll
+	 */
+	public PollingClipboardMonitor(ClipboardProbe probe) {
+		if (null == probe) {
+			throw new IllegalArgumentException("probe must not be null"); //$NON-NLS-1$
+		}
+		this.probe = probe;
+	}
+
+	/**
+	 * Sets the bounds of the polling interval. Takes effect with the next
+	 * poll.
+	 * 
+	 * @param min
+	 *            interval after a change
+	 * @param max
+	 *            interval while the clipboard is idle. Must not be less than
+	 *            <code>min</code>.
+	 * @param unit
+	 *            of <code>min</code> and <code>max</code>
+	 */
+	public void setInterval(long min, long max, TimeUnit unit) {
+		if (min <= 0 || max < min) {
+			throw new IllegalArgumentException(
+					"min must be positive and must not exceed max"); //$NON-NLS-1$
+		}
+		this.minInterval = unit.toNanos(min);
+		this.maxInterval = unit.toNanos(max);
+	}
+
+	/**
+	 * @param jitter
+	 *            fraction of the interval by which it is randomly shortened or
+	 *            lengthened, between <code>0</code> and <code>1</code>.
+	 *            Defaults to <code>0.1</code>.
+	 */
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter >= 1) {
+			throw new IllegalArgumentException(
+					"jitter must be at least 0 and less than 1"); //$NON-NLS-1$
+		}
+		this.jitter = jitter;
+	}
+
+	/**
+	 * @return number of times the probe was polled since this monitor was
+	 *         created.
+	 */
+	public long getWakeupCount() {
+		return wakeups;
+	}
+
+	public void run() {
+		failing = false;
+		try {
+			boolean known = poll();
+			ready();
+			long interval = minInterval;
+			while (pause(vary(interval))) {
+				++wakeups;
+				final long previous = token;
+				final boolean polled = poll();
+				if (polled && known && token != previous) {
+					fireChange();
+					interval = minInterval;
+				} else {
+					interval = Math.min(Math.max(interval, minInterval) * 2,
+							maxInterval);
+				}
+				known |= polled;
+			}
+		} catch (InterruptedException e) {
+			// Stopped while the probe was blocked
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the probe returned a token.
+	 * @throws InterruptedException
+	 *             if the monitor was stopped while the probe was blocked
+	 */
+	private boolean poll() throws InterruptedException {
+		try {
+			token = probe.getChangeToken();
+			failing = false;
+			return true;
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			if (!failing) {
+				failing = true;
+				log("Could not poll the clipboard", e); //$NON-NLS-1$
+			}
+			return false;
+		}
+	}
+
+	private long vary(long interval) {
+		final double jitter = this.jitter;
+		if (0 == jitter) {
+			return interval;
+		}
+		return interval
+				+ (long) ((random.nextDouble() * 2 - 1) * jitter * interval);
+	}
+
+	/**
+	 * Logs a message and a Throwable to the standard system error stream.
+	 * 
+	 * @param message
+	 *            to log
+	 * @param t
+	 *            Throwable that is associated with the message
+	 * @subclass.override
+	 */
+	protected void log(String message, Throwable t) {
+		System.err.println(message);
+		t.printStackTrace(System.err);
+	}
+
+	/**
+	 * Waits until the next poll. The monitor thread is interrupted to stop
+	 * it.
+	 * 
+	 * @param nanos
+	 *            to wait
+	 * @return <code>false</code> if the monitor should stop.
+	 */
+	protected boolean pause(long nanos) {
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import clipboard.monitor.internal.LogLinearHistogram;
+
+/**
+ * Runs the tasks one after another, in the order they were passed to
+ * {@link #execute(Runnable)}, on a single daemon thread that lives from
+ * {@link #start()} to {@link #stop()}.
+ * 
+ * <p>
+ * At most <code>capacity</code> tasks wait to be run. When the worker falls
+ * that far behind, the most recent waiting task is replaced by the new one,
+ * so the latest task always runs. That suits tasks that each process the
+ * complete current state, like the formats of the clipboard after a change.
+ * 
+ * <p>
+ * The executor reports how many tasks wait and how long it took from
+ * {@link #execute(Runnable)} until a task was done.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see DispatchExecutors#serial(String, int)
+ */
+public class SerialDispatchExecutor implements DispatchExecutor {
+	private final String name;
+
+	// Guarded by this
+	private final Runnable[] tasks;
+	private final long[] submitted;
+	private int head;
+	private int count;
+	private Thread worker;
+
+	private volatile long executed;
+	private volatile long replaced;
+	private final LogLinearHistogram latency = new LogLinearHistogram();
+
+	/**
+	 * @param name
+	 *            of the worker thread
+	 * @param capacity
+	 *            maximum number of tasks that wait to be run
+	 */
+	public SerialDispatchExecutor(String name, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive"); //$NON-NLS-1$
+		}
+		this.name = name;
+		this.tasks = new Runnable[capacity];
+		this.submitted = new long[capacity];
+	}
+
+	public synchronized void start() {
+		if (worker != null) {
+			return;
+		}
+		worker = new Thread(name) {
+			@Override
+			public void run() {
+				work(this);
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Queues the task behind the waiting ones. If the queue is full, the
+	 * task replaces the most recent waiting task.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor is not started
+	 */
+	public void execute(Runnable task) {
+		if (null == task) {
+			throw new IllegalArgumentException("task must not be null"); //$NON-NLS-1$
+		}
+		final long now = System.nanoTime();
+		synchronized (this) {
+			if (null == worker) {
+				throw new RejectedExecutionException();
+			}
+			if (count == tasks.length) {
+				// Latest wins
+				final int last = (head + count - 1) % tasks.length;
+				tasks[last] = task;
+				submitted[last] = now;
+				++replaced;
+				return;
+			}
+			final int tail = (head + count) % tasks.length;
+			tasks[tail] = task;
+			submitted[tail] = now;
+			++count;
+			if (1 == count) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stops the worker. Waiting tasks are discarded, a running task is
+	 * interrupted.
+	 */
+	public synchronized void stop() {
+		if (worker != null) {
+			worker.interrupt();
+			worker = null;
+			while (count > 0) {
+				tasks[head] = null;
+				head = (head + 1) % tasks.length;
+				--count;
+			}
+			notifyAll();
+		}
+	}
+
+	private void work(Thread self) {
+		while (true) {
+			final Runnable task;
+			final long since;
+			synchronized (this) {
+				while (worker == self && 0 == count) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Stopped, or interrupted by a task
+					}
+				}
+				if (worker != self) {
+					return;
+				}
+				task = tasks[head];
+				since = submitted[head];
+				tasks[head] = null;
+				head = (head + 1) % tasks.length;
+				--count;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			latency.record(System.nanoTime() - since);
+			++executed;
+			// Do not let an interrupt meant for the task end the worker
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * @return the number of tasks that wait to be run.
+	 */
+	public synchronized int getQueueDepth() {
+		return count;
+	}
+
+	/**
+	 * @return the maximum number of waiting tasks.
+	 */
+	public int getCapacity() {
+		return tasks.length;
+	}
+
+	/**
+	 * @return the number of tasks that were run.
+	 */
+	public long getExecutedCount() {
+		return executed;
+	}
+
+	/**
+	 * @return the number of waiting tasks that were replaced by a newer one.
+	 */
+	public long getReplacedCount() {
+		return replaced;
+	}
+
+	/**
+	 * @return the mean time in nanoseconds from {@link #execute(Runnable)}
+	 *         until a task was done.
+	 */
+	public long getLatencyMean() {
+		return latency.getMean();
+	}
+
+	/**
+	 * @return the 99th percentile of the time in nanoseconds from
+	 *         {@link #execute(Runnable)} until a task was done.
+	 */
+	public long getLatency99th() {
+		return latency.getPercentile(99);
+	}
+
+	/**
+	 * @return the longest time in nanoseconds from
+	 *         {@link #execute(Runnable)} until a task was done.
+	 */
+	public long getLatencyMax() {
+		return latency.getMax();
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + getQueueDepth() + " waiting)"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+/**
+ * Receives clipboard changes from one stage of the dispatch pipeline.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public interface ChangeSink {
+	/**
+	 * @param detected
+	 *            {@link System#nanoTime()} when the (first) change was detected
+	 * @param notifications
+	 *            number of changes this delivery stands for. Greater than
+	 *            <code>1</code> if changes were coalesced.
+	 * @param change
+	 *            count of the (last) change this delivery stands for
+	 */
+	void deliver(long detected, int notifications, long change);
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import clipboard.monitor.Clock;
+
+/**
+ * Merges a burst of clipboard changes into a single delivery.
+ * 
+ * <p>
+ * A burst starts with the first change and ends when no further change arrived
+ * for the quiet window, or when the maximum latency since the first change has
+ * passed, whichever comes first. The burst is then delivered to the
+ * {@link ChangeSink} with the detection time of its first change and the
+ * number of changes it replaced.
+ * 
+ * <p>
+ * Once started, a thread of its own delivers the bursts when they are due.
+ * Without the thread, {@link #flush()} must be called to deliver due bursts.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class Coalescer implements ChangeSink, Runnable {
+	private final long quietWindow;
+	private final long maxLatency;
+	private final Clock clock;
+	private final ChangeSink sink;
+
+	// Guarded by this
+	private int notifications;
+	private long first;
+	private long last;
+	private long change;
+	private boolean running;
+	private Thread thread;
+
+	/**
+	 * @param quietWindow
+	 *            nanoseconds without a change that end a burst
+	 * @param maxLatency
+	 *            nanoseconds after the first change of a burst when it is
+	 *            delivered at the latest
+	 * @param clock
+	 *            to decide when a burst is due. Must be the same time source
+	 *            the detection times are taken from.
+	 * @param sink
+	 *            to deliver the bursts to
+	 */
+	public Coalescer(long quietWindow, long maxLatency, Clock clock,
+			ChangeSink sink) {
+		if (quietWindow < 0 || maxLatency < quietWindow) {
+			throw new IllegalArgumentException(
+					"quiet window must not be negative or exceed the max latency"); //$NON-NLS-1$
+		}
+		this.quietWindow = quietWindow;
+		this.maxLatency = maxLatency;
+		this.clock = clock;
+		this.sink = sink;
+	}
+
+	/**
+	 * Adds changes to the current burst or starts a new one.
+	 */
+	public synchronized void deliver(long detected, int notifications,
+			long change) {
+		if (this.notifications == 0) {
+			first = detected;
+			notify();
+		}
+		this.notifications += notifications;
+		last = detected;
+		this.change = change;
+	}
+
+	/**
+	 * @return the time when the current burst is due, or <code>-1</code> if
+	 *         there is no burst.
+	 */
+	public synchronized long getDeadline() {
+		if (0 == notifications) {
+			return -1;
+		}
+		return Math.min(last + quietWindow, first + maxLatency);
+	}
+
+	/**
+	 * Delivers the current burst if it is due.
+	 * 
+	 * @return <code>true</code> if a burst was delivered.
+	 */
+	public boolean flush() {
+		return flush(false);
+	}
+
+	private boolean flush(boolean force) {
+		final long detected;
+		final int count;
+		final long change;
+		synchronized (this) {
+			if (0 == notifications) {
+				return false;
+			}
+			if (!force && clock.nanoTime() - getDeadline() < 0) {
+				return false;
+			}
+			detected = first;
+			count = notifications;
+			change = this.change;
+			notifications = 0;
+		}
+		sink.deliver(detected, count, change);
+		return true;
+	}
+
+	/**
+	 * Starts the thread that delivers the bursts.
+	 */
+	public synchronized void start() {
+		running = true;
+		thread = new Thread(this, "Clipboard Event Coalescer"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return the thread that delivers the bursts, or <code>null</code> if it
+	 *         was never started.
+	 */
+	public synchronized Thread getThread() {
+		return thread;
+	}
+
+	/**
+	 * Stops the thread. A pending burst is delivered right away.
+	 */
+	public synchronized void stop() {
+		running = false;
+		notify();
+	}
+
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (running && 0 == notifications) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!running) {
+					break;
+				}
+				final long delay = getDeadline() - clock.nanoTime();
+				if (delay > 0) {
+					try {
+						wait(delay / 1000000L, (int) (delay % 1000000L));
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+			}
+			try {
+				flush(false);
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+		try {
+			flush(true);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+}
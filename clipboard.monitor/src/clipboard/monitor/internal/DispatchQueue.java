@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import clipboard.monitor.OverflowPolicy;
+
+/**
+ * Bounded single-producer ring buffer of clipboard changes with its own
+ * consumer thread.
+ * 
+ * <p>
+ * The producer is the thread that detects the changes.
+ * {@link #offer(long, long)} only writes the detection time and the count of
+ * the change into a preallocated slot and returns. The
+ * consumer thread takes the slots in order and hands them to the
+ * {@link ChangeSink}.
+ * 
+ * <p>
+ * What happens when the ring is full is decided by the {@link OverflowPolicy}.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class DispatchQueue implements Runnable {
+	private final long[] slots;
+	private final long[] changes;
+	private final int mask;
+	private final OverflowPolicy policy;
+	private final ChangeSink sink;
+
+	/** Next slot to consume. Also advanced by the producer to drop a slot. */
+	private final AtomicLong head = new AtomicLong();
+	/** Next slot to fill. Only written by the producer. */
+	private volatile long tail;
+
+	private final AtomicInteger merged = new AtomicInteger();
+	/** Count of the last change that was merged. */
+	private volatile long mergedChange;
+	/** Detection time of the last change that was merged. */
+	private volatile long mergedDetected;
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean running;
+	private volatile Thread consumer;
+	private volatile boolean consumerWaiting;
+	private volatile Thread producer;
+	private volatile boolean producerWaiting;
+
+	/**
+	 * @param capacity
+	 *            minimum number of pending changes. Rounded up to the next
+	 *            power of two.
+	 * @param policy
+	 *            to apply when the queue is full
+	 * @param sink
+	 *            to deliver the changes to
+	 */
+	public DispatchQueue(int capacity, OverflowPolicy policy,
+			ChangeSink sink) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive"); //$NON-NLS-1$
+		}
+		if (null == policy || null == sink) {
+			throw new IllegalArgumentException(
+					"policy and sink must not be null"); //$NON-NLS-1$
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.slots = new long[size];
+		this.changes = new long[size];
+		this.mask = size - 1;
+		this.policy = policy;
+		this.sink = sink;
+	}
+
+	/**
+	 * Starts the consumer thread.
+	 */
+	public void start() {
+		running = true;
+		Thread thread = new Thread(this, "Clipboard Event Dispatcher"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		consumer = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops the consumer thread after it has delivered the pending changes.
+	 * Does not wait for it.
+	 */
+	public void stop() {
+		running = false;
+		Thread thread = consumer;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+		thread = producer;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * @return the consumer thread, or <code>null</code> if it was never
+	 *         started.
+	 */
+	public Thread getThread() {
+		return consumer;
+	}
+
+	/**
+	 * Must only be called from the producer thread.
+	 * 
+	 * @param detected
+	 *            {@link System#nanoTime()} of the change
+	 * @param change
+	 *            count of the change
+	 */
+	public void offer(long detected, long change) {
+		final long t = tail;
+		long h;
+		while (t - (h = head.get()) > mask) {
+			switch (policy) {
+			case COALESCE:
+				mergedDetected = detected;
+				mergedChange = change;
+				merged.incrementAndGet();
+				return;
+			case DROP_OLDEST:
+				if (head.compareAndSet(h, h + 1)) {
+					dropped.incrementAndGet();
+				}
+				break;
+			case BLOCK:
+				if (!running) {
+					dropped.incrementAndGet();
+					return;
+				}
+				producer = Thread.currentThread();
+				producerWaiting = true;
+				if (t - head.get() > mask) {
+					LockSupport.parkNanos(1000000L);
+				}
+				producerWaiting = false;
+				break;
+			}
+		}
+		slots[(int) (t & mask)] = detected;
+		changes[(int) (t & mask)] = change;
+		tail = t + 1;
+		if (consumerWaiting) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * @return number of changes waiting for the consumer.
+	 */
+	public int size() {
+		return (int) (tail - head.get());
+	}
+
+	/**
+	 * @return number of changes that were discarded because the queue was
+	 *         full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public void run() {
+		while (true) {
+			final long h = head.get();
+			if (h == tail) {
+				// Changes merged while the last slot was taken
+				final int count = merged.getAndSet(0);
+				if (count > 0) {
+					deliver(mergedDetected, count, mergedChange);
+					continue;
+				}
+				if (!running) {
+					return;
+				}
+				consumerWaiting = true;
+				if (head.get() == tail && running) {
+					LockSupport.park();
+				}
+				consumerWaiting = false;
+				continue;
+			}
+			final long detected = slots[(int) (h & mask)];
+			long change = changes[(int) (h & mask)];
+			if (!head.compareAndSet(h, h + 1)) {
+				// The producer dropped this slot while we were reading it
+				continue;
+			}
+			if (producerWaiting) {
+				LockSupport.unpark(producer);
+			}
+			// The changes were merged when the queue was full, so they go with
+			// the last slot. It may have been added after them.
+			final int count = h + 1 == tail ? merged.getAndSet(0) : 0;
+			if (count > 0) {
+				change = Math.max(change, mergedChange);
+			}
+			deliver(detected, 1 + count, change);
+		}
+	}
+
+	private void deliver(long detected, int notifications, long change) {
+		try {
+			sink.deliver(detected, notifications, change);
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import clipboard.monitor.DispatchExecutor;
+
+/**
+ * Runs the tasks on the calling thread.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class InlineExecutor implements DispatchExecutor {
+	private volatile boolean running;
+
+	public void start() {
+		running = true;
+	}
+
+	public void execute(Runnable task) {
+		if (!running) {
+			throw new RejectedExecutionException();
+		}
+		task.run();
+	}
+
+	public void stop() {
+		running = false;
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values with a fixed set of buckets.
+ * 
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets of equal
+ * width, so a recorded value is off by at most 12.5%. Recording only
+ * increments a bucket and never locks or allocates.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class LogLinearHistogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - SUB_BITS))
+				& (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long lowerBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		final int sub = index % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		return lowerBound(index)
+				+ (1L << (index / SUB_BUCKETS - 1)) - 1;
+	}
+
+	/**
+	 * @param value
+	 *            to record. Negative values are recorded as <code>0</code>.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexOf(value));
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of recorded values.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the largest recorded value, or <code>0</code> if nothing was
+	 *         recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values, or <code>0</code> if
+	 *         nothing was recorded.
+	 */
+	public long getMean() {
+		final long count = getCount();
+		return 0 == count ? 0 : sum.get() / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            between <code>0</code> and <code>100</code>
+	 * @return the upper bound of the bucket that contains the given
+	 *         percentile, but not more than the largest recorded value.
+	 *         <code>0</code> if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		final long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (0 == count) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(count * percentile
+				/ 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Adds the values recorded in this histogram to the given one.
+	 * 
+	 * @param target
+	 *            histogram to add the values to
+	 */
+	public void addTo(LogLinearHistogram target) {
+		for (int i = 0; i < BUCKETS; ++i) {
+			final long count = counts.get(i);
+			if (count != 0) {
+				target.counts.addAndGet(i, count);
+			}
+		}
+		target.sum.addAndGet(sum.get());
+		final long value = max.get();
+		long current;
+		while (value > (current = target.max.get())) {
+			if (target.max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Discards the recorded values. Values recorded meanwhile may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts.set(i, 0);
+		}
+		sum.set(0);
+		max.set(0);
+	}
+}
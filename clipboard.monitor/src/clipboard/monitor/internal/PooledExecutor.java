@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clipboard.monitor.DispatchExecutor;
+
+/**
+ * Runs the tasks on a fixed number of daemon threads. The threads are created
+ * on {@link #start()} and end on {@link #stop()}.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class PooledExecutor implements DispatchExecutor {
+	private final int workers;
+	private final String name;
+	private volatile ExecutorService executor;
+
+	/**
+	 * @param workers
+	 *            number of threads, at least <code>1</code>
+	 * @param name
+	 *            prefix of the thread names
+	 */
+	public PooledExecutor(int workers, String name) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("workers must be positive"); //$NON-NLS-1$
+		}
+		this.workers = workers;
+		this.name = name;
+	}
+
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		final AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + " " //$NON-NLS-1$
+						+ count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void execute(Runnable task) {
+		final ExecutorService executor = this.executor;
+		if (null == executor) {
+			throw new RejectedExecutionException();
+		}
+		executor.execute(task);
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
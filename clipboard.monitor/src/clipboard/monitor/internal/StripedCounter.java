@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contending for the same
+ * cache line.
+ * 
+ * <p>
+ * The count is spread over a number of cells. A thread always updates the
+ * cell picked by its id. Reading the count sums up all cells, so it is more
+ * expensive than updating it.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class StripedCounter {
+	/** Cells are this many longs apart, so each has a cache line of its own. */
+	private static final int PADDING = 16;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	/**
+	 * Creates a counter with a cell for every processor, rounded up to a
+	 * power of two.
+	 */
+	public StripedCounter() {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors()) {
+			stripes <<= 1;
+		}
+		cells = new AtomicLongArray(stripes * PADDING);
+		mask = stripes - 1;
+	}
+
+	/**
+	 * Adds one to the count.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * @param delta
+	 *            to add to the count
+	 */
+	public void add(long delta) {
+		final long id = Thread.currentThread().getId();
+		final int stripe = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		cells.addAndGet(stripe * PADDING, delta);
+	}
+
+	/**
+	 * @return the count. Updates made meanwhile may be missing.
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the count to <code>0</code>. Updates made meanwhile may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			cells.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import clipboard.monitor.DispatchExecutor;
+
+/**
+ * Starts a new thread for every task.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public class ThreadPerTaskExecutor implements DispatchExecutor {
+	private final ThreadFactory factory;
+	private volatile boolean running;
+
+	/**
+	 * @param factory
+	 *            that creates the thread for a task
+	 */
+	public ThreadPerTaskExecutor(ThreadFactory factory) {
+		this.factory = factory;
+	}
+
+	public void start() {
+		running = true;
+	}
+
+	public void execute(Runnable task) {
+		if (!running) {
+			throw new RejectedExecutionException();
+		}
+		factory.newThread(task).start();
+	}
+
+	public void stop() {
+		running = false;
+	}
+}
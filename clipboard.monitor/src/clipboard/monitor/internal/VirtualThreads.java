@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later. The bundle is compiled
+ * for older Java versions, so the API is looked up by reflection.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ */
+public final class VirtualThreads {
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual"); //$NON-NLS-1$
+			Class<?> builder = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+			name = builder.getMethod("name", String.class, long.class); //$NON-NLS-1$
+			factory = builder.getMethod("factory"); //$NON-NLS-1$
+			// Fails on Java 19 and 20 unless preview features are enabled
+			ofVirtual.invoke(null);
+		} catch (Exception e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return <code>true</code> if the Java version supports virtual threads.
+	 */
+	public static boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param name
+	 *            prefix of the thread names. The threads are numbered starting
+	 *            with <code>1</code>.
+	 * @return a factory for virtual threads or <code>null</code> if the Java
+	 *         version does not support them.
+	 */
+	public static ThreadFactory newFactory(String name) {
+		if (!isSupported()) {
+			return null;
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = NAME.invoke(builder, name + " ", 1L); //$NON-NLS-1$
+			return (ThreadFactory) FACTORY.invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
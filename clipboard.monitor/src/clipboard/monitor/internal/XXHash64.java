@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Philipp Kursawe.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *   Philipp Kursawe (phil.kursawe@gmail.com) - initial API and implementation
+ ******************************************************************************/
+package clipboard.monitor.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The 64 bit variant of the xxHash algorithm, a fast non-cryptographic hash.
+ * 
+ * <p>
+ * Buffers are read in place, with absolute reads from a little endian
+ * duplicate, so neither their bytes are copied nor their position is changed.
+ * Hashes can be chained by passing the result of one call as the seed of the
+ * next.
+ * 
+ * @author <a href="mailto:phil.kursawe@gmail.com">Philipp Kursawe</a>
+ * @see <a href="https://github.com/Cyan4973/xxHash">xxHash</a>
+ */
+public final class XXHash64 {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private XXHash64() {
+	}
+
+	/**
+	 * @param buffer
+	 *            whose bytes from its position to its limit are hashed
+	 * @param seed
+	 *            of the hash
+	 * @return the hash of the remaining bytes
+	 */
+	public static long hash(ByteBuffer buffer, long seed) {
+		final ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int position = in.position();
+		final int end = in.limit();
+		long hash;
+		if (end - position >= 32) {
+			long v1 = seed + PRIME1 + PRIME2;
+			long v2 = seed + PRIME2;
+			long v3 = seed;
+			long v4 = seed - PRIME1;
+			final int last = end - 32;
+			do {
+				v1 = round(v1, in.getLong(position));
+				v2 = round(v2, in.getLong(position + 8));
+				v3 = round(v3, in.getLong(position + 16));
+				v4 = round(v4, in.getLong(position + 24));
+				position += 32;
+			} while (position <= last);
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+					+ Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = merge(hash, v1);
+			hash = merge(hash, v2);
+			hash = merge(hash, v3);
+			hash = merge(hash, v4);
+		} else {
+			hash = seed + PRIME5;
+		}
+		hash += end - in.position();
+		while (position + 8 <= end) {
+			hash ^= round(0, in.getLong(position));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+			position += 8;
+		}
+		if (position + 4 <= end) {
+			hash ^= (in.getInt(position) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			position += 4;
+		}
+		while (position < end) {
+			hash ^= (in.get(position) & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+			++position;
+		}
+		return avalanche(hash);
+	}
+
+	/**
+	 * @param value
+	 *            whose 8 bytes are hashed
+	 * @param seed
+	 *            of the hash
+	 * @return the hash of the 8 little endian bytes of the given value
+	 */
+	public static long hash(long value, long seed) {
+		long hash = seed + PRIME5 + 8;
+		hash ^= round(0, value);
+		hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		return avalanche(hash);
+	}
+
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long merge(long hash, long value) {
+		hash ^= round(0, value);
+		return hash * PRIME1 + PRIME4;
+	}
+
+	private static long avalanche(long hash) {
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+}